@@ -25,13 +25,28 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.gfork.helpers.LinkableAdapter;
+import org.gfork.internal.types.CallFrame;
+import org.gfork.internal.types.FrameWriter;
+import org.gfork.internal.types.MemoCache;
+import org.gfork.internal.types.MethodTable;
 import org.gfork.sample.swing.DukePaintTask;
+import org.gfork.types.CacheStats;
+import org.gfork.types.RemoteCallException;
 
 /**
  * This abstract task class implements a listener
@@ -40,6 +55,15 @@ import org.gfork.sample.swing.DukePaintTask;
  * to create a callable task fork.
  * 
  * For a detailed example see {@link DukePaintTask}.
+ * <p>
+ * Per default calls are executed one after the other by a single call thread, the call
+ * listener thread keeps reading frames meanwhile, e.g. event credits of the parent.
+ * Use {@link #setDispatchThreads(int)} to execute calls concurrently on a thread pool
+ * of the task process, methods annotated with {@link SerializedCall} are still executed 
+ * one at a time in arrival order.
+ * <p>
+ * The task can push events to the parent by {@link #publish(Serializable)} instead 
+ * of being polled, see {@link ForkCallable#addEventListener(ForkCallable.EventListener)}.
  * 
  * @author Gerald Ehmayer
  *
@@ -61,6 +85,18 @@ public abstract class CallableTask extends LinkableAdapter implements Runnable {
 	private transient boolean ready;
 	private transient Object lock;
 
+	private int dispatchThreads;
+	private int streamResetFrames = FrameWriter.DEFAULT_RESET_FRAMES;
+	private long streamResetBytes = FrameWriter.DEFAULT_RESET_BYTES;
+	private transient FrameWriter replyWriter;
+	private int eventWindow = 64;
+	private transient Semaphore eventCredits;
+	private transient AtomicLong nextEventId;
+	private transient MemoCache memoCache;
+	private transient ExecutorService dispatcher;
+	private transient ExecutorService serializedDispatcher;
+	private transient volatile MethodTable methodTable;
+
 	/**
 	 * Creates and starts the call listener.
 	 */
@@ -74,7 +110,13 @@ public abstract class CallableTask extends LinkableAdapter implements Runnable {
 		this.predWriteStream = super.predWriteStream;
 		
 		oin = new ObjectInputStream(this.predReadStream);
-		oout = new ObjectOutputStream(this.predWriteStream);
+		replyWriter = new FrameWriter(this.predWriteStream, streamResetFrames, streamResetBytes);
+		oout = replyWriter.getObjectOutputStream();
+		eventCredits = new Semaphore(eventWindow);
+		nextEventId = new AtomicLong();
+		memoCache = new MemoCache();
+		dispatcher = createDispatcher();
+		serializedDispatcher = Executors.newSingleThreadExecutor(daemonThreads("jforkSerializedCalls"));
 		
 		final Thread reader = new Thread("jforkCallableTaskListener") {
 			@Override
@@ -86,29 +128,18 @@ public abstract class CallableTask extends LinkableAdapter implements Runnable {
 					}
 					while (!stop) {
 						log.fine("call listener waits for call...");
-						final String methodName = (String) oin.readObject();
-						final Boolean withArgs = (Boolean) oin.readObject();
-						final Object retVal;
-						final Method method;
-						final Object target = getImplementingObject();
-						if (withArgs) {
-							final Class<?>[] types = (Class<?>[]) oin.readObject();
-							final Object[] values = (Object[]) oin.readObject();
-							log.fine(String.format("call '%s' of class %s with %d argument(s)", methodName, target.getClass(), values.length));
-							method = target.getClass().getMethod(methodName, types);
-							retVal = method.invoke(target, values);
-						} else {
-							log.fine(String.format("call '%s' of class %s with no arguments", methodName, target.getClass()));
-							method = target.getClass().getMethod(methodName);
-							retVal = method.invoke(target);
-						}
-						log.fine(String.format("return value '%s' of type %s", retVal, method.getReturnType()));
-						if (method.getReturnType() != void.class) {
-							oout.writeObject(retVal);
+						final CallFrame call = (CallFrame) oin.readObject();
+						if (call.getType() == CallFrame.Type.METHODS) {
+							writeReply(CallFrame.returnValue(call.getId(), getMethodTable().getSignatures()));
+						} else if (call.getType() == CallFrame.Type.BATCH) {
+							dispatchBatch(call);
+						} else if (call.getType() == CallFrame.Type.CREDIT) {
+							eventCredits.release((Integer) call.getValue());
+						} else if (call.getType() == CallFrame.Type.INVALIDATE) {
+							memoCache.invalidate(call.getMethodName());
 						} else {
-							oout.writeObject("void");
+							dispatch(call);
 						}
-						oout.flush();
 					}
 				} catch (final SocketException e) {
 					log.log(Level.WARNING, "call listener socket", e);
@@ -117,6 +148,10 @@ public abstract class CallableTask extends LinkableAdapter implements Runnable {
 					log.log(Level.SEVERE, "call listener error", e);
 					shutdown();
 				}
+				if (dispatcher != null) {
+					dispatcher.shutdown();
+				}
+				serializedDispatcher.shutdown();
 				log.info("call listener stopped");
 			}
 			
@@ -124,6 +159,269 @@ public abstract class CallableTask extends LinkableAdapter implements Runnable {
 		reader.start();
 	}
 
+	/**
+	 * Defines the number of threads which execute incoming calls concurrently, must be called 
+	 * before the fork is executed. Default is 0: calls are executed one after the other by 
+	 * a single call thread.
+	 * 
+	 * @param threads size of the call dispatch thread pool
+	 */
+	public void setDispatchThreads(final int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("Number of dispatch threads must not be negative.");
+		}
+		this.dispatchThreads = threads;
+	}
+
+	public int getDispatchThreads() {
+		return dispatchThreads;
+	}
+
+	/**
+	 * Defines when the reply stream to the parent is reset, must be called before the fork is 
+	 * created. Without resets the object streams of both processes keep every reply ever sent. 
+	 * Default is a reset after {@link FrameWriter#DEFAULT_RESET_FRAMES} replies or 
+	 * {@link FrameWriter#DEFAULT_RESET_BYTES} bytes. The call stream of the parent is configured by 
+	 * {@link ForkCallable#setStreamReset(int, long)}.
+	 * 
+	 * @param frames reset after this number of replies, 1 encodes every reply on its own, 0 for no limit
+	 * @param bytes reset after this number of bytes, 0 for no limit
+	 */
+	public void setStreamReset(final int frames, final long bytes) {
+		if (frames < 0 || bytes < 0) {
+			throw new IllegalArgumentException("Reset limits must not be negative.");
+		}
+		this.streamResetFrames = frames;
+		this.streamResetBytes = bytes;
+	}
+
+	/**
+	 * Defines how many published events may wait for the parent, must be called before the 
+	 * fork is created. Default is 64. See {@link #publish(Serializable)}.
+	 */
+	public void setEventWindow(final int events) {
+		if (events < 1) {
+			throw new IllegalArgumentException("Event window must be positive.");
+		}
+		this.eventWindow = events;
+	}
+
+	public int getEventWindow() {
+		return eventWindow;
+	}
+
+	/**
+	 * Publishes an event to the parent process which receives it by its 
+	 * {@link ForkCallable.EventListener}s. At most {@link #getEventWindow()} events are
+	 * sent which the parent did not consume yet, then this method blocks until the parent
+	 * has caught up.
+	 * 
+	 * @param event event, must not be null
+	 * @throws IOException writing the event failed
+	 * @throws InterruptedException
+	 */
+	public void publish(final Serializable event) throws IOException, InterruptedException {
+		if (event == null) {
+			throw new IllegalArgumentException("Null not allowed for parameter event");
+		}
+		eventCredits.acquire();
+		writeReply(CallFrame.event(nextEventId.incrementAndGet(), event));
+	}
+
+	/**
+	 * Publishes an event like {@link #publish(Serializable)} but waits at most the given time
+	 * for the parent to catch up.
+	 * 
+	 * @return false if the event was not published because the parent did not consume events in time
+	 * @throws IOException writing the event failed
+	 * @throws InterruptedException
+	 */
+	public boolean publish(final Serializable event, final long timeout, final TimeUnit unit)
+			throws IOException, InterruptedException {
+		if (event == null) {
+			throw new IllegalArgumentException("Null not allowed for parameter event");
+		}
+		if (!eventCredits.tryAcquire(timeout, unit)) {
+			return false;
+		}
+		writeReply(CallFrame.event(nextEventId.incrementAndGet(), event));
+		return true;
+	}
+
+	/**
+	 * @return counters of the task process cache of {@link Memoize} methods with child cache
+	 */
+	public CacheStats getCacheStats() {
+		return memoCache.getStats();
+	}
+
+	public int getStreamResetFrames() {
+		return streamResetFrames;
+	}
+
+	public long getStreamResetBytes() {
+		return streamResetBytes;
+	}
+
+	/**
+	 * Creates the executor of concurrent calls, invoked once in the task process. 
+	 * Override it to use a different executor, e.g. virtual threads on Java 21
+	 * ({@code Executors.newVirtualThreadPerTaskExecutor()}).
+	 * 
+	 * @return executor for calls or null to execute calls one after the other by a single call thread
+	 */
+	protected ExecutorService createDispatcher() {
+		if (dispatchThreads == 0) {
+			return null;
+		}
+		return Executors.newFixedThreadPool(dispatchThreads, daemonThreads("jforkCallDispatch"));
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private void dispatch(final CallFrame call) throws IOException {
+		final ExecutorService executor;
+		if (dispatcher == null) {
+			executor = serializedDispatcher;
+		} else {
+			final Method method;
+			try {
+				method = resolve(getImplementingObject(), call);
+			} catch (final NoSuchMethodException e) {
+				writeReply(CallFrame.exception(call.getId(), RemoteCallException.of(e)));
+				return;
+			}
+			executor = method.isAnnotationPresent(SerializedCall.class) ? serializedDispatcher : dispatcher;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeReply(invoke(call));
+				} catch (final IOException e) {
+					log.log(Level.SEVERE, "writing call reply failed", e);
+					shutdown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Executes the calls of a batch one after the other and replies all results together.
+	 * The whole batch is one task of the single call thread or, with dispatch threads, of the 
+	 * dispatcher unless any call of the batch is a {@link SerializedCall}.
+	 */
+	private void dispatchBatch(final CallFrame batch) {
+		final Runnable execution = new Runnable() {
+			@Override
+			public void run() {
+				final CallFrame[] calls = batch.getFrames();
+				final CallFrame[] replies = new CallFrame[calls.length];
+				for (int i = 0; i < calls.length; i++) {
+					replies[i] = invoke(calls[i]);
+				}
+				try {
+					writeReply(CallFrame.batch(batch.getId(), replies));
+				} catch (final IOException e) {
+					log.log(Level.SEVERE, "writing batch reply failed", e);
+					shutdown();
+				}
+			}
+		};
+		if (dispatcher == null) {
+			serializedDispatcher.execute(execution);
+			return;
+		}
+		ExecutorService executor = dispatcher;
+		for (final CallFrame call : batch.getFrames()) {
+			try {
+				if (resolve(getImplementingObject(), call).isAnnotationPresent(SerializedCall.class)) {
+					executor = serializedDispatcher;
+				}
+			} catch (final NoSuchMethodException e) {
+				// replied as exception by invoke
+			}
+		}
+		executor.execute(execution);
+	}
+
+	private MethodTable getMethodTable() {
+		if (methodTable == null) {
+			methodTable = new MethodTable(getImplementingObject().getClass());
+		}
+		return methodTable;
+	}
+
+	private Method resolve(final Object target, final CallFrame call) throws NoSuchMethodException {
+		if (call.getMethodId() >= 0) {
+			return getMethodTable().getMethod(call.getMethodId());
+		}
+		if (call.getArgs() != null) {
+			return target.getClass().getMethod(call.getMethodName(), call.getParameterTypes());
+		}
+		return target.getClass().getMethod(call.getMethodName());
+	}
+
+	/**
+	 * Invokes the called method, an exception thrown by the method is returned to the caller.
+	 * 
+	 * @return reply frame of the call
+	 */
+	private CallFrame invoke(final CallFrame call) {
+		final Object target = getImplementingObject();
+		try {
+			final Method method = resolve(target, call);
+			final Memoize memoize = method.getAnnotation(Memoize.class);
+			final String signature = memoize != null && memoize.childCache() ? MethodTable.signature(method) : null;
+			if (signature != null) {
+				final Object cached = memoCache.get(signature, call.getArgs());
+				if (cached != null) {
+					log.fine(String.format("call %d '%s' returns cached value", call.getId(), signature));
+					return CallFrame.returnValue(call.getId(), cached);
+				}
+			}
+			final Object retVal;
+			if (call.getMethodId() >= 0) {
+				log.fine(String.format("call %d method %d '%s' of class %s", call.getId(), call.getMethodId(),
+						method.getName(), target.getClass()));
+				retVal = getMethodTable().invoke(call.getMethodId(), target, call.getArgs());
+			} else if (call.getArgs() != null) {
+				log.fine(String.format("call %d '%s' of class %s with %d argument(s)", call.getId(),
+						call.getMethodName(), target.getClass(), call.getArgs().length));
+				retVal = method.invoke(target, call.getArgs());
+			} else {
+				log.fine(String.format("call %d '%s' of class %s with no arguments", call.getId(),
+						call.getMethodName(), target.getClass()));
+				retVal = method.invoke(target);
+			}
+			log.fine(String.format("return value '%s' of type %s", retVal, method.getReturnType()));
+			if (signature != null && retVal != null) {
+				memoCache.put(signature, memoize, call.getArgs(), retVal);
+			}
+			return CallFrame.returnValue(call.getId(), method.getReturnType() != void.class ? retVal : null);
+		} catch (final InvocationTargetException e) {
+			log.log(Level.FINE, "called method threw exception", e.getCause());
+			return CallFrame.exception(call.getId(), RemoteCallException.of(e.getCause()));
+		} catch (final Exception e) {
+			log.log(Level.WARNING, String.format("call '%s' failed", call.getMethodName()), e);
+			return CallFrame.exception(call.getId(), RemoteCallException.of(e));
+		}
+	}
+
+	private void writeReply(final CallFrame reply) throws IOException {
+		replyWriter.write(reply);
+	}
+
 	/**
 	 * Stops the call listener and the task and ends the fork process.
 	 */
@@ -0,0 +1,29 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+/**
+ * A link of a {@link ForkChain}: either a {@link ForkLink}, which runs its task in a
+ * separate process, or an {@link InProcessLink}, which runs its task on a thread 
+ * of the parent process.
+ */
+public interface ChainLink {
+}
@@ -38,11 +38,18 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
 
 import org.gfork.helpers.ForkListenerAdapter;
 import org.gfork.internal.SysPropTask;
 import org.gfork.internal.remote.client.ForkClient;
 import org.gfork.internal.run.ForkRunner;
+import org.gfork.internal.stream.ClassLoaderObjectInputStream;
 import org.gfork.remote.server.ForkServer;
 import org.gfork.types.MethodArgumentsException;
 
@@ -87,6 +94,16 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 
 	private static Properties remoteSystemProperties;
 
+	// executes the blocking kill of local forks for killAsync, idle threads end
+	private static final ExecutorService asyncWorkers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "jforkAsync");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	protected File taskFile;
 
 	protected Process exec;
@@ -143,6 +160,9 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 
 	private boolean processListenersInitiated;
 
+	// completed with the exit value by the thread waiting for the local process
+	private CompletableFuture<Integer> exit;
+
 	private String classpath;
 
 	private TASK_TYPE task;
@@ -342,6 +362,9 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		this.workingDir = workingDirFile;
 	}
 
+	/**
+	 * @param classpath class path of the task process, default is the class path of this JVM
+	 */
 	public void setClasspath(final String classpath) {
 		this.classpath = classpath;
 	}
@@ -374,6 +397,7 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		ProcessBuilder pb = new ProcessBuilder(createCmdArray());
 		pb.directory(workingDir);
 		exec = pb.start();
+		exit = new CompletableFuture<Integer>();
 
 		taskStdOutReader = new BufferedReader(new InputStreamReader(exec.getInputStream()));
 		taskErrorReader = new BufferedReader(new InputStreamReader(exec.getErrorStream()));
@@ -383,6 +407,9 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 
 	/**
 	 * Executes a remote fork task. Connects to host[:port] of a remote running {@link ForkServer}.
+	 * The class path, see {@link #setClasspath(String)}, default is the class path of this JVM, is
+	 * shipped to the server: jars and directories the server hasn't cached yet are uploaded, the
+	 * remote task process runs with the cached copies.
 	 * @param host {@link ForkServer} host, use "host:port" if not using default server listening port.
 	 * @throws Exception
 	 */
@@ -391,12 +418,59 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 			throw new IllegalStateException(FORK_IS_ALREADY_EXECUTING);
 		}
 		
+		connect(host);
+		client.run(task);
+	}
+
+	/**
+	 * Non-blocking variant of {@link #execute(String)}, only connecting to a server without
+	 * a pooled connection blocks.
+	 * 
+	 * @return completes when the remote task process is started
+	 */
+	public synchronized CompletableFuture<Void> executeAsync(final String host) {
+		if (isExecuting()) {
+			throw new IllegalStateException(FORK_IS_ALREADY_EXECUTING);
+		}
+		try {
+			connect(host);
+		} catch (final Exception e) {
+			final CompletableFuture<Void> failed = new CompletableFuture<Void>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return client.runAsync(task);
+	}
+
+	private void connect(final String host) throws Exception {
 		client = ForkClient.connect(host);
-		client.setVmOptionsForAll(new ArrayList<String>(vmOptionsForAll));
+		client.setVmOptionsForAll(vmOptionsForAll == null ? null : new ArrayList<String>(vmOptionsForAll));
 		client.setVmOptions(vmOptions == null ? null : new ArrayList<String>(vmOptions));
+		client.setClasspath(classpath != null ? classpath : System.getProperty("java.class.path"));
 		client.setMethod(method);
 		client.setMethodArgs(methodArgs);
-		client.run(task);
+		client.setLinkArgs(createRemoteLinkArgs());
+		client.setOutputListener(new ForkClient.OutputListener() {
+			@Override
+			public void stdOut(final String text) throws IOException {
+				appendStdOut(text);
+			}
+
+			@Override
+			public void stdErr(final String text) throws IOException {
+				appendStdErr(text);
+			}
+		});
+	}
+
+	/**
+	 * Position of a remote fork waiting for a free slot of the {@link ForkServer}, the
+	 * remote task process is started when {@link #executeAsync(String)} completes.
+	 * 
+	 * @return queue position, 1 is next, 0 if not waiting
+	 */
+	public int getQueuePosition() {
+		return client == null ? 0 : client.getQueuePosition();
 	}
 
 	/**
@@ -430,14 +504,19 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 	 *             the fork was not started yet, it is required to invoke
 	 *             {@link #execute()} at first
 	 */
-	public synchronized int waitFor() throws InterruptedException, IllegalAccessException {
+	public int waitFor() throws InterruptedException, IllegalAccessException {
 		if (client != null) {
-			return client.waitFor();
+			synchronized (this) {
+				return client.waitFor();
+			}
 		}
+		// signal before locking this fork, the stdout reader thread locks in reverse order
 		synchronized (waitForSignal) {
 			processListenersInitiated = true;
 		}
-		return waitForInternal(false);
+		synchronized (this) {
+			return waitForInternal(false);
+		}
 	}
 
 	private int waitForInternal(final boolean skipJoinOutThread) throws InterruptedException, IllegalAccessException {
@@ -455,7 +534,11 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		final int retVal = exec.waitFor();
 
 		finished = true; // also used to avoid recursive calls
-		processListeners();
+		try {
+			processListeners();
+		} finally {
+			exit.complete(retVal);
+		}
 
 		return retVal;
 	}
@@ -490,6 +573,14 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		if (client != null) {
 			return (RETURN_TYPE) client.getReturnValue();
 		}
+		return readReturnValue();
+	}
+
+	/**
+	 * Reads the return value of the finished local task process.
+	 */
+	@SuppressWarnings("unchecked")
+	private RETURN_TYPE readReturnValue() throws IllegalAccessException {
 		if (isReturnTypeVoid()) {
 			throw new IllegalAccessException(
 					String.format("Return value type of method '%s' is void.", method.getName()));
@@ -504,7 +595,7 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 			FileInputStream fin;
 			try {
 				fin = new FileInputStream(methodRetValFile);
-				final ObjectInputStream oin = new ObjectInputStream(fin);
+				final ObjectInputStream oin = new ClassLoaderObjectInputStream(fin, getTaskClassLoader());
 				returnValue = (RETURN_TYPE) oin.readObject();
 				oin.close();
 				return returnValue;
@@ -585,7 +676,7 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		}
 		if (exceptionFile.exists() && exceptionFile.length() > 0) {
 			final FileInputStream fin = new FileInputStream(exceptionFile);
-			final ObjectInputStream oin = new ObjectInputStream(fin);
+			final ObjectInputStream oin = new ClassLoaderObjectInputStream(fin, getTaskClassLoader());
 			this.exception = (Throwable) oin.readObject();
 			fin.close();
 			return exception;
@@ -604,10 +695,9 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 	 * @throws IllegalAccessException
 	 */
 	public String getStdErr() throws InterruptedException, IllegalAccessException {
-		if (client != null) {
-			return client.getStdErr();
+		synchronized (stdErrText) {
+			return stdErrText.toString();
 		}
-		return stdErrText.toString();
 	}
 
 	/**
@@ -624,7 +714,8 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 	/**
 	 * Causes the Fork object to write all standard output from the task process
 	 * to the given writer. The writer will be closed when the process is
-	 * finished.
+	 * finished. The output of a remote fork is streamed by the server while
+	 * the task runs.
 	 * 
 	 * @param stdErrWriter
 	 */
@@ -645,9 +736,6 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 	 * @throws IllegalAccessException
 	 */
 	public String getStdOut() throws InterruptedException, IllegalAccessException {
-		if (client != null) {
-			return client.getStdOut();
-		}
 		synchronized (stdOutText) {
 			return stdOutText.toString();
 		}
@@ -690,7 +778,8 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 	/**
 	 * Causes the Fork object to write all standard output from the task process
 	 * to the given writer. The writer will be closed when the process is
-	 * finished.
+	 * finished. The output of a remote fork is streamed by the server while
+	 * the task runs.
 	 * 
 	 * @param stdOutWriter
 	 */
@@ -718,9 +807,17 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		if (client != null) {
 			return (TASK_TYPE) client.getTask();
 		}
+		return readTask();
+	}
+
+	/**
+	 * Reads the task object of the finished local task process.
+	 */
+	@SuppressWarnings("unchecked")
+	private TASK_TYPE readTask() throws IOException, ClassNotFoundException {
 		if (taskResult == null) {
 			final FileInputStream fin = new FileInputStream(taskFile);
-			final ObjectInputStream oin = new ObjectInputStream(fin);
+			final ObjectInputStream oin = new ClassLoaderObjectInputStream(fin, getTaskClassLoader());
 			this.taskResult = (TASK_TYPE) oin.readObject();
 			fin.close();
 		}
@@ -761,6 +858,31 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		return statusInfo;
 	}
 
+	/**
+	 * @return task object of the constructor, not the task changed by the task process
+	 */
+	TASK_TYPE getInitialTask() {
+		return task;
+	}
+
+	/**
+	 * @return client of the {@link ForkServer} executing this fork, null if not executed
+	 *         remotely
+	 */
+	protected ForkClient getRemoteClient() {
+		return client;
+	}
+
+	/**
+	 * Creates the link arguments of a remote fork, see {@link ForkLink}.
+	 * 
+	 * @return null for a fork not linked
+	 * @throws IOException
+	 */
+	protected List<String> createRemoteLinkArgs() throws IOException {
+		return null;
+	}
+
 	private void checkMethodArgs(final Method method, final Serializable[] args) throws MethodArgumentsException {
 		final Class<?>[] parameterTypes = method.getParameterTypes();
 		final boolean arrayExpected = parameterTypes.length == 1 && parameterTypes[0].isArray();
@@ -953,6 +1075,14 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		}
 	}
 
+	/**
+	 * Loader of the task class, resolves the classes of objects read from the task process.
+	 * Tasks of a remote client may have classes only known to this loader.
+	 */
+	private ClassLoader getTaskClassLoader() {
+		return task.getClass().getClassLoader();
+	}
+
 	private final void createTaskFile(final TASK_TYPE task) throws IOException, FileNotFoundException {
 		final File taskObjFile = File.createTempFile(FILE_PREFIX, "object");
 		final FileOutputStream fo = new FileOutputStream(taskObjFile);
@@ -968,15 +1098,7 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 				String line;
 				try {
 					while ((line = taskErrorReader.readLine()) != null) {
-						stdErrText.append(line).append(NL);
-						if (stdErrText.length() > stdErrSize + 1000) {
-							stdErrText.delete(0, 500);
-						}
-						if (stdErrWriter != null) {
-							stdErrWriter.write(line);
-							stdErrWriter.write(NL);
-							stdErrWriter.flush();
-						}
+						appendStdErr(line + NL);
 					}
 					taskErrorReader.close();
 				} catch (final Exception e) {
@@ -998,17 +1120,7 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 							setStatusInfo(line); // 1st line used for fork
 													// process status info
 						} else {
-							synchronized (stdOutText) {
-								stdOutText.append(line).append(NL);
-								if (stdOutText.length() > stdOutSize + 1000) {
-									stdOutText.delete(0, 500);
-								}
-							}
-							if (stdOutWriter != null) {
-								stdOutWriter.write(line);
-								stdOutWriter.write(NL);
-								stdOutWriter.flush();
-							}
+							appendStdOut(line + NL);
 						}
 					}
 					taskStdOutReader.close();
@@ -1036,6 +1148,36 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 		stdOutThread.start();
 	}
 
+	/**
+	 * Adds output of the task process to the buffer and the writer, if any. Remote output
+	 * arrives in chunks streamed by the server.
+	 */
+	private void appendStdOut(final String text) throws IOException {
+		synchronized (stdOutText) {
+			stdOutText.append(text);
+			if (stdOutText.length() > stdOutSize + 1000) {
+				stdOutText.delete(0, Math.max(500, stdOutText.length() - stdOutSize - 500));
+			}
+		}
+		if (stdOutWriter != null) {
+			stdOutWriter.write(text);
+			stdOutWriter.flush();
+		}
+	}
+
+	private void appendStdErr(final String text) throws IOException {
+		synchronized (stdErrText) {
+			stdErrText.append(text);
+			if (stdErrText.length() > stdErrSize + 1000) {
+				stdErrText.delete(0, Math.max(500, stdErrText.length() - stdErrSize - 500));
+			}
+		}
+		if (stdErrWriter != null) {
+			stdErrWriter.write(text);
+			stdErrWriter.flush();
+		}
+	}
+
 	private static String getJavaExe() {
 		if (javaExe == null) {
 			javaExe = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java.exe";
@@ -1080,4 +1222,165 @@ public class Fork<TASK_TYPE extends Serializable, RETURN_TYPE extends Serializab
 			client.close();
 		}
 	}
+
+	/**
+	 * Non-blocking variant of {@link #disconnect()}.
+	 */
+	public CompletableFuture<Void> disconnectAsync() {
+		if (client != null && !client.isClosed()) {
+			return client.closeAsync();
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/*
+	 * Non-blocking variants of the operations. Remote forks don't bind a thread while
+	 * waiting for the server, the futures are completed by the reader thread of the
+	 * connection, so dependent stages must not block or should use an executor. The exit
+	 * of a local fork is signaled by the thread reading the process output, the results are
+	 * read when it is signaled. Killing a local fork is executed by a thread of a shared pool.
+	 */
+
+	/**
+	 * Non-blocking variant of {@link #waitFor()}.
+	 */
+	public CompletableFuture<Integer> waitForAsync() {
+		if (client != null) {
+			return client.waitForAsync();
+		}
+		if (exit == null) {
+			final CompletableFuture<Integer> notStarted = new CompletableFuture<Integer>();
+			notStarted.completeExceptionally(new IllegalStateException(FORK_WAS_NOT_STARTED_YET));
+			return notStarted;
+		}
+		// completed by the reader thread of the process, no thread waits for it
+		return exit.thenApply(new Function<Integer, Integer>() {
+			@Override
+			public Integer apply(final Integer exitValue) {
+				return exitValue;
+			}
+		});
+	}
+
+	/**
+	 * Non-blocking variant of {@link #isFinished()}.
+	 */
+	public CompletableFuture<Boolean> isFinishedAsync() {
+		if (client != null) {
+			return client.isFinishedAsync();
+		}
+		return CompletableFuture.completedFuture(finished);
+	}
+
+	/**
+	 * Non-blocking variant of {@link #getReturnValue()}.
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<RETURN_TYPE> getReturnValueAsync() {
+		if (client != null) {
+			return client.waitForAsync().thenCompose(new Function<Integer, CompletableFuture<Serializable>>() {
+				@Override
+				public CompletableFuture<Serializable> apply(final Integer statusCode) {
+					return client.getReturnValueAsync();
+				}
+			}).thenApply(new Function<Serializable, RETURN_TYPE>() {
+				@Override
+				public RETURN_TYPE apply(final Serializable value) {
+					return (RETURN_TYPE) value;
+				}
+			});
+		}
+		return waitForAsync().thenApply(new Function<Integer, RETURN_TYPE>() {
+			@Override
+			public RETURN_TYPE apply(final Integer exitValue) {
+				try {
+					return readReturnValue();
+				} catch (final IllegalAccessException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Non-blocking variant of {@link #getExitValue()}.
+	 */
+	public CompletableFuture<Integer> getExitValueAsync() {
+		return waitForAsync();
+	}
+
+	/**
+	 * Non-blocking variant of {@link #getStdErr()}.
+	 */
+	public CompletableFuture<String> getStdErrAsync() {
+		synchronized (stdErrText) {
+			return CompletableFuture.completedFuture(stdErrText.toString());
+		}
+	}
+
+	/**
+	 * Non-blocking variant of {@link #getStdOut()}.
+	 */
+	public CompletableFuture<String> getStdOutAsync() {
+		synchronized (stdOutText) {
+			return CompletableFuture.completedFuture(stdOutText.toString());
+		}
+	}
+
+	/**
+	 * Non-blocking variant of {@link #getTask()}.
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<TASK_TYPE> getTaskAsync() {
+		if (client != null) {
+			return client.waitForAsync().thenCompose(new Function<Integer, CompletableFuture<Object>>() {
+				@Override
+				public CompletableFuture<Object> apply(final Integer statusCode) {
+					return client.getTaskAsync();
+				}
+			}).thenApply(new Function<Object, TASK_TYPE>() {
+				@Override
+				public TASK_TYPE apply(final Object value) {
+					return (TASK_TYPE) value;
+				}
+			});
+		}
+		return waitForAsync().thenApply(new Function<Integer, TASK_TYPE>() {
+			@Override
+			public TASK_TYPE apply(final Integer exitValue) {
+				try {
+					return readTask();
+				} catch (final IOException e) {
+					throw new CompletionException(e);
+				} catch (final ClassNotFoundException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Non-blocking variant of {@link #kill()}.
+	 */
+	public CompletableFuture<Void> killAsync() {
+		if (client != null) {
+			if (killed) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return client.killAsync();
+		}
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		asyncWorkers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					kill();
+					result.complete(null);
+				} catch (final Throwable e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
 }
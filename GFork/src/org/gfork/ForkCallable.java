@@ -20,22 +20,68 @@
 
 package org.gfork;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.Socket;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import org.gfork.internal.types.CallFrame;
+import org.gfork.internal.types.FrameWriter;
+import org.gfork.internal.types.MemoCache;
+import org.gfork.internal.types.MethodTable;
+import org.gfork.types.CacheStats;
 import org.gfork.types.MethodArgumentsException;
+import org.gfork.types.RemoteCallException;
 import org.gfork.types.Void;
 
 /**
  * This class provides methods <code>call</code> which can be used to call 
  * from the fork parent process to the remote task fork process. 
  * Any public method of the task object can be invoked.
+ * <p>
+ * Calls are multiplexed on one connection: every call frame carries a request id,
+ * so any number of calls of any threads can be in flight and replies are matched 
+ * to their callers as they arrive, see {@link #callAsync(Class, Method, Serializable...)}.
+ * The first call fetches the method table of the task, afterwards calls identify
+ * methods by a numeric id instead of name and parameter types.
+ * <p>
+ * Several calls can be sent in one frame, explicitly by a {@link Batch} or automatically
+ * by call coalescing, see {@link #setCallCoalescing(long)}.
+ * <p>
+ * Instead of looking up {@link Method} objects a typed client can be created by 
+ * {@link #proxy(Class)}.
+ * <p>
+ * Events published by the task, see {@link CallableTask#publish(Serializable)}, are delivered
+ * to {@link EventListener}s by the event thread of this fork.
+ * <p>
+ * Return values of task methods annotated by {@link Memoize} are cached, see {@link #getCacheStats()}.
  * 
  * @author Gerald Ehmayer
  *
@@ -45,14 +91,38 @@ public class ForkCallable<TASK_TYPE extends CallableTask> extends ForkLink<TASK_
 
 	private static final long serialVersionUID = 1L;
 	private ObjectOutputStream oout;
+	private FrameWriter callWriter;
+	private int streamResetFrames = FrameWriter.DEFAULT_RESET_FRAMES;
+	private long streamResetBytes = FrameWriter.DEFAULT_RESET_BYTES;
 	private ObjectInputStream oin; // use getter for access
 	private Socket ioSocket;
 	private final TASK_TYPE task;
-	private AsyncCallThread asyncCallThread;
+	private final AtomicLong nextRequestId = new AtomicLong();
+	private final Map<Long, CompletableFuture<Object>> pendingCalls = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+	private Thread replyReader;
+	private final Map<Method, Integer> methodIds = new ConcurrentHashMap<Method, Integer>();
+	private CompletableFuture<?> methodTableRequest;
+	private volatile Map<String, Integer> methodSignatures;
+	private volatile long coalescingLingerMillis;
+	private ScheduledExecutorService coalescingTimer;
+	private ExecutorService callbackDispatcher;
+	private final List<CallFrame> coalescedCalls = new ArrayList<CallFrame>();
+	private final List<EventListener> eventListeners = new CopyOnWriteArrayList<EventListener>();
+	private final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>(); // bounded by the task's event window
+	private Thread eventDispatcher;
+	private final MemoCache memoCache = new MemoCache();
+
+	private static final Object END_OF_EVENTS = new Object();
+	private static final int CREDIT_BATCH = 16;
+
+	/**
+	 * Maximum number of coalesced calls, more calls are sent immediately.
+	 */
+	public static final int MAX_COALESCED_CALLS = 256;
 
 	/**
 	 * Callback interface needed for asynchronous task calls.
-	 * See {@link ForkCallable#callAsync(CallHandler, Method, Serializable...)}.
+	 * See {@link ForkCallable#callAsync(CallHandler, Class, Method, Serializable...)}.
 	 * 
 	 * @author Gerald Ehmayer
 	 *
@@ -72,6 +142,123 @@ public class ForkCallable<TASK_TYPE extends CallableTask> extends ForkLink<TASK_
 		 */
 		public void onException(Exception e);
 	}
+
+	/**
+	 * Listener of events published by the task, see {@link CallableTask#publish(Serializable)}.
+	 */
+	public interface EventListener {
+		/**
+		 * Invoked by the event thread of the fork for every event in publishing order.
+		 * The task is blocked from publishing more events than its event window while
+		 * listeners do not return.
+		 * 
+		 * @param event
+		 */
+		public void onEvent(Serializable event);
+	}
+
+	/**
+	 * Calls which are sent to the task in a single frame, executed by the task in the order 
+	 * they were added and replied together. Create it by {@link ForkCallable#batch()}, 
+	 * a batch can be sent only once. Calls of a batch bypass the cache of {@link Memoize} methods
+	 * of the fork, a cache of the task process still applies.
+	 */
+	public final class Batch {
+
+		private final List<CallFrame> calls = new ArrayList<CallFrame>();
+		private final List<CompletableFuture<Object>> pending = new ArrayList<CompletableFuture<Object>>();
+		private final List<CompletableFuture<?>> replies = new ArrayList<CompletableFuture<?>>();
+		private boolean sent;
+
+		private Batch() {
+		}
+
+		/**
+		 * Adds a call of any public method of the task object.
+		 * 
+		 * @return this batch
+		 * @throws IOException requesting the method table of the task failed
+		 */
+		public Batch add(final Method method, final Serializable... args) throws IOException {
+			add(Serializable.class, method, args);
+			return this;
+		}
+
+		/**
+		 * Adds a call of any public method of the task object.
+		 * 
+		 * @param <T> return value type, use {@link Void} for void return values
+		 * @return future of the return value which completes when the batch reply arrives
+		 * @throws IOException requesting the method table of the task failed
+		 */
+		@SuppressWarnings("unchecked")
+		public synchronized <T extends Serializable> CompletableFuture<T> add(final Class<T> typeReturnValue,
+				final Method method, final Serializable... args) throws IOException {
+			if (sent) {
+				throw new IllegalStateException("Batch was already sent.");
+			}
+			final CallFrame frame = callFrame(method, args);
+			final CompletableFuture<Object> reply = new CompletableFuture<Object>();
+			final CompletableFuture<?> returnValue = replyOf(method, reply);
+			calls.add(frame);
+			pending.add(reply);
+			replies.add(returnValue);
+			return (CompletableFuture<T>) returnValue;
+		}
+
+		public synchronized int size() {
+			return calls.size();
+		}
+
+		/**
+		 * Sends the batch and returns immediately.
+		 * 
+		 * @return future of the return values in the order of the calls, completes exceptionally 
+		 *         if any call failed
+		 * @throws IOException sending the batch failed
+		 */
+		public synchronized CompletableFuture<List<Object>> callAsync() throws IOException {
+			if (sent) {
+				throw new IllegalStateException("Batch was already sent.");
+			}
+			sent = true;
+			final CompletableFuture<?>[] all = replies.toArray(new CompletableFuture<?>[replies.size()]);
+			for (int i = 0; i < calls.size(); i++) {
+				pendingCalls.put(calls.get(i).getId(), pending.get(i));
+			}
+			if (!calls.isEmpty()) {
+				write(CallFrame.batch(nextRequestId.incrementAndGet(), calls.toArray(new CallFrame[calls.size()])));
+			}
+			return CompletableFuture.allOf(all).thenApply(new Function<Object, List<Object>>() {
+				@Override
+				public List<Object> apply(final Object ignore) {
+					final List<Object> values = new ArrayList<Object>(all.length);
+					for (final CompletableFuture<?> reply : all) {
+						values.add(reply.join());
+					}
+					return values;
+				}
+			});
+		}
+
+		/**
+		 * Sends the batch and waits for the replies of all calls.
+		 * 
+		 * @return return values in the order of the calls, {@link Void} for void methods
+		 * @throws IOException
+		 * @throws ClassNotFoundException
+		 * @throws RemoteCallException a called method threw an exception, this is the first 
+		 *         failed call but all calls of the batch were executed
+		 */
+		public List<Object> call() throws IOException, ClassNotFoundException {
+			callAsync();
+			final List<Object> values = new ArrayList<Object>(replies.size());
+			for (final CompletableFuture<?> reply : replies) {
+				values.add(await(reply));
+			}
+			return values;
+		}
+	}
 	
 	@SuppressWarnings("unchecked")
 	public <T extends Serializable & Runnable> ForkCallable(final T task) throws IOException, SecurityException,
@@ -86,34 +273,18 @@ public class ForkCallable<TASK_TYPE extends CallableTask> extends ForkLink<TASK_
 	 * @param method method to be called which has no return value
 	 * @param args arguments of the method
 	 * @throws IOException 
+	 * @throws RemoteCallException the called method threw an exception
 	 */
 	public final void call(final Method method, final Serializable... args) throws IOException {
 		if (method.getReturnType() != void.class) {
 			throw new IllegalArgumentException(String.format("Only method with void return type are allowed, but was '%s'", method.getReturnType().toString()));
 		}
-		sendCallData(method, args);
+		final CompletableFuture<?> reply = send(method, args);
+		flush();
 		try {
-			getOin().readObject(); // dummy return value needed to block until remote execution of the call is finished
-		} catch (ClassNotFoundException e) {
+			await(reply);
+		} catch (final ClassNotFoundException e) {
 			throw new RuntimeException(e); // probably a bug
-		} 
-	}
-
-	private void sendCallData(final Method method, final Serializable... args)
-			throws IOException {
-		if (!isExecuting()) {
-			throw new IllegalStateException(FORK_WAS_NOT_STARTED_YET);
-		}
-		synchronized (oout) {
-			oout.writeObject(method.getName());
-			if (args != null && args.length > 0) {
-				oout.writeObject(new Boolean(true));
-				oout.writeObject(method.getParameterTypes());
-				oout.writeObject(args);
-			} else {
-				oout.writeObject(new Boolean(false));
-			}
-			oout.flush();
 		}
 	}
 
@@ -126,23 +297,40 @@ public class ForkCallable<TASK_TYPE extends CallableTask> extends ForkLink<TASK_
 	 * @return return value of the called remote method
 	 * @throws IOException 
 	 * @throws ClassNotFoundException 
-	 * 
+	 * @throws RemoteCallException the called method threw an exception
 	 */
 	@SuppressWarnings("unchecked")
 	public final <T extends Serializable> T call(final Class<T> typeReturnValue, final Method method,
 			final Serializable... args) throws IOException, ClassNotFoundException {
-		synchronized (oout) {
-			sendCallData(method, args);
-			return (T) getOin().readObject();
-		}
+		final CompletableFuture<?> reply = send(method, args);
+		flush();
+		return (T) await(reply);
 	}
 
 	/**
 	 * Calls a method of the remote task of this fork process and returns immediately.
-	 * With the current implementation multiple asynchronous and synchronous calls will be serialized!
-	 * So this cannot be used to implement parallel execution within the remote task execution.
-	 * Furthermore it is important to be aware about serialized execution when
-	 * calls of synchronous and asynchronous methods are mixed for the same fork.
+	 * Any number of calls can be in flight, the future completes when the reply arrives,
+	 * exceptionally with {@link RemoteCallException} if the called method threw an exception
+	 * or with {@link IOException} if the connection to the task failed.
+	 * 
+	 * @param <T> return value type, use {@link Void} for void return values
+	 * @param typeReturnValue class of the return value type
+	 * @param method method to be called
+	 * @param args method arguments
+	 * @return future of the return value
+	 * @throws IOException sending the call failed
+	 */
+	@SuppressWarnings("unchecked")
+	public final <T extends Serializable> CompletableFuture<T> callAsync(final Class<T> typeReturnValue,
+			final Method method, final Serializable... args) throws IOException {
+		return (CompletableFuture<T>) send(method, args);
+	}
+
+	/**
+	 * Calls a method of the remote task of this fork process and returns immediately,
+	 * the callbacks of all asynchronous calls are invoked one after the other by the 
+	 * callback thread of this fork, so a callback may call the task again.
+	 * See also {@link #callAsync(Class, Method, Serializable...)}.
 	 * 
 	 * @param <T> return value type, use {@link Void} for void return values
 	 * @param callback handler that will be invoked when the call returns
@@ -154,22 +342,588 @@ public class ForkCallable<TASK_TYPE extends CallableTask> extends ForkLink<TASK_
 	 */
 	public final <T extends Serializable> void callAsync(final CallHandler<T> callback, final Class<T> typeReturnValue, final Method method,
 			final Serializable... args) throws IOException, ClassNotFoundException, InterruptedException {
-		synchronized (oout) {
-			if (asyncCallThread == null) {
-				asyncCallThread = new AsyncCallThread();
-				asyncCallThread.setDaemon(true);
-				asyncCallThread.start();
+		callAsync(typeReturnValue, method, args).whenCompleteAsync(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(final T result, final Throwable failure) {
+				// failures of dependent stages, e.g. of void methods, are wrapped
+				final Throwable e = failure instanceof CompletionException && failure.getCause() != null 
+						? failure.getCause() : failure;
+				if (e == null) {
+					callback.onReturn(result);
+				} else if (e instanceof Exception) {
+					callback.onException((Exception) e);
+				} else {
+					callback.onException(new RuntimeException(e));
+				}
+			}
+		}, getCallbackDispatcher());
+	}
+
+	/**
+	 * Defines when the call stream to the task is reset, must be called before the fork is executed.
+	 * Without resets the object streams of both processes keep every call argument ever sent.
+	 * Default is a reset after {@link FrameWriter#DEFAULT_RESET_FRAMES} calls or 
+	 * {@link FrameWriter#DEFAULT_RESET_BYTES} bytes. The reply stream of the task is configured by 
+	 * {@link CallableTask#setStreamReset(int, long)}.
+	 * 
+	 * @param frames reset after this number of call frames, 1 encodes every frame on its own, 0 for no limit
+	 * @param bytes reset after this number of bytes, 0 for no limit
+	 */
+	public void setStreamReset(final int frames, final long bytes) {
+		if (isExecuting()) {
+			throw new IllegalStateException("Stream reset must be defined before the fork is executed.");
+		}
+		if (frames < 0 || bytes < 0) {
+			throw new IllegalArgumentException("Reset limits must not be negative.");
+		}
+		this.streamResetFrames = frames;
+		this.streamResetBytes = bytes;
+	}
+
+	public int getStreamResetFrames() {
+		return streamResetFrames;
+	}
+
+	public long getStreamResetBytes() {
+		return streamResetBytes;
+	}
+
+	/**
+	 * Adds a listener of events published by the task. Events published while no listener 
+	 * is registered are discarded.
+	 */
+	public void addEventListener(final EventListener listener) {
+		eventListeners.add(listener);
+	}
+
+	public void removeEventListener(final EventListener listener) {
+		eventListeners.remove(listener);
+	}
+
+	/**
+	 * Delivers events to the listeners and grants the task credits for consumed events.
+	 * Credits are sent in batches, but always before waiting for more events.
+	 */
+	private void dispatchEvents() {
+		int consumed = 0;
+		try {
+			while (true) {
+				Object event = events.poll();
+				if (event == null) {
+					if (consumed > 0) {
+						write(CallFrame.credit(consumed));
+						consumed = 0;
+					}
+					event = events.take();
+				}
+				if (event == END_OF_EVENTS) {
+					return;
+				}
+				for (final EventListener listener : eventListeners) {
+					try {
+						listener.onEvent((Serializable) event);
+					} catch (final RuntimeException e) {
+						synchronized (stdErrText) {
+							stdErrText.append(String.format("ERROR jforkEvents: event listener failed: %s%n", e));
+						}
+					}
+				}
+				if (++consumed >= CREDIT_BATCH) {
+					write(CallFrame.credit(consumed));
+					consumed = 0;
+				}
+			}
+		} catch (final InterruptedException e) {
+			// end of event dispatching
+		} catch (final IOException e) {
+			// connection closed
+		}
+	}
+
+	/**
+	 * @return a new batch of calls to this fork's task
+	 */
+	public Batch batch() {
+		return new Batch();
+	}
+
+	/**
+	 * Enables call coalescing: calls issued within the linger time after a first call are sent 
+	 * together in one frame, at most {@link #MAX_COALESCED_CALLS}. This adds up to the linger time 
+	 * to the latency of asynchronous calls but saves a flush and write per call if many small 
+	 * calls are issued. Synchronous calls send coalesced calls immediately, together with 
+	 * the synchronous call.
+	 * 
+	 * @param lingerMillis time to wait for more calls, 0 disables coalescing (default)
+	 * @throws IOException sending calls waiting for coalescing failed
+	 */
+	public void setCallCoalescing(final long lingerMillis) throws IOException {
+		if (lingerMillis < 0) {
+			throw new IllegalArgumentException("Linger time must not be negative.");
+		}
+		coalescingLingerMillis = lingerMillis;
+		if (lingerMillis == 0) {
+			flush();
+		}
+	}
+
+	public long getCallCoalescing() {
+		return coalescingLingerMillis;
+	}
+
+	/**
+	 * Sends calls waiting for coalescing immediately, see {@link #setCallCoalescing(long)}.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		synchronized (coalescedCalls) {
+			if (coalescedCalls.isEmpty()) {
+				return;
+			}
+			final CallFrame[] calls = coalescedCalls.toArray(new CallFrame[coalescedCalls.size()]);
+			coalescedCalls.clear();
+			// written while holding the lock to keep the order of calls of one thread
+			write(calls.length == 1 ? calls[0] : CallFrame.batch(nextRequestId.incrementAndGet(), calls));
+		}
+	}
+
+	/**
+	 * Creates a client of the task which implements the given interface, its methods call
+	 * the methods of the task object with the same name and parameter types. Method ids are 
+	 * resolved once, so a call costs encoding its arguments and one frame. Methods with a 
+	 * return type {@link CompletableFuture} (or a super type of it) are called asynchronously, 
+	 * their future completes with the return value of the task method. Other methods wait for 
+	 * the reply, an {@link IOException} is thrown as {@link java.lang.reflect.UndeclaredThrowableException}
+	 * if the interface method does not declare it.
+	 * 
+	 * @param <T> interface type
+	 * @param type interface implemented by the proxy
+	 * @return proxy calling the task
+	 * @throws IOException requesting the method table of the task failed
+	 * @throws IllegalArgumentException type is no interface or the task lacks one of its methods
+	 */
+	public <T> T proxy(final Class<T> type) throws IOException {
+		if (!type.isInterface()) {
+			throw new IllegalArgumentException(String.format("'%s' is not an interface.", type.getName()));
+		}
+		if (!isExecuting()) {
+			throw new IllegalStateException(FORK_WAS_NOT_STARTED_YET);
+		}
+		final Map<String, Integer> signatures = getMethodSignatures();
+		final Map<Method, Integer> ids = new HashMap<Method, Integer>();
+		final Map<Method, Memoize> memoized = new HashMap<Method, Memoize>();
+		for (final Method method : type.getMethods()) {
+			final Integer id = signatures.get(MethodTable.signature(method));
+			if (id == null) {
+				throw new IllegalArgumentException(String.format("Task has no method '%s' of interface %s.",
+						MethodTable.signature(method), type.getName()));
+			}
+			ids.put(method, id);
+			final Memoize memoize = getMemoize(method);
+			if (memoize != null) {
+				memoized.put(method, memoize);
+			}
+		}
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				new CallProxy(ids, memoized)));
+	}
+
+	private final class CallProxy implements InvocationHandler {
+
+		private final Map<Method, Integer> ids;
+		private final Map<Method, Memoize> memoized;
+
+		CallProxy(final Map<Method, Integer> ids, final Map<Method, Memoize> memoized) {
+			this.ids = ids;
+			this.memoized = memoized;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final Integer id = ids.get(method);
+			if (id == null) {
+				// methods of Object are not called remotely
+				if (method.getName().equals("equals")) {
+					return proxy == args[0];
+				}
+				if (method.getName().equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				}
+				return String.format("%s(%s)", proxy.getClass().getInterfaces()[0].getName(), task.getClass().getName());
+			}
+			final Memoize memoize = memoized.get(method);
+			final CompletableFuture<?> reply;
+			if (memoize == null) {
+				reply = send(CallFrame.call(nextRequestId.incrementAndGet(), id, args));
+			} else {
+				final String signature = MethodTable.signature(method);
+				final CompletableFuture<?> cached = (CompletableFuture<?>) memoCache.get(signature, args);
+				reply = cached != null ? cached : memoize(signature, memoize, args,
+						send(CallFrame.call(nextRequestId.incrementAndGet(), id, args)));
+			}
+			if (method.getReturnType().isAssignableFrom(CompletableFuture.class)) {
+				return reply;
+			}
+			flush();
+			return await(reply);
+		}
+	}
+
+	private CompletableFuture<?> send(final Method method, final Serializable... args) throws IOException {
+		final Memoize memoize = getMemoize(method);
+		if (memoize == null) {
+			return replyOf(method, send(callFrame(method, args)));
+		}
+		final String signature = MethodTable.signature(method);
+		final CompletableFuture<?> cached = (CompletableFuture<?>) memoCache.get(signature, args);
+		if (cached != null) {
+			return cached;
+		}
+		return memoize(signature, memoize, args, replyOf(method, send(callFrame(method, args))));
+	}
+
+	/**
+	 * @return annotation of the method or of the task method with the same signature, 
+	 *         null if return values of the method are not cached
+	 */
+	private Memoize getMemoize(final Method method) {
+		if (method.getReturnType() == void.class) {
+			return null;
+		}
+		Memoize memoize = method.getAnnotation(Memoize.class);
+		if (memoize == null && !method.getDeclaringClass().isInstance(task)) {
+			try {
+				memoize = task.getClass().getMethod(method.getName(), method.getParameterTypes())
+						.getAnnotation(Memoize.class);
+			} catch (final NoSuchMethodException e) {
+				// e.g. a method of the implementing object
+			}
+		}
+		return memoize;
+	}
+
+	/**
+	 * Caches the reply of a call, it is removed again if the call fails.
+	 */
+	private CompletableFuture<?> memoize(final String signature, final Memoize memoize, final Object[] args,
+			final CompletableFuture<?> reply) {
+		memoCache.put(signature, memoize, args, reply);
+		reply.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(final Object value, final Throwable e) {
+				if (e != null) {
+					memoCache.remove(signature, args, reply);
+				}
+			}
+		});
+		return reply;
+	}
+
+	/**
+	 * @return counters of the cache of {@link Memoize} methods of this fork
+	 */
+	public CacheStats getCacheStats() {
+		return memoCache.getStats();
+	}
+
+	/**
+	 * Removes the cached return values of a {@link Memoize} method, in the task process too 
+	 * if the method has a child cache.
+	 * 
+	 * @throws IOException
+	 */
+	public void invalidateCache(final Method method) throws IOException {
+		final String signature = MethodTable.signature(method);
+		memoCache.invalidate(signature);
+		final Memoize memoize = getMemoize(method);
+		if (memoize != null && memoize.childCache() && isExecuting()) {
+			write(CallFrame.invalidate(signature));
+		}
+	}
+
+	/**
+	 * Removes all cached return values, in the task process too.
+	 * 
+	 * @throws IOException
+	 */
+	public void invalidateCache() throws IOException {
+		memoCache.invalidate(null);
+		if (isExecuting()) {
+			write(CallFrame.invalidate(null));
+		}
+	}
+
+	private CompletableFuture<Object> send(final CallFrame frame) throws IOException {
+		final CompletableFuture<Object> reply = new CompletableFuture<Object>();
+		pendingCalls.put(frame.getId(), reply);
+		if (coalescingLingerMillis > 0) {
+			coalesce(frame);
+		} else {
+			write(frame);
+		}
+		return reply;
+	}
+
+	private CallFrame callFrame(final Method method, final Serializable... args) throws IOException {
+		if (!isExecuting()) {
+			throw new IllegalStateException(FORK_WAS_NOT_STARTED_YET);
+		}
+		final int methodId = getMethodId(method);
+		final long id = nextRequestId.incrementAndGet();
+		final boolean withArgs = args != null && args.length > 0;
+		if (methodId >= 0) {
+			return CallFrame.call(id, methodId, withArgs ? args : null);
+		} else if (withArgs) {
+			return CallFrame.call(id, method.getName(), method.getParameterTypes(), args);
+		} else {
+			return CallFrame.call(id, method.getName(), null, null);
+		}
+	}
+
+	private static CompletableFuture<?> replyOf(final Method method, final CompletableFuture<Object> reply) {
+		if (method.getReturnType() != void.class) {
+			return reply;
+		}
+		return reply.thenApply(new Function<Object, Object>() {
+			@Override
+			public Object apply(final Object value) {
+				return new Void(); // void methods reply null
+			}
+		});
+	}
+
+	private void coalesce(final CallFrame frame) throws IOException {
+		final boolean full;
+		synchronized (coalescedCalls) {
+			coalescedCalls.add(frame);
+			if (coalescedCalls.size() == 1) {
+				getCoalescingTimer().schedule(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							flush();
+						} catch (final IOException e) {
+							// the waiting calls were completed exceptionally
+						}
+					}
+				}, coalescingLingerMillis, TimeUnit.MILLISECONDS);
+			}
+			full = coalescedCalls.size() >= MAX_COALESCED_CALLS;
+		}
+		if (full) {
+			flush();
+		}
+	}
+
+	private synchronized ExecutorService getCallbackDispatcher() {
+		if (callbackDispatcher == null) {
+			callbackDispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "jforkCallbacks");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return callbackDispatcher;
+	}
+
+	private synchronized ScheduledExecutorService getCoalescingTimer() {
+		if (coalescingTimer == null) {
+			coalescingTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "jforkCallCoalescing");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return coalescingTimer;
+	}
+
+	/**
+	 * Writes a frame, if writing fails the calls of the frame are completed exceptionally.
+	 */
+	private void write(final CallFrame frame) throws IOException {
+		try {
+			callWriter.write(frame);
+		} catch (final IOException e) {
+			fail(frame, e);
+			throw e;
+		}
+	}
+
+	private void fail(final CallFrame frame, final Exception e) {
+		if (frame.getType() == CallFrame.Type.BATCH) {
+			for (final CallFrame call : frame.getFrames()) {
+				fail(call, e);
+			}
+			return;
+		}
+		final CompletableFuture<Object> reply = pendingCalls.remove(frame.getId());
+		if (reply != null) {
+			reply.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * @return id of the method in the task's method table or -1 if the task has no such method
+	 */
+	private int getMethodId(final Method method) throws IOException {
+		final Integer id = methodIds.get(method);
+		if (id != null) {
+			return id;
+		}
+		final Integer tableId = getMethodSignatures().get(MethodTable.signature(method));
+		final int methodId = tableId == null ? -1 : tableId;
+		methodIds.put(method, methodId);
+		return methodId;
+	}
+
+	/**
+	 * Requests the method table of the task once, concurrent first calls wait for the same reply.
+	 * A failed request is repeated by the next call.
+	 */
+	private Map<String, Integer> getMethodSignatures() throws IOException {
+		Map<String, Integer> signatures = methodSignatures;
+		if (signatures != null) {
+			return signatures;
+		}
+		final CompletableFuture<?> request;
+		CallFrame frame = null;
+		synchronized (methodIds) {
+			if (methodTableRequest == null) {
+				frame = CallFrame.methods(nextRequestId.incrementAndGet());
+				final CompletableFuture<Object> reply = new CompletableFuture<Object>();
+				pendingCalls.put(frame.getId(), reply);
+				methodTableRequest = reply;
+			}
+			request = methodTableRequest;
+		}
+		final String[] table;
+		try {
+			if (frame != null) {
+				// not written under the lock, other first calls must not wait for the socket
+				write(frame);
+			}
+			table = (String[]) await(request);
+		} catch (final ClassNotFoundException e) {
+			throw new RuntimeException(e); // probably a bug
+		} finally {
+			if (request.isCompletedExceptionally()) {
+				synchronized (methodIds) {
+					if (methodTableRequest == request) {
+						methodTableRequest = null;
+					}
+				}
+			}
+		}
+		signatures = new HashMap<String, Integer>();
+		for (int i = 0; i < table.length; i++) {
+			signatures.put(table[i], i);
+		}
+		methodSignatures = signatures;
+		return signatures;
+	}
+
+	/**
+	 * Waits for a call reply, used by {@link ForkCallablePool} as well.
+	 */
+	static <T> T await(final CompletableFuture<T> future) throws IOException, ClassNotFoundException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for call reply.");
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof ClassNotFoundException) {
+				throw (ClassNotFoundException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private void readReplies() {
+		Exception failure = null;
+		try {
+			final ObjectInputStream in = getOin();
+			while (true) {
+				complete((CallFrame) in.readObject());
+			}
+		} catch (final IOException e) {
+			failure = e;
+		} catch (final ClassNotFoundException e) {
+			failure = e;
+		}
+		events.add(END_OF_EVENTS);
+		// connection closed, e.g. after shutdown: fail calls still waiting for a reply
+		for (final Long id : pendingCalls.keySet()) {
+			final CompletableFuture<Object> reply = pendingCalls.remove(id);
+			if (reply != null) {
+				reply.completeExceptionally(failure instanceof IOException ? failure 
+						: new IOException("Reading call reply failed.", failure));
 			}
-			asyncCallThread.put(new CallInfo(typeReturnValue, callback, method, args));
 		}
 	}
 	
+	private void complete(final CallFrame frame) {
+		if (frame.getType() == CallFrame.Type.EVENT) {
+			events.add(frame.getValue());
+			return;
+		}
+		if (frame.getType() == CallFrame.Type.BATCH) {
+			for (final CallFrame reply : frame.getFrames()) {
+				complete(reply);
+			}
+			return;
+		}
+		final CompletableFuture<Object> reply = pendingCalls.remove(frame.getId());
+		if (reply == null) {
+			synchronized (stdErrText) {
+				stdErrText.append(String.format("ERROR jforkCallReplies: reply for unknown call %d%n", frame.getId()));
+			}
+		} else if (frame.getType() == CallFrame.Type.EXCEPTION) {
+			reply.completeExceptionally((RemoteCallException) frame.getValue());
+		} else {
+			reply.complete(frame.getValue());
+		}
+	}
+
 	@Override
 	public synchronized void execute() throws Exception {
 		super.execute();
 		final int ioPort = readForkListenerPort();
 		ioSocket = new Socket("127.0.0.1", ioPort);
-		this.oout = new ObjectOutputStream(ioSocket.getOutputStream());
+		// the task of a remote fork can't map files of this host
+		callWriter = new FrameWriter(ioSocket.getOutputStream(), streamResetFrames, streamResetBytes,
+				getRemoteClient() == null);
+		this.oout = callWriter.getObjectOutputStream();
+		replyReader = new Thread("jforkCallReplies") {
+			@Override
+			public void run() {
+				readReplies();
+			}
+		};
+		replyReader.setDaemon(true);
+		replyReader.start();
+		eventDispatcher = new Thread("jforkEvents") {
+			@Override
+			public void run() {
+				dispatchEvents();
+			}
+		};
+		eventDispatcher.setDaemon(true);
+		eventDispatcher.start();
 	}
 
 	/**
@@ -214,97 +968,23 @@ public class ForkCallable<TASK_TYPE extends CallableTask> extends ForkLink<TASK_
 		if (!isExecuting()) {
 			throw new IllegalStateException(FORK_WAS_NOT_STARTED_YET);
 		}
-		if (asyncCallThread != null) {
-			asyncCallThread.shutdown();
-		}
 		final Method method = task.getClass().getMethod("shutdown");
-		this.call(method);
-	}
-
-	private class CallInfo {
-	
-		@SuppressWarnings("rawtypes")
-		private final CallHandler callback;
-		private final Method method;
-		private final Serializable[] args;
-		@SuppressWarnings("rawtypes")
-		private final Class typeReturnValue;
-	
-		@SuppressWarnings("rawtypes")
-		public CallInfo(final Class typeReturnValue, final CallHandler callback, final Method method,
-				final Serializable[] args) {
-					this.typeReturnValue = typeReturnValue;
-					this.callback = callback;
-					this.method = method;
-					this.args = args;
-		}
-	
-		public Method getMethod() {
-			return method;
-		}
-	
-		public Serializable[] getArgs() {
-			return args;
-		}
-		
-		@SuppressWarnings("rawtypes")
-		public CallHandler getCallHandler() {
-			return callback;
-		}
-	
-		@SuppressWarnings("rawtypes")
-		public Class getTypeReturnValue() {
-			return typeReturnValue;
-		}
-	}
-
-	private class AsyncCallThread extends Thread {
-		private static final int QUEUE_POLL_SECONDS = 1;
-		private LinkedBlockingDeque<CallInfo> asyncCallQueue = new LinkedBlockingDeque<CallInfo>();
-		private boolean stop;
-		
-		public AsyncCallThread() {
-			setName("jforkAsyncCalls");
+		try {
+			this.call(method);
+		} catch (final EOFException e) {
+			// task process may exit before the reply of the shutdown call is sent
+		} catch (final SocketException e) {
+			// same as above
+		} catch (final StreamCorruptedException e) {
+			// same as above, the process exited while writing the reply
 		}
-		public synchronized void shutdown() {
-			stop = true;
-			asyncCallQueue.clear();
-			try {
-				Thread.sleep(QUEUE_POLL_SECONDS + 100);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				stdErrText.append(String.format("ERROR %s: %s%n", getName(), e.toString()));
+		synchronized (this) {
+			if (coalescingTimer != null) {
+				coalescingTimer.shutdown();
 			}
-		}
-		public synchronized void put(CallInfo callInfo) throws InterruptedException {
-			asyncCallQueue.put(callInfo);
-		}
-		
-		@SuppressWarnings("unchecked")
-		@Override
-		public void run() {
-			CallInfo callInfo = null;
-			try {
-				while(!isFinished() && !stop) {
-					callInfo = asyncCallQueue.poll(QUEUE_POLL_SECONDS, TimeUnit.SECONDS);
-					if (callInfo != null) {
-						synchronized (oout) {
-							if (callInfo.getTypeReturnValue() != Void.class) {
-								final Serializable result = call(callInfo.getTypeReturnValue(), callInfo.getMethod(), callInfo.getArgs());
-								callInfo.getCallHandler().onReturn(result);
-							} else {
-								call(callInfo.getMethod(), callInfo.getArgs());
-								callInfo.getCallHandler().onReturn(new Void());
-							}
-						}
-					}
-				}
-			} catch (final Exception e) {
-				e.printStackTrace();
-				if (callInfo != null && callInfo.getCallHandler() != null) {
-					callInfo.getCallHandler().onException(e);
-				}
-				stdErrText.append(String.format("ERROR %s: %s%n", getName(), e.toString()));
+			if (callbackDispatcher != null) {
+				// callbacks of calls failed by the shutdown are still invoked
+				callbackDispatcher.shutdown();
 			}
 		}
 	}
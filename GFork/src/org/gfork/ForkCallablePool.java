@@ -0,0 +1,500 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.types.RemoteCallException;
+
+/**
+ * Pool of identical {@link ForkCallable} workers of a stateless {@link CallableTask}.
+ * Every worker runs a copy of the task in its own process, calls are routed to the 
+ * worker with the least outstanding calls (default) or round robin, see {@link Routing}.
+ * <p>
+ * A maintenance thread replaces dead workers, i.e. workers whose process has finished, and 
+ * scales the pool between its minimum and maximum size: a worker is added while the average 
+ * number of outstanding calls per worker exceeds the scale-up queue depth, a worker is removed 
+ * after the pool was idle for the scale-down delay. A removed worker takes no new calls and is 
+ * shut down when its outstanding calls are replied. Calls in flight to a worker which dies 
+ * fail with an {@link IOException}. Worker processes are started without holding the pool lock.
+ * 
+ * @param <TASK_TYPE>
+ */
+public class ForkCallablePool<TASK_TYPE extends CallableTask> {
+
+	private final static Logger log = Logger.getLogger(ForkCallablePool.class.getName());
+
+	public enum Routing {
+		/** route a call to the worker with the least outstanding calls */
+		LEAST_OUTSTANDING,
+		/** route calls to the workers one after the other */
+		ROUND_ROBIN
+	}
+
+	private static final class Worker<TASK_TYPE extends CallableTask> {
+
+		private final ForkCallable<TASK_TYPE> fork;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		// a replacement is being started, guarded by the pool
+		private boolean replacing;
+
+		Worker(final ForkCallable<TASK_TYPE> fork) {
+			this.fork = fork;
+		}
+
+		boolean isAlive() {
+			return !fork.isFinished();
+		}
+	}
+
+	private final TASK_TYPE task;
+	private final List<Worker<TASK_TYPE>> workers = new CopyOnWriteArrayList<Worker<TASK_TYPE>>();
+	// removed by scale down, shut down when their outstanding calls are replied
+	private final List<Worker<TASK_TYPE>> retiring = new CopyOnWriteArrayList<Worker<TASK_TYPE>>();
+	private final AtomicInteger nextWorker = new AtomicInteger();
+	private Routing routing = Routing.LEAST_OUTSTANDING;
+	private int minWorkers;
+	private int maxWorkers;
+	private int scaleUpQueueDepth = 4;
+	private long scaleDownDelayMillis = 10000;
+	private long maintenanceIntervalMillis = 500;
+	private long idleSince;
+	// number of workers being started outside the lock
+	private int starting;
+	private ScheduledExecutorService maintenance;
+	private volatile boolean started;
+	private volatile boolean stopped;
+
+	/**
+	 * @param task task which is copied to every worker
+	 * @param workers fixed number of workers, use {@link #setScaling(int, int)} for a scaling pool
+	 */
+	public ForkCallablePool(final TASK_TYPE task, final int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("A pool needs at least one worker.");
+		}
+		this.task = task;
+		this.minWorkers = workers;
+		this.maxWorkers = workers;
+	}
+
+	public void setRouting(final Routing routing) {
+		this.routing = routing;
+	}
+
+	public Routing getRouting() {
+		return routing;
+	}
+
+	/**
+	 * Defines the size range of the pool, must be called before the pool is started.
+	 * The pool starts with the minimum number of workers.
+	 */
+	public void setScaling(final int minWorkers, final int maxWorkers) {
+		checkNotStarted();
+		if (minWorkers < 1 || maxWorkers < minWorkers) {
+			throw new IllegalArgumentException(String.format("Invalid pool size range %d..%d.", minWorkers, maxWorkers));
+		}
+		this.minWorkers = minWorkers;
+		this.maxWorkers = maxWorkers;
+	}
+
+	public int getMinWorkers() {
+		return minWorkers;
+	}
+
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+
+	/**
+	 * @param queueDepth average number of outstanding calls per worker above which a worker is added, default 4
+	 */
+	public void setScaleUpQueueDepth(final int queueDepth) {
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException("Queue depth must be positive.");
+		}
+		this.scaleUpQueueDepth = queueDepth;
+	}
+
+	public int getScaleUpQueueDepth() {
+		return scaleUpQueueDepth;
+	}
+
+	/**
+	 * @param delayMillis time without outstanding calls after which a worker is removed, default 10 s
+	 */
+	public void setScaleDownDelay(final long delayMillis) {
+		this.scaleDownDelayMillis = delayMillis;
+	}
+
+	public long getScaleDownDelay() {
+		return scaleDownDelayMillis;
+	}
+
+	/**
+	 * @param intervalMillis interval of dead worker checks and scaling decisions, default 500 ms, 
+	 * must be called before the pool is started
+	 */
+	public void setMaintenanceInterval(final long intervalMillis) {
+		checkNotStarted();
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Maintenance interval must be positive.");
+		}
+		this.maintenanceIntervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Starts the minimum number of workers and the maintenance thread.
+	 * 
+	 * @throws Exception starting a worker failed
+	 */
+	public synchronized void start() throws Exception {
+		checkNotStarted();
+		started = true;
+		for (int i = 0; i < minWorkers; i++) {
+			workers.add(startWorker());
+		}
+		idleSince = System.currentTimeMillis();
+		maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "jforkPoolMaintenance");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				maintain();
+			}
+		}, maintenanceIntervalMillis, maintenanceIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates the fork of a new worker, override it to configure the forks, e.g. JVM options.
+	 * The fork is executed by the pool.
+	 */
+	protected ForkCallable<TASK_TYPE> createWorker(final TASK_TYPE task) throws Exception {
+		return new ForkCallable<TASK_TYPE>(task);
+	}
+
+	private Worker<TASK_TYPE> startWorker() throws Exception {
+		final ForkCallable<TASK_TYPE> fork = createWorker(task);
+		fork.execute();
+		log.fine("pool worker started");
+		return new Worker<TASK_TYPE>(fork);
+	}
+
+	/**
+	 * Calls a remote public void method of a worker's task object, see {@link ForkCallable#call(Method, Serializable...)}.
+	 * 
+	 * @throws IOException
+	 * @throws RemoteCallException the called method threw an exception
+	 */
+	public void call(final Method method, final Serializable... args) throws IOException {
+		try {
+			ForkCallable.await(callAsync(org.gfork.types.Void.class, method, args));
+		} catch (final ClassNotFoundException e) {
+			throw new RuntimeException(e); // probably a bug
+		}
+	}
+
+	/**
+	 * Calls a remote public method of a worker's task object, see {@link ForkCallable#call(Class, Method, Serializable...)}.
+	 * 
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 * @throws RemoteCallException the called method threw an exception
+	 */
+	public <T extends Serializable> T call(final Class<T> typeReturnValue, final Method method,
+			final Serializable... args) throws IOException, ClassNotFoundException {
+		return ForkCallable.await(callAsync(typeReturnValue, method, args));
+	}
+
+	/**
+	 * Calls a remote public method of a worker's task object and returns immediately, 
+	 * see {@link ForkCallable#callAsync(Class, Method, Serializable...)}.
+	 * 
+	 * @throws IOException sending the call failed
+	 */
+	public <T extends Serializable> CompletableFuture<T> callAsync(final Class<T> typeReturnValue,
+			final Method method, final Serializable... args) throws IOException {
+		Worker<TASK_TYPE> worker = route();
+		worker.outstanding.incrementAndGet();
+		while (!workers.contains(worker)) {
+			// removed by scale down meanwhile, it may be shut down already
+			worker.outstanding.decrementAndGet();
+			worker = route();
+			worker.outstanding.incrementAndGet();
+		}
+		final Worker<TASK_TYPE> target = worker;
+		final CompletableFuture<T> reply;
+		try {
+			reply = worker.fork.callAsync(typeReturnValue, method, args);
+		} catch (final IOException e) {
+			worker.outstanding.decrementAndGet();
+			throw e;
+		}
+		reply.whenComplete(new BiConsumer<T, Throwable>() {
+			@Override
+			public void accept(final T result, final Throwable e) {
+				target.outstanding.decrementAndGet();
+			}
+		});
+		return reply;
+	}
+
+	private Worker<TASK_TYPE> route() throws IOException {
+		if (!started || stopped) {
+			throw new IllegalStateException("Pool is not running.");
+		}
+		for (int attempt = 0; attempt < 2; attempt++) {
+			final List<Worker<TASK_TYPE>> alive = new ArrayList<Worker<TASK_TYPE>>(workers.size());
+			for (final Worker<TASK_TYPE> worker : workers) {
+				if (worker.isAlive()) {
+					alive.add(worker);
+				}
+			}
+			if (!alive.isEmpty()) {
+				if (routing == Routing.ROUND_ROBIN) {
+					return alive.get((nextWorker.getAndIncrement() & Integer.MAX_VALUE) % alive.size());
+				}
+				Worker<TASK_TYPE> least = alive.get(0);
+				for (final Worker<TASK_TYPE> worker : alive) {
+					if (worker.outstanding.get() < least.outstanding.get()) {
+						least = worker;
+					}
+				}
+				return least;
+			}
+			replaceDeadWorkers();
+			awaitStartingWorkers();
+		}
+		throw new IOException("No pool worker alive.");
+	}
+
+	private void maintain() {
+		if (stopped) {
+			return;
+		}
+		try {
+			replaceDeadWorkers();
+			scale();
+			shutdownRetiredWorkers();
+		} catch (final Exception e) {
+			log.log(Level.WARNING, "pool maintenance failed", e);
+		}
+	}
+
+	private void replaceDeadWorkers() throws IOException {
+		final List<Worker<TASK_TYPE>> dead = new ArrayList<Worker<TASK_TYPE>>();
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			for (final Worker<TASK_TYPE> worker : workers) {
+				if (!worker.isAlive() && !worker.replacing) {
+					worker.replacing = true;
+					dead.add(worker);
+				}
+			}
+			starting += dead.size();
+		}
+		IOException failure = null;
+		for (final Worker<TASK_TYPE> worker : dead) {
+			log.warning("replacing dead pool worker");
+			try {
+				replaceWorker(worker, startWorker());
+			} catch (final Exception e) {
+				workers.remove(worker);
+				failure = new IOException("Replacing dead pool worker failed.", e);
+			} finally {
+				workerStarted();
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void scale() throws Exception {
+		synchronized (this) {
+			final int size = workers.size();
+			final int outstanding = getOutstandingCalls();
+			final long now = System.currentTimeMillis();
+			if (outstanding > 0) {
+				idleSince = now;
+			}
+			if (size + starting < maxWorkers && outstanding > size * scaleUpQueueDepth) {
+				log.fine(String.format("scaling pool up, %d outstanding calls on %d workers", outstanding, size));
+				starting++;
+			} else if (size > minWorkers && now - idleSince >= scaleDownDelayMillis) {
+				log.fine("scaling pool down");
+				retiring.add(workers.remove(size - 1));
+				idleSince = now;
+				return;
+			} else {
+				return;
+			}
+		}
+		try {
+			addWorker(startWorker());
+		} finally {
+			workerStarted();
+		}
+	}
+
+	private void addWorker(final Worker<TASK_TYPE> worker) {
+		replaceWorker(null, worker);
+	}
+
+	/**
+	 * Adds a started worker in place of a dead one, or shuts it down if the pool was stopped meanwhile.
+	 */
+	private void replaceWorker(final Worker<TASK_TYPE> dead, final Worker<TASK_TYPE> worker) {
+		synchronized (this) {
+			if (!stopped) {
+				final int index = workers.indexOf(dead);
+				if (index < 0) {
+					workers.add(worker);
+				} else {
+					workers.set(index, worker);
+				}
+				return;
+			}
+		}
+		shutdown(worker);
+	}
+
+	private synchronized void workerStarted() {
+		starting--;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for workers started by other threads, e.g. dead workers replaced by the maintenance thread.
+	 */
+	private synchronized void awaitStartingWorkers() throws InterruptedIOException {
+		while (starting > 0 && !stopped) {
+			try {
+				wait();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a pool worker.");
+			}
+		}
+	}
+
+	private void shutdownRetiredWorkers() {
+		for (final Worker<TASK_TYPE> worker : retiring) {
+			if (worker.outstanding.get() == 0 || !worker.isAlive()) {
+				retiring.remove(worker);
+				shutdown(worker);
+			}
+		}
+	}
+
+	private static void shutdown(final Worker<?> worker) {
+		try {
+			if (worker.isAlive()) {
+				worker.fork.shutdown();
+			}
+		} catch (final Exception e) {
+			log.log(Level.FINE, "pool worker shutdown", e);
+		}
+	}
+
+	/**
+	 * @return number of workers, including workers which died and are not replaced yet
+	 */
+	public int getWorkerCount() {
+		return workers.size();
+	}
+
+	/**
+	 * @return number of calls which were sent and are not replied yet
+	 */
+	public int getOutstandingCalls() {
+		int outstanding = 0;
+		for (final Worker<TASK_TYPE> worker : workers) {
+			outstanding += worker.outstanding.get();
+		}
+		for (final Worker<TASK_TYPE> worker : retiring) {
+			outstanding += worker.outstanding.get();
+		}
+		return outstanding;
+	}
+
+	/**
+	 * @return forks of the current workers
+	 */
+	public List<ForkCallable<TASK_TYPE>> getWorkers() {
+		final List<ForkCallable<TASK_TYPE>> forks = new ArrayList<ForkCallable<TASK_TYPE>>();
+		for (final Worker<TASK_TYPE> worker : workers) {
+			forks.add(worker.fork);
+		}
+		return forks;
+	}
+
+	/**
+	 * Stops the maintenance thread and shuts down all workers, see {@link ForkCallable#shutdown()}.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (!started || stopped) {
+				return;
+			}
+			stopped = true;
+			maintenance.shutdown();
+		}
+		for (final Worker<TASK_TYPE> worker : workers) {
+			shutdown(worker);
+		}
+		workers.clear();
+		for (final Worker<TASK_TYPE> worker : retiring) {
+			shutdown(worker);
+		}
+		retiring.clear();
+	}
+
+	private void checkNotStarted() {
+		if (started) {
+			throw new IllegalStateException("Pool was already started.");
+		}
+	}
+}
@@ -27,25 +27,49 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Collection;
 
+import org.gfork.internal.metrics.MetricsCollector;
+import org.gfork.internal.stream.ChunkedInputStream;
+import org.gfork.internal.stream.ChunkedOutputStream;
+import org.gfork.internal.stream.MemoryPipe;
+import org.gfork.types.LinkMetrics;
 
 /**
  * Use {@link ForkChain} to conveniently link {@link ForkLink} objects together. Every
  * {@link ForkLink} object represents a single link of a {@link Fork} chain. 
  * Linking with {@link ForkChain} means the
  * task output of a Fork will be forwarded to the next Fork task in the same way as pipes do.
+ * <p>
+ * Per default a chain processes a single stream and ends when the begin stream is closed. 
+ * In session mode, see {@link #setSessionMode(boolean)}, the link processes stay alive and 
+ * process any number of logical streams, e.g. one request document after the other.
+ * <p>
+ * Cheap stages can run as {@link InProcessLink} on a thread of this process, see
+ * {@link #ForkChain(ChainLink...)}.
+ * <p>
+ * Links can run on {@link org.gfork.remote.server.ForkServer} hosts, see {@link ForkLink#setHost(String)}.
+ * Neighbouring links on the same server are connected on the server, links on different servers
+ * directly if possible, streams from and to this process are tunneled over the server connection.
  * 
  * @author Gerald Ehmayer
  *
  */
 public class ForkChain {
 
-	@SuppressWarnings("rawtypes")
-	private final ForkLink[] chain;
+	private final ChainLink[] chain;
 	private boolean executing;
 	private ServerSocket endListener;
 	private Socket beginSocket;
 	private Socket endSocket;
+	private MemoryPipe beginPipe;
+	private MemoryPipe endPipe;
 	private boolean inputRetrieved;
+	private boolean outputRetrieved;
+	private long metricsInterval;
+	private MetricsCollector metricsCollector;
+	private boolean sessionMode;
+	private ChunkedOutputStream beginSession;
+	private ChunkedInputStream endSession;
+	private final Object endLock = new Object();
 
 	/**
 	 * Constructs a Fork chain.
@@ -54,17 +78,64 @@ public class ForkChain {
 	 */
 	@SuppressWarnings("rawtypes")
 	public ForkChain(final ForkLink... chain) {
+		this((ChainLink[]) chain);
+	}
+
+	/**
+	 * Constructs a chain of forked and in-process links, see {@link InProcessLink}.
+	 * Neighbouring in-process links and the chain ends are connected by in-memory pipes,
+	 * forked links by sockets.
+	 * 
+	 * @param chain array of links that will be tied together
+	 */
+	public ForkChain(final ChainLink... chain) {
 		if (chain == null) {
 			throw new IllegalArgumentException("Null not allowed for parameter chain.");
 		}
 		this.chain = chain;
 	}
 	
-	@SuppressWarnings("rawtypes")
-	public ForkChain(final Collection<ForkLink> chain) {
-		this((ForkLink[]) chain.toArray(new ForkLink[chain.size()]));
+	public ForkChain(final Collection<? extends ChainLink> chain) {
+		this((ChainLink[]) chain.toArray(new ChainLink[chain.size()]));
 	}
 	
+	/**
+	 * Enables per link metrics, every link process reports its counters
+	 * periodically to this parent process. Must be called before {@link #execute()}.
+	 * 
+	 * @param intervalMillis reporting interval of the link processes
+	 * @see #getMetrics()
+	 */
+	public synchronized void enableMetrics(final long intervalMillis) {
+		if (executing) {
+			throw new IllegalStateException("Fork chain is already executing.");
+		}
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Metrics interval must be greater than 0.");
+		}
+		this.metricsInterval = intervalMillis;
+	}
+
+	/**
+	 * Enables session mode, must be called before {@link #execute()}. The link processes 
+	 * keep running until {@link #close()} is called and process every logical stream 
+	 * opened by {@link #openBeginWriteStream()}. Logical streams are separated by in-band
+	 * end of stream markers, a link task method is invoked once per logical stream,
+	 * see also {@link Linkable#onStreamStart(int)} and {@link Linkable#onStreamEnd(int)}.
+	 * 
+	 * @param sessionMode true to enable session mode
+	 */
+	public synchronized void setSessionMode(final boolean sessionMode) {
+		if (executing) {
+			throw new IllegalStateException("Fork chain is already executing.");
+		}
+		this.sessionMode = sessionMode;
+	}
+
+	public boolean isSessionMode() {
+		return sessionMode;
+	}
+
 	@SuppressWarnings("rawtypes")
 	public synchronized void execute() throws Exception {
 		if (executing) {
@@ -72,66 +143,209 @@ public class ForkChain {
 		}
 		executing = true;
 		
-		// create listener for data output at the end of the chain (= output of the last fork)
-		endListener = new ServerSocket(0);
-		int port = endListener.getLocalPort();
-		if (port <= 0) {
-			throw new RuntimeException(String.format("Invalid listener port created: %d", port));
+		if (metricsInterval > 0) {
+			metricsCollector = new MetricsCollector(chain.length);
+		}
+		
+		// where the current link writes to: a listener port or in-memory pipes
+		int port = 0;
+		MemoryPipe pipe = null;
+		MemoryPipe backPipe = null;
+		if (chain[chain.length - 1] instanceof ForkLink) {
+			// create listener for data output at the end of the chain (= output of the last fork)
+			endListener = new ServerSocket(0);
+			port = endListener.getLocalPort();
+			if (port <= 0) {
+				throw new RuntimeException(String.format("Invalid listener port created: %d", port));
+			}
+		} else {
+			endPipe = pipe = new MemoryPipe();
+			backPipe = new MemoryPipe();
+			backPipe.getOutputStream().close(); // no back channel from the chain end
 		}
 		
-		// bottom up boot of chain forks
+		// bottom up boot of chain links
 		for (int i = chain.length-1; i >= 0; i--) {
-			ForkLink fork = chain[i];
-			fork.setSuccessorPort(port); // where fork writes to
-			fork.execute();
-			port = fork.readForkListenerPort(); 
+			if (chain[i] instanceof ForkLink) {
+				ForkLink<?, ?> fork = (ForkLink<?, ?>) chain[i];
+				fork.setSuccessorPort(port); // where fork writes to
+				fork.setSuccessorLink(i + 1 < chain.length && chain[i + 1] instanceof ForkLink ? (ForkLink<?, ?>) chain[i + 1]
+						: null);
+				fork.setSessionMode(sessionMode);
+				if (metricsCollector != null) {
+					fork.setMetrics(metricsCollector.getPort(), i, metricsInterval);
+				}
+				fork.execute();
+				port = fork.readForkListenerPort(); 
+			} else {
+				InProcessLink link = (InProcessLink) chain[i];
+				if (pipe != null) {
+					link.setSuccessorStreams(pipe.getOutputStream(), backPipe.getInputStream());
+				} else {
+					link.connectSuccessor(port);
+				}
+				if (i > 0 && chain[i-1] instanceof ForkLink) {
+					ServerSocket listener = new ServerSocket(0);
+					link.setPredecessorListener(listener);
+					port = listener.getLocalPort();
+					pipe = backPipe = null;
+				} else {
+					pipe = new MemoryPipe();
+					backPipe = new MemoryPipe();
+					link.setPredecessorStreams(pipe.getInputStream(), backPipe.getOutputStream());
+				}
+				link.start(i, sessionMode, metricsCollector == null ? 0 : metricsCollector.getPort(), metricsInterval);
+			}
 		}
 		
-		// connect port for data input at the begin of the chain (= input for the first fork)
-		beginSocket = new Socket("127.0.0.1", port);
+		if (pipe != null) {
+			beginPipe = pipe;
+			backPipe.getInputStream().close(); // no back channel to the chain begin
+		} else {
+			// connect port for data input at the begin of the chain (= input for the first fork)
+			beginSocket = new Socket("127.0.0.1", port);
+		}
 	}
 	
 	/**
 	 * Retrieves data input of the chain.
 	 * 
-	 * @return input stream of the first chain's {@link ForkLink} object
+	 * @return input stream of the first chain link
 	 * @throws IOException 
 	 * @throws IllegalStateException the output stream to read from the chain was already retrieved
 	 */
 	public synchronized OutputStream getBeginWriteStream() throws IOException {
+		if (sessionMode) {
+			throw new IllegalStateException("Use openBeginWriteStream() in session mode.");
+		}
 		if (inputRetrieved) {
 			throw new IllegalStateException("Output stream to read from chain cannot be retrieved more than once.");
 		}
 		inputRetrieved = true;
-		return beginSocket.getOutputStream();
+		return beginOutput();
 	}
 	
 	/**
 	 * Retrieves InputStream to read data output of the chain.
 	 * 
-	 * @return output stream of the last chain's {@link ForkLink} object
+	 * @return output stream of the last chain link
 	 * @throws IOException 
 	 * @throws IllegalStateException the input stream to write to the chain was already retrieved
 	 */
 	public synchronized InputStream getEndReadStream() throws IOException {
-		if (endSocket != null) {
+		if (sessionMode) {
+			throw new IllegalStateException("Use openEndReadStream() in session mode.");
+		}
+		if (outputRetrieved) {
 			throw new IllegalStateException("Input stream to write to chain cannot be retrieved more than once.");
 		}
+		outputRetrieved = true;
+		return endInput();
+	}
+
+	/**
+	 * Session mode only: starts the next logical input stream of the chain. 
+	 * Closing the returned stream ends the logical stream, not the chain. A previously opened 
+	 * stream is ended automatically.
+	 * 
+	 * @return stream to write the next input document of the chain
+	 * @throws IOException
+	 * @throws IllegalStateException chain is not in session mode or not executing
+	 */
+	public synchronized OutputStream openBeginWriteStream() throws IOException {
+		checkSession();
+		if (beginSession == null) {
+			beginSession = new ChunkedOutputStream(beginOutput());
+		}
+		return beginSession.nextStream();
+	}
+
+	/**
+	 * Session mode only: waits for the next logical output stream of the chain. Output streams
+	 * are returned in the order of their input streams, unread data of the previous stream
+	 * is skipped. This method can be called from another thread than the one writing input.
+	 * 
+	 * @return stream to read the next output document of the chain, it reports end of
+	 *         stream at the end of the document, or null if the chain has ended
+	 * @throws IOException
+	 * @throws IllegalStateException chain is not in session mode or not executing
+	 */
+	public InputStream openEndReadStream() throws IOException {
+		checkSession();
+		synchronized (endLock) {
+			if (endSession == null) {
+				endSession = new ChunkedInputStream(endInput());
+			}
+			return endSession.nextStream();
+		}
+	}
+
+	private void checkSession() {
+		if (!sessionMode) {
+			throw new IllegalStateException("Fork chain is not in session mode.");
+		}
+		if (!executing) {
+			throw new IllegalStateException("Fork chain is not executing.");
+		}
+	}
+
+	private OutputStream beginOutput() throws IOException {
+		return beginPipe != null ? beginPipe.getOutputStream() : beginSocket.getOutputStream();
+	}
+
+	private InputStream endInput() throws IOException {
+		if (endPipe != null) {
+			return endPipe.getInputStream();
+		}
 		endSocket = endListener.accept();
 		endListener.close();
 		endListener = null;
 		return endSocket.getInputStream();
 	}
 
+	/**
+	 * Retrieves the latest metrics snapshot of every link, use it to find the bottleneck of a chain:
+	 * a link with high read blocked time waits for its predecessor, a link with high write blocked
+	 * time and a filled buffer of its successor waits for the successor.
+	 * 
+	 * @return snapshots in chain order, an entry is null until the link reported for the first time
+	 * @throws IllegalStateException metrics were not enabled, see {@link #enableMetrics(long)}
+	 */
+	public LinkMetrics[] getMetrics() {
+		if (metricsCollector == null) {
+			throw new IllegalStateException("Metrics are not enabled or chain is not executing.");
+		}
+		return metricsCollector.getSnapshot();
+	}
+
+	/**
+	 * Closes the chain input and output. All link processes end when they finished
+	 * processing their input, in session mode this ends the session.
+	 * 
+	 * @throws IOException
+	 */
 	public synchronized void close() throws IOException {
+		if (beginSession != null) {
+			beginSession.close();
+			beginSession = null;
+		}
 		if (beginSocket != null) {
 			beginSocket.close();
 			beginSocket = null;
 		}
+		if (beginPipe != null) {
+			beginPipe.getOutputStream().close();
+		}
 		if (endSocket != null) {
 			endSocket.close();
 			endSocket = null;
 		}
+		if (endPipe != null) {
+			endPipe.getInputStream().close();
+		}
+		if (metricsCollector != null) {
+			metricsCollector.close();
+		}
 	}
 
 	public boolean isExecuting() {
@@ -0,0 +1,565 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.gfork.helpers.ForkListenerAdapter;
+import org.gfork.internal.graph.NodeWiring;
+import org.gfork.internal.graph.NodeWiring.Mode;
+
+/**
+ * Use {@link ForkGraph} to connect {@link ForkLink} objects as a directed acyclic graph,
+ * a generalization of the linear {@link ForkChain}. Every node task has named input and 
+ * output ports, plain {@link Linkable} tasks have the ports {@link #IN} and {@link #OUT},
+ * tasks with more ports implement {@link GraphLinkable}.
+ * <p>
+ * Edges are defined before {@link #execute()}:
+ * <ul>
+ * <li>{@link #connect(Port, Port)} forwards an output port to a single input port</li>
+ * <li>{@link #broadcast(Port, Port...)} forwards all data of an output port to every target</li>
+ * <li>{@link #partition(Port, Port...)} distributes the lines of an output port round-robin</li>
+ * <li>{@link #merge(Port, Port...)} interleaves the lines of several output ports into one input port</li>
+ * </ul>
+ * Ports are checked when an edge is added, a {@link GraphLinkable} task declares its port
+ * names. Graph inputs and outputs, see {@link #input(Port)} and {@link #output(Port)}, are
+ * streams of the parent process, call {@link #close()} when the graph is not used anymore.
+ * <pre>
+ * ForkGraph graph = new ForkGraph();
+ * graph.addNode("split", new ForkLink&lt;PipedTextTask, Void&gt;(new PipedTextTask()));
+ * graph.addNode("a", new ForkLink&lt;MyTask, Void&gt;(new MyTask()));
+ * graph.addNode("b", new ForkLink&lt;MyTask, Void&gt;(new MyTask()));
+ * graph.addNode("join", new ForkLink&lt;PipedTextTask, Void&gt;(new PipedTextTask()));
+ * graph.input(ForkGraph.port("split", ForkGraph.IN));
+ * graph.partition(ForkGraph.port("split", ForkGraph.OUT), ForkGraph.port("a", ForkGraph.IN), ForkGraph.port("b", ForkGraph.IN));
+ * graph.merge(ForkGraph.port("join", ForkGraph.IN), ForkGraph.port("a", ForkGraph.OUT), ForkGraph.port("b", ForkGraph.OUT));
+ * graph.output(ForkGraph.port("join", ForkGraph.OUT));
+ * graph.execute();
+ * </pre>
+ */
+public class ForkGraph {
+
+	/**
+	 * Default input port, the predecessor read stream of a {@link Linkable} task.
+	 */
+	public static final String IN = "in";
+
+	/**
+	 * Default output port, the successor write stream of a {@link Linkable} task.
+	 */
+	public static final String OUT = "out";
+
+	public enum NodeState {
+		/** graph is not executing yet */
+		CREATED,
+		RUNNING,
+		/** node process exited normally */
+		FINISHED,
+		/** node process was killed or exited with an error or exception */
+		FAILED
+	}
+
+	/**
+	 * Notification about finished graph nodes, see {@link ForkGraph#addNodeListener(NodeListener)}.
+	 */
+	public interface NodeListener {
+
+		public void onNodeFinished(String node);
+
+		/**
+		 * @param node name of the failed node
+		 * @param fork the node's fork, use it to retrieve exception or error output
+		 */
+		public void onNodeFailed(String node, Fork<?, ?> fork);
+	}
+
+	/**
+	 * Port of a graph node.
+	 */
+	public static final class Port {
+
+		private final String node;
+		private final String name;
+
+		private Port(final String node, final String name) {
+			this.node = node;
+			this.name = name;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Port)) {
+				return false;
+			}
+			final Port other = (Port) obj;
+			return node.equals(other.node) && name.equals(other.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return node.hashCode() * 31 + name.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return node + ":" + name;
+		}
+	}
+
+	private static class Edge {
+		final Port from;
+		final Mode mode;
+		final Port[] to;
+
+		Edge(final Port from, final Mode mode, final Port... to) {
+			this.from = from;
+			this.mode = mode;
+			this.to = to;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private final Map<String, ForkLink> nodes = new LinkedHashMap<String, ForkLink>();
+	private final List<Edge> edges = new ArrayList<Edge>();
+	private final Set<Port> usedOutputs = new HashSet<Port>();
+	private final List<Port> inputs = new ArrayList<Port>();
+	private final List<Port> outputs = new ArrayList<Port>();
+	private final Map<String, NodeState> states = new ConcurrentHashMap<String, NodeState>();
+	private final List<NodeListener> listeners = new CopyOnWriteArrayList<NodeListener>();
+	private final Map<Port, Socket> inputSockets = new HashMap<Port, Socket>();
+	private final Map<Port, ServerSocket> outputListeners = new HashMap<Port, ServerSocket>();
+	private final Map<Port, Socket> outputSockets = new HashMap<Port, Socket>();
+	private boolean executing;
+
+	/**
+	 * @param node name of the node
+	 * @param port name of the port
+	 * @return port of a graph node
+	 */
+	public static Port port(final String node, final String port) {
+		if (node == null || port == null) {
+			throw new IllegalArgumentException("Null not allowed for node or port name.");
+		}
+		return new Port(node, port);
+	}
+
+	/**
+	 * Adds a node to the graph.
+	 * 
+	 * @param name unique name of the node
+	 * @param fork fork which runs the node task
+	 */
+	@SuppressWarnings("rawtypes")
+	public synchronized void addNode(final String name, final ForkLink fork) {
+		checkNotExecuting();
+		if (name == null || fork == null) {
+			throw new IllegalArgumentException("Null not allowed for parameters name and fork.");
+		}
+		if (nodes.containsKey(name)) {
+			throw new IllegalArgumentException(String.format("Node '%s' already exists.", name));
+		}
+		nodes.put(name, fork);
+		states.put(name, NodeState.CREATED);
+	}
+
+	/**
+	 * Connects an output port to an input port.
+	 */
+	public synchronized void connect(final Port from, final Port to) {
+		addEdge(new Edge(from, Mode.DIRECT, to));
+	}
+
+	/**
+	 * Every target input port receives all data written to the output port.
+	 */
+	public synchronized void broadcast(final Port from, final Port... to) {
+		addEdge(new Edge(from, Mode.BROADCAST, to));
+	}
+
+	/**
+	 * Lines written to the output port are distributed round-robin to the target input ports.
+	 */
+	public synchronized void partition(final Port from, final Port... to) {
+		addEdge(new Edge(from, Mode.PARTITION, to));
+	}
+
+	/**
+	 * The input port receives the lines of all source output ports, lines are interleaved
+	 * in arrival order and end of stream is reached when all sources have ended.
+	 * Equivalent to connecting every source to the input port.
+	 */
+	public synchronized void merge(final Port to, final Port... from) {
+		if (from == null || from.length == 0) {
+			throw new IllegalArgumentException("At least one source port is required.");
+		}
+		for (final Port source : from) {
+			addEdge(new Edge(source, Mode.DIRECT, to));
+		}
+	}
+
+	/**
+	 * Declares an input port of a node as graph input, see {@link #getWriteStream(Port)}.
+	 */
+	public synchronized void input(final Port to) {
+		checkNotExecuting();
+		checkPort(to, true);
+		if (inputs.contains(to)) {
+			throw new IllegalArgumentException(String.format("Graph input %s already declared.", to));
+		}
+		inputs.add(to);
+	}
+
+	/**
+	 * Declares an output port of a node as graph output, see {@link #getReadStream(Port)}.
+	 */
+	public synchronized void output(final Port from) {
+		checkNotExecuting();
+		checkPort(from, false);
+		useOutput(from);
+		outputs.add(from);
+	}
+
+	/**
+	 * Starts all node processes and connects their ports.
+	 * 
+	 * @throws Exception
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public synchronized void execute() throws Exception {
+		checkNotExecuting();
+		if (nodes.isEmpty()) {
+			throw new IllegalStateException("Graph has no nodes.");
+		}
+		checkAcyclic();
+		executing = true;
+
+		for (final Entry<String, ForkLink> node : nodes.entrySet()) {
+			final String name = node.getKey();
+			final ForkLink fork = node.getValue();
+			fork.setGraphMode();
+			fork.addListener(new ForkListenerAdapter() {
+				@Override
+				public void onFinish(final Fork fork, final boolean wasKilled)
+						throws IllegalAccessException, InterruptedException {
+					nodeEnded(name, fork, wasKilled || fork.isError());
+				}
+			});
+			states.put(name, NodeState.RUNNING);
+			fork.execute();
+		}
+
+		final Map<String, Integer> ports = new HashMap<String, Integer>();
+		for (final Entry<String, ForkLink> node : nodes.entrySet()) {
+			ports.put(node.getKey(), node.getValue().readForkListenerPort());
+		}
+
+		for (final Port output : outputs) {
+			outputListeners.put(output, new ServerSocket(0));
+		}
+
+		for (final Entry<String, NodeWiring> wiring : createWiring(ports).entrySet()) {
+			final Socket control = new Socket("127.0.0.1", ports.get(wiring.getKey()));
+			final DataOutputStream out = new DataOutputStream(control.getOutputStream());
+			out.writeUTF(NodeWiring.CONTROL_HEADER);
+			final ObjectOutputStream oout = new ObjectOutputStream(out);
+			oout.writeObject(wiring.getValue());
+			oout.flush();
+			control.close();
+		}
+
+		for (final Port input : inputs) {
+			final Socket socket = new Socket("127.0.0.1", ports.get(input.getNode()));
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeUTF(input.getName());
+			out.flush();
+			inputSockets.put(input, socket);
+		}
+	}
+
+	/**
+	 * Retrieves the stream to write data to a graph input, closing it signals end of stream.
+	 * 
+	 * @param input graph input declared by {@link #input(Port)}
+	 * @throws IOException
+	 */
+	public synchronized OutputStream getWriteStream(final Port input) throws IOException {
+		checkExecuting();
+		final Socket socket = inputSockets.get(input);
+		if (socket == null) {
+			throw new IllegalArgumentException(String.format("Port %s is not a graph input.", input));
+		}
+		return socket.getOutputStream();
+	}
+
+	/**
+	 * Retrieves the stream to read data of a graph output, waits until the node has connected the output.
+	 * 
+	 * @param output graph output declared by {@link #output(Port)}
+	 * @throws IOException
+	 */
+	public InputStream getReadStream(final Port output) throws IOException {
+		final ServerSocket listener;
+		synchronized (this) {
+			checkExecuting();
+			final Socket socket = outputSockets.get(output);
+			if (socket != null) {
+				return socket.getInputStream();
+			}
+			listener = outputListeners.get(output);
+			if (listener == null) {
+				throw new IllegalArgumentException(String.format("Port %s is not a graph output.", output));
+			}
+		}
+		synchronized (listener) {
+			synchronized (this) {
+				if (outputSockets.containsKey(output)) {
+					return outputSockets.get(output).getInputStream();
+				}
+			}
+			final Socket socket = listener.accept();
+			new DataInputStream(socket.getInputStream()).readUTF(); // port header
+			listener.close();
+			synchronized (this) {
+				outputSockets.put(output, socket);
+			}
+			return socket.getInputStream();
+		}
+	}
+
+	/**
+	 * @param node name of the node
+	 * @return current state of the node process
+	 */
+	public NodeState getNodeState(final String node) {
+		final NodeState state = states.get(node);
+		if (state == null) {
+			throw new IllegalArgumentException(String.format("Unknown node '%s'.", node));
+		}
+		return state;
+	}
+
+	/**
+	 * Adds a listener which is notified when a node process ends, must be added before 
+	 * {@link #execute()} to get all notifications.
+	 */
+	public void addNodeListener(final NodeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Waits until all node processes have ended.
+	 * 
+	 * @return true if all nodes finished normally
+	 * @throws InterruptedException
+	 * @throws IllegalAccessException
+	 */
+	@SuppressWarnings("rawtypes")
+	public boolean waitFor() throws InterruptedException, IllegalAccessException {
+		checkExecuting();
+		boolean ok = true;
+		for (final Entry<String, ForkLink> node : nodes.entrySet()) {
+			node.getValue().waitFor();
+			ok &= getNodeState(node.getKey()) == NodeState.FINISHED;
+		}
+		return ok;
+	}
+
+	/**
+	 * Closes all graph inputs and outputs, must be called when the graph is not used anymore,
+	 * the sockets are not closed otherwise.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		for (final Socket socket : inputSockets.values()) {
+			socket.close();
+		}
+		inputSockets.clear();
+		for (final Socket socket : outputSockets.values()) {
+			socket.close();
+		}
+		outputSockets.clear();
+		for (final ServerSocket listener : outputListeners.values()) {
+			listener.close();
+		}
+		outputListeners.clear();
+	}
+
+	public boolean isExecuting() {
+		return executing;
+	}
+
+	private void nodeEnded(final String node, final Fork<?, ?> fork, final boolean failed) {
+		if (states.get(node) != NodeState.RUNNING) {
+			return;
+		}
+		states.put(node, failed ? NodeState.FAILED : NodeState.FINISHED);
+		for (final NodeListener l : listeners) {
+			if (failed) {
+				l.onNodeFailed(node, fork);
+			} else {
+				l.onNodeFinished(node);
+			}
+		}
+	}
+
+	private Map<String, NodeWiring> createWiring(final Map<String, Integer> ports) {
+		final Map<String, NodeWiring> wiring = new LinkedHashMap<String, NodeWiring>();
+		for (final String node : nodes.keySet()) {
+			wiring.put(node, new NodeWiring());
+		}
+		for (final Edge edge : edges) {
+			final NodeWiring.Output output = wiring.get(edge.from.getNode()).addOutput(edge.from.getName(), edge.mode);
+			for (final Port to : edge.to) {
+				output.targets.add(new NodeWiring.Target("127.0.0.1", ports.get(to.getNode()), to.getName()));
+				wiring.get(to.getNode()).addInputConnection(to.getName());
+			}
+		}
+		for (final Port from : outputs) {
+			wiring.get(from.getNode()).addOutput(from.getName(), Mode.DIRECT).targets
+					.add(new NodeWiring.Target("127.0.0.1", outputListeners.get(from).getLocalPort(), from.getName()));
+		}
+		for (final Port to : inputs) {
+			wiring.get(to.getNode()).addInputConnection(to.getName());
+		}
+		return wiring;
+	}
+
+	private void addEdge(final Edge edge) {
+		checkNotExecuting();
+		checkPort(edge.from, false);
+		if (edge.to == null || edge.to.length == 0) {
+			throw new IllegalArgumentException("At least one target port is required.");
+		}
+		for (final Port to : edge.to) {
+			checkPort(to, true);
+		}
+		useOutput(edge.from);
+		edges.add(edge);
+	}
+
+	private void useOutput(final Port from) {
+		if (!usedOutputs.add(from)) {
+			throw new IllegalArgumentException(String.format("Output port %s is already connected.", from));
+		}
+	}
+
+	private void checkNode(final Port port) {
+		if (port == null) {
+			throw new IllegalArgumentException("Null not allowed for port.");
+		}
+		if (!nodes.containsKey(port.getNode())) {
+			throw new IllegalArgumentException(String.format("Unknown node '%s'.", port.getNode()));
+		}
+	}
+
+	/**
+	 * Checks that the node task has the port, plain {@link Linkable} tasks only have {@link #IN} and {@link #OUT}.
+	 */
+	private void checkPort(final Port port, final boolean input) {
+		checkNode(port);
+		final Object task = nodes.get(port.getNode()).getInitialTask();
+		final Set<String> names;
+		if (task instanceof GraphLinkable) {
+			names = input ? ((GraphLinkable) task).getInputPorts() : ((GraphLinkable) task).getOutputPorts();
+		} else {
+			names = Collections.singleton(input ? IN : OUT);
+		}
+		if (names == null || !names.contains(port.getName())) {
+			throw new IllegalArgumentException(String.format("Node '%s' has no %s port '%s'.", port.getNode(),
+					input ? "input" : "output", port.getName()));
+		}
+	}
+
+	private void checkAcyclic() {
+		final Map<String, List<String>> successors = new HashMap<String, List<String>>();
+		for (final Edge edge : edges) {
+			List<String> list = successors.get(edge.from.getNode());
+			if (list == null) {
+				list = new ArrayList<String>();
+				successors.put(edge.from.getNode(), list);
+			}
+			for (final Port to : edge.to) {
+				list.add(to.getNode());
+			}
+		}
+		final Set<String> done = new HashSet<String>();
+		for (final String node : nodes.keySet()) {
+			checkAcyclic(node, successors, new HashSet<String>(), done);
+		}
+	}
+
+	private void checkAcyclic(final String node, final Map<String, List<String>> successors,
+			final Set<String> path, final Set<String> done) {
+		if (done.contains(node)) {
+			return;
+		}
+		if (!path.add(node)) {
+			throw new IllegalStateException(String.format("Graph contains a cycle at node '%s'.", node));
+		}
+		final List<String> next = successors.get(node);
+		if (next != null) {
+			for (final String succ : next) {
+				checkAcyclic(succ, successors, path, done);
+			}
+		}
+		path.remove(node);
+		done.add(node);
+	}
+
+	private void checkNotExecuting() {
+		if (executing) {
+			throw new IllegalStateException("Fork graph is already executing.");
+		}
+	}
+
+	private void checkExecuting() {
+		if (!executing) {
+			throw new IllegalStateException("Fork graph is not executing.");
+		}
+	}
+}
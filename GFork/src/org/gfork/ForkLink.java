@@ -20,13 +20,16 @@
 
 package org.gfork;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import org.gfork.internal.remote.client.ForkClient;
 import org.gfork.types.MethodArgumentsException;
 
 /**
@@ -34,19 +37,49 @@ import org.gfork.types.MethodArgumentsException;
  * Its task have to implement interface {@link Linkable}. 
  * {@link Linkable} tasks can receive I/O streams connecting
  * to its predecessor and successor fork process.
+ * <p>
+ * A link can run on a {@link org.gfork.remote.server.ForkServer}, see {@link #setHost(String)}.
+ * Connections of the task process to this process are tunneled over the server connection.
  * 
  * @author Gerald Ehmayer
  *
  * @param <TASK_TYPE> the task type, template upper bound type is {@link Linkable}
  * @param <RETURN_TYPE> the return value type of the task
  */
-public class ForkLink<TASK_TYPE extends Linkable, RETURN_TYPE extends Serializable> extends Fork<TASK_TYPE, RETURN_TYPE> {
+public class ForkLink<TASK_TYPE extends Linkable, RETURN_TYPE extends Serializable> extends Fork<TASK_TYPE, RETURN_TYPE>
+		implements ChainLink {
 
 	private static final long serialVersionUID = 1L;
 
 	protected static final String JOB_PROCESS_NOT_EXECUTING = "Task process was not started yet.";
 	
 	protected Integer successorPort;
+
+	private int metricsPort;
+
+	private int linkIndex;
+
+	private long metricsInterval;
+
+	private boolean sessionMode;
+
+	private boolean graphMode;
+
+	private File spoolDir;
+
+	private long spoolQuota;
+
+	private String host;
+
+	private ForkLink<?, ?> successorLink;
+
+	// listener port of a remote task process on its server
+	private int remoteListenerPort;
+
+	// local port tunneled to the listener of a remote task process
+	private int forwardPort;
+
+	private List<String> linkArguments;
 	
 	public <T extends Serializable & Runnable> ForkLink(final T task) throws IOException, SecurityException,
 			NoSuchMethodException, MethodArgumentsException {
@@ -57,9 +90,46 @@ public class ForkLink<TASK_TYPE extends Linkable, RETURN_TYPE extends Serializab
 		super(task, method, args);
 	}
 	
+	/**
+	 * Runs the task on a {@link org.gfork.remote.server.ForkServer} when the link is executed, 
+	 * e.g. by a {@link ForkChain}. Must be called before the link is executed. The links of
+	 * a chain on the same server must not exceed its limit of running forks, a queued link
+	 * blocks the start of the chain.
+	 * 
+	 * @param host ForkServer host, use "host:port" if not using default server listening port,
+	 *             null to run the task locally
+	 */
+	public void setHost(final String host) {
+		if (isExecuting()) {
+			throw new IllegalStateException(FORK_IS_ALREADY_EXECUTING);
+		}
+		this.host = host;
+	}
+
+	/**
+	 * @return ForkServer host of the task, null if it runs locally
+	 */
+	public String getHost() {
+		return host;
+	}
+
 	@Override
-	public synchronized void execute(String host) throws Exception {
-		throw new IllegalAccessException("Remote support only implemented for basic Fork class. You're welcome if you would fix that ;-)");
+	public synchronized void execute() throws Exception {
+		if (host != null) {
+			super.execute(host);
+		} else {
+			super.execute();
+		}
+	}
+
+	/**
+	 * Executes the link task on a remote {@link org.gfork.remote.server.ForkServer}, same as 
+	 * {@link #setHost(String)} followed by {@link #execute()}.
+	 */
+	@Override
+	public synchronized void execute(final String host) throws Exception {
+		setHost(host);
+		execute();
 	}
 	
 	/**
@@ -71,7 +141,80 @@ public class ForkLink<TASK_TYPE extends Linkable, RETURN_TYPE extends Serializab
 	void setSuccessorPort(final int port) {
 		successorPort = port;
 	}
+
+	/**
+	 * For internal use only: the successor link if it is a {@link ForkLink}, a remote link
+	 * connects to a remote successor without a tunnel if possible.
+	 */
+	void setSuccessorLink(final ForkLink<?, ?> successorLink) {
+		this.successorLink = successorLink;
+	}
+
+	/**
+	 * For internal use only: arguments of the task process of a remote link set by the 
+	 * ForkServer, they replace the successor port and the link options.
+	 */
+	public void setLinkArguments(final List<String> linkArguments) {
+		this.linkArguments = linkArguments;
+	}
+
+	/**
+	 * For internal use only: listener port of the task process, used by the ForkServer.
+	 */
+	public int getListenerPort() throws NumberFormatException, IOException, IllegalAccessException,
+			InterruptedException {
+		return readForkListenerPort();
+	}
 	
+	/**
+	 * For internal use only: enables reporting of link metrics to the given collector port,
+	 * see {@link ForkChain#enableMetrics(long)}.
+	 * 
+	 * @param collectorPort TCP port of the metrics collector of the parent process
+	 * @param linkIndex position of this link in its chain
+	 * @param intervalMillis reporting interval
+	 */
+	void setMetrics(final int collectorPort, final int linkIndex, final long intervalMillis) {
+		this.metricsPort = collectorPort;
+		this.linkIndex = linkIndex;
+		this.metricsInterval = intervalMillis;
+	}
+
+	/**
+	 * For internal use only: runs the link task in session mode, see {@link ForkChain#setSessionMode(boolean)}.
+	 */
+	void setSessionMode(final boolean sessionMode) {
+		this.sessionMode = sessionMode;
+	}
+
+	/**
+	 * Enables a disk spool on the input edge of this link: the link process drains its predecessor
+	 * as fast as data arrives and buffers it in segment files until the task reads it. Use it
+	 * for a slow link behind a bursty predecessor, so the predecessor is not blocked by a full
+	 * socket buffer. The predecessor blocks only when the unread spooled data reaches the quota.
+	 * Must be called before the chain is executed, the spool depth is reported by {@link ForkChain#getMetrics()}.
+	 * 
+	 * @param dir directory for the segment files, segments are deleted as soon as they are read
+	 * @param quotaBytes maximum number of spooled bytes not yet read by the task
+	 */
+	public void setInputSpool(final File dir, final long quotaBytes) {
+		if (dir == null) {
+			throw new IllegalArgumentException("Null not allowed for parameter dir.");
+		}
+		if (quotaBytes <= 0) {
+			throw new IllegalArgumentException("Spool quota must be greater than 0.");
+		}
+		this.spoolDir = dir;
+		this.spoolQuota = quotaBytes;
+	}
+
+	/**
+	 * For internal use only: the task ports are connected by a {@link ForkGraph}.
+	 */
+	void setGraphMode() {
+		this.graphMode = true;
+	}
+
 	/**
 	 * Retrieves IO port from task link process.
 	 * 
@@ -82,6 +225,14 @@ public class ForkLink<TASK_TYPE extends Linkable, RETURN_TYPE extends Serializab
 	 * @throws InterruptedException
 	 */
 	protected int readForkListenerPort() throws NumberFormatException, IOException, IllegalAccessException, InterruptedException {
+		final ForkClient client = getRemoteClient();
+		if (client != null) {
+			if (forwardPort == 0) {
+				remoteListenerPort = client.getLinkPort();
+				forwardPort = client.forward(remoteListenerPort);
+			}
+			return forwardPort;
+		}
 		int cnt = 0;
 		while (getStatusInfo() == null) {
 			Thread.sleep(200);
@@ -98,14 +249,91 @@ public class ForkLink<TASK_TYPE extends Linkable, RETURN_TYPE extends Serializab
 	
 	@Override
 	protected String[] createCmdArray() throws IOException {
-		if (successorPort == null) {
+		if (linkArguments != null) {
+			final ArrayList<String> vmArgs = new ArrayList<String>(Arrays.asList(super.createCmdArray()));
+			vmArgs.addAll(linkArguments);
+			return vmArgs.toArray(new String[vmArgs.size()]);
+		}
+		final List<String> options = createLinkOptions();
+		if (successorPort == null && options.isEmpty()) {
 			return super.createCmdArray();
 		}
 		final List<String> argsList = Arrays.asList(super.createCmdArray());
 		final ArrayList<String> vmArgs = new ArrayList<String>(argsList);
-		vmArgs.add(successorPort.toString());
+		vmArgs.add(successorPort == null ? "0" : successorPort.toString());
+		vmArgs.addAll(options);
 		return (String[]) vmArgs.toArray(new String[vmArgs.size()]);
 	}
 
+	/**
+	 * Creates the optional 'name=value' arguments for the link process, 
+	 * they are appended after the successor port.
+	 * 
+	 * @return list of link options, may be empty
+	 */
+	protected List<String> createLinkOptions() {
+		final List<String> options = new ArrayList<String>();
+		if (metricsPort > 0) {
+			options.add("metricsPort=" + metricsPort);
+			options.add("linkIndex=" + linkIndex);
+			options.add("metricsInterval=" + metricsInterval);
+		}
+		if (sessionMode) {
+			options.add("session=true");
+		}
+		if (graphMode) {
+			options.add("graph=true");
+		}
+		if (spoolDir != null) {
+			options.add("spoolDir=" + spoolDir.getAbsolutePath());
+			options.add("spoolQuota=" + spoolQuota);
+		}
+		return options;
+	}
+
+	/**
+	 * Creates the successor port and link options of the remote task process. Ports of this 
+	 * process are tunneled, given as <code>tunnel:port</code>. A remote successor is connected
+	 * on its server if it runs on the same server, else directly if its server is reachable 
+	 * from this server, i.e. it is not addressed by a loopback name while this one is not.
+	 */
+	@Override
+	protected List<String> createRemoteLinkArgs() throws IOException {
+		final List<String> args = new ArrayList<String>();
+		final List<String> options = createLinkOptions();
+		if (successorPort == null && options.isEmpty()) {
+			return args;
+		}
+		String successorHost = null;
+		if (successorPort == null || successorPort == 0) {
+			args.add("0");
+		} else if (successorLink != null && successorLink.host != null && successorLink.remoteListenerPort > 0
+				&& isReachable(host, successorLink.host)) {
+			args.add(Integer.toString(successorLink.remoteListenerPort));
+			final InetSocketAddress successorServer = ForkClient.parseAddress(successorLink.host);
+			if (!successorServer.equals(ForkClient.parseAddress(host))) {
+				successorHost = successorServer.getHostString();
+			}
+		} else {
+			args.add("tunnel:" + successorPort);
+		}
+		for (final String option : options) {
+			// metrics are collected by this process
+			args.add(option.startsWith("metricsPort=") ? "metricsPort=tunnel:" + metricsPort : option);
+		}
+		if (successorHost != null) {
+			args.add("successorHost=" + successorHost);
+		}
+		return args;
+	}
+
+	private static boolean isReachable(final String fromServer, final String toServer) {
+		return !isLoopback(toServer) || isLoopback(fromServer);
+	}
+
+	private static boolean isLoopback(final String server) {
+		final InetSocketAddress address = ForkClient.parseAddress(server);
+		return address.getAddress() != null && address.getAddress().isLoopbackAddress();
+	}
 	
 }
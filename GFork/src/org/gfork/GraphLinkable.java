@@ -0,0 +1,91 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+
+import org.gfork.helpers.GraphLinkableAdapter;
+
+/**
+ * Defines the interface of tasks with multiple named input and output ports,
+ * used as nodes of a {@link ForkGraph}. The predecessor and successor streams of
+ * {@link Linkable} are mapped to the default ports {@link ForkGraph#IN} and 
+ * {@link ForkGraph#OUT}, so graph tasks can be used in a {@link ForkChain} too.
+ * 
+ * @see GraphLinkableAdapter
+ */
+public interface GraphLinkable extends Linkable {
+
+	/**
+	 * @return names of the input ports, a {@link ForkGraph} rejects edges to other ports
+	 */
+	public Set<String> getInputPorts();
+
+	/**
+	 * @return names of the output ports, a {@link ForkGraph} rejects edges from other ports
+	 */
+	public Set<String> getOutputPorts();
+
+	/**
+	 * Set the data input of a named input port.
+	 * 
+	 * @param port name of the input port
+	 * @param in data from the connected output port(s)
+	 * @throws IOException
+	 */
+	public void setInputStream(String port, InputStream in) throws IOException;
+
+	/**
+	 * Set the data output of a named output port.
+	 * 
+	 * @param port name of the output port
+	 * @param out stream to the connected input port(s)
+	 * @throws IOException
+	 */
+	public void setOutputStream(String port, OutputStream out) throws IOException;
+
+	@Override
+	public default void setPredTaskReadStream(InputStream in) throws IOException {
+		setInputStream(ForkGraph.IN, in);
+	}
+
+	@Override
+	public default void setSuccTaskWriteStream(OutputStream out) throws IOException {
+		setOutputStream(ForkGraph.OUT, out);
+	}
+
+	/**
+	 * Back channels are not supported by graph tasks.
+	 */
+	@Override
+	public default void setPredTaskWriteStream(OutputStream out) throws IOException {
+	}
+
+	/**
+	 * Back channels are not supported by graph tasks.
+	 */
+	@Override
+	public default void setSuccTaskReadStream(InputStream in) throws IOException {
+	}
+}
@@ -0,0 +1,294 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.internal.metrics.LinkMeter;
+import org.gfork.internal.metrics.MetricsReporter;
+import org.gfork.internal.run.LinkSession;
+
+/**
+ * A {@link ForkChain} link which runs its {@link Linkable} task on a thread of the parent 
+ * process instead of a separate JVM. Use it for cheap stages like filters and formatters:
+ * neighbouring in-process links and the chain's begin and end are connected by in-memory
+ * pipes, so a stage costs a buffer handoff instead of a process and a socket hop. Forked
+ * neighbours are connected by sockets as usual, in-process and forked links can be mixed freely.
+ * <p>
+ * The task is neither serialized nor isolated, it runs in the parent's class loader and heap.
+ * Per default a daemon platform thread runs the task, use {@link #setThreadFactory(ThreadFactory)} 
+ * to run it e.g. on a virtual thread ({@code Thread.ofVirtual().factory()}, Java 21).
+ *
+ * @param <TASK_TYPE> the task type, template upper bound type is {@link Linkable}
+ * @param <RETURN_TYPE> the return value type of the task method
+ */
+public class InProcessLink<TASK_TYPE extends Linkable, RETURN_TYPE> implements ChainLink {
+
+	private final static Logger log = Logger.getLogger(InProcessLink.class.getName());
+
+	private final TASK_TYPE task;
+	private final Method method;
+	private final Object[] args;
+	private ThreadFactory threadFactory;
+
+	private Thread thread;
+	private InputStream predIn;
+	private OutputStream predOut;
+	private ServerSocket predListener;
+	private Socket predSocket;
+	private InputStream succIn;
+	private OutputStream succOut;
+	private Socket succSocket;
+
+	private volatile boolean finished;
+	private volatile Throwable exception;
+	private volatile RETURN_TYPE returnValue;
+
+	/**
+	 * Convenience constructor to execute the method 'public void run()' of the task.
+	 * 
+	 * @param task a task that implements {@link Runnable}
+	 * @throws NoSuchMethodException task does not implement 'public void run()'
+	 */
+	public InProcessLink(final TASK_TYPE task) throws NoSuchMethodException {
+		this(task, runMethod(task));
+	}
+
+	/**
+	 * @param task the link task
+	 * @param method public method of the task's class to execute
+	 * @param args method arguments
+	 */
+	public InProcessLink(final TASK_TYPE task, final Method method, final Object... args) {
+		if (task == null || method == null) {
+			throw new IllegalArgumentException("Null not allowed for parameters task and method.");
+		}
+		if (!method.getDeclaringClass().isInstance(task)) {
+			throw new IllegalArgumentException(String.format("Method %s is not a method of task %s.",
+					method.getName(), task.getClass().getName()));
+		}
+		if (method.getParameterTypes().length != args.length) {
+			throw new IllegalArgumentException(String.format("Method %s expects %d argument(s), got %d.",
+					method.getName(), method.getParameterTypes().length, args.length));
+		}
+		this.task = task;
+		this.method = method;
+		this.args = args;
+	}
+
+	private static Method runMethod(final Linkable task) throws NoSuchMethodException {
+		if (!(task instanceof Runnable)) {
+			throw new NoSuchMethodException(String.format("Task %s does not implement %s.",
+					task.getClass().getName(), Runnable.class.getName()));
+		}
+		return task.getClass().getMethod("run");
+	}
+
+	/**
+	 * Defines the factory of the thread which runs the task, must be called before the chain is executed.
+	 */
+	public void setThreadFactory(final ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	public TASK_TYPE getTask() {
+		return task;
+	}
+
+	/**
+	 * For internal use only: the predecessor is the chain begin or an in-process link.
+	 */
+	void setPredecessorStreams(final InputStream in, final OutputStream out) {
+		this.predIn = in;
+		this.predOut = out;
+	}
+
+	/**
+	 * For internal use only: a forked predecessor connects to the given listener.
+	 */
+	void setPredecessorListener(final ServerSocket listener) {
+		this.predListener = listener;
+	}
+
+	/**
+	 * For internal use only: the successor is the chain end or an in-process link.
+	 */
+	void setSuccessorStreams(final OutputStream out, final InputStream in) {
+		this.succOut = out;
+		this.succIn = in;
+	}
+
+	/**
+	 * For internal use only: connects to the listener of a forked successor.
+	 */
+	void connectSuccessor(final int port) throws IOException {
+		succSocket = new Socket("127.0.0.1", port);
+		this.succOut = succSocket.getOutputStream();
+		this.succIn = succSocket.getInputStream();
+	}
+
+	/**
+	 * For internal use only: starts the task thread.
+	 * 
+	 * @param linkIndex position of this link in its chain
+	 * @param sessionMode see {@link ForkChain#setSessionMode(boolean)}
+	 * @param metricsPort port of the chain's metrics collector or 0
+	 * @param metricsInterval metrics reporting interval
+	 */
+	synchronized void start(final int linkIndex, final boolean sessionMode, final int metricsPort,
+			final long metricsInterval) {
+		if (thread != null) {
+			throw new IllegalStateException("In-process link is already executing.");
+		}
+		final Runnable runner = new Runnable() {
+			@Override
+			public void run() {
+				runTask(linkIndex, sessionMode, metricsPort, metricsInterval);
+			}
+		};
+		thread = threadFactory == null ? new Thread(runner) : threadFactory.newThread(runner);
+		if (threadFactory == null) {
+			thread.setName("jforkInProcessLink-" + linkIndex);
+			thread.setDaemon(true);
+		}
+		thread.start();
+	}
+
+	/**
+	 * Waits until the task method has returned.
+	 * 
+	 * @throws InterruptedException
+	 * @throws IllegalStateException the link was not started yet
+	 */
+	public void waitFor() throws InterruptedException {
+		final Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t == null) {
+			throw new IllegalStateException("In-process link was not started yet.");
+		}
+		t.join();
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Waits until the task has finished and retrieves the exception thrown by the task.
+	 * 
+	 * @return null if the task ended normally
+	 * @throws InterruptedException
+	 */
+	public Throwable getException() throws InterruptedException {
+		waitFor();
+		return exception;
+	}
+
+	/**
+	 * Waits until the task has finished and retrieves the return value of the task method,
+	 * in session mode the value returned for the last logical stream.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public RETURN_TYPE getReturnValue() throws InterruptedException {
+		waitFor();
+		return returnValue;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void runTask(final int linkIndex, final boolean sessionMode, final int metricsPort,
+			final long metricsInterval) {
+		MetricsReporter reporter = null;
+		try {
+			if (predListener != null) {
+				predSocket = predListener.accept();
+				predListener.close();
+				predIn = predSocket.getInputStream();
+				predOut = predSocket.getOutputStream();
+			}
+			LinkMeter meter = null;
+			if (metricsPort > 0) {
+				meter = new LinkMeter(linkIndex);
+				meter.setBufferProbe(predIn);
+				reporter = new MetricsReporter(meter, metricsPort, metricsInterval);
+				reporter.start();
+			}
+			task.setPredTaskWriteStream(predOut);
+			task.setSuccTaskReadStream(succIn);
+			if (sessionMode) {
+				returnValue = (RETURN_TYPE) LinkSession.execute(task, method, args, predIn, succOut, meter,
+						Fork.loggingEnabled);
+			} else {
+				task.setPredTaskReadStream(LinkSession.meter(predIn, meter));
+				final OutputStream out = LinkSession.meter(succOut, meter);
+				task.setSuccTaskWriteStream(out);
+				task.init(Fork.loggingEnabled);
+				returnValue = (RETURN_TYPE) method.invoke(task, args);
+				out.close(); // successor sees end of stream even if the task did not close it
+			}
+		} catch (final InvocationTargetException e) {
+			failed(e.getCause() == null ? e : e.getCause());
+		} catch (final Throwable e) {
+			failed(e);
+		} finally {
+			if (reporter != null) {
+				reporter.finish();
+			}
+			disconnect();
+			finished = true;
+		}
+	}
+
+	private void failed(final Throwable e) {
+		log.log(Level.SEVERE, "in-process link task failed", e);
+		exception = e;
+	}
+
+	private void disconnect() {
+		try {
+			if (succOut != null) {
+				succOut.close();
+			}
+			if (predIn != null) {
+				predIn.close();
+			}
+			if (succSocket != null) {
+				succSocket.close();
+			}
+			if (predSocket != null) {
+				predSocket.close();
+			}
+		} catch (final IOException e) {
+			log.log(Level.WARNING, "closing in-process link streams failed", e);
+		}
+	}
+}
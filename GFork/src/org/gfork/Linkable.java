@@ -68,4 +68,25 @@ public interface Linkable extends Serializable {
 	 * @throws IOException
 	 */
 	public void init(boolean loggingEnabled) throws IOException;
+
+	/**
+	 * Session mode only, see {@link ForkChain#setSessionMode(boolean)}: invoked before the task 
+	 * method processes the next logical stream. The predecessor and successor streams are 
+	 * already set to the new logical stream.
+	 * 
+	 * @param streamIndex number of the logical stream within the session, starting with 0
+	 * @throws IOException
+	 */
+	public default void onStreamStart(int streamIndex) throws IOException {
+	}
+
+	/**
+	 * Session mode only: invoked after the task method has processed a logical stream
+	 * and its end was signaled to the successor.
+	 * 
+	 * @param streamIndex number of the logical stream within the session, starting with 0
+	 * @throws IOException
+	 */
+	public default void onStreamEnd(int streamIndex) throws IOException {
+	}
 }
@@ -0,0 +1,55 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an idempotent method of a {@link CallableTask} whose return values may be cached.
+ * {@link ForkCallable} returns the cached value of a call with equal arguments without 
+ * calling the task, optionally the task caches return values as well, e.g. for calls of 
+ * several parents. Cached return values are shared by all callers and must not be modified.
+ * See {@link ForkCallable#getCacheStats()} and {@link ForkCallable#invalidateCache(java.lang.reflect.Method)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Memoize {
+
+	/**
+	 * @return maximum number of cached return values of the method, the least recently used is evicted
+	 */
+	int maxEntries() default 1000;
+
+	/**
+	 * @return time a return value stays cached, 0 for no expiry
+	 */
+	long ttlMillis() default 0;
+
+	/**
+	 * @return true if the task process caches return values too
+	 */
+	boolean childCache() default false;
+}
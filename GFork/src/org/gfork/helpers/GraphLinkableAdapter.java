@@ -0,0 +1,77 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gfork.GraphLinkable;
+
+/**
+ * Default implementation of {@link GraphLinkable} which keeps the port streams,
+ * use {@link #getInputStream(String)} and {@link #getOutputStream(String)} in the task method.
+ */
+public abstract class GraphLinkableAdapter implements GraphLinkable {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient Map<String, InputStream> inputs;
+	private transient Map<String, OutputStream> outputs;
+
+	@Override
+	public synchronized void setInputStream(final String port, final InputStream in) throws IOException {
+		if (inputs == null) {
+			inputs = new HashMap<String, InputStream>();
+		}
+		inputs.put(port, in);
+	}
+
+	@Override
+	public synchronized void setOutputStream(final String port, final OutputStream out) throws IOException {
+		if (outputs == null) {
+			outputs = new HashMap<String, OutputStream>();
+		}
+		outputs.put(port, out);
+	}
+
+	@Override
+	public void init(final boolean isLoggingEnabled) throws IOException {
+	}
+
+	/**
+	 * @param port name of the input port
+	 * @return input stream of the port or null if the port is not connected
+	 */
+	protected synchronized InputStream getInputStream(final String port) {
+		return inputs == null ? null : inputs.get(port);
+	}
+
+	/**
+	 * @param port name of the output port
+	 * @return output stream of the port or null if the port is not connected
+	 */
+	protected synchronized OutputStream getOutputStream(final String port) {
+		return outputs == null ? null : outputs.get(port);
+	}
+}
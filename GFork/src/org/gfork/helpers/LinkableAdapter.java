@@ -25,6 +25,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.gfork.Linkable;
+import org.gfork.internal.stream.MeteredInputStream;
+import org.gfork.internal.stream.MeteredOutputStream;
 
 public abstract class LinkableAdapter implements Linkable {
 
@@ -59,5 +61,24 @@ public abstract class LinkableAdapter implements Linkable {
 	@Override
 	public void init(boolean isLoggingEnabled) throws IOException {
 	}
+
+	/**
+	 * Counts a record read from the predecessor if link metrics are enabled,
+	 * see {@link org.gfork.ForkChain#enableMetrics(long)}.
+	 */
+	protected void countRecordIn() {
+		if (predReadStream instanceof MeteredInputStream) {
+			((MeteredInputStream) predReadStream).getMeter().countRecordIn();
+		}
+	}
+
+	/**
+	 * Counts a record written to the successor if link metrics are enabled.
+	 */
+	protected void countRecordOut() {
+		if (succWriteStream instanceof MeteredOutputStream) {
+			((MeteredOutputStream) succWriteStream).getMeter().countRecordOut();
+		}
+	}
 	
 }
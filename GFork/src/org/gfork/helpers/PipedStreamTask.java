@@ -45,6 +45,7 @@ public class PipedStreamTask extends LinkableAdapter {
 		try {
 			log.info("start processing");
 			while((len = in.read(b)) > 0) {
+				countRecordIn();
 				process(out, b, len);
 			}
 			log.info("end processing");
@@ -56,6 +57,7 @@ public class PipedStreamTask extends LinkableAdapter {
 
 	protected void process(BufferedOutputStream out, byte[] b, int len) throws IOException {
 		out.write(b, 0, len);
+		countRecordOut();
 	}
 
 	public synchronized void setOutBufferSize(int outBufferSize) {
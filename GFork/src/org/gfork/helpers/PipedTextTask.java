@@ -42,6 +42,7 @@ public class PipedTextTask extends LinkableAdapter implements Runnable {
 		try {
 			log.info("start processing");
 			while((line = in.readLine()) != null) {
+				countRecordIn();
 				process(out, line);
 			}
 			log.info("end processing");
@@ -53,5 +54,6 @@ public class PipedTextTask extends LinkableAdapter implements Runnable {
 
 	protected void process(final PrintWriter out, final String line) {
 		out.println(line);
+		countRecordOut();
 	}
 }
@@ -0,0 +1,161 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.graph;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
+
+import org.gfork.ForkGraph;
+import org.gfork.GraphLinkable;
+import org.gfork.Linkable;
+import org.gfork.internal.stream.LineMergeInputStream;
+import org.gfork.internal.stream.LinePartitionOutputStream;
+import org.gfork.internal.stream.TeeOutputStream;
+
+/**
+ * Connects the ports of a graph node task inside the node process. All connections
+ * arrive at one listener and start with a header naming the input port or the control
+ * connection which delivers the {@link NodeWiring}. Output ports are connected as soon as
+ * the wiring is known, so nodes never wait for each other.
+ */
+public class GraphNodeConnector {
+
+	private final static Logger log = Logger.getLogger(GraphNodeConnector.class.getName());
+
+	private final List<Socket> sockets = new ArrayList<Socket>();
+	private final Map<String, List<InputStream>> inputs = new LinkedHashMap<String, List<InputStream>>();
+	private final List<OutputStream> outputs = new ArrayList<OutputStream>();
+
+	/**
+	 * Prints the listener port as fork status info, waits for the wiring and all input
+	 * connections and sets the port streams of the task.
+	 */
+	public void connect(final Linkable task) throws IOException, ClassNotFoundException {
+		final ServerSocket listener = new ServerSocket(0);
+		System.out.printf("port:%d%n", listener.getLocalPort());
+		System.out.flush();
+		log.info(String.format("graph node listener established, port is %d", listener.getLocalPort()));
+		NodeWiring wiring = null;
+		int connections = 0;
+		while (wiring == null || connections < wiring.getExpectedConnections()) {
+			final Socket socket = listener.accept();
+			sockets.add(socket);
+			final String header = new DataInputStream(socket.getInputStream()).readUTF();
+			if (NodeWiring.CONTROL_HEADER.equals(header)) {
+				wiring = (NodeWiring) new ObjectInputStream(socket.getInputStream()).readObject();
+				connectOutputs(task, wiring);
+			} else {
+				List<InputStream> portInputs = inputs.get(header);
+				if (portInputs == null) {
+					portInputs = new ArrayList<InputStream>();
+					inputs.put(header, portInputs);
+				}
+				portInputs.add(socket.getInputStream());
+				connections++;
+			}
+		}
+		listener.close();
+		for (final Entry<String, List<InputStream>> input : inputs.entrySet()) {
+			final List<InputStream> streams = input.getValue();
+			setInput(task, input.getKey(), streams.size() == 1 ? streams.get(0) : new LineMergeInputStream(streams));
+		}
+		log.info(String.format("graph node connected: %d input(s), %d output(s)", connections, outputs.size()));
+	}
+
+	/**
+	 * Closes all outputs, successors see end of stream, and all connections.
+	 */
+	public void disconnect() throws IOException {
+		for (final OutputStream out : outputs) {
+			try {
+				out.close();
+			} catch (final IOException e) {
+				// already closed by the task
+			}
+		}
+		for (final Socket socket : sockets) {
+			socket.close();
+		}
+	}
+
+	private void connectOutputs(final Linkable task, final NodeWiring wiring) throws IOException {
+		for (final Entry<String, NodeWiring.Output> output : wiring.getOutputs().entrySet()) {
+			final List<OutputStream> targets = new ArrayList<OutputStream>();
+			for (final NodeWiring.Target target : output.getValue().targets) {
+				final Socket socket = new Socket(target.host, target.port);
+				sockets.add(socket);
+				final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				out.writeUTF(target.inputPort);
+				out.flush();
+				targets.add(socket.getOutputStream());
+			}
+			final OutputStream out;
+			switch (output.getValue().mode) {
+			case BROADCAST:
+				out = new TeeOutputStream(targets);
+				break;
+			case PARTITION:
+				out = new LinePartitionOutputStream(targets);
+				break;
+			default:
+				out = targets.get(0);
+			}
+			outputs.add(out);
+			setOutput(task, output.getKey(), out);
+		}
+	}
+
+	private void setInput(final Linkable task, final String port, final InputStream in) throws IOException {
+		if (task instanceof GraphLinkable) {
+			((GraphLinkable) task).setInputStream(port, in);
+		} else if (ForkGraph.IN.equals(port)) {
+			task.setPredTaskReadStream(in);
+		} else {
+			throw new IllegalArgumentException(String.format(
+					"Task %s supports port '%s' only, implement GraphLinkable for named ports.",
+					task.getClass().getName(), ForkGraph.IN));
+		}
+	}
+
+	private void setOutput(final Linkable task, final String port, final OutputStream out) throws IOException {
+		if (task instanceof GraphLinkable) {
+			((GraphLinkable) task).setOutputStream(port, out);
+		} else if (ForkGraph.OUT.equals(port)) {
+			task.setSuccTaskWriteStream(out);
+		} else {
+			throw new IllegalArgumentException(String.format(
+					"Task %s supports port '%s' only, implement GraphLinkable for named ports.",
+					task.getClass().getName(), ForkGraph.OUT));
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.graph;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gfork.ForkGraph;
+
+/**
+ * Wiring of a single graph node, sent by {@link ForkGraph} to the node process
+ * after all node processes have been started.
+ */
+public class NodeWiring implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Connection header of the control connection which transfers the wiring.
+	 */
+	public static final String CONTROL_HEADER = "#control";
+
+	public enum Mode {
+		/** single target */
+		DIRECT,
+		/** every target receives all data */
+		BROADCAST,
+		/** lines are distributed round-robin to the targets */
+		PARTITION
+	}
+
+	/**
+	 * Input port of a node process where an output port is connected to.
+	 */
+	public static class Target implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final String host;
+		public final int port;
+		public final String inputPort;
+
+		public Target(final String host, final int port, final String inputPort) {
+			this.host = host;
+			this.port = port;
+			this.inputPort = inputPort;
+		}
+	}
+
+	public static class Output implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public final Mode mode;
+		public final List<Target> targets = new ArrayList<Target>();
+
+		public Output(final Mode mode) {
+			this.mode = mode;
+		}
+	}
+
+	private final Map<String, Output> outputs = new LinkedHashMap<String, Output>();
+	private final Map<String, Integer> inputConnections = new LinkedHashMap<String, Integer>();
+
+	public Output addOutput(final String port, final Mode mode) {
+		final Output output = new Output(mode);
+		outputs.put(port, output);
+		return output;
+	}
+
+	/**
+	 * Adds an expected incoming connection to an input port, more than one
+	 * connection means the inputs are merged.
+	 */
+	public void addInputConnection(final String port) {
+		final Integer count = inputConnections.get(port);
+		inputConnections.put(port, count == null ? 1 : count + 1);
+	}
+
+	public Map<String, Output> getOutputs() {
+		return outputs;
+	}
+
+	public Map<String, Integer> getInputConnections() {
+		return inputConnections;
+	}
+
+	public int getExpectedConnections() {
+		int count = 0;
+		for (final Integer c : inputConnections.values()) {
+			count += c;
+		}
+		return count;
+	}
+}
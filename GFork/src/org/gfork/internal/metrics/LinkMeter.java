@@ -0,0 +1,104 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gfork.internal.stream.SpoolInputStream;
+import org.gfork.types.LinkMetrics;
+
+/**
+ * Live I/O counters of a link task, updated by the metered link streams
+ * and read by the metrics reporter.
+ */
+public class LinkMeter {
+
+	private final int linkIndex;
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong recordsIn = new AtomicLong();
+	private final AtomicLong recordsOut = new AtomicLong();
+	private final AtomicLong readBlockedNanos = new AtomicLong();
+	private final AtomicLong writeBlockedNanos = new AtomicLong();
+	private InputStream bufferProbe;
+	private SpoolInputStream spool;
+
+	public LinkMeter(final int linkIndex) {
+		this.linkIndex = linkIndex;
+	}
+
+	public int getLinkIndex() {
+		return linkIndex;
+	}
+
+	/**
+	 * Defines the raw input stream of the link which is asked for the number
+	 * of available bytes to report the buffer fill.
+	 */
+	public void setBufferProbe(final InputStream bufferProbe) {
+		this.bufferProbe = bufferProbe;
+	}
+
+	/**
+	 * Defines the input spool of the link which is asked for its depth.
+	 */
+	public void setSpool(final SpoolInputStream spool) {
+		this.spool = spool;
+	}
+
+	public void addBytesIn(final long bytes, final long blockedNanos) {
+		bytesIn.addAndGet(bytes);
+		readBlockedNanos.addAndGet(blockedNanos);
+	}
+
+	public void addBytesOut(final long bytes, final long blockedNanos) {
+		bytesOut.addAndGet(bytes);
+		writeBlockedNanos.addAndGet(blockedNanos);
+	}
+
+	public void countRecordIn() {
+		recordsIn.incrementAndGet();
+	}
+
+	public void countRecordOut() {
+		recordsOut.incrementAndGet();
+	}
+
+	public LinkMetrics snapshot(final boolean finished) {
+		return new LinkMetrics(linkIndex, bytesIn.get(), bytesOut.get(), recordsIn.get(), recordsOut.get(),
+				readBlockedNanos.get(), writeBlockedNanos.get(), probeBufferFill(),
+				spool == null ? 0 : spool.getDepth(), finished);
+	}
+
+	private int probeBufferFill() {
+		final InputStream probe = bufferProbe;
+		if (probe == null) {
+			return 0;
+		}
+		try {
+			return probe.available();
+		} catch (final IOException e) {
+			return 0; // stream closed
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.types.LinkMetrics;
+
+/**
+ * Runs in the parent process of a chain and keeps the latest
+ * {@link LinkMetrics} snapshot reported by every link process.
+ */
+public class MetricsCollector {
+
+	private final static Logger log = Logger.getLogger(MetricsCollector.class.getName());
+
+	private final AtomicReferenceArray<LinkMetrics> latest;
+	private final ServerSocket listener;
+	private volatile boolean closed;
+
+	public MetricsCollector(final int links) throws IOException {
+		this.latest = new AtomicReferenceArray<LinkMetrics>(links);
+		this.listener = new ServerSocket(0);
+		final Thread acceptor = new Thread("jforkMetricsCollector") {
+			@Override
+			public void run() {
+				try {
+					while (!closed) {
+						startReader(listener.accept());
+					}
+				} catch (final IOException e) {
+					if (!closed) {
+						log.log(Level.WARNING, "metrics listener stopped", e);
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return listener.getLocalPort();
+	}
+
+	/**
+	 * Updates the snapshot of a link, used for links reporting from within the parent process.
+	 */
+	public void update(final LinkMetrics metrics) {
+		latest.set(metrics.getLinkIndex(), metrics);
+	}
+
+	/**
+	 * @return latest snapshot of every link, entries are null until a link reported for the first time
+	 */
+	public LinkMetrics[] getSnapshot() {
+		final LinkMetrics[] snapshot = new LinkMetrics[latest.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = latest.get(i);
+		}
+		return snapshot;
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		listener.close();
+	}
+
+	private void startReader(final Socket socket) {
+		final Thread reader = new Thread("jforkMetricsReader") {
+			@Override
+			public void run() {
+				try {
+					final ObjectInputStream oin = new ObjectInputStream(socket.getInputStream());
+					while (true) {
+						update((LinkMetrics) oin.readObject());
+					}
+				} catch (final EOFException e) {
+					// link process finished reporting
+				} catch (final Exception e) {
+					if (!closed) {
+						log.log(Level.FINE, "metrics reader stopped", e);
+					}
+				} finally {
+					try {
+						socket.close();
+					} catch (final IOException e) {
+						// ignore
+					}
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.metrics;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs in a link process and periodically sends snapshots of its {@link LinkMeter}
+ * to the {@link MetricsCollector} of the parent process (side channel).
+ */
+public class MetricsReporter extends Thread {
+
+	private final static Logger log = Logger.getLogger(MetricsReporter.class.getName());
+
+	private final LinkMeter meter;
+	private final long intervalMillis;
+	private final Socket socket;
+	private final ObjectOutputStream oout;
+	private volatile boolean stop;
+
+	public MetricsReporter(final LinkMeter meter, final int collectorPort, final long intervalMillis)
+			throws IOException {
+		super("jforkMetricsReporter");
+		setDaemon(true);
+		this.meter = meter;
+		this.intervalMillis = intervalMillis;
+		this.socket = new Socket("127.0.0.1", collectorPort);
+		this.oout = new ObjectOutputStream(socket.getOutputStream());
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!stop) {
+				Thread.sleep(intervalMillis);
+				send(false);
+			}
+		} catch (final InterruptedException e) {
+			// finish() was called
+		} catch (final IOException e) {
+			log.log(Level.WARNING, "metrics reporting stopped", e);
+		}
+	}
+
+	/**
+	 * Stops periodic reporting and sends the final snapshot.
+	 */
+	public void finish() {
+		stop = true;
+		interrupt();
+		try {
+			join(intervalMillis);
+			send(true);
+			socket.close();
+		} catch (final Exception e) {
+			log.log(Level.WARNING, "sending final metrics failed", e);
+		}
+	}
+
+	private void send(final boolean finished) throws IOException {
+		synchronized (oout) {
+			oout.writeObject(meter.snapshot(finished));
+			oout.reset(); // snapshots are immutable, don't keep them in the stream handle table
+			oout.flush();
+		}
+	}
+}
@@ -6,10 +6,16 @@ public enum Command {
 	run, runMethod, getMethodReturnValue, runOk, 
 	waitFor, waitForFinished, waitForError, 
 	getTask, 
-	getStdErr, 
-	getStdOut, 
 	getExitValue, 
 	kill, killOk,
 	connectClose, connectCloseOk, 
-	isFinished
+	isFinished,
+	ping, pong,
+	findClass, classFound, classNotFound, getClass, loadClass,
+	classpath, putArtifact, putArtifactOk,
+	queued, rejected,
+	status, statusOk,
+	link, linkOk, linkPort, linkPortOk,
+	tunnelOpen, tunnelAck, tunnelClose,
+	error
 }
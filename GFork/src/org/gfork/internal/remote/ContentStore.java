@@ -0,0 +1,165 @@
+package org.gfork.internal.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content-addressed store, an entry is a file named by the SHA-256 hash of its content, e.g.
+ * class bytecode or class path jars. The store is shared by all clients and forks of a server
+ * and survives server restarts, so the classes of a build are transferred once, whoever
+ * submits them.
+ */
+public class ContentStore {
+
+	private final File dir;
+	private final String suffix;
+	private final AtomicInteger addedCount = new AtomicInteger();
+
+	/**
+	 * @param suffix
+	 *            file name suffix of the entries, e.g. <code>.class</code>
+	 */
+	public ContentStore(File dir, String suffix) {
+		this.dir = dir;
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @return SHA-256 hash of the bytes as lower case hex string
+	 */
+	public static String hash(byte[] bytes) {
+		return toHex(newDigest().digest(bytes));
+	}
+
+	/**
+	 * @return SHA-256 hash of the stream content, read to its end in chunks
+	 */
+	public static String hash(InputStream in) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] chunk = new byte[64 * 1024];
+		int n;
+		while ((n = in.read(chunk)) >= 0) {
+			digest.update(chunk, 0, n);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] hash) {
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : hash) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	public boolean contains(String hash) {
+		return getFile(hash).isFile();
+	}
+
+	/**
+	 * @return content of an entry, null if not stored
+	 */
+	public byte[] get(String hash) throws IOException {
+		File file = getFile(hash);
+		if (!file.isFile()) {
+			return null;
+		}
+		return Files.readAllBytes(file.toPath());
+	}
+
+	/**
+	 * Adds an entry, a file is written completely before it becomes visible to readers.
+	 *
+	 * @return hash of the bytes
+	 */
+	public String put(byte[] bytes) throws IOException {
+		String hash = hash(bytes);
+		File file = getFile(hash);
+		if (file.isFile()) {
+			return hash;
+		}
+		Files.createDirectories(dir.toPath());
+		Path tmp = Files.createTempFile(dir.toPath(), hash, ".tmp");
+		try {
+			Files.write(tmp, bytes);
+			Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			addedCount.incrementAndGet();
+		} catch (FileAlreadyExistsException e) {
+			// stored concurrently, same content
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return new temporary file in the store directory, e.g. for content received in chunks,
+	 *         see {@link #putFile(File)}
+	 */
+	public File createTempFile() throws IOException {
+		Files.createDirectories(dir.toPath());
+		return Files.createTempFile(dir.toPath(), "upload", ".tmp").toFile();
+	}
+
+	/**
+	 * Adds an entry by moving a temporary file of {@link #createTempFile()} into the store, the
+	 * file is deleted if the content is stored already.
+	 *
+	 * @return hash of the file content
+	 */
+	public String putFile(File file) throws IOException {
+		String hash;
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			hash = hash(in);
+		}
+		File target = getFile(hash);
+		try {
+			if (!target.isFile()) {
+				Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				addedCount.incrementAndGet();
+			}
+		} catch (FileAlreadyExistsException e) {
+			// stored concurrently, same content
+		} finally {
+			Files.deleteIfExists(file.toPath());
+		}
+		return hash;
+	}
+
+	/**
+	 * @return number of entries added by this instance, i.e. content transferred to the server
+	 */
+	public int getAddedCount() {
+		return addedCount.get();
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @return file of an entry, it may not exist
+	 */
+	public File getFile(String hash) {
+		if (!hash.matches("[0-9a-f]{64}")) {
+			throw new IllegalArgumentException("invalid hash '" + hash + "'");
+		}
+		return new File(dir, hash + suffix);
+	}
+}
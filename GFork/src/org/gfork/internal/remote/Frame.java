@@ -0,0 +1,250 @@
+package org.gfork.internal.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.gfork.internal.stream.ClassLoaderObjectInputStream;
+
+/**
+ * Message of the remote protocol. Client and server exchange all messages of a connection
+ * over one socket, each message is sent as a frame: payload length (int), type (byte), fork ID (int),
+ * payload. Many forks share a connection, the fork ID tells which fork a frame belongs to, frames
+ * with ID {@link #CONNECTION} concern the connection itself, e.g. handshake and health checks.
+ * <ul>
+ * <li>{@link Type#CONTROL}: command name and an optional argument, separated by a blank, UTF-8 encoded</li>
+ * <li>{@link Type#DATA}: a serialized object, e.g. a task or a return value</li>
+ * <li>{@link Type#STDOUT}, {@link Type#STDERR}: a chunk of the child process output</li>
+ * <li>{@link Type#CLASS}: bytecode of a class the server loads from the client</li>
+ * <li>{@link Type#ARTIFACT}: a jar of the client class path</li>
+ * <li>{@link Type#TUNNEL}: tunnel ID (int) and bytes of a tunneled TCP connection, see {@link Tunnels}</li>
+ * </ul>
+ * Objects a command needs are sent as data frames before the control frame of the command.
+ */
+public class Frame {
+
+	public enum Type {
+		CONTROL, DATA, STDOUT, STDERR, CLASS, ARTIFACT, TUNNEL
+	}
+
+	public static final int HEADER_LENGTH = 9;
+
+	/**
+	 * Fork ID of connection level frames.
+	 */
+	public static final int CONNECTION = 0;
+
+	/**
+	 * Larger frames are treated as corrupt stream.
+	 */
+	public static final int MAX_PAYLOAD_LENGTH = 256 * 1024 * 1024;
+
+	private static final Type[] TYPES = Type.values();
+
+	private final int forkId;
+	private final Type type;
+	private final byte[] payload;
+
+	public Frame(Type type, byte[] payload) {
+		this(CONNECTION, type, payload);
+	}
+
+	public Frame(int forkId, Type type, byte[] payload) {
+		this.forkId = forkId;
+		this.type = type;
+		this.payload = payload;
+	}
+
+	/**
+	 * @return this frame addressed to a fork, the payload is shared
+	 */
+	public Frame withForkId(int forkId) {
+		return forkId == this.forkId ? this : new Frame(forkId, type, payload);
+	}
+
+	public static Frame control(Command cmd) {
+		return control(cmd, null);
+	}
+
+	public static Frame control(Command cmd, String argument) {
+		String text = argument == null ? cmd.toString() : cmd + " " + argument;
+		return new Frame(Type.CONTROL, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static Frame data(Object obj) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(obj);
+		}
+		return new Frame(Type.DATA, bytes.toByteArray());
+	}
+
+	public static Frame text(Type type, String text) {
+		return new Frame(type, text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static Frame tunnel(int tunnelId, byte[] bytes, int offset, int length) {
+		return new Frame(Type.TUNNEL, ByteBuffer.allocate(4 + length).putInt(tunnelId).put(bytes, offset, length).array());
+	}
+
+	/**
+	 * @return tunnel ID of a {@link Type#TUNNEL} frame
+	 */
+	public int getTunnelId() {
+		return ByteBuffer.wrap(payload).getInt();
+	}
+
+	/**
+	 * @return tunneled bytes of a {@link Type#TUNNEL} frame
+	 */
+	public byte[] getTunnelBytes() {
+		byte[] bytes = new byte[payload.length - 4];
+		System.arraycopy(payload, 4, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	public int getForkId() {
+		return forkId;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public String getText() {
+		return new String(payload, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return command of a control frame, {@link Command#NAC} if unknown
+	 */
+	public Command getCommand() {
+		if (type != Type.CONTROL) {
+			return Command.NAC;
+		}
+		String text = getText();
+		int blank = text.indexOf(' ');
+		try {
+			return Command.valueOf(blank < 0 ? text : text.substring(0, blank));
+		} catch (IllegalArgumentException e) {
+			return Command.NAC;
+		}
+	}
+
+	/**
+	 * @return argument of a control frame, null if none
+	 */
+	public String getArgument() {
+		String text = getText();
+		int blank = text.indexOf(' ');
+		return blank < 0 ? null : text.substring(blank + 1);
+	}
+
+	public Object getObject() throws IOException, ClassNotFoundException {
+		return getObject(null);
+	}
+
+	/**
+	 * @param classLoader
+	 *            resolves the classes of the object, null for the default resolution
+	 */
+	public Object getObject(ClassLoader classLoader) throws IOException, ClassNotFoundException {
+		if (type != Type.DATA) {
+			throw new IllegalStateException("not a data frame: " + this);
+		}
+		try (ClassLoaderObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(payload),
+				classLoader)) {
+			return in.readObject();
+		}
+	}
+
+	/**
+	 * Writes the frame, the caller flushes the stream.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(payload.length);
+		out.writeByte(type.ordinal());
+		out.writeInt(forkId);
+		out.write(payload);
+	}
+
+	public ByteBuffer toByteBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+		buffer.putInt(payload.length).put((byte) type.ordinal()).putInt(forkId).put(payload);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads the next frame, blocks until it is received completely.
+	 *
+	 * @throws java.io.EOFException
+	 *             connection closed
+	 */
+	public static Frame read(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		Type type = toType(length, in.readByte());
+		int forkId = in.readInt();
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return new Frame(forkId, type, payload);
+	}
+
+	/**
+	 * Reads the next frame of a buffer filled by non-blocking reads.
+	 *
+	 * @param in
+	 *            buffer in read mode, the position is only moved if a complete frame is available
+	 * @return the frame or null if not received completely
+	 */
+	public static Frame read(ByteBuffer in) throws IOException {
+		if (in.remaining() < HEADER_LENGTH) {
+			return null;
+		}
+		int length = in.getInt(in.position());
+		Type type = toType(length, in.get(in.position() + 4));
+		if (in.remaining() < HEADER_LENGTH + length) {
+			return null;
+		}
+		int forkId = in.getInt(in.position() + 5);
+		in.position(in.position() + HEADER_LENGTH);
+		byte[] payload = new byte[length];
+		in.get(payload);
+		return new Frame(forkId, type, payload);
+	}
+
+	/**
+	 * @return number of bytes of the frame starting at the buffer position, or
+	 *         {@link #HEADER_LENGTH} if the header is incomplete
+	 */
+	public static int frameLength(ByteBuffer in) throws IOException {
+		if (in.remaining() < HEADER_LENGTH) {
+			return HEADER_LENGTH;
+		}
+		int length = in.getInt(in.position());
+		toType(length, in.get(in.position() + 4));
+		return HEADER_LENGTH + length;
+	}
+
+	private static Type toType(int length, byte type) throws IOException {
+		if (length < 0 || length > MAX_PAYLOAD_LENGTH || type < 0 || type >= TYPES.length) {
+			throw new StreamCorruptedException("invalid frame header, length=" + length + ", type=" + type);
+		}
+		return TYPES[type];
+	}
+
+	@Override
+	public String toString() {
+		return "fork " + forkId + " " + type + (type == Type.CONTROL ? " '" + getText() + "'" : " " + payload.length + " bytes");
+	}
+}
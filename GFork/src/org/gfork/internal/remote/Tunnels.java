@@ -0,0 +1,345 @@
+package org.gfork.internal.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TCP connections of a remote fork tunneled over the connection of client and server, used by
+ * remote links: a link task process connects to its successor, its predecessor connects to it
+ * and a {@link org.gfork.ForkCallable} connects to it for calls. Either side listens on a
+ * loopback port, see {@link #listen(int)}, a connection accepted there is opened by the other
+ * side to the target port ({@link Command#tunnelOpen}), the bytes are sent as
+ * {@link Frame.Type#TUNNEL} frames.
+ * <p>
+ * Each direction is flow controlled: at most {@link #WINDOW} bytes are sent but not yet written
+ * to the socket of the other side, written bytes are acknowledged ({@link Command#tunnelAck}).
+ * So a slow reader never blocks the frame reader of the connection. End of stream is sent as
+ * {@link Command#tunnelClose}, the socket is closed when both directions have ended. A tunnel
+ * binds two daemon threads on either side.
+ */
+public class Tunnels {
+
+	private static final Logger LOG = Logger.getLogger(Tunnels.class.getName());
+
+	/**
+	 * Maximum number of bytes in flight per tunnel and direction.
+	 */
+	public static final int WINDOW = 256 * 1024;
+
+	private static final int CHUNK_SIZE = 32 * 1024;
+
+	private static final byte[] END = new byte[0];
+
+	private static final byte[] RESET = new byte[0];
+
+	private static final String RESET_ARGUMENT = "reset";
+
+	private final Consumer<Frame> sender;
+	// IDs of tunnels opened by the client are positive, by the server negative
+	private final int idSign;
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final Map<Integer, Tunnel> tunnels = new ConcurrentHashMap<>();
+	private final List<ServerSocket> listeners = new CopyOnWriteArrayList<>();
+	private volatile boolean closed;
+
+	/**
+	 * @param sender
+	 *            sends a frame to the other side, addressed to the fork, it must not block
+	 * @param clientSide
+	 *            true for the client of a connection
+	 */
+	public Tunnels(Consumer<Frame> sender, boolean clientSide) {
+		this.sender = sender;
+		this.idSign = clientSide ? 1 : -1;
+	}
+
+	/**
+	 * @return true if the frame belongs to a tunnel, see {@link #receive(Frame)}
+	 */
+	public static boolean isTunnelFrame(Frame frame) {
+		Command cmd = frame.getCommand();
+		return frame.getType() == Frame.Type.TUNNEL || cmd == Command.tunnelOpen || cmd == Command.tunnelAck
+				|| cmd == Command.tunnelClose;
+	}
+
+	/**
+	 * Listens on a loopback port, every connection accepted is tunneled to the target port on
+	 * the loopback interface of the other side.
+	 *
+	 * @return listening port
+	 */
+	public int listen(int targetPort) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("tunnels are closed");
+		}
+		ServerSocket listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		listeners.add(listener);
+		start("jforkTunnelListener", () -> accept(listener, targetPort));
+		return listener.getLocalPort();
+	}
+
+	private void accept(ServerSocket listener, int targetPort) {
+		try {
+			while (!closed) {
+				Socket socket = listener.accept();
+				int id = idSign * nextId.incrementAndGet();
+				Tunnel tunnel = new Tunnel(id);
+				tunnels.put(id, tunnel);
+				// before any bytes of the tunnel
+				send(Frame.control(Command.tunnelOpen, id + " " + targetPort));
+				tunnel.start(socket);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (!closed) {
+				LOG.log(Level.WARNING, "tunnel listener to port " + targetPort + " failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Handles a tunnel frame of the other side, it does not block.
+	 */
+	public void receive(Frame frame) {
+		if (frame.getType() == Frame.Type.TUNNEL) {
+			Tunnel tunnel = tunnels.get(frame.getTunnelId());
+			if (tunnel == null) {
+				LOG.fine(() -> "bytes of closed tunnel dropped: " + frame.getTunnelId());
+			} else {
+				tunnel.received.add(frame.getTunnelBytes());
+			}
+			return;
+		}
+		String[] args = frame.getArgument().split(" ");
+		int id = Integer.parseInt(args[0]);
+		if (frame.getCommand() == Command.tunnelOpen) {
+			open(id, Integer.parseInt(args[1]));
+			return;
+		}
+		Tunnel tunnel = tunnels.get(id);
+		if (tunnel == null) {
+			LOG.fine(() -> "frame of closed tunnel dropped: " + frame);
+		} else if (frame.getCommand() == Command.tunnelAck) {
+			tunnel.acknowledged(Integer.parseInt(args[1]));
+		} else {
+			tunnel.peerEnded(args.length > 1 && RESET_ARGUMENT.equals(args[1]));
+		}
+	}
+
+	private void open(int id, int port) {
+		if (closed) {
+			send(Frame.control(Command.tunnelClose, id + " " + RESET_ARGUMENT));
+			return;
+		}
+		Tunnel tunnel = new Tunnel(id);
+		tunnels.put(id, tunnel);
+		start("jforkTunnelOpen", () -> {
+			try {
+				tunnel.start(new Socket(InetAddress.getLoopbackAddress(), port));
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "tunnel to port " + port + " can't be opened", e);
+				tunnel.reset(true);
+			}
+		});
+	}
+
+	/**
+	 * @return number of open tunnels
+	 */
+	public int getTunnelCount() {
+		return tunnels.size();
+	}
+
+	/**
+	 * Closes listeners and tunnels.
+	 */
+	public void close() {
+		closed = true;
+		for (ServerSocket listener : listeners) {
+			try {
+				listener.close();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "close failed", e);
+			}
+		}
+		for (Tunnel tunnel : tunnels.values()) {
+			tunnel.reset(false);
+		}
+	}
+
+	private void send(Frame frame) {
+		sender.accept(frame);
+	}
+
+	private static void start(String name, Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * One tunneled connection: the reader thread sends the bytes read from the socket, the
+	 * writer thread writes the bytes received.
+	 */
+	private class Tunnel {
+
+		private final int id;
+		private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+		private Socket socket;
+		// bytes that may be sent before the next acknowledgement, guarded by this
+		private int credit = WINDOW;
+		private boolean inputEnded;
+		private boolean outputEnded;
+		private boolean reset;
+
+		Tunnel(int id) {
+			this.id = id;
+		}
+
+		void start(Socket socket) {
+			try {
+				// the bytes are forwarded as written by the application
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "TCP_NODELAY not set", e);
+			}
+			synchronized (this) {
+				this.socket = socket;
+				if (reset) {
+					close();
+					return;
+				}
+			}
+			Tunnels.start("jforkTunnelReader", this::read);
+			Tunnels.start("jforkTunnelWriter", this::write);
+		}
+
+		private void read() {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			try {
+				InputStream in = socket.getInputStream();
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					if (!awaitCredit(n)) {
+						return;
+					}
+					send(Frame.tunnel(id, buffer, 0, n));
+				}
+				send(Frame.control(Command.tunnelClose, Integer.toString(id)));
+				synchronized (this) {
+					inputEnded = true;
+					if (outputEnded) {
+						close();
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				reset(true);
+			}
+		}
+
+		private synchronized boolean awaitCredit(int n) {
+			while (credit < n && !reset) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			credit -= n;
+			return !reset;
+		}
+
+		private void write() {
+			try {
+				OutputStream out = socket.getOutputStream();
+				while (true) {
+					byte[] bytes = received.take();
+					if (bytes == RESET) {
+						return;
+					}
+					if (bytes == END) {
+						socket.shutdownOutput();
+						synchronized (this) {
+							outputEnded = true;
+							if (inputEnded) {
+								close();
+							}
+						}
+						return;
+					}
+					out.write(bytes);
+					out.flush();
+					send(Frame.control(Command.tunnelAck, id + " " + bytes.length));
+				}
+			} catch (IOException | RuntimeException e) {
+				reset(true);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				reset(true);
+			}
+		}
+
+		synchronized void acknowledged(int n) {
+			credit += n;
+			notifyAll();
+		}
+
+		void peerEnded(boolean peerReset) {
+			if (peerReset) {
+				reset(false);
+			} else {
+				received.add(END);
+			}
+		}
+
+		/**
+		 * Aborts the tunnel.
+		 *
+		 * @param tellPeer
+		 *            true if the other side does not know yet
+		 */
+		void reset(boolean tellPeer) {
+			synchronized (this) {
+				if (reset) {
+					return;
+				}
+				reset = true;
+				notifyAll();
+				close();
+			}
+			received.add(RESET);
+			if (tellPeer && !closed) {
+				try {
+					send(Frame.control(Command.tunnelClose, id + " " + RESET_ARGUMENT));
+				} catch (RuntimeException e) {
+					LOG.log(Level.FINE, "tunnel reset not sent", e);
+				}
+			}
+		}
+
+		private void close() {
+			tunnels.remove(id);
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					LOG.log(Level.FINE, "close failed", e);
+				}
+			}
+		}
+	}
+}
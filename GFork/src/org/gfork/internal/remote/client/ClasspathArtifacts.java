@@ -0,0 +1,205 @@
+package org.gfork.internal.remote.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.gfork.internal.remote.ContentStore;
+
+/**
+ * Class path of a client as content-addressed artifacts, see {@link ContentStore}. A jar is
+ * shipped as it is, a directory is packed into a jar with sorted entries and fixed times, so
+ * an unchanged directory always gets the same hash. Hashes are cached per entry and only
+ * computed again if a file changed, which is detected by size and modification time. Content
+ * is not kept in memory, it is streamed from the jar or a temporary jar of the directory when
+ * an artifact is uploaded.
+ */
+public class ClasspathArtifacts {
+
+	// DOS time of 1980-01-01, the earliest time of a zip entry
+	private static final long ENTRY_TIME = 315532800000L;
+
+	// the hashes of the least recently used class path entries are dropped
+	private static final int MAX_CACHED = 1024;
+
+	private static final Map<File, Artifact> cache = new LinkedHashMap<File, Artifact>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, Artifact> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	private ClasspathArtifacts() {
+		// static only
+	}
+
+	/**
+	 * @param classpath
+	 *            entries separated by {@link File#pathSeparator}, missing entries are skipped,
+	 *            <code>dir/*</code> stands for the jars of a directory
+	 */
+	public static List<Artifact> of(String classpath) throws IOException {
+		List<Artifact> artifacts = new ArrayList<>();
+		for (String entry : classpath.split(File.pathSeparator)) {
+			if (entry.isEmpty()) {
+				continue;
+			}
+			if (entry.endsWith("*")) {
+				File[] jars = new File(entry.substring(0, entry.length() - 1)).listFiles(
+						file -> file.isFile() && file.getName().toLowerCase().endsWith(".jar"));
+				if (jars != null) {
+					Arrays.sort(jars);
+					for (File jar : jars) {
+						artifacts.add(get(jar));
+					}
+				}
+			} else if (new File(entry).exists()) {
+				artifacts.add(get(new File(entry)));
+			}
+		}
+		return artifacts;
+	}
+
+	private static Artifact get(File entry) throws IOException {
+		File file = entry.getCanonicalFile();
+		String fingerprint = fingerprint(file);
+		Artifact artifact;
+		synchronized (cache) {
+			artifact = cache.get(file);
+		}
+		if (artifact == null || !artifact.fingerprint.equals(fingerprint)) {
+			String hash;
+			try (InputStream content = open(file)) {
+				hash = ContentStore.hash(content);
+			}
+			artifact = new Artifact(file, fingerprint, hash);
+			synchronized (cache) {
+				cache.put(file, artifact);
+			}
+		}
+		return artifact;
+	}
+
+	/**
+	 * @return content of a jar, or of a directory packed into a temporary jar which is deleted
+	 *         when the stream is closed
+	 */
+	private static InputStream open(File file) throws IOException {
+		if (!file.isDirectory()) {
+			return new FileInputStream(file);
+		}
+		File packed = File.createTempFile("gfork-classpath", ".jar");
+		try {
+			pack(file, packed);
+			return new FileInputStream(packed) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						Files.deleteIfExists(packed.toPath());
+					}
+				}
+			};
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(packed.toPath());
+			throw e;
+		}
+	}
+
+	private static String fingerprint(File file) {
+		if (file.isFile()) {
+			return file.length() + ":" + file.lastModified();
+		}
+		StringBuilder fingerprint = new StringBuilder();
+		for (String path : list(file, "")) {
+			File child = new File(file, path);
+			fingerprint.append(path).append(':').append(child.length()).append(':').append(child.lastModified())
+					.append('\n');
+		}
+		return ContentStore.hash(fingerprint.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return relative paths of all files of a directory, sorted
+	 */
+	private static List<String> list(File dir, String prefix) {
+		List<String> paths = new ArrayList<>();
+		String[] names = dir.list();
+		if (names == null) {
+			return paths;
+		}
+		Arrays.sort(names);
+		for (String name : names) {
+			File child = new File(dir, name);
+			if (child.isDirectory()) {
+				paths.addAll(list(child, prefix + name + "/"));
+			} else {
+				paths.add(prefix + name);
+			}
+		}
+		return paths;
+	}
+
+	private static void pack(File dir, File jar) throws IOException {
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar))) {
+			for (String path : list(dir, "")) {
+				ZipEntry entry = new ZipEntry(path);
+				entry.setTime(ENTRY_TIME);
+				zip.putNextEntry(entry);
+				Files.copy(new File(dir, path).toPath(), zip);
+				zip.closeEntry();
+			}
+		}
+	}
+
+	/**
+	 * Jar or packed directory of the class path.
+	 */
+	public static class Artifact {
+
+		private final File source;
+		private final String fingerprint;
+		private final String hash;
+
+		private Artifact(File source, String fingerprint, String hash) {
+			this.source = source;
+			this.fingerprint = fingerprint;
+			this.hash = hash;
+		}
+
+		public File getSource() {
+			return source;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * @return content of the jar, a directory is packed again on every call, the caller
+		 *         closes the stream
+		 */
+		public InputStream openContent() throws IOException {
+			return open(source);
+		}
+
+		@Override
+		public String toString() {
+			return source + " (" + hash + ")";
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.gfork.internal.remote.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.internal.remote.Frame;
+import org.gfork.remote.TimeoutException;
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Client side of a connection to a {@link ForkServer}, all messages are exchanged as
+ * {@link Frame}s over one socket.
+ */
+public class ConnectionClientSide implements AutoCloseable {
+
+	private static final Logger LOG = Logger.getLogger(ConnectionClientSide.class.getName());
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final String id;
+	private volatile boolean isClosed;
+
+	public ConnectionClientSide(Socket socket, String id) throws IOException {
+		this.socket = socket;
+		this.id = id;
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	public ConnectionClientSide(InetSocketAddress serverAddress, String id) throws IOException {
+		this(connect(serverAddress), id);
+	}
+
+	private static Socket connect(InetSocketAddress serverAddress) throws IOException {
+		Socket socket = new Socket();
+		socket.connect(serverAddress, ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS);
+		return socket;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public synchronized void send(Frame frame) throws IOException {
+		checkStatus();
+		LOG.fine(() -> "connection client: " + frame);
+		frame.write(out);
+		out.flush();
+	}
+
+	/**
+	 * Sends frames with one flush.
+	 */
+	public synchronized void send(Frame... frames) throws IOException {
+		checkStatus();
+		for (Frame frame : frames) {
+			LOG.fine(() -> "connection client: " + frame);
+			frame.write(out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Waits for the next frame.
+	 * 
+	 * @param timeoutMillis
+	 *            0 waits without timeout
+	 * @throws TimeoutException
+	 *             no frame received in time
+	 */
+	public Frame receive(int timeoutMillis) throws IOException {
+		checkStatus();
+		socket.setSoTimeout(timeoutMillis);
+		try {
+			return Frame.read(in);
+		} catch (SocketTimeoutException e) {
+			throw new TimeoutException("Timeout: no reply of server within " + timeoutMillis + " ms, id=" + id);
+		}
+	}
+
+	public Frame receive() throws IOException {
+		return receive(ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS);
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		LOG.fine(() -> "connection client: close connection, id=" + id);
+		try {
+			socket.close();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "close failed", e);
+		}
+	}
+
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	private void checkStatus() {
+		if (isClosed) {
+			throw new IllegalStateException("connection client: connection is closed, id=" + id);
+		}
+	}
+}
@@ -1,59 +1,68 @@
 package org.gfork.internal.remote.client;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Method;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.function.Function;
 
 import org.gfork.internal.remote.Command;
-import org.gfork.internal.remote.Connection;
-import org.gfork.internal.remote.ReplyData;
-import org.gfork.remote.TimeoutException;
+import org.gfork.internal.remote.Frame;
+import org.gfork.internal.remote.Tunnels;
+import org.gfork.internal.remote.client.ClasspathArtifacts.Artifact;
+import org.gfork.remote.ForkRejectedException;
 import org.gfork.remote.server.ForkServer;
 
 /**
- * Client has 2 sockets to Server: control, data
- * 
- * Server implements class loader Server loads class on demand from Client
- * Server caches classes
+ * Remote fork, control commands, objects and output are sent as length-prefixed frames,
+ * see {@link Frame}. All forks on a server share one pooled connection, see
+ * {@link ForkConnectionPool}. Every operation has a non-blocking variant returning a
+ * {@link CompletableFuture}, the blocking variants wait for it.
+ * <p>
+ * Task classes the server doesn't have are loaded on demand from the task's class loader,
+ * the server caches them by bytecode hash. If a class path is set, see
+ * {@link #setClasspath(String)}, its jars and directories are shipped before the fork is
+ * started: only artifacts missing in the server cache are uploaded, the child process runs
+ * with the cached artifacts as class path.
+ * <p>
+ * A server without a free slot queues the fork, the run reply is received when the fork is
+ * started, see {@link #getQueuePosition()}. A server with a full queue rejects the fork with a
+ * {@link ForkRejectedException}.
  * 
  * @author Gerald Ehmayer
  *
  */
 public class ForkClient {
 
-	private static final Logger LOG = Logger.getLogger(ForkClient.class.getName());
+	// payload of one artifact frame, a jar is uploaded in chunks
+	static final int UPLOAD_CHUNK_SIZE = 1024 * 1024;
 
-	private int port = ForkServer.DEFAULT_PORT;
+	private static final ExecutorService uploads = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "jforkUpload");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private InetSocketAddress serverAddress;
 
-	private static Map<String, ForkClient> forks = new HashMap<>();
-
-	private static ExecutorService executor = Executors.newCachedThreadPool();
-
-	private ConnectionClientSide con;
+	private ForkConnection.Channel con;
 
 	private String className;
 
-	private Integer statusCode;
+	private ClassLoader classLoader;
+
+	private volatile Integer statusCode;
 
-	private Object taskChanged;
+	private volatile Object taskChanged;
 
 	private Method method;
 
@@ -63,10 +72,15 @@ public class ForkClient {
 
 	private ArrayList<String> vmOptions;
 
+	private String classpath;
+
+	private ArrayList<String> linkArgs;
+
+	private Tunnels tunnels;
+
 	public static ForkClient connect(String host) throws Exception {
 		ForkClient forkClient = new ForkClient(host);
-		forkClient.connect();
-		forks.put(host, forkClient);
+		forkClient.con = ForkConnectionPool.openChannel(forkClient.serverAddress);
 		return forkClient;
 	}
 
@@ -78,179 +92,368 @@ public class ForkClient {
 		this.serverAddress = parseAddress(serverAddress);
 	}
 
-	private InetSocketAddress parseAddress(String serverAddress) {
+	/**
+	 * @param serverAddress
+	 *            host[:port], default port is {@link ForkServer#DEFAULT_PORT}
+	 */
+	public static InetSocketAddress parseAddress(String serverAddress) {
 		String[] addrPort = serverAddress.split(":");
 		String host = addrPort[0];
-		port = addrPort.length > 1 ? Integer.parseInt(addrPort[1]) : ForkServer.DEFAULT_PORT;
+		int port = addrPort.length > 1 ? Integer.parseInt(addrPort[1]) : ForkServer.DEFAULT_PORT;
 		return new InetSocketAddress(host, port);
 	}
 
-	private void connect() throws Exception {
-		con = new ConnectionClientSide(serverAddress, UUID.randomUUID().toString());
-		handShake();
+	public void run(Serializable task) throws Exception {
+		try {
+			runAsync(task).join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
 	}
 
-	public void run(Serializable task) throws Exception {
+	public CompletableFuture<Void> runAsync(Serializable task) {
 		this.className = task.getClass().getName();
-		if (method == null) {
-			con.getSocketControlWriter().println(Command.run);
-			writeObject(task, con.getSocketData().getOutputStream());
-			writeObject(vmOptionsForAll, con.getSocketData().getOutputStream());
-			writeObject(vmOptions, con.getSocketData().getOutputStream());
-		} else {
-			con.getSocketControlWriter().println(Command.runMethod);
-			writeObject(task, con.getSocketData().getOutputStream());
-			writeObject(vmOptionsForAll, con.getSocketData().getOutputStream());
-			writeObject(vmOptions, con.getSocketData().getOutputStream());
-			writeObject(method.getName(), con.getSocketData().getOutputStream());
-			writeObject(method.getParameterTypes(), con.getSocketData().getOutputStream());
-			writeObject(methodArgs, con.getSocketData().getOutputStream());
+		this.classLoader = task.getClass().getClassLoader();
+		con.setClassLoader(classLoader);
+		Frame[] frames;
+		try {
+			if (method == null) {
+				frames = new Frame[] { Frame.data(task), Frame.data(vmOptionsForAll), Frame.data(vmOptions),
+						Frame.control(Command.run) };
+			} else {
+				frames = new Frame[] { Frame.data(task), Frame.data(vmOptionsForAll), Frame.data(vmOptions),
+						Frame.data(method.getName()), Frame.data(method.getParameterTypes()), Frame.data(methodArgs),
+						Frame.control(Command.runMethod) };
+			}
+		} catch (Exception e) {
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
 		}
-		checkReply(Command.runOk, "Remote run of class '" + className + "' failed.");
+		// the fork may wait for a free slot on the server
+		return shipClasspathAsync().thenCompose(v -> setUpLinkAsync()).thenCompose(v -> expect(con.request(0, frames).thenApply(this::checkRejected),
+				Command.runOk, "Remote run of class '" + className + "' failed.")).thenApply(reply -> null);
 	}
 
-	public void kill() {
+	/**
+	 * @param linkArgs
+	 *            successor port and link options of a remote link, ports of the client to be
+	 *            tunneled are given as <code>tunnel:port</code>, null for a fork not linked
+	 */
+	public void setLinkArgs(List<String> linkArgs) {
+		this.linkArgs = linkArgs == null ? null : new ArrayList<>(linkArgs);
+	}
+
+	private CompletableFuture<Void> setUpLinkAsync() {
+		if (linkArgs == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		// the task process may connect to tunneled ports as soon as it is started
+		getTunnels();
+		Frame args;
 		try {
-			con.getSocketControlWriter().println(Command.kill);
-			checkReply(Command.killOk, "Remote kill of class '" + className + "' failed.");
-			close();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			args = Frame.data(linkArgs);
+		} catch (IOException e) {
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
 		}
+		return expect(con.request(args, Frame.control(Command.link)), Command.linkOk,
+				"Remote link of class '" + className + "' failed.").thenApply(reply -> null);
 	}
 
-	public int waitFor() {
-		if (statusCode == null) {
-			try {
-				con.getSocketControlWriter().println(Command.waitFor);
-				checkReply(Command.waitForFinished, "Remote waitFor failed.");
-			} catch (Exception e) {
-				String serverError = ForkClient.readReplyControl(con);
-				LOG.log(Level.SEVERE, "Error waitFor class '" + className + "', server error: " + serverError, e);
-				throw new RuntimeException(e);
-			}
-			statusCode = Integer.parseInt(readPropertyFromContorl("statusCode"));
+	/**
+	 * @return port of the listener of the link task process on the server
+	 */
+	public int getLinkPort() {
+		return join(expect(con.request(Frame.control(Command.linkPort)), Command.linkPortOk,
+				"Listener port of remote link '" + className + "' not available.")
+						.thenApply(reply -> Integer.parseInt(reply.getArgument())));
+	}
+
+	/**
+	 * Listens on a loopback port of the client, connections are tunneled to a port of the
+	 * server.
+	 *
+	 * @return listening port
+	 */
+	public int forward(int serverPort) throws IOException {
+		return getTunnels().listen(serverPort);
+	}
+
+	private synchronized Tunnels getTunnels() {
+		if (tunnels == null) {
+			tunnels = new Tunnels(frame -> {
+				try {
+					con.send(frame);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, true);
+			con.setTunnels(tunnels);
 		}
-		return statusCode;
+		return tunnels;
 	}
 
-	public Object getTask() {
-		if (statusCode == null) {
-			throw new IllegalStateException("waitFor was not called");
+	public InetSocketAddress getServerAddress() {
+		return serverAddress;
+	}
+
+	private Frame checkRejected(Frame reply) {
+		if (reply.getCommand() == Command.rejected) {
+			String[] retryAfterAndMsg = reply.getArgument().split(" ", 2);
+			throw new ForkRejectedException("Remote run of class '" + className + "' rejected: " + retryAfterAndMsg[1],
+					Long.parseLong(retryAfterAndMsg[0]));
+		}
+		return reply;
+	}
+
+	/**
+	 * @return position of the fork in the admission queue of the server, 1 is next, 0 if not
+	 *         queued
+	 */
+	public int getQueuePosition() {
+		return con.getQueuePosition();
+	}
+
+	/**
+	 * Sends the hashes of the class path artifacts and uploads the ones the server is missing.
+	 */
+	private CompletableFuture<Void> shipClasspathAsync() {
+		if (classpath == null) {
+			return CompletableFuture.completedFuture(null);
 		}
-		if (taskChanged == null) {
+		List<Artifact> artifacts;
+		Frame manifest;
+		try {
+			artifacts = ClasspathArtifacts.of(classpath);
+			ArrayList<String> hashes = new ArrayList<>();
+			for (Artifact artifact : artifacts) {
+				hashes.add(artifact.getHash());
+			}
+			manifest = Frame.data(hashes);
+		} catch (IOException e) {
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return request(manifest, Command.classpath).thenApply(reply -> {
 			try {
-				con.getSocketControlWriter().println(Command.getTask);
-				taskChanged = readObject(con.getSocketData().getInputStream());
+				return (List<?>) reply.getObject();
 			} catch (Exception e) {
-				throw new RuntimeException(e);
+				throw new CompletionException(e);
 			}
-		}
-		return taskChanged;
+		}).thenComposeAsync(missing -> {
+			// uploads read jar files, so not in the reader thread of the connection
+			CompletableFuture<Frame> uploaded = CompletableFuture.completedFuture(null);
+			for (Artifact artifact : artifacts) {
+				if (missing.remove(artifact.getHash())) {
+					uploaded = uploaded.thenCompose(reply -> upload(artifact));
+				}
+			}
+			return uploaded;
+		}, uploads).thenApply(reply -> null);
 	}
 
-	private String readPropertyFromContorl(String name) {
-		String nameValuePair = ForkClient.readReplyControl(con);
-		String[] nameValueArray = nameValuePair.split("=");
-		assert nameValueArray.length == 2;
-		assert nameValueArray[0].equals(name);
-		return nameValueArray[1];
+	/**
+	 * Streams the artifact in chunks of {@link #UPLOAD_CHUNK_SIZE}, the server appends them until
+	 * {@link Command#putArtifact} completes the upload.
+	 */
+	private CompletableFuture<Frame> upload(Artifact artifact) {
+		// read and sent by an upload thread, the reply without timeout as large jars take time
+		return CompletableFuture.runAsync(() -> {
+			try (InputStream content = artifact.openContent()) {
+				byte[] chunk = new byte[UPLOAD_CHUNK_SIZE];
+				int n;
+				boolean sent = false;
+				while ((n = readChunk(content, chunk)) > 0 || !sent) {
+					con.send(new Frame(Frame.Type.ARTIFACT, Arrays.copyOf(chunk, n)));
+					sent = true;
+				}
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, uploads).thenCompose(v -> expect(con.request(0, Frame.control(Command.putArtifact, artifact.getHash())),
+				Command.putArtifactOk, "Upload of " + artifact + " failed."));
 	}
 
-	public void close() {
-		try {
-			con.getSocketControlWriter().println(Command.connectClose);
-			checkReply(Command.connectCloseOk, "Close connection for class '" + className + "' failed.");
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		} finally {
-			con.close();
+	/**
+	 * @return number of bytes read, the chunk is only filled partially at the end of the stream
+	 */
+	private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+		int length = 0;
+		int n;
+		while (length < chunk.length && (n = in.read(chunk, length, chunk.length - length)) >= 0) {
+			length += n;
 		}
+		return length;
+	}
+
+	public void kill() {
+		join(killAsync());
 	}
 
-	private void handShake() throws Exception {
-		con.getSocketControlWriter().println(Command.connect.toString());
-		con.getSocketControlWriter().println(con.getId());
+	public CompletableFuture<Void> killAsync() {
+		return expect(con.request(Frame.control(Command.kill)), Command.killOk,
+				"Remote kill of class '" + className + "' failed.").thenCompose(reply -> closeAsync());
+	}
 
-		Socket socketData = new Socket(InetAddress.getLocalHost(), ForkServer.DEFAULT_PORT);
-		socketData.getOutputStream().write(con.getId().getBytes());
-		socketData.getOutputStream().flush();
-		con.setSocketData(socketData);
+	public int waitFor() {
+		return join(waitForAsync());
+	}
 
-		checkReply(con.getId(), "Invalid ID response of server.");
-		checkReply(Command.connectOk, "Invalid command reply of server.");
+	public CompletableFuture<Integer> waitForAsync() {
+		if (statusCode != null) {
+			return CompletableFuture.completedFuture(statusCode);
+		}
+		// the task may run for any time
+		return expect(con.request(0, Frame.control(Command.waitFor)), Command.waitForFinished,
+				"Remote waitFor of class '" + className + "' failed.").thenApply(reply -> {
+					statusCode = Integer.parseInt(reply.getArgument());
+					return statusCode;
+				});
+	}
+
+	public Object getTask() {
+		return join(getTaskAsync());
 	}
 
-	private void checkReply(String token, String msg) throws Exception {
-		ReplyData runReply = ForkClient.readReplyControl(token, con);
-		if (runReply.isTimedOut()) {
-			throw new TimeoutException("Timeout: " + msg + " Expected reply '" + token + "'");
+	public CompletableFuture<Object> getTaskAsync() {
+		if (statusCode == null) {
+			// the task is read after the fork is finished
+			return waitForAsync().thenCompose(status -> getTaskAsync());
 		}
-		if (!runReply.isExpectedToken()) {
-			throw new IllegalStateException(
-					msg + " Expected reply '" + token + "', got '" + runReply.getReplyToken() + "'");
+		if (taskChanged != null) {
+			return CompletableFuture.completedFuture(taskChanged);
 		}
+		return requestObject(Command.getTask, Function.identity()).thenApply(task -> taskChanged = task);
 	}
 
-	// TODO msg as lambda for better performance
-	private void checkReply(Command cmd, String msg) throws Exception {
-		checkReply(cmd.toString(), msg);
+	/**
+	 * Ends the remote fork, the pooled connection stays open.
+	 */
+	public void close() {
+		join(closeAsync());
 	}
 
-	public static void writeObject(Serializable obj, OutputStream outputStream) throws Exception {
-		ObjectOutputStream objOut = new ObjectOutputStream(outputStream);
-		objOut.writeObject(obj);
-		objOut.flush();
+	public CompletableFuture<Void> closeAsync() {
+		return expect(con.request(Frame.control(Command.connectClose)), Command.connectCloseOk,
+				"Close connection for class '" + className + "' failed.").handle((reply, e) -> {
+					con.close();
+					if (e != null) {
+						throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+					}
+					return null;
+				});
 	}
 
-	public static Object readObject(InputStream inputStream) throws Exception {
-		ObjectInputStream objIn = new ObjectInputStream(inputStream);
-		return objIn.readObject();
+	private static CompletableFuture<Frame> expect(CompletableFuture<Frame> request, Command cmd, String msg) {
+		return request.thenApply(reply -> {
+			if (reply.getCommand() != cmd) {
+				throw new IllegalStateException(msg + " Expected reply '" + cmd + "', got " + reply);
+			}
+			return reply;
+		});
 	}
 
-	public String getStdErr() {
-		try {
-			con.getSocketControlWriter().println(Command.getStdErr);
-			return (String)readObject(con.getSocketData().getInputStream());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+	/**
+	 * Sends a command answered by a data or output frame, an error reply of the server
+	 * fails with an {@link IllegalStateException}.
+	 */
+	private CompletableFuture<Frame> request(Command cmd) {
+		return request(null, cmd);
 	}
 
-	public String getStdOut() {
+	/**
+	 * @param data
+	 *            argument of the command, may be null
+	 */
+	private CompletableFuture<Frame> request(Frame data, Command cmd) {
+		CompletableFuture<Frame> request = data == null ? con.request(Frame.control(cmd))
+				: con.request(data, Frame.control(cmd));
+		return request.thenApply(reply -> {
+			if (reply.getType() == Frame.Type.CONTROL) {
+				throw new IllegalStateException("Remote " + cmd + " of class '" + className + "' failed: "
+						+ reply.getArgument());
+			}
+			return reply;
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> CompletableFuture<T> requestObject(Command cmd, Function<Object, T> cast) {
+		return request(cmd).thenApply(reply -> {
+			try {
+				return cast.apply(reply.getObject(classLoader));
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Waits for a reply, failures are thrown as {@link RuntimeException}.
+	 */
+	private static <T> T join(CompletableFuture<T> reply) {
 		try {
-			con.getSocketControlWriter().println(Command.getStdOut);
-			return (String)readObject(con.getSocketData().getInputStream());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			return reply.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
 		}
 	}
 
+	/**
+	 * Receives the output of the task process while it runs, called by the reader thread of
+	 * the connection.
+	 */
+	public interface OutputListener {
+
+		void stdOut(String text) throws IOException;
+
+		void stdErr(String text) throws IOException;
+	}
+
+	public void setOutputListener(OutputListener listener) {
+		con.setOutputConsumer(frame -> {
+			try {
+				if (frame.getType() == Frame.Type.STDOUT) {
+					listener.stdOut(frame.getText());
+				} else {
+					listener.stdErr(frame.getText());
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
 	public int getExitValue() {
-		try {
-			con.getSocketControlWriter().println(Command.getExitValue);
-			return (Integer)readObject(con.getSocketData().getInputStream());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		return join(getExitValueAsync());
+	}
+
+	public CompletableFuture<Integer> getExitValueAsync() {
+		return requestObject(Command.getExitValue, Integer.class::cast);
 	}
 
 	public Serializable getReturnValue() {
-		try {
-			con.getSocketControlWriter().println(Command.getMethodReturnValue);
-			return (Serializable) readObject(con.getSocketData().getInputStream());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		return join(getReturnValueAsync());
+	}
+
+	public CompletableFuture<Serializable> getReturnValueAsync() {
+		return requestObject(Command.getMethodReturnValue, Serializable.class::cast);
 	}
 
 	public boolean isFinished() {
-		try {
-			con.getSocketControlWriter().println(Command.isFinished);
-			return (boolean)readObject(con.getSocketData().getInputStream());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		return join(isFinishedAsync());
+	}
+
+	public CompletableFuture<Boolean> isFinishedAsync() {
+		return requestObject(Command.isFinished, Boolean.class::cast);
 	}
 
 	public void setMethod(Method method) {
@@ -269,61 +472,15 @@ public class ForkClient {
 		this.vmOptions = vmOptions;
 	}
 
-	public boolean isClosed() {
-		return con.isClosed();
-	}
-
-	public static String readReplyControl(Connection con) {
-		try {
-			FutureTask<String> readNextLine = new FutureTask<String>(() -> {
-				return con.getSocketControlScanner().nextLine();
-			});
-			executor.execute(readNextLine);
-			return readNextLine.get(ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS, TimeUnit.MILLISECONDS);
-		} catch (Exception e) {
-			ForkServer.LOG.log(Level.FINE, "control scanner read error", e);
-			return null;
-		}
-	}
-
-	private static ReplyData readReplyControl(String token, Connection con, int timeoutMs) throws Exception {
-		try {
-			FutureTask<String> readNextLine = new FutureTask<String>(() -> {
-				return con.getSocketControlScanner().nextLine();
-			});
-			executor.execute(readNextLine);
-			String replyToken = readNextLine.get(timeoutMs, TimeUnit.MILLISECONDS);
-			return new ReplyData(token.equals(replyToken), false, replyToken);
-		} catch (TimeoutException e) {
-			ForkServer.LOG.warning(() -> "reading from control scanner timed out");
-			return new ReplyData(false, true, null);
-		}
+	/**
+	 * @param classpath
+	 *            class path shipped to the server, null to use the server's class path
+	 */
+	public void setClasspath(String classpath) {
+		this.classpath = classpath;
 	}
 
-	public static ReplyData readReplyControl(String token, Connection con) throws Exception {
-		return ForkClient.readReplyControl(token, con, ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS);
-	}
-
-	public static ReplyData readReply(String token, InputStream inputStream) throws Exception {
-		int toread = token.getBytes().length;
-		byte[] buff = new byte[toread];
-		int len = 0, red = 0;
-		long endTime = ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS + System.currentTimeMillis();
-		boolean isTimedOut = false;
-		do {
-			if (inputStream.available() == 0) {
-				Thread.sleep(300);
-			} else {
-				len = inputStream.read(buff, red, toread - red);
-				red += len;
-			}
-		} while (red < toread && !(isTimedOut = endTime < System.currentTimeMillis()));
-		if (isTimedOut) {
-			ForkServer.LOG.warning(() -> "reading from input stream timed out");
-			return new ReplyData(false, true, (red > 0 ? new String(buff, 0, red) : ""));
-		} else {
-			String replyToken = new String(buff);
-			return new ReplyData(token.equals(replyToken), false, replyToken);
-		}
+	public boolean isClosed() {
+		return con.isClosed();
 	}
 }
@@ -0,0 +1,464 @@
+package org.gfork.internal.remote.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.ContentStore;
+import org.gfork.internal.remote.Frame;
+import org.gfork.internal.remote.Tunnels;
+import org.gfork.remote.ServerLoad;
+import org.gfork.remote.TimeoutException;
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Connection to a {@link ForkServer} shared by all remote forks of this client on that server,
+ * see {@link ForkConnectionPool}. Every fork gets a {@link Channel} with its own fork ID.
+ * <p>
+ * Requests are not blocking: every control frame sent is answered by exactly one reply frame
+ * and the replies of a fork arrive in request order, so a request is a {@link CompletableFuture}
+ * queued per channel. The reader thread of the connection completes the futures, which means
+ * dependent stages without an executor run in the reader thread and must not block. Timeouts
+ * are completed by a scheduler thread shared by all connections.
+ * <p>
+ * The server may ask for classes of a fork it doesn't have, the reader thread answers these
+ * requests with the class files of the fork's class loader, see
+ * {@link Channel#setClassLoader(ClassLoader)}. Queue positions of forks waiting for a slot
+ * are notifications as well, see {@link Channel#getQueuePosition()}.
+ */
+public class ForkConnection {
+
+	private static final Logger LOG = Logger.getLogger(ForkConnection.class.getName());
+
+	private static final ScheduledThreadPoolExecutor timeouts = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread thread = new Thread(r, "jforkRequestTimeouts");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		timeouts.setRemoveOnCancelPolicy(true);
+	}
+
+	private final InetSocketAddress serverAddress;
+	private final ConnectionClientSide con;
+	private final AtomicInteger nextForkId = new AtomicInteger(Frame.CONNECTION);
+	private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+	private final Channel connectionChannel = new Channel(Frame.CONNECTION);
+	private volatile long lastReceived = System.currentTimeMillis();
+	private volatile long lastUsed = System.currentTimeMillis();
+	private volatile boolean closed;
+	private volatile boolean healthCheckPending;
+
+	private ForkConnection(InetSocketAddress serverAddress) throws IOException {
+		this.serverAddress = serverAddress;
+		this.con = new ConnectionClientSide(serverAddress, UUID.randomUUID().toString());
+	}
+
+	/**
+	 * Connects to a server and starts the reader thread.
+	 */
+	static ForkConnection open(InetSocketAddress serverAddress) throws IOException {
+		ForkConnection connection = new ForkConnection(serverAddress);
+		try {
+			connection.handShake();
+		} catch (IOException | RuntimeException e) {
+			connection.con.close();
+			throw e;
+		}
+		Thread reader = new Thread(connection::readFrames, "jforkClientReader");
+		reader.setDaemon(true);
+		reader.start();
+		return connection;
+	}
+
+	private void handShake() throws IOException {
+		con.send(Frame.control(Command.connect, con.getId()));
+		Frame reply = con.receive();
+		if (reply.getCommand() != Command.connectOk || !con.getId().equals(reply.getArgument())) {
+			throw new IllegalStateException("Invalid connect reply of server " + serverAddress + ": " + reply);
+		}
+		LOG.fine(() -> "connected to " + serverAddress + ", id=" + con.getId());
+	}
+
+	private void readFrames() {
+		try {
+			while (!closed) {
+				Frame frame = con.receive(0);
+				lastReceived = System.currentTimeMillis();
+				Channel channel = frame.getForkId() == Frame.CONNECTION ? connectionChannel
+						: channels.get(frame.getForkId());
+				if (channel == null) {
+					LOG.fine(() -> "frame of closed channel dropped: " + frame);
+				} else if (frame.getCommand() == Command.findClass || frame.getCommand() == Command.getClass) {
+					channel.serveClass(frame);
+				} else if (Tunnels.isTunnelFrame(frame)) {
+					channel.tunnel(frame);
+				} else if (frame.getType() == Frame.Type.STDOUT || frame.getType() == Frame.Type.STDERR) {
+					channel.output(frame);
+				} else if (frame.getCommand() == Command.queued) {
+					channel.queuePosition = Integer.parseInt(frame.getArgument());
+				} else {
+					channel.dispatch(frame);
+				}
+			}
+		} catch (Exception e) {
+			if (!closed) {
+				LOG.log(Level.WARNING, "connection to " + serverAddress + " lost", e);
+			}
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Opens a channel for a new fork.
+	 *
+	 * @throws IllegalStateException
+	 *             the connection is closed
+	 */
+	public synchronized Channel openChannel() {
+		if (closed) {
+			throw new IllegalStateException("connection to " + serverAddress + " is closed");
+		}
+		Channel channel = new Channel(nextForkId.incrementAndGet());
+		channels.put(channel.forkId, channel);
+		lastUsed = System.currentTimeMillis();
+		return channel;
+	}
+
+	/**
+	 * Closes the connection if no channel is open and it was not used for some time.
+	 *
+	 * @return true if closed
+	 */
+	synchronized boolean closeIfIdle(long idleMillis) {
+		if (channels.isEmpty() && System.currentTimeMillis() - lastUsed > idleMillis) {
+			LOG.fine(() -> "close idle connection to " + serverAddress);
+			close();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends a ping if nothing was received for some time, the connection is closed if the
+	 * server does not answer in time.
+	 */
+	void checkHealth(long quietMillis, int timeoutMillis) {
+		if (closed || healthCheckPending || System.currentTimeMillis() - lastReceived < quietMillis) {
+			return;
+		}
+		healthCheckPending = true;
+		connectionChannel.request(timeoutMillis, Frame.control(Command.ping)).whenComplete((reply, e) -> {
+			healthCheckPending = false;
+			if (e != null || reply.getCommand() != Command.pong) {
+				LOG.log(Level.WARNING, "server " + serverAddress + " did not answer health check, " + reply, e);
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Requests the number of running and queued forks of the server and its limit.
+	 */
+	public CompletableFuture<ServerLoad> getLoadAsync(int timeoutMillis) {
+		return connectionChannel.request(timeoutMillis, Frame.control(Command.status)).thenApply(reply -> {
+			if (reply.getCommand() != Command.statusOk) {
+				throw new IllegalStateException("Invalid status reply of server " + serverAddress + ": " + reply);
+			}
+			String[] values = reply.getArgument().split(" ");
+			return new ServerLoad(serverAddress.getHostString() + ":" + serverAddress.getPort(),
+					Integer.parseInt(values[0]), Integer.parseInt(values[1]), Integer.parseInt(values[2]));
+		});
+	}
+
+	/**
+	 * Closes the socket, pending requests fail with an {@link IOException}.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		con.close();
+		IOException lost = new IOException("connection to server " + serverAddress + " lost");
+		connectionChannel.fail(lost);
+		for (Channel channel : channels.values()) {
+			channel.fail(lost);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return number of open channels
+	 */
+	public int getChannelCount() {
+		return channels.size();
+	}
+
+	public InetSocketAddress getServerAddress() {
+		return serverAddress;
+	}
+
+	/**
+	 * Requests of one fork, sent and answered over the shared connection.
+	 */
+	public class Channel {
+
+		private final int forkId;
+		private final Queue<CompletableFuture<Frame>> pending = new ArrayDeque<>();
+		private volatile boolean channelClosed;
+		private volatile ClassLoader classLoader;
+		private volatile int queuePosition;
+		private volatile Consumer<Frame> output;
+		private volatile Tunnels tunnels;
+
+		private Channel(int forkId) {
+			this.forkId = forkId;
+		}
+
+		public int getForkId() {
+			return forkId;
+		}
+
+		/**
+		 * Sends frames, the last one is the control frame of a command, other frames are its
+		 * arguments.
+		 *
+		 * @param timeoutMillis
+		 *            the reply fails with a {@link TimeoutException} if it is not received in
+		 *            time, 0 waits without timeout
+		 * @return reply frame, fails with an {@link IOException} if the connection is lost
+		 */
+		public synchronized CompletableFuture<Frame> request(int timeoutMillis, Frame... frames) {
+			CompletableFuture<Frame> reply = new CompletableFuture<>();
+			if (channelClosed) {
+				reply.completeExceptionally(new IllegalStateException("channel of fork " + forkId + " is closed"));
+				return reply;
+			}
+			if (closed) {
+				reply.completeExceptionally(new IOException("connection to server " + serverAddress + " is closed"));
+				return reply;
+			}
+			Frame[] addressed = new Frame[frames.length];
+			for (int i = 0; i < frames.length; i++) {
+				addressed[i] = frames[i].withForkId(forkId);
+			}
+			// queued before it is sent, the reply may arrive before send returns
+			pending.add(reply);
+			lastUsed = System.currentTimeMillis();
+			try {
+				con.send(addressed);
+			} catch (IOException | RuntimeException e) {
+				pending.remove(reply);
+				reply.completeExceptionally(e);
+				return reply;
+			}
+			if (timeoutMillis > 0) {
+				ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+					// stays queued, so later replies are still matched to their requests
+					reply.completeExceptionally(new TimeoutException("Timeout: no reply of server " + serverAddress
+							+ " within " + timeoutMillis + " ms, fork " + forkId));
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+				reply.whenComplete((r, e) -> timeout.cancel(false));
+			}
+			return reply;
+		}
+
+		public CompletableFuture<Frame> request(Frame... frames) {
+			return request(ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS, frames);
+		}
+
+		/**
+		 * @return position of the fork in the admission queue of the server, 1 is next, 0 if
+		 *         not queued
+		 */
+		public int getQueuePosition() {
+			return queuePosition;
+		}
+
+		/**
+		 * Sends frames not answered by the server.
+		 */
+		public void send(Frame... frames) throws IOException {
+			if (isClosed()) {
+				throw new IOException("channel of fork " + forkId + " is closed");
+			}
+			Frame[] addressed = new Frame[frames.length];
+			for (int i = 0; i < frames.length; i++) {
+				addressed[i] = frames[i].withForkId(forkId);
+			}
+			con.send(addressed);
+		}
+
+		/**
+		 * @param tunnels
+		 *            handles the tunnel frames of the server, closed with the channel
+		 */
+		public void setTunnels(Tunnels tunnels) {
+			this.tunnels = tunnels;
+			if (isClosed()) {
+				tunnels.close();
+			}
+		}
+
+		private void tunnel(Frame frame) {
+			Tunnels handler = tunnels;
+			if (handler == null) {
+				LOG.fine(() -> "tunnel frame dropped, no tunnels: " + frame);
+			} else {
+				handler.receive(frame);
+			}
+		}
+
+		/**
+		 * @param output
+		 *            receives the output chunks the server streams while the fork runs, it is
+		 *            called by the reader thread and should not block
+		 */
+		public void setOutputConsumer(Consumer<Frame> output) {
+			this.output = output;
+		}
+
+		private void output(Frame frame) {
+			Consumer<Frame> consumer = output;
+			if (consumer == null) {
+				LOG.fine(() -> "output dropped, no consumer: " + frame);
+				return;
+			}
+			try {
+				consumer.accept(frame);
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "output of fork " + forkId + " not processed", e);
+			}
+		}
+
+		/**
+		 * @param classLoader
+		 *            provides the classes the server asks for, usually the loader of the task
+		 */
+		public void setClassLoader(ClassLoader classLoader) {
+			this.classLoader = classLoader;
+		}
+
+		/**
+		 * Answers a class request of the server, {@link Command#findClass} with the hash of
+		 * the bytecode, {@link Command#getClass} with the bytecode.
+		 */
+		private void serveClass(Frame frame) {
+			String name = frame.getArgument();
+			byte[] bytes = null;
+			try {
+				bytes = readClass(name);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "class " + name + " requested by server can't be read", e);
+			}
+			Frame reply;
+			if (bytes == null) {
+				reply = Frame.control(Command.classNotFound, name);
+			} else if (frame.getCommand() == Command.findClass) {
+				reply = Frame.control(Command.classFound, ContentStore.hash(bytes));
+			} else {
+				reply = new Frame(Frame.Type.CLASS, bytes);
+			}
+			try {
+				con.send(reply.withForkId(forkId));
+			} catch (IOException | RuntimeException e) {
+				LOG.log(Level.FINE, "class reply not sent", e);
+			}
+		}
+
+		private byte[] readClass(String name) throws IOException {
+			if (name == null) {
+				return null;
+			}
+			ClassLoader loader = classLoader != null ? classLoader : ForkConnection.class.getClassLoader();
+			try (InputStream in = loader.getResourceAsStream(name.replace('.', '/') + ".class")) {
+				if (in == null) {
+					return null;
+				}
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					bytes.write(buffer, 0, n);
+				}
+				return bytes.toByteArray();
+			}
+		}
+
+		private void dispatch(Frame frame) {
+			CompletableFuture<Frame> reply;
+			synchronized (this) {
+				reply = pending.poll();
+			}
+			if (frame.getCommand() == Command.runOk) {
+				queuePosition = 0;
+			}
+			if (reply == null) {
+				LOG.warning(() -> "unexpected frame dropped: " + frame);
+			} else {
+				reply.complete(frame);
+			}
+		}
+
+		private void fail(IOException e) {
+			closeTunnels();
+			CompletableFuture<Frame> reply;
+			while (true) {
+				synchronized (this) {
+					reply = pending.poll();
+				}
+				if (reply == null) {
+					return;
+				}
+				reply.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Releases the fork ID, the connection stays open for other forks.
+		 */
+		public void close() {
+			channelClosed = true;
+			closeTunnels();
+			channels.remove(forkId);
+			lastUsed = System.currentTimeMillis();
+		}
+
+		private void closeTunnels() {
+			Tunnels handler = tunnels;
+			if (handler != null) {
+				handler.close();
+			}
+		}
+
+		/**
+		 * @return true if the channel or its connection is closed
+		 */
+		public boolean isClosed() {
+			return channelClosed || closed;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.gfork.internal.remote.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * One {@link ForkConnection} per server, shared by all remote forks of this client. A daemon
+ * thread checks the pooled connections periodically: connections without traffic for
+ * {@link #HEALTH_CHECK_INTERVAL_MILLIS} are pinged and closed if the server doesn't answer
+ * in time,
+ * connections without forks for {@link #IDLE_TIMEOUT_MILLIS} are closed.
+ */
+public class ForkConnectionPool {
+
+	private static final Logger LOG = Logger.getLogger(ForkConnectionPool.class.getName());
+
+	/**
+	 * Connections without open forks are closed after 60 seconds.
+	 */
+	public static long IDLE_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * Connections without traffic are pinged after 15 seconds.
+	 */
+	public static long HEALTH_CHECK_INTERVAL_MILLIS = 15000;
+
+	private static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+
+	private static final Map<InetSocketAddress, ForkConnection> connections = new HashMap<>();
+
+	private static ScheduledExecutorService maintenance;
+
+	private ForkConnectionPool() {
+		// static only
+	}
+
+	/**
+	 * Opens a channel for a new fork on the pooled connection to a server, a connection
+	 * is created if there is none or it was closed.
+	 */
+	public static ForkConnection.Channel openChannel(InetSocketAddress serverAddress) throws IOException {
+		while (true) {
+			ForkConnection connection = getConnection(serverAddress);
+			try {
+				return connection.openChannel();
+			} catch (IllegalStateException e) {
+				// closed after it was taken from the pool, e.g. idle eviction
+				remove(connection);
+			}
+		}
+	}
+
+	/**
+	 * @return pooled connection to a server, created if there is none or it was closed
+	 */
+	public static synchronized ForkConnection getConnection(InetSocketAddress serverAddress) throws IOException {
+		ForkConnection connection = connections.get(serverAddress);
+		if (connection == null || connection.isClosed()) {
+			connection = ForkConnection.open(serverAddress);
+			connections.put(serverAddress, connection);
+			startMaintenance();
+		}
+		return connection;
+	}
+
+	private static synchronized void remove(ForkConnection connection) {
+		connections.remove(connection.getServerAddress(), connection);
+	}
+
+	/**
+	 * @return number of pooled connections
+	 */
+	public static synchronized int size() {
+		return connections.size();
+	}
+
+	/**
+	 * Closes all pooled connections, forks using them fail.
+	 */
+	public static void closeAll() {
+		for (ForkConnection connection : snapshot()) {
+			remove(connection);
+			connection.close();
+		}
+	}
+
+	private static synchronized List<ForkConnection> snapshot() {
+		return new ArrayList<>(connections.values());
+	}
+
+	private static synchronized void startMaintenance() {
+		if (maintenance != null) {
+			return;
+		}
+		maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jforkConnectionMaintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maintenance.scheduleWithFixedDelay(ForkConnectionPool::maintain, MAINTENANCE_INTERVAL_MILLIS,
+				MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static void maintain() {
+		try {
+			for (ForkConnection connection : snapshot()) {
+				if (connection.isClosed() || connection.closeIfIdle(IDLE_TIMEOUT_MILLIS)) {
+					remove(connection);
+				} else {
+					connection.checkHealth(HEALTH_CHECK_INTERVAL_MILLIS, ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS);
+				}
+			}
+		} catch (RuntimeException e) {
+			LOG.log(Level.SEVERE, "connection maintenance failed", e);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.gfork.internal.remote.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.Frame;
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Class loader of a child process started by a {@link ForkServer} for a remote fork, loads the
+ * classes missing on the server's class path from the server, which gets them from the client
+ * of the fork. The server passes its address and the registration ID of the fork as system
+ * properties {@link #PROPERTY_ADDRESS} and {@link #PROPERTY_ID}. The connection is opened on the
+ * first class request, tasks whose classes are on the class path never connect.
+ */
+public class ServerClassLoader extends ClassLoader {
+
+	public static final String PROPERTY_ADDRESS = "gfork.classServer";
+
+	public static final String PROPERTY_ID = "gfork.classServerId";
+
+	private final InetSocketAddress serverAddress;
+	private final String id;
+	private ConnectionClientSide con;
+
+	public ServerClassLoader(ClassLoader parent, InetSocketAddress serverAddress, String id) {
+		super(parent);
+		this.serverAddress = serverAddress;
+		this.id = id;
+	}
+
+	/**
+	 * @return loader configured by the system properties, null if not set
+	 */
+	public static ServerClassLoader fromSystemProperties() {
+		String address = System.getProperty(PROPERTY_ADDRESS);
+		String id = System.getProperty(PROPERTY_ID);
+		if (address == null || id == null) {
+			return null;
+		}
+		int colon = address.lastIndexOf(':');
+		return new ServerClassLoader(ClassLoader.getSystemClassLoader(),
+				new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))), id);
+	}
+
+	@Override
+	protected synchronized Class<?> findClass(String name) throws ClassNotFoundException {
+		Frame reply;
+		try {
+			reply = request(Frame.control(Command.loadClass, name));
+		} catch (IOException | RuntimeException e) {
+			throw new ClassNotFoundException(name + ", class server " + serverAddress + " failed", e);
+		}
+		if (reply.getType() != Frame.Type.CLASS) {
+			throw new ClassNotFoundException(name + ", " + reply);
+		}
+		byte[] bytes = reply.getPayload();
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+
+	private Frame request(Frame frame) throws IOException {
+		if (con == null) {
+			ConnectionClientSide connection = new ConnectionClientSide(serverAddress, id);
+			connection.send(Frame.control(Command.connect, id));
+			Frame reply = connection.receive();
+			if (reply.getCommand() != Command.connectOk) {
+				connection.close();
+				throw new IOException("class server " + serverAddress + " refused connect: " + reply);
+			}
+			con = connection;
+		}
+		con.send(frame);
+		// the server always answers, it may have to ask the client first
+		return con.receive(0);
+	}
+}
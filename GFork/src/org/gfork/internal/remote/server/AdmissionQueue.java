@@ -0,0 +1,151 @@
+package org.gfork.internal.remote.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.gfork.remote.ForkRejectedException;
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Decides when the forks of a server may start their process. A fork gets a slot if fewer
+ * than {@link #getLimit()} forks are running, otherwise it waits in a bounded FIFO queue and
+ * is told its position whenever it changes. A fork is rejected if the queue is full, the
+ * rejection carries an estimate when a slot will be free.
+ * <p>
+ * A slot is held until the fork process has ended. Ended processes are detected by
+ * {@link #update()}, called by the selector loop of the server and after commands that
+ * usually end a process.
+ */
+public class AdmissionQueue {
+
+	private static final Logger LOG = Logger.getLogger(AdmissionQueue.class.getName());
+
+	private static final long MIN_RETRY_AFTER_MILLIS = 1000;
+
+	private final Deque<RemoteForkProcessor> waiting = new ArrayDeque<>();
+	// running forks and their start time
+	private final Map<RemoteForkProcessor, Long> running = new HashMap<>();
+	private long averageRunMillis = MIN_RETRY_AFTER_MILLIS;
+
+	/**
+	 * @return true if the fork may start now, false if it is queued, it is then told by
+	 *         {@link RemoteForkProcessor#admitted()} when to start
+	 * @throws ForkRejectedException
+	 *             the queue is full
+	 */
+	public synchronized boolean admit(RemoteForkProcessor fork) {
+		if (waiting.isEmpty() && running.size() < getLimit()) {
+			running.put(fork, System.currentTimeMillis());
+			return true;
+		}
+		if (waiting.size() >= ForkServer.MAX_FORKS_QUEUED) {
+			long retryAfter = getRetryAfterMillis();
+			LOG.info(() -> "fork rejected, " + running.size() + " running, " + waiting.size() + " queued");
+			throw new ForkRejectedException("ERROR: " + running.size() + " forks running and " + waiting.size()
+					+ " queued, retry after " + retryAfter + " ms", retryAfter);
+		}
+		waiting.add(fork);
+		fork.queued(waiting.size());
+		return false;
+	}
+
+	/**
+	 * Releases the slot or the queue position of a fork.
+	 */
+	public void release(RemoteForkProcessor fork) {
+		synchronized (this) {
+			if (!waiting.remove(fork)) {
+				ended(fork);
+			}
+		}
+		update();
+	}
+
+	/**
+	 * Releases the slots of forks whose process has ended and admits waiting forks.
+	 */
+	public synchronized void update() {
+		for (Iterator<RemoteForkProcessor> it = running.keySet().iterator(); it.hasNext();) {
+			RemoteForkProcessor fork = it.next();
+			if (!fork.holdsSlot()) {
+				updateAverage(running.get(fork));
+				it.remove();
+			}
+		}
+		if (waiting.isEmpty()) {
+			return;
+		}
+		int limit = getLimit();
+		while (!waiting.isEmpty() && running.size() < limit) {
+			RemoteForkProcessor fork = waiting.poll();
+			running.put(fork, System.currentTimeMillis());
+			fork.admitted();
+		}
+		// forks only report changed positions
+		int position = 0;
+		for (RemoteForkProcessor fork : waiting) {
+			fork.queued(++position);
+		}
+	}
+
+	private void ended(RemoteForkProcessor fork) {
+		Long started = running.remove(fork);
+		if (started != null) {
+			updateAverage(started);
+		}
+	}
+
+	private void updateAverage(long started) {
+		averageRunMillis = (averageRunMillis * 3 + System.currentTimeMillis() - started) / 4;
+	}
+
+	/**
+	 * @return estimated time until a slot is free for a fork queued now
+	 */
+	private long getRetryAfterMillis() {
+		long rounds = (waiting.size() + getLimit()) / getLimit();
+		return Math.max(MIN_RETRY_AFTER_MILLIS, averageRunMillis * rounds);
+	}
+
+	/**
+	 * @return maximum number of running forks: {@link ForkServer#MAX_FORKS_RUNNING} if set, else
+	 *         the number of cores, lower if the free physical memory is not sufficient for more
+	 *         forks of {@link ForkServer#FORK_MEMORY_MB}, at least 1
+	 */
+	public synchronized int getLimit() {
+		if (ForkServer.MAX_FORKS_RUNNING > 0) {
+			return ForkServer.MAX_FORKS_RUNNING;
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		long free = getFreePhysicalMemory();
+		if (free < 0) {
+			return cores;
+		}
+		long byMemory = running.size() + free / (ForkServer.FORK_MEMORY_MB * 1024L * 1024L);
+		return (int) Math.max(1, Math.min(cores, byMemory));
+	}
+
+	public synchronized int getRunningCount() {
+		return running.size();
+	}
+
+	public synchronized int getQueuedCount() {
+		return waiting.size();
+	}
+
+	// getFreePhysicalMemorySize is deprecated since Java 14, its replacement is missing in Java 8
+	@SuppressWarnings({ "restriction", "deprecation" })
+	private static long getFreePhysicalMemory() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+		}
+		return -1;
+	}
+}
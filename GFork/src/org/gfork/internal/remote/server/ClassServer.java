@@ -0,0 +1,130 @@
+package org.gfork.internal.remote.server;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.ContentStore;
+import org.gfork.internal.remote.Frame;
+import org.gfork.internal.remote.client.ServerClassLoader;
+import org.gfork.internal.run.ForkRunner;
+
+/**
+ * Serves the classes of remote forks to their child processes. A fork registers its
+ * {@link ClientClassLoader} and passes the server address and the registration ID to the child
+ * as system properties. A child missing a class connects with the registration ID as connection
+ * ID, see {@link ServerClassLoader}, and its class requests are answered by the loader of the
+ * fork, which asks the client if needed.
+ * <p>
+ * Clients may also ship their class path, see {@link #getArtifactStore()}. The child process of
+ * such a fork runs with the cached artifacts as class path.
+ */
+public class ClassServer {
+
+	private static final Logger LOG = Logger.getLogger(ClassServer.class.getName());
+
+	private final ContentStore store;
+	private final ContentStore artifactStore;
+	private final int port;
+	private final Executor workers;
+	private final Map<String, ClientClassLoader> loaders = new ConcurrentHashMap<>();
+
+	/**
+	 * @param store
+	 *            classes loaded from clients
+	 * @param artifactStore
+	 *            class path artifacts shipped by clients
+	 * @param port
+	 *            listening port of the server
+	 * @param workers
+	 *            execute class requests, they may wait for the client
+	 */
+	public ClassServer(ContentStore store, ContentStore artifactStore, int port, Executor workers) {
+		this.store = store;
+		this.artifactStore = artifactStore;
+		this.port = port;
+		this.workers = workers;
+	}
+
+	public ContentStore getStore() {
+		return store;
+	}
+
+	public ContentStore getArtifactStore() {
+		return artifactStore;
+	}
+
+	/**
+	 * @return class path of a child process: the GFork classes of the server, they must match the
+	 *         command line of the child, followed by the artifacts of the client
+	 */
+	public String getChildClasspath(List<File> artifacts) {
+		StringBuilder classpath = new StringBuilder(getServerLibrary());
+		for (File artifact : artifacts) {
+			classpath.append(File.pathSeparatorChar).append(artifact.getPath());
+		}
+		return classpath.toString();
+	}
+
+	private static String getServerLibrary() {
+		try {
+			return new File(ForkRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		} catch (URISyntaxException | RuntimeException e) {
+			LOG.log(Level.WARNING, "location of GFork classes unknown, using server class path", e);
+			return System.getProperty("java.class.path");
+		}
+	}
+
+	/**
+	 * @return JVM options of the child process of the fork
+	 */
+	public List<String> register(ClientClassLoader loader) {
+		String id = UUID.randomUUID().toString();
+		loaders.put(id, loader);
+		return Arrays.asList("-D" + ServerClassLoader.PROPERTY_ADDRESS + "=127.0.0.1:" + port,
+				"-D" + ServerClassLoader.PROPERTY_ID + "=" + id);
+	}
+
+	public void unregister(ClientClassLoader loader) {
+		loaders.values().remove(loader);
+	}
+
+	/**
+	 * Answers a {@link Command#loadClass} request of a child process.
+	 */
+	public void serve(ConnectionServerSide con, Frame frame) {
+		ClientClassLoader loader = loaders.get(con.getId());
+		String name = frame.getArgument();
+		if (loader == null || name == null) {
+			con.send(Frame.control(Command.error, "no classes registered for connection " + con.getId()));
+			return;
+		}
+		try {
+			workers.execute(() -> {
+				Frame reply;
+				try {
+					byte[] bytes = loader.getClassBytes(name);
+					reply = bytes == null ? Frame.control(Command.classNotFound, name)
+							: new Frame(Frame.Type.CLASS, bytes);
+				} catch (ClassNotFoundException e) {
+					LOG.log(Level.WARNING, "class request failed", e);
+					reply = Frame.control(Command.classNotFound, name);
+				}
+				if (!con.isClosed()) {
+					con.send(reply);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.fine(() -> "server closed, class request discarded, id=" + con.getId());
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package org.gfork.internal.remote.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.ContentStore;
+import org.gfork.internal.remote.Frame;
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Loads the classes of a remote fork the server doesn't have from the client that submitted
+ * the fork. Classes of the server class path take precedence, followed by the class path
+ * artifacts shipped by the client, if any. A missing class is resolved in two steps: the client is asked for the hash of its bytecode ({@link Command#findClass}), the
+ * bytecode itself is only requested ({@link Command#getClass}) if the {@link ContentStore} doesn't
+ * contain it yet.
+ * <p>
+ * Requests are sent with the fork ID of the fork, replies are handed over by the selector thread,
+ * see {@link #receive(Frame)}. One request is pending at a time.
+ */
+public class ClientClassLoader extends ClassLoader {
+
+	private static final Logger LOG = Logger.getLogger(ClientClassLoader.class.getName());
+
+	private final ConnectionServerSide con;
+	private final int forkId;
+	private final ContentStore store;
+	// class name -> bytecode hash of the classes loaded from the client
+	private final Map<String, String> hashes = new ConcurrentHashMap<>();
+	private volatile CompletableFuture<Frame> pending;
+	private URLClassLoader artifacts;
+
+	public ClientClassLoader(ConnectionServerSide con, int forkId, ContentStore store) {
+		super(ClientClassLoader.class.getClassLoader());
+		this.con = con;
+		this.forkId = forkId;
+		this.store = store;
+	}
+
+	/**
+	 * @return true if the frame is the reply to a class request
+	 */
+	public static boolean isReply(Frame frame) {
+		Command cmd = frame.getCommand();
+		return frame.getType() == Frame.Type.CLASS || cmd == Command.classFound || cmd == Command.classNotFound;
+	}
+
+	/**
+	 * @param files
+	 *            class path artifacts shipped by the client
+	 */
+	public synchronized void setArtifacts(List<File> files) throws IOException {
+		URL[] urls = new URL[files.size()];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = files.get(i).toURI().toURL();
+		}
+		close();
+		artifacts = new URLClassLoader(urls, null);
+	}
+
+	/**
+	 * Closes the artifact jars.
+	 */
+	public synchronized void close() {
+		if (artifacts != null) {
+			try {
+				artifacts.close();
+			} catch (IOException e) {
+				LOG.log(Level.FINE, "close failed", e);
+			}
+			artifacts = null;
+		}
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		byte[] bytes = getClassBytes(name);
+		if (bytes == null) {
+			throw new ClassNotFoundException(name + ", not found on server and client of fork " + forkId);
+		}
+		return defineClass(name, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * @return bytecode of a class missing on the server, null if the client doesn't have it
+	 *         either
+	 * @throws ClassNotFoundException
+	 *             the client did not answer
+	 */
+	public synchronized byte[] getClassBytes(String name) throws ClassNotFoundException {
+		try {
+			byte[] shipped = readArtifactClass(name);
+			if (shipped != null) {
+				return shipped;
+			}
+			String hash = hashes.get(name);
+			if (hash == null) {
+				Frame found = request(Frame.control(Command.findClass, name));
+				if (found.getCommand() != Command.classFound) {
+					return null;
+				}
+				hash = found.getArgument();
+			}
+			byte[] bytes = store.get(hash);
+			if (bytes == null) {
+				Frame reply = request(Frame.control(Command.getClass, name));
+				if (reply.getType() != Frame.Type.CLASS) {
+					return null;
+				}
+				bytes = reply.getPayload();
+				hash = store.put(bytes);
+				LOG.fine(() -> "class " + name + " loaded from client, fork " + forkId);
+			}
+			hashes.put(name, hash);
+			return bytes;
+		} catch (IOException | ExecutionException | TimeoutException | RuntimeException e) {
+			throw new ClassNotFoundException(name + ", class request to client of fork " + forkId + " failed", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ClassNotFoundException(name, e);
+		}
+	}
+
+	private byte[] readArtifactClass(String name) throws IOException {
+		if (artifacts == null) {
+			return null;
+		}
+		try (InputStream in = artifacts.getResourceAsStream(name.replace('.', '/') + ".class")) {
+			if (in == null) {
+				return null;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				bytes.write(buffer, 0, n);
+			}
+			return bytes.toByteArray();
+		}
+	}
+
+	private Frame request(Frame frame) throws InterruptedException, ExecutionException, TimeoutException {
+		CompletableFuture<Frame> reply = new CompletableFuture<>();
+		pending = reply;
+		try {
+			con.send(frame.withForkId(forkId));
+			return reply.get(ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS, TimeUnit.MILLISECONDS);
+		} finally {
+			pending = null;
+		}
+	}
+
+	/**
+	 * Hands over the reply to a class request, called by the selector thread.
+	 */
+	public void receive(Frame frame) {
+		CompletableFuture<Frame> reply = pending;
+		if (reply == null) {
+			LOG.warning(() -> "unexpected class reply dropped: " + frame);
+		} else {
+			reply.complete(frame);
+		}
+	}
+}
@@ -1,18 +1,260 @@
 package org.gfork.internal.remote.server;
 
-import java.net.Socket;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.gfork.internal.remote.Connection;
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.Frame;
 
-public class ConnectionServerSide extends Connection {
+/**
+ * Server side of a client connection. The channel is non-blocking and served by the
+ * selector loop of the server: received frames are handed to the processor of the fork
+ * they are addressed to, frames sent are queued until the channel is writable.
+ */
+public class ConnectionServerSide {
 
-	public ConnectionServerSide(Socket socket) throws Exception {
-		super(socket);
+	private static final Logger LOG = Logger.getLogger(ConnectionServerSide.class.getName());
+
+	private static final int INITIAL_BUFFER_SIZE = 512;
+
+	// limit of the connect frame, a client must not allocate more before it is known
+	private static final int MAX_HANDSHAKE_LENGTH = 1024;
+
+	private final SocketChannel channel;
+	private final Consumer<ConnectionServerSide> writeRequest;
+	private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+	private final AtomicLong queuedBytes = new AtomicLong();
+	// run once when the queued frames are written
+	private final Queue<Runnable> writtenActions = new ConcurrentLinkedQueue<>();
+	private final Map<Integer, RemoteForkProcessor> forks = new ConcurrentHashMap<>();
+	private final long created = System.currentTimeMillis();
+	private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private SelectionKey key;
+	private volatile String id;
+	private volatile boolean closeRequested;
+	private volatile boolean closed;
+
+	/**
+	 * @param writeRequest
+	 *            called when frames are queued, the selector thread then has to
+	 *            register write interest and call {@link #writeOutput()}
+	 */
+	public ConnectionServerSide(SocketChannel channel, Consumer<ConnectionServerSide> writeRequest) {
+		this.channel = channel;
+		this.writeRequest = writeRequest;
+	}
+
+	/**
+	 * @return connection ID sent by the client, null until the handshake is done
+	 */
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return creation time, used to expire handshakes
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	public SelectionKey getKey() {
+		return key;
+	}
+
+	public void setKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * @return processor of a fork, created by the factory for a new fork ID
+	 */
+	public RemoteForkProcessor getFork(int forkId, IntFunction<RemoteForkProcessor> factory) {
+		return forks.computeIfAbsent(forkId, factory::apply);
+	}
+
+	public void removeFork(int forkId) {
+		forks.remove(forkId);
+	}
+
+	public Collection<RemoteForkProcessor> getForks() {
+		return forks.values();
 	}
 
-	@Override
-	protected String getConnectionLogPrefix() {
-		return "connection server: ";
+	/**
+	 * Queues a frame, it is written by the selector thread.
+	 */
+	public void send(Frame frame) {
+		checkStatus();
+		LOG.fine(() -> "connection server: " + frame);
+		ByteBuffer bytes = frame.toByteBuffer();
+		queuedBytes.addAndGet(bytes.remaining());
+		output.add(bytes);
+		writeRequest.accept(this);
 	}
 
+	/**
+	 * @return number of bytes queued but not written yet, a measure of how far the client
+	 *         lags behind
+	 */
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	/**
+	 * Runs an action once all frames queued now and later are written, or the connection is
+	 * closed. The action is run by the selector thread and must not block.
+	 */
+	public void whenWritten(Runnable action) {
+		writtenActions.add(action);
+		if (closed) {
+			runWrittenActions();
+		} else {
+			writeRequest.accept(this);
+		}
+	}
+
+	private void runWrittenActions() {
+		Runnable action;
+		while ((action = writtenActions.poll()) != null) {
+			try {
+				action.run();
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "action after write failed, id=" + id, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads available bytes, called by the selector thread only.
+	 *
+	 * @return complete frames received, null if the client closed the connection
+	 * @throws IOException
+	 *             read failed or corrupt frame
+	 */
+	public List<Frame> readFrames() throws IOException {
+		if (channel.read(input) < 0) {
+			return null;
+		}
+		List<Frame> frames = new ArrayList<>();
+		input.flip();
+		Frame frame;
+		while ((frame = Frame.read(input)) != null) {
+			frames.add(frame);
+		}
+		int needed = Frame.frameLength(input);
+		if (id == null && frames.isEmpty() && needed > Frame.HEADER_LENGTH + MAX_HANDSHAKE_LENGTH) {
+			throw new IOException("handshake exceeds " + MAX_HANDSHAKE_LENGTH + " bytes, length=" + needed);
+		}
+		if (!input.hasRemaining() && input.capacity() > INITIAL_BUFFER_SIZE) {
+			// release the buffer of a large frame, idle connections keep a small one
+			input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+			return frames;
+		}
+		input.compact();
+		if (!input.hasRemaining() && needed > input.capacity()) {
+			// grow with the bytes received, not to the length claimed by the header at once
+			ByteBuffer received = input;
+			received.flip();
+			input = ByteBuffer.allocate((int) Math.min(needed, 2L * received.capacity())).put(received);
+		}
+		return frames;
+	}
+
+	/**
+	 * Writes queued frames, called by the selector thread only.
+	 *
+	 * @return true if all queued frames are written
+	 * @throws IOException
+	 */
+	public boolean writeOutput() throws IOException {
+		ByteBuffer next;
+		while ((next = output.peek()) != null) {
+			channel.write(next);
+			if (next.hasRemaining()) {
+				return false;
+			}
+			output.poll();
+			queuedBytes.addAndGet(-next.limit());
+		}
+		runWrittenActions();
+		return output.isEmpty();
+	}
+
+	/**
+	 * @return true if {@link #close()} was called and the queued frames are
+	 *         written, so the connection can be closed now
+	 */
+	public boolean isCloseable() {
+		return closeRequested && output.isEmpty();
+	}
+
+	public void replyErrorAndClose(String msg) {
+		send(Frame.control(Command.error, msg));
+		close();
+	}
+
+	/**
+	 * Closes the connection after all queued frames are written.
+	 */
+	public void close() {
+		if (isClosed()) {
+			return;
+		}
+		closeRequested = true;
+		writeRequest.accept(this);
+	}
+
+	/**
+	 * Closes the connection immediately.
+	 */
+	public void closeNow() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		closeRequested = true;
+		LOG.fine(() -> "close connection, id=" + id);
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "close failed", e);
+		}
+		runWrittenActions();
+	}
+
+	public boolean isClosed() {
+		return closed || closeRequested;
+	}
+
+	private void checkStatus() {
+		if (isClosed()) {
+			throw new IllegalStateException("connection server: connection is closed, id=" + id);
+		}
+	}
 }
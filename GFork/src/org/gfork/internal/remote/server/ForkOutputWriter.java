@@ -0,0 +1,143 @@
+package org.gfork.internal.remote.server;
+
+import java.io.Writer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import org.gfork.internal.remote.Frame;
+import org.gfork.remote.server.ForkServer;
+import org.gfork.remote.server.ForkServer.OutputPolicy;
+
+/**
+ * Streams the output of a fork process to the client as {@link Frame.Type#STDOUT} or
+ * {@link Frame.Type#STDERR} frames, the fork writes and flushes it line by line. A flush sends
+ * the collected output unless the connection is congested, i.e. more than
+ * {@link ForkServer#OUTPUT_BUFFER_SIZE} bytes are queued. Output collected meanwhile is sent as
+ * one chunk when the queued frames are written. Beyond {@link ForkServer#OUTPUT_BUFFER_SIZE}
+ * characters {@link ForkServer#OUTPUT_POLICY} applies.
+ * <p>
+ * Output of a closed connection is discarded, the process output is still read.
+ */
+class ForkOutputWriter extends Writer {
+
+	private static final Logger LOG = Logger.getLogger(ForkOutputWriter.class.getName());
+
+	private final ConnectionServerSide con;
+	private final int forkId;
+	private final Frame.Type type;
+	private final int bufferSize = ForkServer.OUTPUT_BUFFER_SIZE;
+	private final OutputPolicy policy = ForkServer.OUTPUT_POLICY;
+	private final StringBuilder buffer = new StringBuilder();
+	private long dropped;
+	// a send is scheduled when the queued frames are written
+	private boolean sendScheduled;
+
+	ForkOutputWriter(ConnectionServerSide con, int forkId, Frame.Type type) {
+		this.con = con;
+		this.forkId = forkId;
+		this.type = type;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		synchronized (buffer) {
+			buffer.append(cbuf, off, len);
+		}
+	}
+
+	@Override
+	public void flush() {
+		synchronized (buffer) {
+			if (buffer.length() == 0) {
+				return;
+			}
+			if (con.isClosed()) {
+				buffer.setLength(0);
+				return;
+			}
+			if (con.getQueuedBytes() <= bufferSize) {
+				send();
+				return;
+			}
+			if (buffer.length() <= bufferSize) {
+				scheduleSend();
+				return;
+			}
+		}
+		if (policy == OutputPolicy.DROP) {
+			drop();
+		} else {
+			awaitWritten();
+			synchronized (buffer) {
+				send();
+			}
+		}
+	}
+
+	/**
+	 * Sends the output collected so far, the connection may be congested.
+	 */
+	@Override
+	public void close() {
+		synchronized (buffer) {
+			send();
+		}
+	}
+
+	private void drop() {
+		synchronized (buffer) {
+			int excess = buffer.length() - bufferSize;
+			if (excess > 0) {
+				buffer.delete(0, excess);
+				dropped += excess;
+			}
+			scheduleSend();
+		}
+	}
+
+	private void scheduleSend() {
+		if (!sendScheduled) {
+			sendScheduled = true;
+			con.whenWritten(() -> {
+				synchronized (buffer) {
+					sendScheduled = false;
+					send();
+				}
+			});
+		}
+	}
+
+	private void awaitWritten() {
+		CompletableFuture<Void> written = new CompletableFuture<>();
+		con.whenWritten(() -> written.complete(null));
+		try {
+			written.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// not completed exceptionally
+		}
+	}
+
+	private void send() {
+		if (buffer.length() == 0 && dropped == 0) {
+			return;
+		}
+		if (dropped > 0) {
+			long count = dropped;
+			LOG.fine(() -> count + " characters of " + type + " dropped, fork " + forkId);
+			buffer.insert(0, String.format("[%d characters of output dropped]%n", dropped));
+			dropped = 0;
+		}
+		String text = buffer.toString();
+		buffer.setLength(0);
+		if (!con.isClosed()) {
+			try {
+				con.send(Frame.text(type, text).withForkId(forkId));
+			} catch (IllegalStateException e) {
+				// closed meanwhile
+			}
+		}
+	}
+}
@@ -0,0 +1,598 @@
+package org.gfork.internal.remote.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.gfork.Fork;
+import org.gfork.ForkLink;
+import org.gfork.Linkable;
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.Frame;
+import org.gfork.internal.remote.Tunnels;
+import org.gfork.internal.types.BulkCodec;
+import org.gfork.remote.ForkRejectedException;
+
+/**
+ * Executes the commands of one remote fork, a connection carries the frames of any number
+ * of forks. Commands of one fork are executed in order, one at a time, by a thread of the
+ * server's worker pool. Data frames received are kept until the next command takes them as
+ * arguments. A worker is only bound while a command executes, idle forks and connections
+ * don't hold a thread. {@link Command#waitFor} doesn't bind a worker either: the commands
+ * of the fork are suspended until the process exits, then the reply is sent.
+ * <p>
+ * Classes of the fork missing on the server are loaded from the client by a
+ * {@link ClientClassLoader}, the child process loads them from the {@link ClassServer}.
+ * A client may ship its class path before the fork is started: {@link Command#classpath} is
+ * answered with the hashes of the artifacts missing in the cache, the client then uploads them
+ * in chunks of {@link Frame.Type#ARTIFACT} frames, which are appended to a temporary file of the
+ * store until {@link Command#putArtifact} completes the upload.
+ * <p>
+ * A fork process is only started when the {@link AdmissionQueue} grants a slot. A queued fork
+ * is told its queue position with {@link Command#queued} frames, the reply to its run command
+ * is sent when it is started, later commands wait until then.
+ * <p>
+ * The output of the fork process is streamed to the client, see {@link ForkOutputWriter}.
+ * <p>
+ * A remote link is announced by {@link Command#link} before it is started, its task process is
+ * then run as {@link ForkLink} with the link arguments of the client. Ports of the client are
+ * tunneled over the connection, see {@link Tunnels}, the task process connects to a loopback
+ * port of the server instead. {@link Command#linkPort} is answered with the listener port of the
+ * task process.
+ */
+public class RemoteForkProcessor {
+
+	private static final Logger LOG = Logger.getLogger(RemoteForkProcessor.class.getName());
+
+	private final ConnectionServerSide con;
+	private final int forkId;
+	private final Executor workers;
+	private final AdmissionQueue admission;
+	private final ClassServer classServer;
+	private final ClientClassLoader classLoader;
+	private final Tunnels tunnels;
+	private final Queue<Frame> frames = new ArrayDeque<>();
+	private final Queue<Frame> arguments = new ArrayDeque<>();
+	private boolean scheduled;
+	// waiting for admission, frames are not executed
+	private boolean suspended;
+	private volatile boolean started;
+	private volatile int queuePosition;
+
+	private String className;
+
+	private List<String> classpath;
+
+	// artifact upload in progress, chunks are appended until putArtifact
+	private volatile File upload;
+
+	private IOException uploadFailure;
+
+	// arguments of a remote link, null for a fork not linked
+	private List<String> linkArgs;
+
+	@SuppressWarnings("rawtypes")
+	private volatile Fork fork;
+
+	private ForkOutputWriter stdOut;
+
+	private ForkOutputWriter stdErr;
+
+	/**
+	 * @param admission
+	 *            grants the slot to start the fork process
+	 */
+	public RemoteForkProcessor(ConnectionServerSide con, int forkId, Executor workers, AdmissionQueue admission,
+			ClassServer classServer) {
+		this.con = con;
+		this.forkId = forkId;
+		this.workers = workers;
+		this.admission = admission;
+		this.classServer = classServer;
+		this.classLoader = new ClientClassLoader(con, forkId, classServer.getStore());
+		this.tunnels = new Tunnels(this::reply, false);
+	}
+
+	public int getForkId() {
+		return forkId;
+	}
+
+	/**
+	 * Queues a frame received after the handshake. Replies to class requests are handed to
+	 * the class loader at once, the command waiting for them blocks the queue. Tunnel frames
+	 * are handled at once as well.
+	 */
+	public void submit(Frame frame) {
+		if (ClientClassLoader.isReply(frame)) {
+			classLoader.receive(frame);
+			return;
+		}
+		if (Tunnels.isTunnelFrame(frame)) {
+			tunnels.receive(frame);
+			return;
+		}
+		synchronized (frames) {
+			frames.add(frame);
+			if (scheduled || suspended) {
+				return;
+			}
+			scheduled = true;
+		}
+		schedule();
+	}
+
+	/**
+	 * @return true if the fork of this connection was started and its process is
+	 *         still alive
+	 */
+	public boolean isForkRunning() {
+		return fork != null && fork.isExecuting();
+	}
+
+	/**
+	 * @return true if the fork was admitted and its process is starting or still alive
+	 */
+	boolean holdsSlot() {
+		return !started || isForkRunning();
+	}
+
+	/**
+	 * Called by the admission queue when the position of the queued fork changed.
+	 */
+	void queued(int position) {
+		if (position != queuePosition && !con.isClosed()) {
+			queuePosition = position;
+			reply(Frame.control(Command.queued, Integer.toString(position)));
+		}
+	}
+
+	/**
+	 * Called by the admission queue when the queued fork may start, its process is started
+	 * by a worker thread and the commands received meanwhile are executed.
+	 */
+	void admitted() {
+		queuePosition = 0;
+		try {
+			workers.execute(() -> {
+				if (!con.isClosed()) {
+					startFork();
+				}
+				resume();
+			});
+		} catch (RejectedExecutionException e) {
+			LOG.fine(() -> "server closed, fork not started, id=" + con.getId() + ", fork " + forkId);
+		}
+	}
+
+	private void resume() {
+		synchronized (frames) {
+			suspended = false;
+			if (scheduled || frames.isEmpty()) {
+				return;
+			}
+			scheduled = true;
+		}
+		schedule();
+	}
+
+	private void schedule() {
+		try {
+			workers.execute(this::executeNext);
+		} catch (RejectedExecutionException e) {
+			LOG.fine(() -> "server closed, command discarded, id=" + con.getId() + ", fork " + forkId);
+		}
+	}
+
+	/**
+	 * Executes one frame and reschedules itself if more frames are queued, so a busy
+	 * connection does not starve others waiting for a worker.
+	 */
+	private void executeNext() {
+		Frame frame;
+		synchronized (frames) {
+			frame = frames.poll();
+		}
+		if (frame != null && !con.isClosed()) {
+			if (frame.getType() == Frame.Type.CONTROL) {
+				execute(frame.getCommand(), frame.getArgument());
+			} else if (frame.getType() == Frame.Type.ARTIFACT) {
+				appendArtifact(frame);
+			} else {
+				arguments.add(frame);
+			}
+		}
+		synchronized (frames) {
+			if (frames.isEmpty() || suspended || con.isClosed()) {
+				if (con.isClosed()) {
+					frames.clear();
+				}
+				scheduled = false;
+				return;
+			}
+		}
+		schedule();
+	}
+
+	private void execute(Command nextCommand, String argument) {
+		try {
+			switch (nextCommand) {
+			case run:
+				runFork();
+				break;
+			case kill:
+				killFork();
+				break;
+			case runMethod:
+				runMethodFork();
+				break;
+			case getMethodReturnValue:
+				reply(Frame.data(fork.getReturnValue()));
+				break;
+			case waitFor:
+				waitForFork();
+				break;
+			case getTask:
+				LOG.info(getLogContext() + " - get task");
+				reply(Frame.data(fork.getTask()));
+				break;
+			case getExitValue:
+				reply(Frame.data(fork.getExitValue()));
+				break;
+			case isFinished:
+				reply(Frame.data(fork.isFinished()));
+				break;
+			case connectClose:
+				connectClose();
+				break;
+			case classpath:
+				classpath();
+				break;
+			case putArtifact:
+				putArtifact(argument);
+				break;
+			case link:
+				link();
+				break;
+			case linkPort:
+				reply(Frame.control(Command.linkPortOk, Integer.toString(((ForkLink<?, ?>) fork).getListenerPort())));
+				break;
+			case NAC:
+				LOG.fine(() -> getLogContext() + " - invalid command received");
+				break; // ignore
+			default:
+				throw new RuntimeException("Unexpected command: " + nextCommand);
+			}
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, getLogContext(), e);
+			if (!con.isClosed()) {
+				reply(Frame.control(Command.error, getLogContext() + " - " + e));
+			}
+		} finally {
+			arguments.clear();
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void runFork() throws Exception {
+		LOG.info("Run Fork");
+		List<File> artifacts = getArtifacts();
+		Serializable task = (Serializable) nextArgument();
+		Fork.setJvmOptionsForAll((List) nextArgument());
+		List<String> vmOptions = (List) nextArgument();
+		className = task.getClass().getName();
+		LOG.info(getLogContext() + " - run '" + className + "'");
+		if (linkArgs != null) {
+			Constructor<ForkLink> constructor = ForkLink.class.getConstructor(Serializable.class);
+			ForkLink link = constructor.newInstance(task);
+			link.setLinkArguments(linkArgs);
+			fork = link;
+		} else {
+			Constructor<Fork> constructor1 = Fork.class.getConstructor(Serializable.class);
+			fork = constructor1.newInstance(task);
+		}
+		fork.setJvmOptions(withClassServer(vmOptions));
+		streamOutput();
+		setClasspath(artifacts);
+		admitAndStart();
+	}
+
+	/**
+	 * Starts the fork if a slot is free, else the fork is queued and started when admitted.
+	 */
+	private void admitAndStart() {
+		boolean admitted;
+		synchronized (frames) {
+			// before the fork can be admitted by another thread
+			suspended = true;
+		}
+		try {
+			admitted = admission.admit(this);
+		} catch (ForkRejectedException e) {
+			resume();
+			reply(Frame.control(Command.rejected, e.getRetryAfterMillis() + " " + e.getMessage()));
+			return;
+		}
+		if (admitted) {
+			synchronized (frames) {
+				suspended = false;
+			}
+			startFork();
+		} else {
+			LOG.info(getLogContext() + " - queued");
+		}
+	}
+
+	private void startFork() {
+		try {
+			fork.execute();
+			started = true;
+			reply(Frame.control(Command.runOk));
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, getLogContext(), e);
+			started = true;
+			admission.release(this);
+			if (!con.isClosed()) {
+				reply(Frame.control(Command.error, getLogContext() + " - " + e));
+			}
+		}
+	}
+
+	private void killFork() throws Exception {
+		LOG.info(getLogContext() + " - kill '" + className + "'");
+		fork.kill();
+		admission.update();
+		reply(Frame.control(Command.killOk));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void runMethodFork() throws Exception {
+		LOG.info("Run Method Fork");
+		List<File> artifacts = getArtifacts();
+		Serializable task = (Serializable) nextArgument();
+		Fork.setJvmOptionsForAll((List) nextArgument());
+		List<String> vmOptions = (List) nextArgument();
+		String methodName = (String) nextArgument();
+		Class<?>[] methodArgTypes = (Class<?>[]) nextArgument();
+		Serializable[] methodArgValues = (Serializable[]) nextArgument();
+		className = task.getClass().getName();
+		Method method = task.getClass().getMethod(methodName, methodArgTypes);
+		LOG.info(getLogContext() + " - run '" + className + "." + method.getName() + "'");
+		if (linkArgs != null) {
+			Constructor<ForkLink> constructor = ForkLink.class.getConstructor(Linkable.class, Method.class,
+					Serializable[].class);
+			ForkLink link = constructor.newInstance(task, method, methodArgValues);
+			link.setLinkArguments(linkArgs);
+			fork = link;
+		} else {
+			Constructor<Fork> constructor = Fork.class.getConstructor(Serializable.class, Method.class,
+					Serializable[].class);
+			fork = constructor.newInstance(task, method, methodArgValues);
+		}
+		fork.setJvmOptions(withClassServer(vmOptions));
+		streamOutput();
+		setClasspath(artifacts);
+		admitAndStart();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void classpath() throws Exception {
+		classpath = (List<String>) nextArgument();
+		ArrayList<String> missing = new ArrayList<>();
+		for (String hash : classpath) {
+			if (!classServer.getArtifactStore().contains(hash) && !missing.contains(hash)) {
+				missing.add(hash);
+			}
+		}
+		LOG.info(getLogContext() + " - class path of " + classpath.size() + " artifacts, " + missing.size()
+				+ " missing");
+		reply(Frame.data(missing));
+	}
+
+	/**
+	 * Takes the link arguments of the next run command, tunneled ports of the client are
+	 * replaced by loopback ports of the server.
+	 */
+	@SuppressWarnings("unchecked")
+	private void link() throws Exception {
+		List<String> args = new ArrayList<>();
+		for (String arg : (List<String>) nextArgument()) {
+			int tunnel = arg.indexOf("tunnel:");
+			if (tunnel >= 0) {
+				int port = Integer.parseInt(arg.substring(tunnel + "tunnel:".length()));
+				arg = arg.substring(0, tunnel) + tunnels.listen(port);
+			}
+			args.add(arg);
+		}
+		linkArgs = args;
+		LOG.info(getLogContext() + " - link " + args);
+		reply(Frame.control(Command.linkOk));
+	}
+
+	private void appendArtifact(Frame chunk) {
+		if (uploadFailure != null) {
+			return;
+		}
+		try {
+			if (upload == null) {
+				upload = classServer.getArtifactStore().createTempFile();
+			}
+			Files.write(upload.toPath(), chunk.getPayload(), StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			uploadFailure = e;
+		}
+	}
+
+	private void putArtifact(String expectedHash) throws Exception {
+		File artifact = upload;
+		IOException failure = uploadFailure;
+		upload = null;
+		uploadFailure = null;
+		if (failure != null) {
+			deleteUpload(artifact);
+			throw failure;
+		}
+		if (artifact == null) {
+			throw new IllegalStateException("missing artifact frame");
+		}
+		String hash = classServer.getArtifactStore().putFile(artifact);
+		if (!hash.equals(expectedHash)) {
+			throw new IllegalStateException("artifact hash mismatch, expected " + expectedHash + ", got " + hash);
+		}
+		reply(Frame.control(Command.putArtifactOk, hash));
+	}
+
+	/**
+	 * @return artifacts of the class path shipped by the client, null if none
+	 */
+	private List<File> getArtifacts() throws IOException {
+		if (classpath == null) {
+			return null;
+		}
+		List<File> artifacts = new ArrayList<>();
+		for (String hash : classpath) {
+			File artifact = classServer.getArtifactStore().getFile(hash);
+			if (!artifact.isFile()) {
+				throw new IllegalStateException("class path artifact " + hash + " was not uploaded");
+			}
+			artifacts.add(artifact);
+		}
+		classLoader.setArtifacts(artifacts);
+		return artifacts;
+	}
+
+	private void setClasspath(List<File> artifacts) {
+		if (artifacts != null) {
+			fork.setClasspath(classServer.getChildClasspath(artifacts));
+		}
+	}
+
+	/**
+	 * The output of the fork process is streamed to the client while it runs.
+	 */
+	private void streamOutput() {
+		stdOut = new ForkOutputWriter(con, forkId, Frame.Type.STDOUT);
+		stdErr = new ForkOutputWriter(con, forkId, Frame.Type.STDERR);
+		fork.setStdOutWriter(stdOut);
+		fork.setStdErrWriter(stdErr);
+	}
+
+	private List<String> withClassServer(List<String> vmOptions) {
+		List<String> options = vmOptions == null ? new ArrayList<>() : new ArrayList<>(vmOptions);
+		options.addAll(classServer.register(classLoader));
+		// the client can't map files of the server
+		options.add("-D" + BulkCodec.MAPPED_FILES_PROPERTY + "=false");
+		return options;
+	}
+
+	/**
+	 * Releases the class loader and the tunnels of the fork, called when the fork or the
+	 * connection is closed.
+	 */
+	public void release() {
+		deleteUpload(upload);
+		admission.release(this);
+		tunnels.close();
+		classServer.unregister(classLoader);
+		classLoader.close();
+	}
+
+	private void deleteUpload(File file) {
+		if (file != null && !file.delete() && file.exists()) {
+			LOG.fine(() -> getLogContext() + " - can't delete upload " + file);
+		}
+	}
+
+	private void reply(Frame frame) {
+		con.send(frame.withForkId(forkId));
+	}
+
+	private Object nextArgument() throws Exception {
+		Frame argument = arguments.poll();
+		if (argument == null) {
+			throw new IllegalStateException("missing argument data frame");
+		}
+		return argument.getObject(classLoader);
+	}
+
+	/**
+	 * Suspends the commands of the fork until its process exits, the reply is sent by a worker
+	 * when the exit is signaled.
+	 */
+	@SuppressWarnings("unchecked")
+	private void waitForFork() {
+		LOG.info(getLogContext() + " - wait for");
+		synchronized (frames) {
+			suspended = true;
+		}
+		CompletableFuture<Integer> exit = fork.waitForAsync();
+		exit.whenCompleteAsync((statusCode, failure) -> {
+			try {
+				waitForFinished(statusCode, failure);
+			} finally {
+				resume();
+			}
+		}, workers);
+	}
+
+	private void waitForFinished(Integer statusCode, Throwable failure) {
+		if (failure != null) {
+			Throwable e = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause()
+					: failure;
+			LOG.log(Level.SEVERE, getLogContext(), e);
+			replyIfOpen(Frame.control(Command.waitForError, getLogContext() + " - " + e.getMessage()));
+			return;
+		}
+		admission.update();
+		// all output before the reply
+		stdOut.close();
+		stdErr.close();
+		replyIfOpen(Frame.control(Command.waitForFinished, Integer.toString(statusCode)));
+		LOG.info(getLogContext() + " - finsihed, statusCodd=" + statusCode);
+	}
+
+	/**
+	 * Replies unless the client disconnected meanwhile, e.g. while the fork was running.
+	 */
+	private void replyIfOpen(Frame frame) {
+		if (con.isClosed()) {
+			LOG.fine(() -> getLogContext() + " - connection closed, reply discarded: " + frame);
+			return;
+		}
+		try {
+			reply(frame);
+		} catch (IllegalStateException e) {
+			LOG.fine(() -> getLogContext() + " - connection closed meanwhile, reply discarded: " + frame);
+		}
+	}
+
+	private void connectClose() {
+		if (fork != null && fork.isExecuting()) {
+			try {
+				fork.kill();
+			} catch (Exception e) {
+				LOG.log(Level.SEVERE, e.getMessage(), e);
+			}
+		}
+		con.removeFork(forkId);
+		release();
+		reply(Frame.control(Command.connectCloseOk));
+	}
+
+	private String getLogContext() {
+		return "Run Fork: className = '" + className + "'";
+	}
+}
@@ -25,8 +25,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.ServerSocket;
@@ -36,6 +38,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.gfork.Linkable;
+import org.gfork.internal.graph.GraphNodeConnector;
+import org.gfork.internal.metrics.LinkMeter;
+import org.gfork.internal.metrics.MetricsReporter;
+import org.gfork.internal.remote.client.ServerClassLoader;
+import org.gfork.internal.stream.ClassLoaderObjectInputStream;
+import org.gfork.internal.stream.SpoolInputStream;
 import org.gfork.types.Void;
 
 
@@ -50,7 +58,13 @@ public class ForkRunner {
 	private final static Logger log = Logger.getLogger(ForkRunner.class.getName());
 	
 	private static Socket taskInput;
+	private static InputStream taskInputStream;
+	private static SpoolInputStream spool;
 	private static Socket taskSuccessorSocket;
+	private static MetricsReporter metricsReporter;
+	private static LinkMeter meter;
+	private static GraphNodeConnector graphNode;
+	private static ClassLoader taskClassLoader;
 
 	public static void main(final String[] args) {
 		File exceptionFile = null;
@@ -64,9 +78,14 @@ public class ForkRunner {
 			}
 			logArgs(Level.INFO, args);
 			exceptionFile = checkAndOpenFile(a.exceptionFile);
+			initTaskClassLoader();
 			final File taskFile = checkAndOpenFile(a.taskFile);
 			final Object task = readTaskObject(taskFile);
-			connectLink(a, task);
+			if (a.graph) {
+				connectGraphNode(a, task);
+			} else {
+				connectLink(a, task);
+			}
 			executeTask(a, task);
 			disconnectLink();
 			writeTaskObject(task, taskFile);
@@ -82,9 +101,12 @@ public class ForkRunner {
 	private static void connectLink(final Arguments a, final Object task) throws UnknownHostException, IOException {
 		if (task instanceof Linkable) {
 			final Linkable linkableTask = (Linkable) task;
+			meter = a.metricsPort > 0 ? new LinkMeter(a.linkIndex) : null;
 			if (a.outputPort > 0) {
-				taskSuccessorSocket = new Socket("127.0.0.1", a.outputPort);
-				linkableTask.setSuccTaskWriteStream(taskSuccessorSocket.getOutputStream());
+				taskSuccessorSocket = new Socket(a.successorHost == null ? "127.0.0.1" : a.successorHost, a.outputPort);
+				if (!a.session) {
+					linkableTask.setSuccTaskWriteStream(meter(taskSuccessorSocket.getOutputStream()));
+				}
 				linkableTask.setSuccTaskReadStream(taskSuccessorSocket.getInputStream());
 				log.info(String.format("linkable task output stream set, port is %d", a.outputPort));
 			}
@@ -93,50 +115,117 @@ public class ForkRunner {
 			System.out.flush();
 			log.info(String.format("linkable task listener established, port is %d", taskPredecessorSocket.getLocalPort()));
 			taskInput = taskPredecessorSocket.accept();
-			linkableTask.setPredTaskReadStream(taskInput.getInputStream());
+			taskInputStream = taskInput.getInputStream();
+			if (a.spoolDir != null) {
+				spool = new SpoolInputStream(taskInputStream, new File(a.spoolDir), a.spoolQuota);
+				taskInputStream = spool;
+				log.info(String.format("linkable task input spooled to %s, quota %d bytes", a.spoolDir, a.spoolQuota));
+			}
+			if (meter != null) {
+				meter.setBufferProbe(taskInput.getInputStream());
+				meter.setSpool(spool);
+				metricsReporter = new MetricsReporter(meter, a.metricsPort, a.metricsInterval);
+				metricsReporter.start();
+				log.info(String.format("linkable task metrics reported to port %d", a.metricsPort));
+			}
+			if (!a.session) {
+				linkableTask.setPredTaskReadStream(meter(taskInputStream));
+			}
 			linkableTask.setPredTaskWriteStream(taskInput.getOutputStream());
 			taskPredecessorSocket.close();
 			log.info("linkable task input stream set");
-			linkableTask.init(a.loggingEnabled);
-			log.info("linkable task initialized");
+			if (!a.session) {
+				linkableTask.init(a.loggingEnabled);
+				log.info("linkable task initialized");
+			}
 		} else {
 			System.out.println("port:null");
 		}
 	}
 
+	/**
+	 * Graph mode: ports are connected as described by the wiring received from {@link org.gfork.ForkGraph}.
+	 */
+	private static void connectGraphNode(final Arguments a, final Object task) throws IOException, ClassNotFoundException {
+		if (!(task instanceof Linkable)) {
+			throw new IllegalArgumentException(String.format("Graph node task %s does not implement %s.",
+					task.getClass().getName(), Linkable.class.getName()));
+		}
+		final Linkable linkableTask = (Linkable) task;
+		graphNode = new GraphNodeConnector();
+		graphNode.connect(linkableTask);
+		linkableTask.init(a.loggingEnabled);
+		log.info("graph node task initialized");
+	}
+
 	private static void executeTask(final Arguments a, final Object task)
 			throws NoSuchMethodException, IllegalAccessException,
 			InvocationTargetException, FileNotFoundException, IOException,
 			ClassNotFoundException {
 		final Method method;
-		final Object retVal;
-		log.info(String.format("task starting: method %s(void)", a.methodName));
+		final Object[] values;
 		if (a.isMethodWithNoParameters) {
 			method = task.getClass().getMethod(a.methodName);
-			retVal = method.invoke(task);
+			values = new Object[0];
 		} else {
 			final MethodArgTypesAndValues typesAndValues = readMethodTypesAndValues(a);
 			logInvokeMethodTypesAndValues(Level.INFO, a.methodName, typesAndValues);
 			method = task.getClass().getMethod(a.methodName, typesAndValues.types);
-			retVal = method.invoke(task, typesAndValues.values);
+			values = typesAndValues.values;
+		}
+		final Object retVal;
+		if (a.session && task instanceof Linkable) {
+			retVal = LinkSession.execute((Linkable) task, method, values, taskInputStream,
+					taskSuccessorSocket == null ? null : taskSuccessorSocket.getOutputStream(), meter, a.loggingEnabled);
+		} else {
+			log.info(String.format("task starting: method %s(void)", a.methodName));
+			retVal = method.invoke(task, values);
+			log.info(String.format("task finished: method %s(void)", a.methodName));
 		}
-		log.info(String.format("task finished: method %s(void)", a.methodName));
 		writeReturnValue(method, a.methodReturnValueFile, retVal);
 	}
 
+	private static InputStream meter(final InputStream in) {
+		return LinkSession.meter(in, meter);
+	}
+
+	private static OutputStream meter(final OutputStream out) {
+		return LinkSession.meter(out, meter);
+	}
+
 	private static void disconnectLink() throws IOException {
+		if (metricsReporter != null) {
+			metricsReporter.finish();
+		}
+		if (graphNode != null) {
+			graphNode.disconnect();
+		}
 		if (taskSuccessorSocket != null) {
 			taskSuccessorSocket.close();
 		}
+		if (spool != null) {
+			spool.close();
+		}
 		if (taskInput != null) {
 			taskInput.close();
 		}
 	}
 
+	/**
+	 * Child of a remote fork: classes missing on the class path are loaded from the fork server.
+	 */
+	private static void initTaskClassLoader() {
+		taskClassLoader = ServerClassLoader.fromSystemProperties();
+		if (taskClassLoader != null) {
+			Thread.currentThread().setContextClassLoader(taskClassLoader);
+			log.info("task classes missing on class path are loaded from fork server");
+		}
+	}
+
 	private static Object readTaskObject(final File taskFile)
 			throws FileNotFoundException, IOException, ClassNotFoundException {
 		final FileInputStream fin = new FileInputStream(taskFile);
-		final ObjectInputStream oin = new ObjectInputStream(fin);
+		final ObjectInputStream oin = new ClassLoaderObjectInputStream(fin, taskClassLoader);
 		final Object task = oin.readObject();
 		fin.close();
 		return task;
@@ -146,7 +235,7 @@ public class ForkRunner {
 			throws FileNotFoundException, IOException, ClassNotFoundException {
 		final File taskArgsFile = checkAndOpenFile(a.methodArgsFile);
 		final FileInputStream afin = new FileInputStream(taskArgsFile);
-		final ObjectInputStream aoin = new ObjectInputStream(afin);
+		final ObjectInputStream aoin = new ClassLoaderObjectInputStream(afin, taskClassLoader);
 		final Class<?>[] types = (Class<?>[]) aoin.readObject();
 		final Object[] values = (Object[]) aoin.readObject();
 		afin.close();
@@ -259,6 +348,14 @@ public class ForkRunner {
 		public String methodName;
 		public String methodArgsFile;
 		public int outputPort;
+		public int metricsPort;
+		public int linkIndex;
+		public long metricsInterval = 1000;
+		public boolean session;
+		public boolean graph;
+		public String spoolDir;
+		public long spoolQuota;
+		public String successorHost;
 
 		public Arguments(final String[] args) {
 			taskFile = args[0];
@@ -273,6 +370,35 @@ public class ForkRunner {
 			if (args.length > 6) {
 				outputPort = Integer.parseInt(args[6]);
 			}
+			// optional link options, see ForkLink#createLinkOptions()
+			for (int i = 7; i < args.length; i++) {
+				final int sep = args[i].indexOf('=');
+				if (sep > 0) {
+					setLinkOption(args[i].substring(0, sep), args[i].substring(sep + 1));
+				}
+			}
+		}
+
+		private void setLinkOption(final String name, final String value) {
+			if ("metricsPort".equals(name)) {
+				metricsPort = Integer.parseInt(value);
+			} else if ("linkIndex".equals(name)) {
+				linkIndex = Integer.parseInt(value);
+			} else if ("metricsInterval".equals(name)) {
+				metricsInterval = Long.parseLong(value);
+			} else if ("session".equals(name)) {
+				session = Boolean.parseBoolean(value);
+			} else if ("graph".equals(name)) {
+				graph = Boolean.parseBoolean(value);
+			} else if ("spoolDir".equals(name)) {
+				spoolDir = value;
+			} else if ("spoolQuota".equals(name)) {
+				spoolQuota = Long.parseLong(value);
+			} else if ("successorHost".equals(name)) {
+				successorHost = value;
+			} else {
+				log.warning(String.format("unknown link option '%s'", name));
+			}
 		}
 	}
 }
@@ -0,0 +1,103 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.run;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Logger;
+
+import org.gfork.Linkable;
+import org.gfork.internal.metrics.LinkMeter;
+import org.gfork.internal.stream.ChunkedInputStream;
+import org.gfork.internal.stream.ChunkedOutputStream;
+import org.gfork.internal.stream.MeteredInputStream;
+import org.gfork.internal.stream.MeteredOutputStream;
+
+/**
+ * Runs a link task in session mode, shared by forked link processes ({@link ForkRunner})
+ * and in-process links ({@link org.gfork.InProcessLink}).
+ */
+public class LinkSession {
+
+	private final static Logger log = Logger.getLogger(LinkSession.class.getName());
+
+	/**
+	 * Session mode: the task method is invoked once for every logical stream received 
+	 * from the predecessor until the predecessor closes the physical stream.
+	 * 
+	 * @param predIn physical stream of the predecessor
+	 * @param succOut physical stream to the successor, null if there is no successor
+	 * @param meter link meter or null if metrics are disabled
+	 * @return return value of the last invocation
+	 */
+	public static Object execute(final Linkable task, final Method method, final Object[] values,
+			final InputStream predIn, final OutputStream succOut, final LinkMeter meter, final boolean loggingEnabled)
+			throws IllegalAccessException, InvocationTargetException, IOException {
+		final ChunkedInputStream predSession = new ChunkedInputStream(predIn);
+		final ChunkedOutputStream succSession = succOut == null ? null : new ChunkedOutputStream(succOut);
+		Object retVal = null;
+		int streamIndex = 0;
+		InputStream in;
+		log.info("session started");
+		while ((in = predSession.nextStream()) != null) {
+			task.setPredTaskReadStream(meter(in, meter));
+			OutputStream out = null;
+			if (succSession != null) {
+				out = meter(succSession.nextStream(), meter);
+				task.setSuccTaskWriteStream(out);
+			}
+			if (streamIndex == 0) {
+				task.init(loggingEnabled);
+				log.info("linkable task initialized");
+			}
+			log.fine(String.format("stream %d starting: method %s", streamIndex, method.getName()));
+			task.onStreamStart(streamIndex);
+			retVal = method.invoke(task, values);
+			if (out != null) {
+				out.close(); // writes end of stream marker if not already done by the task
+			}
+			task.onStreamEnd(streamIndex);
+			streamIndex++;
+		}
+		if (succSession != null) {
+			succSession.close();
+		}
+		log.info(String.format("session ended after %d stream(s)", streamIndex));
+		return retVal;
+	}
+
+	/**
+	 * @return metered stream or the stream itself if metrics are disabled
+	 */
+	public static InputStream meter(final InputStream in, final LinkMeter meter) {
+		return meter == null ? in : new MeteredInputStream(in, meter);
+	}
+
+	/**
+	 * @return metered stream or the stream itself if metrics are disabled
+	 */
+	public static OutputStream meter(final OutputStream out, final LinkMeter meter) {
+		return meter == null ? out : new MeteredOutputStream(out, meter);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the logical streams written by a {@link ChunkedOutputStream} from one physical stream.
+ * Every logical stream reports end of stream (-1) when its end marker is reached.
+ */
+public class ChunkedInputStream {
+
+	private final DataInputStream in;
+	private StreamView current;
+	private boolean ended;
+
+	public ChunkedInputStream(final InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * Skips unread data of the current logical stream and waits for the next one.
+	 * 
+	 * @return the next logical stream or null if the physical stream has ended
+	 * @throws IOException
+	 */
+	public synchronized InputStream nextStream() throws IOException {
+		if (current != null) {
+			current.skipToEnd();
+			current = null;
+		}
+		if (ended) {
+			return null;
+		}
+		final int header;
+		try {
+			header = in.readInt();
+		} catch (final EOFException e) {
+			ended = true;
+			return null;
+		}
+		current = new StreamView(header);
+		return current;
+	}
+
+	/**
+	 * @return true if the physical stream has ended
+	 */
+	public synchronized boolean isEnded() {
+		return ended;
+	}
+
+	private class StreamView extends InputStream {
+
+		private int remaining;
+		private boolean eos;
+
+		StreamView(final int header) {
+			applyHeader(header);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			final int b = in.read();
+			if (b < 0) {
+				physicalEnd();
+				return -1;
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			final int n = in.read(b, off, Math.min(len, remaining));
+			if (n < 0) {
+				physicalEnd();
+				return -1;
+			}
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return eos ? 0 : Math.min(remaining, in.available());
+		}
+
+		/**
+		 * Closing a logical stream keeps the physical stream open,
+		 * unread data is skipped by {@link ChunkedInputStream#nextStream()}.
+		 */
+		@Override
+		public void close() {
+		}
+
+		void skipToEnd() throws IOException {
+			while (fill()) {
+				final int skipped = in.skipBytes(remaining);
+				if (skipped > 0) {
+					remaining -= skipped;
+				} else if (in.read() < 0) {
+					physicalEnd();
+				} else {
+					remaining--;
+				}
+			}
+		}
+
+		private boolean fill() throws IOException {
+			while (remaining == 0 && !eos) {
+				try {
+					applyHeader(in.readInt());
+				} catch (final EOFException e) {
+					physicalEnd();
+				}
+			}
+			return !eos;
+		}
+
+		private void applyHeader(final int header) {
+			if (header == ChunkedOutputStream.END_OF_STREAM) {
+				eos = true;
+			} else {
+				remaining = header;
+			}
+		}
+
+		private void physicalEnd() {
+			eos = true;
+			ended = true;
+		}
+	}
+}
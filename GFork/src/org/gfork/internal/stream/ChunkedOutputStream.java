@@ -0,0 +1,152 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a sequence of logical streams to one physical stream. Data is sent in chunks
+ * with a length header, a logical stream ends with the in-band marker {@link #END_OF_STREAM}.
+ * The physical stream ends when {@link #close()} is called. Read it using {@link ChunkedInputStream}.
+ */
+public class ChunkedOutputStream {
+
+	/**
+	 * Chunk header that marks the end of a logical stream.
+	 */
+	public static final int END_OF_STREAM = -1;
+
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+	private final DataOutputStream out;
+	private final int chunkSize;
+	private StreamView current;
+
+	public ChunkedOutputStream(final OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE);
+	}
+
+	public ChunkedOutputStream(final OutputStream out, final int chunkSize) {
+		this.out = new DataOutputStream(out);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Ends the current logical stream if it is still open and starts the next one.
+	 * 
+	 * @return stream to write the next logical stream, closing it writes the end of stream marker
+	 * @throws IOException
+	 */
+	public synchronized OutputStream nextStream() throws IOException {
+		if (current != null) {
+			current.close();
+		}
+		current = new StreamView();
+		return current;
+	}
+
+	/**
+	 * Ends the current logical stream and closes the physical stream.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+		out.close();
+	}
+
+	private class StreamView extends OutputStream {
+
+		private final byte[] buf = new byte[chunkSize];
+		private int count;
+		private boolean closed;
+
+		@Override
+		public void write(final int b) throws IOException {
+			checkOpen();
+			if (count == buf.length) {
+				writeChunk();
+			}
+			buf[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			checkOpen();
+			if (len >= buf.length) {
+				writeChunk();
+				synchronized (out) {
+					out.writeInt(len);
+					out.write(b, off, len);
+				}
+				return;
+			}
+			if (len > buf.length - count) {
+				writeChunk();
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (closed) {
+				return;
+			}
+			writeChunk();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			writeChunk();
+			synchronized (out) {
+				out.writeInt(END_OF_STREAM);
+				out.flush();
+			}
+			closed = true;
+		}
+
+		private void writeChunk() throws IOException {
+			if (count > 0) {
+				synchronized (out) {
+					out.writeInt(count);
+					out.write(buf, 0, count);
+				}
+				count = 0;
+			}
+		}
+
+		private void checkOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Logical stream is already closed.");
+			}
+		}
+	}
+}
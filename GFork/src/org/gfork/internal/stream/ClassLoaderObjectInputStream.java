@@ -0,0 +1,54 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * Resolves the classes of deserialized objects with a given class loader, e.g. the loader of
+ * a task whose classes are not on the class path. Without a loader the default resolution
+ * of {@link ObjectInputStream} applies.
+ */
+public class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+	private final ClassLoader classLoader;
+
+	public ClassLoaderObjectInputStream(final InputStream in, final ClassLoader classLoader) throws IOException {
+		super(in);
+		this.classLoader = classLoader;
+	}
+
+	@Override
+	protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		if (classLoader == null) {
+			return super.resolveClass(desc);
+		}
+		try {
+			return Class.forName(desc.getName(), false, classLoader);
+		} catch (final ClassNotFoundException e) {
+			// primitive types
+			return super.resolveClass(desc);
+		}
+	}
+}
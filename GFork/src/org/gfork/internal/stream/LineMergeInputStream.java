@@ -0,0 +1,139 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Merges the records of several source streams into one stream. A record is a line 
+ * terminated by a line feed, lines of different sources are interleaved in arrival order
+ * but never mixed. The merged stream ends when all sources have ended.
+ */
+public class LineMergeInputStream extends InputStream {
+
+	private static final int QUEUE_CAPACITY = 64;
+	private static final byte[] END_OF_SOURCE = new byte[0];
+
+	private final BlockingQueue<byte[]> lines = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+	private final int sources;
+	private int endedSources;
+	private byte[] current;
+	private int pos;
+	private volatile IOException error;
+
+	public LineMergeInputStream(final List<InputStream> sources) {
+		this.sources = sources.size();
+		for (int i = 0; i < sources.size(); i++) {
+			startReader(sources.get(i), i);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return current[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		final int n = Math.min(len, current.length - pos);
+		System.arraycopy(current, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current == null ? 0 : current.length - pos;
+	}
+
+	private boolean fill() throws IOException {
+		while (current == null || pos == current.length) {
+			if (endedSources == sources) {
+				if (error != null) {
+					throw error;
+				}
+				return false;
+			}
+			try {
+				current = lines.take();
+				pos = 0;
+			} catch (final InterruptedException e) {
+				throw new IOException("Interrupted while waiting for merged input.", e);
+			}
+			if (current == END_OF_SOURCE) {
+				endedSources++;
+				current = null;
+			}
+		}
+		return true;
+	}
+
+	private void startReader(final InputStream source, final int index) {
+		final Thread reader = new Thread("jforkMergeReader-" + index) {
+			@Override
+			public void run() {
+				final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+				final byte[] buf = new byte[8192];
+				try {
+					try {
+						int len;
+						while ((len = source.read(buf)) > 0) {
+							int start = 0;
+							for (int i = 0; i < len; i++) {
+								if (buf[i] == '\n') {
+									line.write(buf, start, i + 1 - start);
+									lines.put(line.toByteArray());
+									line.reset();
+									start = i + 1;
+								}
+							}
+							line.write(buf, start, len - start);
+						}
+						if (line.size() > 0) {
+							lines.put(line.toByteArray());
+						}
+					} catch (final IOException e) {
+						error = e;
+					}
+					lines.put(END_OF_SOURCE);
+				} catch (final InterruptedException e) {
+					error = new IOException("Merge reader interrupted.", e);
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+	}
+}
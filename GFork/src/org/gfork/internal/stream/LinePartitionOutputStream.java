@@ -0,0 +1,89 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Distributes records to the target streams round-robin. A record is a line
+ * terminated by a line feed, lines are never split between targets.
+ */
+public class LinePartitionOutputStream extends OutputStream {
+
+	private final List<OutputStream> targets;
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+	private int next;
+
+	public LinePartitionOutputStream(final List<OutputStream> targets) {
+		this.targets = targets;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		line.write(b);
+		if (b == '\n') {
+			writeLine();
+		}
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		int start = off;
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			if (b[i] == '\n') {
+				line.write(b, start, i + 1 - start);
+				writeLine();
+				start = i + 1;
+			}
+		}
+		line.write(b, start, end - start);
+	}
+
+	/**
+	 * Flushes the targets, an incomplete line is kept until it is terminated.
+	 */
+	@Override
+	public void flush() throws IOException {
+		for (final OutputStream target : targets) {
+			target.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (line.size() > 0) {
+			writeLine();
+		}
+		for (final OutputStream target : targets) {
+			target.close();
+		}
+	}
+
+	private void writeLine() throws IOException {
+		line.writeTo(targets.get(next));
+		line.reset();
+		next = (next + 1) % targets.size();
+	}
+}
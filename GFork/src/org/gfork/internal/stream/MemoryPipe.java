@@ -0,0 +1,166 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Bounded in-memory byte pipe between two threads of the same process, a ring buffer
+ * guarded by the pipe monitor. Unlike {@link java.io.PipedInputStream} it does not track
+ * the writer thread, so any thread (e.g. of a pool) may write and readers are woken
+ * immediately instead of polling.
+ */
+public class MemoryPipe {
+
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	private final byte[] buffer;
+	private int readPos;
+	private int fill;
+	private boolean writerClosed;
+	private boolean readerClosed;
+
+	private final InputStream in = new InputStream() {
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return MemoryPipe.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			synchronized (MemoryPipe.this) {
+				return fill;
+			}
+		}
+
+		@Override
+		public void close() {
+			synchronized (MemoryPipe.this) {
+				readerClosed = true;
+				MemoryPipe.this.notifyAll();
+			}
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			MemoryPipe.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			synchronized (MemoryPipe.this) {
+				writerClosed = true;
+				MemoryPipe.this.notifyAll();
+			}
+		}
+	};
+
+	public MemoryPipe() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public MemoryPipe(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Pipe capacity must be greater than 0.");
+		}
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * @return reading end, reports end of stream after the writing end was closed and all data was read
+	 */
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	/**
+	 * @return writing end, blocks while the pipe is full
+	 */
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	private synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (fill == 0) {
+			if (readerClosed) {
+				throw new IOException("Pipe closed.");
+			}
+			if (writerClosed) {
+				return -1;
+			}
+			await();
+		}
+		final int n = Math.min(len, Math.min(fill, buffer.length - readPos));
+		System.arraycopy(buffer, readPos, b, off, n);
+		readPos = (readPos + n) % buffer.length;
+		fill -= n;
+		notifyAll();
+		return n;
+	}
+
+	private synchronized void write(final byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			while (fill == buffer.length && !readerClosed) {
+				await();
+			}
+			if (readerClosed || writerClosed) {
+				throw new IOException("Pipe closed.");
+			}
+			final int writePos = (readPos + fill) % buffer.length;
+			final int n = Math.min(len, Math.min(buffer.length - fill, buffer.length - writePos));
+			System.arraycopy(b, off, buffer, writePos, n);
+			fill += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for pipe.");
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.gfork.internal.metrics.LinkMeter;
+
+/**
+ * Counts bytes read from the predecessor of a link and the time spent
+ * blocked in read calls.
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+	private final LinkMeter meter;
+
+	public MeteredInputStream(final InputStream in, final LinkMeter meter) {
+		super(in);
+		this.meter = meter;
+	}
+
+	public LinkMeter getMeter() {
+		return meter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final long start = System.nanoTime();
+		final int b = super.read();
+		meter.addBytesIn(b < 0 ? 0 : 1, System.nanoTime() - start);
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final long start = System.nanoTime();
+		final int n = super.read(b, off, len);
+		meter.addBytesIn(n < 0 ? 0 : n, System.nanoTime() - start);
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long start = System.nanoTime();
+		final long skipped = super.skip(n);
+		meter.addBytesIn(skipped, System.nanoTime() - start);
+		return skipped;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.gfork.internal.metrics.LinkMeter;
+
+/**
+ * Counts bytes written to the successor of a link and the time spent
+ * blocked in write and flush calls.
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+
+	private final LinkMeter meter;
+
+	public MeteredOutputStream(final OutputStream out, final LinkMeter meter) {
+		super(out);
+		this.meter = meter;
+	}
+
+	public LinkMeter getMeter() {
+		return meter;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		final long start = System.nanoTime();
+		out.write(b);
+		meter.addBytesOut(1, System.nanoTime() - start);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		final long start = System.nanoTime();
+		out.write(b, off, len); // FilterOutputStream would write byte by byte
+		meter.addBytesOut(len, System.nanoTime() - start);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		final long start = System.nanoTime();
+		out.flush();
+		meter.addBytesOut(0, System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,297 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decouples a link from its predecessor by spooling the input to disk. A pump thread drains
+ * the source stream as fast as it delivers data and appends it to segment files, the reader
+ * consumes the segments in order and deletes every segment once it has been read.
+ * The pump blocks when the unread data reaches the quota, which propagates backpressure
+ * to the predecessor as without a spool.
+ */
+public class SpoolInputStream extends InputStream {
+
+	public static final long DEFAULT_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+	private final static Logger log = Logger.getLogger(SpoolInputStream.class.getName());
+
+	private static final int PUMP_BUFFER_SIZE = 64 * 1024;
+
+	private static class Segment {
+		final File file;
+		long written;
+		boolean sealed;
+
+		Segment(final File file) {
+			this.file = file;
+		}
+	}
+
+	private final InputStream source;
+	private final File dir;
+	private final long quota;
+	private final long segmentSize;
+	private final Deque<Segment> segments = new ArrayDeque<Segment>();
+	private long depth;
+	private boolean ended;
+	private boolean closed;
+	private IOException error;
+
+	// reader state, guarded by readLock
+	private final Object readLock = new Object();
+	private FileInputStream segmentIn;
+	private long segmentPos;
+
+	public SpoolInputStream(final InputStream source, final File dir, final long quotaBytes) throws IOException {
+		this(source, dir, quotaBytes, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param source stream to drain, usually the socket of the predecessor
+	 * @param dir directory of the segment files
+	 * @param quotaBytes maximum number of spooled unread bytes
+	 * @param segmentSize size after which the pump starts the next segment file
+	 * @throws IOException the spool directory is not usable
+	 */
+	public SpoolInputStream(final InputStream source, final File dir, final long quotaBytes, final long segmentSize)
+			throws IOException {
+		if (quotaBytes <= 0 || segmentSize <= 0) {
+			throw new IllegalArgumentException("Spool quota and segment size must be greater than 0.");
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(String.format("Cannot create spool directory '%s'", dir.getAbsolutePath()));
+		}
+		this.source = source;
+		this.dir = dir;
+		this.quota = quotaBytes;
+		this.segmentSize = segmentSize;
+		final Thread pump = new Thread("jforkSpoolPump") {
+			@Override
+			public void run() {
+				pump();
+			}
+		};
+		pump.setDaemon(true);
+		pump.start();
+	}
+
+	/**
+	 * @return number of bytes received from the source but not yet read
+	 */
+	public synchronized long getDepth() {
+		return depth;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		synchronized (readLock) {
+			final Segment segment = awaitData();
+			if (segment == null) {
+				return -1;
+			}
+			if (segmentIn == null) {
+				segmentIn = new FileInputStream(segment.file);
+			}
+			final long available;
+			synchronized (this) {
+				available = segment.written - segmentPos;
+			}
+			final int n = segmentIn.read(b, off, (int) Math.min(len, available));
+			if (n < 0) {
+				throw new IOException(String.format("Spool segment truncated: %s", segment.file));
+			}
+			segmentPos += n;
+			synchronized (this) {
+				depth -= n;
+				notifyAll();
+			}
+			return n;
+		}
+	}
+
+	@Override
+	public synchronized int available() {
+		return (int) Math.min(depth, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Stops the pump, closes the source and deletes all segment files.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		source.close();
+		synchronized (readLock) {
+			closeSegmentIn();
+			synchronized (this) {
+				for (final Segment segment : segments) {
+					segment.file.delete();
+				}
+				segments.clear();
+				depth = 0;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the head segment has unread data, deletes fully read segments.
+	 * 
+	 * @return head segment or null at end of stream
+	 */
+	private Segment awaitData() throws IOException {
+		while (true) {
+			final Segment segment;
+			synchronized (this) {
+				while (segments.isEmpty() && !ended && !closed) {
+					waitInterruptibly();
+				}
+				if (closed) {
+					throw new IOException("Spool closed.");
+				}
+				segment = segments.peekFirst();
+				if (segment == null) {
+					if (error != null) {
+						throw error;
+					}
+					return null;
+				}
+				if (segment.written > segmentPos) {
+					return segment;
+				}
+				if (!segment.sealed) {
+					waitInterruptibly();
+					continue;
+				}
+				segments.removeFirst();
+			}
+			closeSegmentIn();
+			segment.file.delete();
+			segmentPos = 0;
+		}
+	}
+
+	private void pump() {
+		final byte[] buf = new byte[PUMP_BUFFER_SIZE];
+		FileOutputStream out = null;
+		Segment segment = null;
+		try {
+			int n;
+			pumping: while ((n = source.read(buf)) >= 0) {
+				int off = 0;
+				while (off < n) {
+					final int len;
+					synchronized (this) {
+						while (depth >= quota && !closed) {
+							waitInterruptibly();
+						}
+						if (closed) {
+							break pumping;
+						}
+						len = (int) Math.min(n - off, quota - depth);
+					}
+					if (segment == null) {
+						segment = new Segment(File.createTempFile("jfork-spool-", ".seg", dir));
+						out = new FileOutputStream(segment.file);
+						synchronized (this) {
+							segments.addLast(segment);
+						}
+					}
+					final int chunk = (int) Math.min(len, segmentSize - segment.written);
+					out.write(buf, off, chunk);
+					off += chunk;
+					synchronized (this) {
+						segment.written += chunk;
+						depth += chunk;
+						if (segment.written >= segmentSize) {
+							segment.sealed = true;
+							segment = null;
+						}
+						notifyAll();
+					}
+					if (segment == null) {
+						out.close();
+					}
+				}
+			}
+		} catch (final IOException e) {
+			synchronized (this) {
+				if (!closed) {
+					log.log(Level.SEVERE, "spool pump failed", e);
+					error = e;
+				}
+			}
+		} finally {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (final IOException e) {
+				log.log(Level.WARNING, "closing spool segment failed", e);
+			}
+			synchronized (this) {
+				if (segment != null) {
+					segment.sealed = true;
+				}
+				ended = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void waitInterruptibly() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for spool.");
+		}
+	}
+
+	private void closeSegmentIn() throws IOException {
+		if (segmentIn != null) {
+			segmentIn.close();
+			segmentIn = null;
+		}
+	}
+}
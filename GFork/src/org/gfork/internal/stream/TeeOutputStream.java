@@ -0,0 +1,65 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes all data to every target stream (broadcast).
+ */
+public class TeeOutputStream extends OutputStream {
+
+	private final List<OutputStream> targets;
+
+	public TeeOutputStream(final List<OutputStream> targets) {
+		this.targets = targets;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		for (final OutputStream target : targets) {
+			target.write(b);
+		}
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		for (final OutputStream target : targets) {
+			target.write(b, off, len);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (final OutputStream target : targets) {
+			target.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final OutputStream target : targets) {
+			target.close();
+		}
+	}
+}
@@ -0,0 +1,429 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+
+/**
+ * Writes call arguments and return values of {@link CallFrame}s. Large primitive arrays and
+ * {@link ByteBuffer}s bypass object serialization: they are written as raw bytes behind a small 
+ * descriptor, or, above the mapped threshold, through a memory-mapped temporary file of which 
+ * only the name is sent. The reader maps the file and delivers a direct {@link ByteBuffer} 
+ * respectively copies the mapped data into the array, then deletes the file.
+ * <p>
+ * Mapped files are written to a temporary directory of the writing process, which is deleted
+ * with the files of frames never read when the process exits. Directories of processes which
+ * died are deleted by the next process creating its directory, a locked file tells whether the
+ * owner is alive.
+ * <p>
+ * Thresholds are defined by the system properties gfork.bulk.threshold (default 64 KB)
+ * and gfork.bulk.mappedThreshold (default 16 MB) of the writing process. Mapped files require
+ * reader and writer on the same host, they are not used by a {@link FrameWriter} to a remote 
+ * reader and not at all if the system property gfork.bulk.mapped is false, which is set for
+ * the task processes of a ForkServer.
+ */
+public final class BulkCodec {
+
+	public static final int BULK_THRESHOLD = Integer.getInteger("gfork.bulk.threshold", 64 * 1024);
+	public static final int MAPPED_THRESHOLD = Integer.getInteger("gfork.bulk.mappedThreshold", 16 * 1024 * 1024);
+	public static final String MAPPED_FILES_PROPERTY = "gfork.bulk.mapped";
+	public static final boolean MAPPED_FILES = Boolean.parseBoolean(System.getProperty(MAPPED_FILES_PROPERTY, "true"));
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final String MAPPED_DIR_PREFIX = "gfork-bulk-";
+	private static final String LOCK_FILE = "owner.lock";
+
+	// directory of the mapped files written by this process, held while the process is alive
+	private static File mappedDir;
+	private static FileLock mappedDirLock;
+
+	private enum Kind {
+		BYTES(1), SHORTS(2), CHARS(2), INTS(4), LONGS(8), FLOATS(4), DOUBLES(8), BUFFER(1);
+
+		final int elementSize;
+
+		Kind(final int elementSize) {
+			this.elementSize = elementSize;
+		}
+	}
+
+	/**
+	 * Written in place of a bulk value.
+	 */
+	private static final class BulkRef implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final Kind kind;
+		final int length;
+		final boolean littleEndian;
+		final String mappedFile;
+
+		BulkRef(final Kind kind, final int length, final boolean littleEndian, final String mappedFile) {
+			this.kind = kind;
+			this.length = length;
+			this.littleEndian = littleEndian;
+			this.mappedFile = mappedFile;
+		}
+	}
+
+	private BulkCodec() {
+	}
+
+	public static void writeValues(final ObjectOutputStream out, final Object[] values) throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(values.length);
+		for (final Object value : values) {
+			writeValue(out, value);
+		}
+	}
+
+	public static Object[] readValues(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final Object[] values = new Object[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = readValue(in);
+		}
+		return values;
+	}
+
+	public static void writeValue(final ObjectOutputStream out, final Object value) throws IOException {
+		final Kind kind = kindOf(value);
+		if (kind == null) {
+			out.writeObject(value);
+			return;
+		}
+		final int length;
+		final boolean littleEndian;
+		if (kind == Kind.BUFFER) {
+			length = ((ByteBuffer) value).remaining();
+			littleEndian = ((ByteBuffer) value).order() == ByteOrder.LITTLE_ENDIAN;
+		} else {
+			length = Array.getLength(value);
+			littleEndian = false;
+		}
+		if ((long) length * kind.elementSize < MAPPED_THRESHOLD || !isMappedFiles(out)) {
+			out.writeObject(new BulkRef(kind, length, littleEndian, null));
+			writeRaw(out, kind, value, length);
+			return;
+		}
+		final String mappedFile = writeMapped(kind, value, length);
+		try {
+			out.writeObject(new BulkRef(kind, length, littleEndian, mappedFile));
+		} catch (final IOException e) {
+			new File(mappedFile).delete();
+			throw e;
+		}
+	}
+
+	private static boolean isMappedFiles(final ObjectOutputStream out) {
+		if (out instanceof FrameWriter.FrameOutputStream) {
+			return MAPPED_FILES && ((FrameWriter.FrameOutputStream) out).isMappedFiles();
+		}
+		return MAPPED_FILES;
+	}
+
+	public static Object readValue(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		final Object value = in.readObject();
+		if (!(value instanceof BulkRef)) {
+			return value;
+		}
+		final BulkRef ref = (BulkRef) value;
+		return ref.mappedFile == null ? readRaw(in, ref) : readMapped(ref);
+	}
+
+	private static Kind kindOf(final Object value) {
+		if (value instanceof ByteBuffer) {
+			return Kind.BUFFER; // not serializable, always bulk
+		}
+		final Kind kind;
+		if (value instanceof byte[]) {
+			kind = Kind.BYTES;
+		} else if (value instanceof short[]) {
+			kind = Kind.SHORTS;
+		} else if (value instanceof char[]) {
+			kind = Kind.CHARS;
+		} else if (value instanceof int[]) {
+			kind = Kind.INTS;
+		} else if (value instanceof long[]) {
+			kind = Kind.LONGS;
+		} else if (value instanceof float[]) {
+			kind = Kind.FLOATS;
+		} else if (value instanceof double[]) {
+			kind = Kind.DOUBLES;
+		} else {
+			return null;
+		}
+		return (long) Array.getLength(value) * kind.elementSize >= BULK_THRESHOLD ? kind : null;
+	}
+
+	private static void writeRaw(final ObjectOutputStream out, final Kind kind, final Object value, final int length)
+			throws IOException {
+		if (kind == Kind.BYTES) {
+			out.write((byte[]) value);
+			return;
+		}
+		final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		if (kind == Kind.BUFFER) {
+			final ByteBuffer source = ((ByteBuffer) value).duplicate();
+			while (source.hasRemaining()) {
+				final int n = Math.min(source.remaining(), CHUNK_SIZE);
+				source.get(chunk.array(), 0, n);
+				out.write(chunk.array(), 0, n);
+			}
+			return;
+		}
+		final int perChunk = CHUNK_SIZE / kind.elementSize;
+		for (int from = 0; from < length; from += perChunk) {
+			final int count = Math.min(perChunk, length - from);
+			chunk.clear();
+			put(chunk, kind, value, from, count);
+			out.write(chunk.array(), 0, count * kind.elementSize);
+		}
+	}
+
+	private static Object readRaw(final ObjectInputStream in, final BulkRef ref) throws IOException {
+		if (ref.kind == Kind.BYTES || ref.kind == Kind.BUFFER) {
+			final byte[] bytes = new byte[ref.length];
+			in.readFully(bytes);
+			if (ref.kind == Kind.BYTES) {
+				return bytes;
+			}
+			return ByteBuffer.wrap(bytes).order(ref.littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		}
+		final Object array = Array.newInstance(componentType(ref.kind), ref.length);
+		final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		final int perChunk = CHUNK_SIZE / ref.kind.elementSize;
+		for (int from = 0; from < ref.length; from += perChunk) {
+			final int count = Math.min(perChunk, ref.length - from);
+			in.readFully(chunk.array(), 0, count * ref.kind.elementSize);
+			chunk.clear();
+			get(chunk, ref.kind, array, from, count);
+		}
+		return array;
+	}
+
+	private static String writeMapped(final Kind kind, final Object value, final int length) throws IOException {
+		final File file = File.createTempFile("bulk", ".bin", getMappedDirectory());
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final long size = (long) length * kind.elementSize;
+			final MappedByteBuffer mapped = raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+			if (kind == Kind.BUFFER) {
+				mapped.put(((ByteBuffer) value).duplicate());
+			} else {
+				put(mapped, kind, value, 0, length);
+			}
+		} catch (final IOException e) {
+			raf.close();
+			file.delete();
+			throw e;
+		}
+		raf.close();
+		// deleted by the reader, or with the directory if the frame is never read
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * @return directory of the mapped files of this process, created on first use
+	 */
+	static synchronized File getMappedDirectory() throws IOException {
+		if (mappedDir == null) {
+			final File tmp = new File(System.getProperty("java.io.tmpdir"));
+			deleteStaleDirectories(tmp);
+			final File dir = Files.createTempDirectory(tmp.toPath(), MAPPED_DIR_PREFIX).toFile();
+			mappedDirLock = new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel().lock();
+			Runtime.getRuntime().addShutdownHook(new Thread("jforkBulkCleanup") {
+				@Override
+				public void run() {
+					try {
+						mappedDirLock.channel().close();
+					} catch (final IOException e) {
+						// deleted anyway
+					}
+					deleteDirectory(dir);
+				}
+			});
+			mappedDir = dir;
+		}
+		return mappedDir;
+	}
+
+	/**
+	 * Deletes the mapped file directories of processes which are not alive anymore.
+	 */
+	static void deleteStaleDirectories(final File parent) {
+		final File[] dirs = parent.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		for (final File dir : dirs) {
+			final File lockFile = new File(dir, LOCK_FILE);
+			if (!dir.getName().startsWith(MAPPED_DIR_PREFIX) || !lockFile.isFile()) {
+				continue; // a directory being created has no lock file yet
+			}
+			try {
+				final RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+				try {
+					if (raf.getChannel().tryLock() == null) {
+						continue; // owner is alive
+					}
+				} finally {
+					raf.close();
+				}
+			} catch (final IOException e) {
+				continue;
+			} catch (final OverlappingFileLockException e) {
+				continue; // owned by this process
+			}
+			deleteDirectory(dir);
+		}
+	}
+
+	private static void deleteDirectory(final File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static Object readMapped(final BulkRef ref) throws IOException {
+		final File file = new File(ref.mappedFile);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		final MappedByteBuffer mapped;
+		try {
+			// private mapping: the callee may modify a buffer without changing the file
+			mapped = raf.getChannel().map(MapMode.PRIVATE, 0, (long) ref.length * ref.kind.elementSize);
+		} finally {
+			raf.close();
+			if (!file.delete()) {
+				file.deleteOnExit(); // e.g. on Windows a mapped file can not be deleted
+			}
+		}
+		if (ref.kind == Kind.BUFFER) {
+			mapped.order(ref.littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			return mapped;
+		}
+		final Object array = Array.newInstance(componentType(ref.kind), ref.length);
+		get(mapped, ref.kind, array, 0, ref.length);
+		return array;
+	}
+
+	private static Class<?> componentType(final Kind kind) {
+		switch (kind) {
+		case BYTES:
+			return byte.class;
+		case SHORTS:
+			return short.class;
+		case CHARS:
+			return char.class;
+		case INTS:
+			return int.class;
+		case LONGS:
+			return long.class;
+		case FLOATS:
+			return float.class;
+		case DOUBLES:
+			return double.class;
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
+	}
+
+	private static void put(final ByteBuffer target, final Kind kind, final Object array, final int from, final int count) {
+		switch (kind) {
+		case BYTES:
+			target.put((byte[]) array, from, count);
+			break;
+		case SHORTS:
+			target.asShortBuffer().put((short[]) array, from, count);
+			break;
+		case CHARS:
+			target.asCharBuffer().put((char[]) array, from, count);
+			break;
+		case INTS:
+			target.asIntBuffer().put((int[]) array, from, count);
+			break;
+		case LONGS:
+			target.asLongBuffer().put((long[]) array, from, count);
+			break;
+		case FLOATS:
+			target.asFloatBuffer().put((float[]) array, from, count);
+			break;
+		case DOUBLES:
+			target.asDoubleBuffer().put((double[]) array, from, count);
+			break;
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
+	}
+
+	private static void get(final ByteBuffer source, final Kind kind, final Object array, final int from, final int count) {
+		switch (kind) {
+		case BYTES:
+			source.get((byte[]) array, from, count);
+			break;
+		case SHORTS:
+			source.asShortBuffer().get((short[]) array, from, count);
+			break;
+		case CHARS:
+			source.asCharBuffer().get((char[]) array, from, count);
+			break;
+		case INTS:
+			source.asIntBuffer().get((int[]) array, from, count);
+			break;
+		case LONGS:
+			source.asLongBuffer().get((long[]) array, from, count);
+			break;
+		case FLOATS:
+			source.asFloatBuffer().get((float[]) array, from, count);
+			break;
+		case DOUBLES:
+			source.asDoubleBuffer().get((double[]) array, from, count);
+			break;
+		default:
+			throw new IllegalArgumentException(kind.toString());
+		}
+	}
+}
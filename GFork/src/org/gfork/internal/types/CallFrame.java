@@ -0,0 +1,191 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.gfork.types.RemoteCallException;
+
+/**
+ * Frame of the call protocol between {@link org.gfork.ForkCallable} and
+ * {@link org.gfork.CallableTask}. Every call carries a request id which is repeated
+ * by its reply, so any number of calls can be in flight and replies may arrive
+ * in any order. Calls identify the method by name and parameter types or, after the
+ * parent has received the task's {@link MethodTable}, by method id only.
+ * A batch frame carries several calls which are executed in order, its reply
+ * is a batch frame with the replies of all calls. Arguments and return values are 
+ * written by {@link BulkCodec}, large primitive arrays and byte buffers are not serialized.
+ * Event frames are pushed by the task, the parent grants credits for further events
+ * after it has consumed them.
+ */
+public class CallFrame implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Type {
+		/** parent to task: invoke a method */
+		CALL,
+		/** parent to task: request the method table, replied by a RETURN frame with the signatures */
+		METHODS,
+		/** task to parent: return value of a call */
+		RETURN,
+		/** task to parent: the called method threw an exception */
+		EXCEPTION,
+		/** parent to task: calls to be executed in order, task to parent: replies of these calls */
+		BATCH,
+		/** task to parent: event published by the task */
+		EVENT,
+		/** parent to task: the parent has consumed events, the value is their number */
+		CREDIT,
+		/** parent to task: clear cached results of the method, of all methods if the method name is null */
+		INVALIDATE
+	}
+
+	private final Type type;
+	private final long id;
+	private String methodName;
+	private int methodId = -1;
+	private Class<?>[] parameterTypes;
+	private transient Object[] args;
+	private transient Object value;
+	private CallFrame[] frames;
+
+	private CallFrame(final Type type, final long id) {
+		this.type = type;
+		this.id = id;
+	}
+
+	public static CallFrame call(final long id, final String methodName, final Class<?>[] parameterTypes,
+			final Object[] args) {
+		final CallFrame frame = new CallFrame(Type.CALL, id);
+		frame.methodName = methodName;
+		frame.parameterTypes = parameterTypes;
+		frame.args = args;
+		return frame;
+	}
+
+	/**
+	 * @param methodId index of the method in the task's {@link MethodTable}
+	 */
+	public static CallFrame call(final long id, final int methodId, final Object[] args) {
+		final CallFrame frame = new CallFrame(Type.CALL, id);
+		frame.methodId = methodId;
+		frame.args = args;
+		return frame;
+	}
+
+	public static CallFrame methods(final long id) {
+		return new CallFrame(Type.METHODS, id);
+	}
+
+	public static CallFrame returnValue(final long id, final Object value) {
+		final CallFrame frame = new CallFrame(Type.RETURN, id);
+		frame.value = value;
+		return frame;
+	}
+
+	public static CallFrame exception(final long id, final RemoteCallException e) {
+		final CallFrame frame = new CallFrame(Type.EXCEPTION, id);
+		frame.value = e;
+		return frame;
+	}
+
+	public static CallFrame batch(final long id, final CallFrame[] frames) {
+		final CallFrame frame = new CallFrame(Type.BATCH, id);
+		frame.frames = frames;
+		return frame;
+	}
+
+	public static CallFrame event(final long id, final Object event) {
+		final CallFrame frame = new CallFrame(Type.EVENT, id);
+		frame.value = event;
+		return frame;
+	}
+
+	public static CallFrame credit(final int events) {
+		final CallFrame frame = new CallFrame(Type.CREDIT, 0);
+		frame.value = events;
+		return frame;
+	}
+
+	/**
+	 * @param signature method signature, see {@link MethodTable#signature(java.lang.reflect.Method)}, 
+	 *                  or null for all methods
+	 */
+	public static CallFrame invalidate(final String signature) {
+		final CallFrame frame = new CallFrame(Type.INVALIDATE, 0);
+		frame.methodName = signature;
+		return frame;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * @return method id or -1 if the method is identified by name and parameter types
+	 */
+	public int getMethodId() {
+		return methodId;
+	}
+
+	public Class<?>[] getParameterTypes() {
+		return parameterTypes;
+	}
+
+	public Object[] getArgs() {
+		return args;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * @return calls or replies of a batch frame
+	 */
+	public CallFrame[] getFrames() {
+		return frames;
+	}
+
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		BulkCodec.writeValues(out, args);
+		BulkCodec.writeValue(out, value);
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		args = BulkCodec.readValues(in);
+		value = BulkCodec.readValue(in);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Writes frames to a long-lived object stream. The handle tables of an object stream
+ * and of its reading counterpart keep every object written until the stream is reset,
+ * so the stream is reset after a number of frames or bytes. A reset is written to the 
+ * stream and clears the handle table of the reader as well.
+ * <p>
+ * A frame is written to the underlying stream at once when it is flushed. Written in 
+ * small pieces a frame waits for the delayed acknowledgement of the peer on a socket
+ * with Nagle's algorithm, this costs up to 40 ms per call.
+ */
+public class FrameWriter {
+
+	/** default number of frames between resets */
+	public static final int DEFAULT_RESET_FRAMES = 1000;
+	/** default number of bytes between resets */
+	public static final long DEFAULT_RESET_BYTES = 1024 * 1024;
+
+	private final ObjectOutputStream out;
+	private final int resetFrames;
+	private final long resetBytes;
+	private long bytes;
+	private long bytesAtReset;
+	private int frames;
+
+	/**
+	 * @param resetFrames reset after this number of frames, 1 encodes every frame on its own, 0 for no limit
+	 * @param resetBytes reset after this number of bytes, 0 for no limit
+	 */
+	public FrameWriter(final OutputStream out, final int resetFrames, final long resetBytes) throws IOException {
+		this(out, resetFrames, resetBytes, true);
+	}
+
+	/**
+	 * @param resetFrames reset after this number of frames, 1 encodes every frame on its own, 0 for no limit
+	 * @param resetBytes reset after this number of bytes, 0 for no limit
+	 * @param mappedFiles false if the reader runs on another host, large values are then never 
+	 *        passed as mapped files, see {@link BulkCodec}
+	 */
+	public FrameWriter(final OutputStream out, final int resetFrames, final long resetBytes, final boolean mappedFiles)
+			throws IOException {
+		if (resetFrames < 0 || resetBytes < 0) {
+			throw new IllegalArgumentException("Reset limits must not be negative.");
+		}
+		this.resetFrames = resetFrames;
+		this.resetBytes = resetBytes;
+		this.out = new FrameOutputStream(new FilterOutputStream(new BufferedOutputStream(out)) {
+			@Override
+			public void write(final int b) throws IOException {
+				out.write(b);
+				bytes++;
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) throws IOException {
+				out.write(b, off, len);
+				bytes += len;
+			}
+		}, mappedFiles);
+	}
+
+	/**
+	 * Object stream of a frame writer, tells {@link BulkCodec} whether mapped files may be used.
+	 */
+	static final class FrameOutputStream extends ObjectOutputStream {
+
+		private final boolean mappedFiles;
+
+		FrameOutputStream(final OutputStream out, final boolean mappedFiles) throws IOException {
+			super(out);
+			this.mappedFiles = mappedFiles;
+		}
+
+		boolean isMappedFiles() {
+			return mappedFiles;
+		}
+	}
+
+	/**
+	 * @return the object stream, writes must be synchronized on it
+	 */
+	public ObjectOutputStream getObjectOutputStream() {
+		return out;
+	}
+
+	/**
+	 * Writes and flushes a frame, resets the stream if a limit is reached.
+	 */
+	public void write(final Object frame) throws IOException {
+		synchronized (out) {
+			out.writeObject(frame);
+			frames++;
+			if ((resetFrames > 0 && frames >= resetFrames) || (resetBytes > 0 && bytes - bytesAtReset >= resetBytes)) {
+				out.reset();
+				frames = 0;
+				bytesAtReset = bytes;
+			}
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.gfork.Memoize;
+import org.gfork.types.CacheStats;
+
+/**
+ * Cache of call results of {@link Memoize} methods, one LRU map per method signature.
+ */
+public class MemoCache {
+
+	private static final class Key {
+
+		private final Object[] args;
+		private final int hash;
+
+		Key(final Object[] args) {
+			this.args = args == null ? new Object[0] : args;
+			this.hash = Arrays.deepHashCode(this.args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Key && Arrays.deepEquals(args, ((Key) obj).args);
+		}
+	}
+
+	private static final class Value {
+
+		final Object value;
+		final long expiry;
+
+		Value(final Object value, final long expiry) {
+			this.value = value;
+			this.expiry = expiry;
+		}
+	}
+
+	private final Map<String, LinkedHashMap<Key, Value>> methods = new HashMap<String, LinkedHashMap<Key, Value>>();
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @return cached value or null if there is none or it expired
+	 */
+	public synchronized Object get(final String signature, final Object[] args) {
+		final LinkedHashMap<Key, Value> entries = methods.get(signature);
+		final Key key = new Key(args);
+		final Value value = entries == null ? null : entries.get(key);
+		if (value == null) {
+			misses++;
+			return null;
+		}
+		if (value.expiry != 0 && value.expiry <= System.currentTimeMillis()) {
+			entries.remove(key);
+			evictions++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return value.value;
+	}
+
+	public synchronized void put(final String signature, final Memoize memoize, final Object[] args,
+			final Object value) {
+		LinkedHashMap<Key, Value> entries = methods.get(signature);
+		if (entries == null) {
+			entries = new LinkedHashMap<Key, Value>(16, 0.75f, true);
+			methods.put(signature, entries);
+		}
+		final long expiry = memoize.ttlMillis() > 0 ? System.currentTimeMillis() + memoize.ttlMillis() : 0;
+		entries.put(new Key(args == null ? null : args.clone()), new Value(value, expiry));
+		final Iterator<Entry<Key, Value>> eldest = entries.entrySet().iterator();
+		while (entries.size() > memoize.maxEntries() && eldest.hasNext()) {
+			eldest.next();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes a cached value if it is still the given one, e.g. a call which failed.
+	 */
+	public synchronized void remove(final String signature, final Object[] args, final Object value) {
+		final LinkedHashMap<Key, Value> entries = methods.get(signature);
+		if (entries != null) {
+			final Key key = new Key(args);
+			final Value cached = entries.get(key);
+			if (cached != null && cached.value == value) {
+				entries.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @param signature method signature, see {@link MethodTable#signature(java.lang.reflect.Method)}, 
+	 * or null for all methods
+	 */
+	public synchronized void invalidate(final String signature) {
+		if (signature == null) {
+			methods.clear();
+		} else {
+			methods.remove(signature);
+		}
+	}
+
+	public synchronized CacheStats getStats() {
+		int size = 0;
+		for (final LinkedHashMap<Key, Value> entries : methods.values()) {
+			size += entries.size();
+		}
+		return new CacheStats(hits, misses, evictions, size);
+	}
+}
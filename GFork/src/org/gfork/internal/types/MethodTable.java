@@ -0,0 +1,114 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Numbered public methods of a callable task class. The task process sends the
+ * signatures to the parent once, afterwards calls carry the method id only. Methods 
+ * are invoked by cached {@link MethodHandle}s, reflection is used as fallback if the
+ * method is not accessible for handles, e.g. a public method of a non-public class.
+ */
+public class MethodTable {
+
+	private static final MethodType GENERIC_SPREAD_TYPE = MethodType.methodType(Object.class, Object.class,
+			Object[].class);
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private final Method[] methods;
+	private final MethodHandle[] handles;
+
+	public MethodTable(final Class<?> type) {
+		this.methods = type.getMethods();
+		this.handles = new MethodHandle[methods.length];
+		final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		for (int i = 0; i < methods.length; i++) {
+			try {
+				handles[i] = lookup.unreflect(methods[i])
+						.asSpreader(Object[].class, methods[i].getParameterTypes().length)
+						.asType(GENERIC_SPREAD_TYPE);
+			} catch (final IllegalAccessException e) {
+				handles[i] = null; // use reflection
+			}
+		}
+	}
+
+	/**
+	 * @return method signatures, the array index is the method id
+	 */
+	public String[] getSignatures() {
+		final String[] signatures = new String[methods.length];
+		for (int i = 0; i < methods.length; i++) {
+			signatures[i] = signature(methods[i]);
+		}
+		return signatures;
+	}
+
+	/**
+	 * @throws NoSuchMethodException unknown method id
+	 */
+	public Method getMethod(final int id) throws NoSuchMethodException {
+		if (id < 0 || id >= methods.length) {
+			throw new NoSuchMethodException(String.format("Unknown method id %d.", id));
+		}
+		return methods[id];
+	}
+
+	/**
+	 * Invokes a method, exceptions thrown by the method are wrapped in an {@link InvocationTargetException}
+	 * as done by {@link Method#invoke(Object, Object...)}.
+	 */
+	public Object invoke(final int id, final Object target, final Object[] args)
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		final Method method = getMethod(id);
+		final MethodHandle handle = handles[id];
+		if (handle == null) {
+			return method.invoke(target, args);
+		}
+		final Object[] spread = args == null ? NO_ARGS : args;
+		try {
+			return (Object) handle.invokeExact(target, spread);
+		} catch (final Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	/**
+	 * @return name and parameter types of a method, e.g. "set(java.lang.String)"
+	 */
+	public static String signature(final Method method) {
+		final StringBuilder signature = new StringBuilder(method.getName()).append('(');
+		final Class<?>[] types = method.getParameterTypes();
+		for (int i = 0; i < types.length; i++) {
+			if (i > 0) {
+				signature.append(',');
+			}
+			signature.append(types[i].getName());
+		}
+		return signature.append(')').toString();
+	}
+}
@@ -0,0 +1,222 @@
+package org.gfork.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import org.gfork.Fork;
+import org.gfork.internal.remote.client.ForkClient;
+import org.gfork.internal.remote.client.ForkConnectionPool;
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Executes remote forks on a group of {@link ForkServer}s. Each fork is executed on the server
+ * with the lowest {@link ServerLoad}, as reported by the servers when the fork is submitted. A
+ * server that rejects the fork is skipped, a server that does not answer is left out for
+ * {@link #DOWN_MILLIS}.
+ * <p>
+ * A fork whose server is lost before the fork has finished is executed again on another
+ * server, so tasks of a cluster must tolerate being executed more than once.
+ * 
+ * <pre>
+ * ForkCluster cluster = new ForkCluster("host1", "host2:1234");
+ * Fork&lt;Task, String&gt; fork = new Fork&lt;&gt;(new Task(), method);
+ * int exitValue = cluster.execute(fork).get();
+ * String result = fork.getReturnValue();
+ * </pre>
+ */
+public class ForkCluster {
+
+	private static final Logger LOG = Logger.getLogger(ForkCluster.class.getName());
+
+	/**
+	 * Time a server is left out after it did not answer.
+	 */
+	public static long DOWN_MILLIS = 10000;
+
+	/**
+	 * Time to wait for the load status of a server.
+	 */
+	public static int STATUS_TIMEOUT_MILLIS = 2000;
+
+	// connecting and submitting block, replies are completed by the connection reader threads
+	private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "jforkCluster");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final List<String> servers = new ArrayList<>();
+	// server -> time it was found down
+	private final Map<String, Long> down = new ConcurrentHashMap<>();
+	private final Map<Fork<?, ?>, String> assignments = new ConcurrentHashMap<>();
+
+	/**
+	 * @param servers
+	 *            host[:port] of the servers, default port is {@link ForkServer#DEFAULT_PORT}
+	 */
+	public ForkCluster(String... servers) {
+		this(Arrays.asList(servers));
+	}
+
+	public ForkCluster(List<String> servers) {
+		if (servers.isEmpty()) {
+			throw new IllegalArgumentException("no fork servers");
+		}
+		for (String server : servers) {
+			InetSocketAddress address = ForkClient.parseAddress(server);
+			this.servers.add(address.getHostString() + ":" + address.getPort());
+		}
+	}
+
+	/**
+	 * @return host:port of the servers
+	 */
+	public List<String> getServers() {
+		return Collections.unmodifiableList(servers);
+	}
+
+	/**
+	 * @return host:port of the server executing the fork, null if the fork was not executed by
+	 *         this cluster
+	 */
+	public String getServer(Fork<?, ?> fork) {
+		return assignments.get(fork);
+	}
+
+	/**
+	 * Executes a fork on the least loaded server and again on another server if its server is
+	 * lost before the fork has finished.
+	 * 
+	 * @return completes with the exit value of the task process when it has finished, fails if
+	 *         no server could execute the fork
+	 */
+	public CompletableFuture<Integer> execute(Fork<?, ?> fork) {
+		return execute(fork, 1);
+	}
+
+	private CompletableFuture<Integer> execute(Fork<?, ?> fork, int attempt) {
+		return getLoadAsync().thenComposeAsync(loads -> submit(fork, loads, 0, null), executor)
+				.thenCompose(server -> fork.waitForAsync().handle((exitValue, e) -> {
+					if (e == null) {
+						return CompletableFuture.completedFuture(exitValue);
+					}
+					Throwable cause = unwrap(e);
+					if (!isConnectionFailure(cause) || attempt >= servers.size()) {
+						throw new CompletionException(cause);
+					}
+					markDown(server, cause);
+					LOG.warning(() -> "server " + server + " lost, fork executed again, attempt " + (attempt + 1));
+					return execute(fork, attempt + 1);
+				}).thenCompose(result -> result));
+	}
+
+	/**
+	 * Tries the servers in the order of their load until one starts the fork.
+	 * 
+	 * @return completes with the server executing the fork
+	 */
+	private CompletableFuture<String> submit(Fork<?, ?> fork, List<ServerLoad> loads, int index, Throwable last) {
+		if (index >= loads.size()) {
+			CompletableFuture<String> failed = new CompletableFuture<>();
+			failed.completeExceptionally(last != null ? last : new IOException("no fork server available of " + servers));
+			return failed;
+		}
+		String server = loads.get(index).getServer();
+		assignments.put(fork, server);
+		return fork.executeAsync(server).handle((started, e) -> {
+			if (e == null) {
+				return CompletableFuture.completedFuture(server);
+			}
+			Throwable cause = unwrap(e);
+			if (!(cause instanceof ForkRejectedException) && !isConnectionFailure(cause)) {
+				throw new CompletionException(cause);
+			}
+			if (isConnectionFailure(cause)) {
+				markDown(server, cause);
+			}
+			LOG.info(() -> "fork not started by server " + server + ": " + cause.getMessage());
+			return fork.disconnectAsync().handle((closed, ignored) -> (Void) null)
+					.thenComposeAsync(closed -> submit(fork, loads, index + 1, cause), executor);
+		}).thenCompose(result -> result);
+	}
+
+	/**
+	 * Requests the load of all servers not known to be down.
+	 * 
+	 * @return load of the servers that answered, least loaded first
+	 */
+	public CompletableFuture<List<ServerLoad>> getLoadAsync() {
+		List<CompletableFuture<ServerLoad>> requests = new ArrayList<>();
+		for (String server : servers) {
+			if (!isDown(server)) {
+				requests.add(getLoadAsync(server).exceptionally(e -> {
+					markDown(server, unwrap(e));
+					return null;
+				}));
+			}
+		}
+		return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[requests.size()])).thenApply(v -> {
+			List<ServerLoad> loads = new ArrayList<>();
+			for (CompletableFuture<ServerLoad> request : requests) {
+				ServerLoad load = request.join();
+				if (load != null) {
+					loads.add(load);
+				}
+			}
+			// stable sort, equally loaded servers are used in the given order
+			loads.sort(Comparator.comparingDouble(ServerLoad::getLoad));
+			return loads;
+		});
+	}
+
+	private CompletableFuture<ServerLoad> getLoadAsync(String server) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return ForkConnectionPool.getConnection(ForkClient.parseAddress(server));
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor).thenCompose(con -> con.getLoadAsync(STATUS_TIMEOUT_MILLIS));
+	}
+
+	private boolean isDown(String server) {
+		Long since = down.get(server);
+		if (since == null) {
+			return false;
+		}
+		if (System.currentTimeMillis() - since > DOWN_MILLIS) {
+			down.remove(server, since);
+			return false;
+		}
+		return true;
+	}
+
+	private void markDown(String server, Throwable cause) {
+		LOG.warning(() -> "server " + server + " is down: " + cause);
+		down.put(server, System.currentTimeMillis());
+	}
+
+	private static boolean isConnectionFailure(Throwable e) {
+		return e instanceof IOException || e instanceof TimeoutException;
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+			e = e.getCause();
+		}
+		return e;
+	}
+}
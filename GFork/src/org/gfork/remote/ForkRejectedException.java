@@ -0,0 +1,24 @@
+package org.gfork.remote;
+
+/**
+ * A fork server refused to start a fork, its admission queue is full.
+ */
+public class ForkRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterMillis;
+
+	public ForkRejectedException(String msg, long retryAfterMillis) {
+		super(msg);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * @return estimated time until the server has capacity again, a hint when to submit
+	 *         the fork again
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+}
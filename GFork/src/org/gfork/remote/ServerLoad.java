@@ -0,0 +1,60 @@
+package org.gfork.remote;
+
+import org.gfork.remote.server.ForkServer;
+
+/**
+ * Load of a {@link ForkServer} as reported by the server: its running and queued forks and
+ * the number of forks it may run at a time.
+ */
+public class ServerLoad {
+
+	private final String server;
+	private final int running;
+	private final int queued;
+	private final int limit;
+
+	/**
+	 * @param server
+	 *            host:port of the server
+	 */
+	public ServerLoad(String server, int running, int queued, int limit) {
+		this.server = server;
+		this.running = running;
+		this.queued = queued;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return host:port of the server
+	 */
+	public String getServer() {
+		return server;
+	}
+
+	public int getRunning() {
+		return running;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return maximum number of running forks, see {@link ForkServer#MAX_FORKS_RUNNING}
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return running and queued forks per slot, below 1 if a fork would start immediately
+	 */
+	public double getLoad() {
+		return (running + queued) / (double) Math.max(1, limit);
+	}
+
+	@Override
+	public String toString() {
+		return server + " (running=" + running + ", queued=" + queued + ", limit=" + limit + ")";
+	}
+}
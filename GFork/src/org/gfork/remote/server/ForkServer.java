@@ -1,19 +1,37 @@
 package org.gfork.remote.server;
 
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.gfork.Fork;
 import org.gfork.internal.remote.Command;
-import org.gfork.internal.remote.ReplyData;
-import org.gfork.internal.remote.client.ForkClient;
+import org.gfork.internal.remote.ContentStore;
+import org.gfork.internal.remote.Frame;
+import org.gfork.internal.remote.server.AdmissionQueue;
+import org.gfork.internal.remote.server.ClassServer;
 import org.gfork.internal.remote.server.ConnectionServerSide;
-import org.gfork.internal.remote.server.ForkServerConnectionProcessor;
+import org.gfork.internal.remote.server.RemoteForkProcessor;
 
 /**
  * Use it to start a ForkServer to execute remote Fork tasks, see {@link Fork#execute(String)}.
@@ -21,13 +39,34 @@ import org.gfork.internal.remote.server.ForkServerConnectionProcessor;
  * <p>
  * Example: 
  * <pre>
- *   $/&gt; java org.gfork.remote.server.ForkServer [-port 1234]
+ *   $/&gt; java org.gfork.remote.server.ForkServer [-port 1234] [-cacheDir /var/cache/gfork]
  * </pre>
+ * <p>
+ * A client connection is a single socket carrying length-prefixed frames, see {@link Frame}.
+ * A client shares one connection for all its forks on this server.
+ * All sockets are served by one selector thread: handshakes and commands are processed
+ * as I/O events, commands are executed by a bounded pool of {@link #WORKER_THREADS} worker
+ * threads. Idle or polling clients therefore cost a socket and a few buffers, no thread.
+ * <p>
+ * Forks exceeding the number of running forks wait in a FIFO queue and are told their
+ * queue position, a fork is only rejected if the queue is full, see {@link #MAX_FORKS_QUEUED}.
+ * The rejection carries a hint when to retry, see {@link org.gfork.remote.ForkRejectedException}.
+ * A server can also be embedded, e.g. <code>new ForkServer(0).start()</code> listens on
+ * a free port, see {@link #getPort()}.
+ * <p>
+ * Task classes don't have to be on the server's class path, classes missing on the server
+ * are loaded on demand from the client. {@link Fork#execute(String)} ships the client class path
+ * as well, jars and directories are uploaded once and the child process runs with the cached
+ * copies. Classes and artifacts are kept in a content-addressed store in {@link #CACHE_DIR}
+ * (option <code>-cacheDir</code>), so repeated submissions only exchange hashes.
+ * <p>
+ * The output of a fork process is streamed to the client while the fork runs, see
+ * {@link #OUTPUT_BUFFER_SIZE} and {@link #OUTPUT_POLICY}.
  * 
  * @author Gerald Ehmayer
  *
  */
-public class ForkServer {
+public class ForkServer implements AutoCloseable {
 
 	/**
 	 * Default port: 54165
@@ -35,22 +74,92 @@ public class ForkServer {
 	public static int DEFAULT_PORT = 54165;
 
 	/**
-	 * Maximum number of concurrent running fork processes is 10.
+	 * Maximum number of concurrent running fork processes, default 0 derives it from the
+	 * number of cores and the free physical memory, see {@link #FORK_MEMORY_MB}.
+	 */
+	public static int MAX_FORKS_RUNNING = 0;
+
+	/**
+	 * Physical memory a fork process needs, limits the number of running forks if
+	 * {@link #MAX_FORKS_RUNNING} is not set. Default is 128 MB.
+	 */
+	public static int FORK_MEMORY_MB = 128;
+
+	/**
+	 * Maximum number of forks waiting for a free slot, further forks are rejected.
+	 * Default is 100.
 	 */
-	public static int MAX_FORKS_RUNNING = 10;
+	public static int MAX_FORKS_QUEUED = 100;
+
+	/**
+	 * Number of threads executing client commands, default is 32. A waitFor command doesn't
+	 * bind a worker while the fork runs. Class requests of fork processes are served by a
+	 * separate pool of the same size, so they never wait for client commands.
+	 */
+	public static int WORKER_THREADS = 32;
+
+	/**
+	 * What happens to the output of a fork process if its client does not keep up.
+	 */
+	public enum OutputPolicy {
+		/**
+		 * The oldest output is dropped, the client is told how many characters were lost.
+		 */
+		DROP,
+		/**
+		 * Reading the output blocks until the client caught up, the fork process blocks when
+		 * its output pipe is full.
+		 */
+		BLOCK
+	}
+
+	/**
+	 * Fork output is streamed to the client while the fork runs. If more than this number of
+	 * bytes wait to be written to the client, output is collected up to this number of
+	 * characters per stream and {@link #OUTPUT_POLICY} applies beyond. Default is 64 KB.
+	 */
+	public static int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Default is {@link OutputPolicy#DROP}, a slow client does not slow down the forks.
+	 */
+	public static OutputPolicy OUTPUT_POLICY = OutputPolicy.DROP;
 
 	public static final int SOCKET_READ_TIMEOU_IN_MILLIS = 9000;
 
+	/**
+	 * Default directory of the class and class path cache: <code>gfork-cache</code> in the temp
+	 * directory.
+	 */
+	public static String CACHE_DIR = new File(System.getProperty("java.io.tmpdir"), "gfork-cache").getPath();
+
 	private static final String JAVA_UTIL_LOGGING_SIMPLE_FORMATTER_FORMAT = "java.util.logging.SimpleFormatter.format";
 
 	public static final Logger LOG = Logger.getLogger(ForkServer.class.getName());
 
 	private static final String ARG_PORT = "-port";
 
+	private static final String ARG_CACHE_DIR = "-cacheDir";
+
+	private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
 	private static Map<String, Object> options = new HashMap<>();
-	private static boolean stop;
-	private static ServerSocket serverSocket;
-	private static Map<String, ForkServerConnectionProcessor> connections = new HashMap<>();
+	private static volatile ForkServer defaultServer;
+
+	private final int port;
+	private final File cacheDir;
+	private final Map<String, ConnectionServerSide> connections = new ConcurrentHashMap<>();
+	private final Queue<ConnectionServerSide> writeRequests = new ConcurrentLinkedQueue<>();
+	// connections before the handshake, accessed by the selector thread only
+	private final Set<ConnectionServerSide> handshakes = new LinkedHashSet<>();
+	private final AdmissionQueue admission = new AdmissionQueue();
+
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private ThreadPoolExecutor workers;
+	private ThreadPoolExecutor classWorkers;
+	private ClassServer classServer;
+	private volatile boolean stop;
 
 	static {
 		if (null == System.getProperty(JAVA_UTIL_LOGGING_SIMPLE_FORMATTER_FORMAT)) {
@@ -59,17 +168,101 @@ public class ForkServer {
 			System.setProperty(JAVA_UTIL_LOGGING_SIMPLE_FORMATTER_FORMAT, "[%1$tc] %4$.4s: %5$s - %2$s %6$s%n");
 		}
 		options.put(ARG_PORT, DEFAULT_PORT);
+		options.put(ARG_CACHE_DIR, CACHE_DIR);
+	}
+
+	/**
+	 * @param port
+	 *            listening port, 0 for any free port
+	 */
+	public ForkServer(int port) {
+		this(port, new File(CACHE_DIR));
+	}
+
+	/**
+	 * @param port
+	 *            listening port, 0 for any free port
+	 * @param cacheDir
+	 *            directory of the class and class path cache, created on demand
+	 */
+	public ForkServer(int port, File cacheDir) {
+		this.port = port;
+		this.cacheDir = cacheDir;
 	}
 
 	public static void main(String[] args) {
 		try {
 			parseArgs(args);
-			openServerSocket();
-			do {
-				Socket socket = serverSocket.accept();
-				LOG.info("accepted connect from " + socket.getRemoteSocketAddress());
-				handleConnect(socket);
-			} while (!stop);
+			ForkServer server = new ForkServer((Integer) options.get(ARG_PORT),
+					new File((String) options.get(ARG_CACHE_DIR)));
+			server.open();
+			defaultServer = server;
+			server.run();
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, "server listening loop ended unexpected", e);
+		}
+	}
+
+	/**
+	 * Opens the listening socket and starts the selector loop in a daemon thread.
+	 * 
+	 * @return this server
+	 * @throws IOException
+	 *             port can't be bound
+	 */
+	public ForkServer start() throws IOException {
+		open();
+		Thread loop = new Thread(this::run, "jforkServer");
+		loop.setDaemon(true);
+		loop.start();
+		return this;
+	}
+
+	private synchronized void open() throws IOException {
+		if (selector != null) {
+			throw new IllegalStateException("server is already started");
+		}
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		workers = createWorkers("jforkServerWorker-");
+		classWorkers = createWorkers("jforkClassWorker-");
+		classServer = new ClassServer(new ContentStore(new File(cacheDir, "classes"), ".class"),
+				new ContentStore(new File(cacheDir, "artifacts"), ".jar"), getPort(), classWorkers);
+		LOG.info(() -> "listening on port " + getPort());
+	}
+
+	private static ThreadPoolExecutor createWorkers(String namePrefix) {
+		AtomicInteger workerCount = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					Thread thread = new Thread(r, namePrefix + workerCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Runs the selector loop until {@link #close()} is called.
+	 */
+	private void run() {
+		try {
+			while (!stop) {
+				selector.select(SELECT_TIMEOUT_MILLIS);
+				registerWriteRequests();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+				expireHandshakes();
+				admission.update();
+			}
 			LOG.info(() -> "stopped");
 		} catch (Exception e) {
 			if (stop) {
@@ -77,83 +270,282 @@ public class ForkServer {
 			} else {
 				LOG.log(Level.SEVERE, "server listening loop ended unexpected", e);
 			}
+		} finally {
+			closeAll();
 		}
 	}
 
-	private static void handleConnect(final Socket socket) throws Exception {
-		ConnectionServerSide con = null;
+	private void handle(SelectionKey key) {
+		ConnectionServerSide con = (ConnectionServerSide) key.attachment();
 		try {
-			ReplyData acceptReply = ForkServer.readReply(Command.connect, socket.getInputStream());
-			if (acceptReply.isExpectedToken()) {
-				con = new ConnectionServerSide(socket);
-				if (connections.size() > MAX_FORKS_RUNNING) {
-					con.replyMsgAndClose("ERROR: maximum nuber " + MAX_FORKS_RUNNING + " of forks exceeded.");
-					return;
-				}
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isAcceptable()) {
+				accept();
+				return;
+			}
+			if (key.isReadable()) {
+				readFrames(con);
+			}
+			if (key.isValid() && key.isWritable()) {
+				writeFrames(con);
+			}
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "connection failed", e);
+			closeConnection(con);
+		}
+	}
 
-				LOG.info("wait for data connect for connection ID '" + con.getId() + "' ...");
-				con.setSocketData(serverSocket.accept());
-				ReplyData dataReply = ForkClient.readReply(con.getId(), con.getSocketData().getInputStream());
-				if (!dataReply.isExpectedToken()) {
-					final String msg = "ERROR: invalid data connection, expected ID '" + con.getId() + "', got '"
-							+ dataReply.getReplyToken() + "'" + (dataReply.isTimedOut() ? ", read timed out" : "")
-							+ ", handshake aborted.";
-					LOG.severe(msg);
-					con.replyMsgAndClose(msg);
-				} else {
-					LOG.info("successfully created connection for ID '" + con.getId() + "'");
-					con.getSocketControlWriter().println(con.getId());
-					con.getSocketControlWriter().println(Command.connectOk);
-					ForkServerConnectionProcessor processor = new ForkServerConnectionProcessor(con);
-					processor.start(connections);
-				}
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			SocketChannel accepted = channel;
+			LOG.info(() -> "accepted connect from " + accepted.socket().getRemoteSocketAddress());
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			ConnectionServerSide con = new ConnectionServerSide(channel, this::requestWrite);
+			con.setKey(channel.register(selector, SelectionKey.OP_READ, con));
+			handshakes.add(con);
+		}
+	}
+
+	private void readFrames(ConnectionServerSide con) throws IOException {
+		List<Frame> frames = con.readFrames();
+		if (frames == null) {
+			LOG.fine(() -> "client closed connection, id=" + con.getId());
+			closeConnection(con);
+			return;
+		}
+		for (Frame frame : frames) {
+			if (con.isClosed()) {
+				return;
+			}
+			if (con.getId() == null) {
+				handshake(con, frame);
+			} else if (frame.getForkId() == Frame.CONNECTION) {
+				connectionCommand(con, frame);
 			} else {
-				String errorMsg = "ERROR: invalid connect";
-				LOG.severe(errorMsg);
-				socket.getOutputStream().write(errorMsg.getBytes());
-				socket.getOutputStream().flush();
-				ConnectionServerSide.closeSocket(socket);
+				con.getFork(frame.getForkId(), forkId -> new RemoteForkProcessor(con, forkId, workers,
+						admission, classServer)).submit(frame);
 			}
-		} catch (Exception e) {
-			LOG.log(Level.SEVERE, "handShake", e);
-			if (con != null) {
-				con.replyMsgAndClose(e.toString());
+		}
+	}
+
+	/**
+	 * The first frame of a connection is the connect command with the connection ID.
+	 */
+	private void handshake(ConnectionServerSide con, Frame frame) {
+		handshakes.remove(con);
+		String id = frame.getArgument();
+		if (frame.getCommand() != Command.connect || id == null || id.isEmpty()) {
+			reject(con, "ERROR: invalid connect");
+		} else if (connections.containsKey(id)) {
+			reject(con, "ERROR: connection ID '" + id + "' is in use");
+		} else {
+			con.setId(id);
+			connections.put(id, con);
+			LOG.info("successfully created connection for ID '" + id + "'");
+			con.send(Frame.control(Command.connectOk, id));
+		}
+	}
+
+	/**
+	 * Health checks, load status and close of a connection, answered by the selector thread,
+	 * and class requests of child processes.
+	 */
+	private void connectionCommand(ConnectionServerSide con, Frame frame) {
+		switch (frame.getCommand()) {
+		case ping:
+			con.send(Frame.control(Command.pong));
+			break;
+		case connectClose:
+			con.send(Frame.control(Command.connectCloseOk));
+			con.close();
+			break;
+		case loadClass:
+			classServer.serve(con, frame);
+			break;
+		case status:
+			con.send(Frame.control(Command.statusOk, admission.getRunningCount() + " " + admission.getQueuedCount()
+					+ " " + admission.getLimit()));
+			break;
+		default:
+			con.send(Frame.control(Command.error, "invalid connection command " + frame));
+		}
+	}
+
+	private void reject(ConnectionServerSide con, String msg) {
+		LOG.severe(msg);
+		con.replyErrorAndClose(msg);
+	}
+
+	private void expireHandshakes() {
+		long now = System.currentTimeMillis();
+		for (Iterator<ConnectionServerSide> it = handshakes.iterator(); it.hasNext();) {
+			ConnectionServerSide con = it.next();
+			if (now - con.getCreated() > SOCKET_READ_TIMEOU_IN_MILLIS) {
+				it.remove();
+				LOG.warning(() -> "handshake timed out, connect from "
+						+ con.getChannel().socket().getRemoteSocketAddress());
+				con.closeNow();
 			}
 		}
 	}
 
-	// private static void readID(ConnectionServerSide con) throws IOException {
-	// byte[] idBytes = new byte[con.getId().getBytes().length];
-	// con.getSocketData().getInputStream().read(idBytes, 0,
-	// con.getId().getBytes().length);
-	// }
+	private void requestWrite(ConnectionServerSide con) {
+		writeRequests.add(con);
+		selector.wakeup();
+	}
+
+	private void registerWriteRequests() {
+		ConnectionServerSide con;
+		while ((con = writeRequests.poll()) != null) {
+			SelectionKey key = con.getKey();
+			if (key != null && key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void writeFrames(ConnectionServerSide con) throws IOException {
+		if (con.writeOutput()) {
+			if (con.isCloseable()) {
+				closeConnection(con);
+			} else {
+				con.getKey().interestOps(SelectionKey.OP_READ);
+			}
+		}
+	}
+
+	private void closeConnection(ConnectionServerSide con) {
+		if (con.getId() != null) {
+			connections.remove(con.getId());
+			for (RemoteForkProcessor processor : con.getForks()) {
+				processor.release();
+			}
+		} else {
+			handshakes.remove(con);
+		}
+		con.closeNow();
+	}
+
+	/**
+	 * @return actual listening port
+	 */
+	public int getPort() {
+		return serverChannel == null ? port : serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * @return store of the classes loaded from clients
+	 */
+	public ContentStore getClassStore() {
+		return classServer == null ? null : classServer.getStore();
+	}
+
+	/**
+	 * @return store of the class path artifacts shipped by clients
+	 */
+	public ContentStore getArtifactStore() {
+		return classServer == null ? null : classServer.getArtifactStore();
+	}
+
+	/**
+	 * @return number of established client connections
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
 
-	private static ReplyData readReply(Command cmd, InputStream inputStream) throws Exception {
-		return ForkClient.readReply(cmd.toString(), inputStream);
+	/**
+	 * @return number of forks started by clients whose process is still alive
+	 */
+	public int getRunningForkCount() {
+		admission.update();
+		return admission.getRunningCount();
 	}
 
-	private static void openServerSocket() throws Exception {
-		serverSocket = new ServerSocket((Integer) options.get(ARG_PORT));
+	/**
+	 * @return number of forks waiting for a free slot
+	 */
+	public int getQueuedForkCount() {
+		return admission.getQueuedCount();
+	}
+
+	/**
+	 * @return current maximum number of running forks
+	 */
+	public int getForkLimit() {
+		return admission.getLimit();
+	}
+
+	/**
+	 * Stops the selector loop and closes all connections, forks already running are
+	 * not killed.
+	 */
+	@Override
+	public void close() throws IOException {
+		stop = true;
+		if (serverChannel != null && serverChannel.isOpen()) {
+			LOG.info("server listener will be closed now");
+			serverChannel.close();
+		}
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	private void closeAll() {
+		for (ConnectionServerSide con : new ArrayList<>(handshakes)) {
+			closeConnection(con);
+		}
+		for (ConnectionServerSide con : connections.values()) {
+			closeConnection(con);
+		}
+		workers.shutdown();
+		classWorkers.shutdown();
+		closeQuietly(serverChannel);
+		closeQuietly(selector);
+	}
+
+	private static void closeQuietly(AutoCloseable c) {
+		try {
+			if (c != null) {
+				c.close();
+			}
+		} catch (Exception e) {
+			LOG.log(Level.FINE, "close failed", e);
+		}
 	}
 
 	private static void parseArgs(String[] args) {
 		String argName = null;
 		for (String arg : args) {
-			if (argName.equals(ARG_PORT)) {
-				options.put(ARG_PORT, Integer.parseInt(argName));
+			if (ARG_PORT.equals(argName)) {
+				options.put(ARG_PORT, Integer.parseInt(arg));
+				argName = null;
+				continue;
+			}
+			if (ARG_CACHE_DIR.equals(argName)) {
+				options.put(ARG_CACHE_DIR, arg);
 				argName = null;
 				continue;
 			}
 			argName = arg;
 		}
 		LOG.info(() -> "listening port = " + options.get(ARG_PORT) + ", can be changed using argument '-port'");
+		LOG.info(() -> "class cache = " + options.get(ARG_CACHE_DIR) + ", can be changed using argument '-cacheDir'");
 	}
 
+	/**
+	 * Stops the server started by {@link #main(String[])}.
+	 */
 	public static void stop() throws Exception {
-		stop = true;
-		if (!serverSocket.isClosed()) {
-			LOG.info("server listener will be closed now");
-			serverSocket.close();
+		ForkServer server = defaultServer;
+		if (server != null) {
+			defaultServer = null;
+			server.close();
 		}
 	}
 }
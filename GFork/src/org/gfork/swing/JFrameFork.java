@@ -39,11 +39,13 @@ public class JFrameFork {
 
 	protected final ForkCallable<JFrameTask> fork;
 	protected final JFrameTask frameTask;
+	protected final RemoteFrame frame;
 	
 	public JFrameFork(final JFrameTask frameTask) throws Exception {
 		this.frameTask = frameTask;
 		this.fork = new ForkCallable<JFrameTask>(frameTask);
 		fork.execute();
+		this.frame = fork.proxy(RemoteFrame.class);
 	}
 	
 	/**
@@ -55,8 +57,7 @@ public class JFrameFork {
 	 * @throws IOException 
 	 */
 	public void setVisible(final boolean visible) throws SecurityException, NoSuchMethodException, IOException {
-		final Method method = frameTask.getClass().getMethod("setVisible", boolean.class);
-		this.fork.call(method, visible);
+		frame.setVisible(visible);
 	}
 	
 	/**
@@ -69,8 +70,7 @@ public class JFrameFork {
 	 * @throws ClassNotFoundException 
 	 */
 	public boolean isVisible() throws IOException, SecurityException, NoSuchMethodException, ClassNotFoundException {
-		final Method method = frameTask.getClass().getMethod("isVisible");
-		return this.fork.call(boolean.class, method);
+		return frame.isVisible();
 	}
 	
 	/**
@@ -83,8 +83,7 @@ public class JFrameFork {
 	 * @throws ClassNotFoundException 
 	 */
 	public String getTitle() throws SecurityException, NoSuchMethodException, IOException, ClassNotFoundException {
-		final Method method = frameTask.getClass().getMethod("getTitle");
-		return this.fork.call(String.class, method);
+		return frame.getTitle();
 	}
 
 	/**
@@ -39,7 +39,7 @@ import org.gfork.CallableTask;
  * @author Gerald Ehmayer
  *
  */
-public abstract class JFrameTask extends CallableTask {
+public abstract class JFrameTask extends CallableTask implements RemoteFrame {
 
 	private transient final static Logger log = Logger.getLogger(JFrameTask.class.getName());
 
@@ -0,0 +1,36 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.swing;
+
+/**
+ * Frame methods of a {@link JFrameTask} which are called by {@link JFrameFork}
+ * through a proxy, see {@link org.gfork.ForkCallable#proxy(Class)}.
+ */
+public interface RemoteFrame {
+
+	void setVisible(boolean visible);
+
+	boolean isVisible();
+
+	String getTitle();
+
+	String getName();
+}
@@ -0,0 +1,79 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.types;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the counters of a call result cache, see {@link org.gfork.Memoize}.
+ */
+public class CacheStats implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final int size;
+
+	public CacheStats(final long hits, final long misses, final long evictions, final int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of entries removed because the cache of a method was full or the entry expired
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of cached return values
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return hits per lookup, 0 if there was no lookup yet
+	 */
+	public double getHitRate() {
+		final long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cache: %d hits, %d misses, hit rate %.2f, %d evictions, %d entries", hits, misses,
+				getHitRate(), evictions, size);
+	}
+}
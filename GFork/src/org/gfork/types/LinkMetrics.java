@@ -0,0 +1,155 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.types;
+
+import java.io.Serializable;
+
+import org.gfork.ForkChain;
+
+/**
+ * Snapshot of the I/O counters of a single chain link, see {@link ForkChain#getMetrics()}.
+ * Bytes and records "in" are read from the predecessor, "out" are written to the successor.
+ * Blocked times are the accumulated time the link task spent inside read respectively
+ * write calls, which tells if a link waits for its input or for its successor.
+ */
+public class LinkMetrics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int linkIndex;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long recordsIn;
+	private final long recordsOut;
+	private final long readBlockedNanos;
+	private final long writeBlockedNanos;
+	private final int bufferFill;
+	private final long spoolDepth;
+	private final long timestamp;
+	private final boolean finished;
+
+	public LinkMetrics(final int linkIndex, final long bytesIn, final long bytesOut, final long recordsIn,
+			final long recordsOut, final long readBlockedNanos, final long writeBlockedNanos, final int bufferFill,
+			final long spoolDepth, final boolean finished) {
+		this.linkIndex = linkIndex;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.recordsIn = recordsIn;
+		this.recordsOut = recordsOut;
+		this.readBlockedNanos = readBlockedNanos;
+		this.writeBlockedNanos = writeBlockedNanos;
+		this.bufferFill = bufferFill;
+		this.spoolDepth = spoolDepth;
+		this.finished = finished;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return position of the link in its chain, starting with 0
+	 */
+	public int getLinkIndex() {
+		return linkIndex;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * Records are counted by the link task itself, e.g. lines of a
+	 * {@link org.gfork.helpers.PipedTextTask}.
+	 *
+	 * @return number of records read from the predecessor
+	 */
+	public long getRecordsIn() {
+		return recordsIn;
+	}
+
+	/**
+	 * @return number of records written to the successor
+	 */
+	public long getRecordsOut() {
+		return recordsOut;
+	}
+
+	/**
+	 * @return time spent waiting for data of the predecessor
+	 */
+	public long getReadBlockedMillis() {
+		return readBlockedNanos / 1000000L;
+	}
+
+	/**
+	 * @return time spent waiting for the successor to take data
+	 */
+	public long getWriteBlockedMillis() {
+		return writeBlockedNanos / 1000000L;
+	}
+
+	public long getReadBlockedNanos() {
+		return readBlockedNanos;
+	}
+
+	public long getWriteBlockedNanos() {
+		return writeBlockedNanos;
+	}
+
+	/**
+	 * @return number of bytes received from the predecessor but not yet read by the link task
+	 */
+	public int getBufferFill() {
+		return bufferFill;
+	}
+
+	/**
+	 * @return number of bytes spooled to disk but not yet read by the link task,
+	 *         always 0 if the link has no input spool, see {@link org.gfork.ForkLink#setInputSpool(java.io.File, long)}
+	 */
+	public long getSpoolDepth() {
+		return spoolDepth;
+	}
+
+	/**
+	 * @return creation time of this snapshot in the link process
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return true if this is the final snapshot sent when the link task ended
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"link %d: in %d bytes/%d records, out %d bytes/%d records, blocked read %d ms/write %d ms, buffer %d bytes, spool %d bytes%s",
+				linkIndex, bytesIn, recordsIn, bytesOut, recordsOut, getReadBlockedMillis(), getWriteBlockedMillis(),
+				bufferFill, spoolDepth, finished ? ", finished" : "");
+	}
+}
@@ -0,0 +1,57 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.types;
+
+/**
+ * Thrown to the caller of {@link org.gfork.ForkCallable} when the called task method threw
+ * an exception. The original exception is not transferred because it may not be serializable, 
+ * its class name, message and stack trace are kept, causes are chained as {@link RemoteCallException}s.
+ */
+public class RemoteCallException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String remoteClassName;
+
+	public RemoteCallException(final String remoteClassName, final String message) {
+		super(String.format("%s: %s", remoteClassName, message));
+		this.remoteClassName = remoteClassName;
+	}
+
+	/**
+	 * Copies class name, message, stack trace and causes of an exception.
+	 */
+	public static RemoteCallException of(final Throwable e) {
+		final RemoteCallException remote = new RemoteCallException(e.getClass().getName(), e.getMessage());
+		remote.setStackTrace(e.getStackTrace());
+		if (e.getCause() != null && e.getCause() != e) {
+			remote.initCause(of(e.getCause()));
+		}
+		return remote;
+	}
+
+	/**
+	 * @return class name of the exception thrown in the task process
+	 */
+	public String getRemoteClassName() {
+		return remoteClassName;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.gfork.ForkCallablePool.Routing;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ForkCallablePoolTest {
+
+	@Before
+	public void init() {
+		Fork.setJvmOptionsForAll(new String[] {
+				"-Djava.util.logging.config.file=./logging_forkRunner.properties",
+		});
+	}
+
+	@Test
+	public void testRoundRobin() throws Exception {
+		ForkCallablePool<MyCallableTask> pool = new ForkCallablePool<MyCallableTask>(new MyCallableTask(), 2);
+		pool.setRouting(Routing.ROUND_ROBIN);
+		pool.start();
+		Method setMethod = MyCallableTask.class.getMethod("set", String.class);
+		Method getMethod = MyCallableTask.class.getMethod("get");
+		pool.call(setMethod, "a");
+		pool.call(setMethod, "b");
+		// every worker received one of the calls
+		assertEquals("a", pool.getWorkers().get(0).call(String.class, getMethod));
+		assertEquals("b", pool.getWorkers().get(1).call(String.class, getMethod));
+		pool.shutdown();
+	}
+
+	@Test
+	public void testLeastOutstanding() throws Exception {
+		ForkCallablePool<ConcurrentCallableTask> pool = new ForkCallablePool<ConcurrentCallableTask>(
+				new ConcurrentCallableTask(), 2);
+		pool.start();
+		Method work = ConcurrentCallableTask.class.getMethod("work", Integer.class);
+		List<CompletableFuture<org.gfork.types.Void>> replies = new ArrayList<CompletableFuture<org.gfork.types.Void>>();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++) {
+			replies.add(pool.callAsync(org.gfork.types.Void.class, work, 1000));
+		}
+		assertEquals(4, pool.getOutstandingCalls());
+		for (CompletableFuture<org.gfork.types.Void> reply : replies) {
+			reply.get();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("calls were not distributed: " + elapsed + " ms", elapsed < 3500);
+		assertEquals(0, pool.getOutstandingCalls());
+		pool.shutdown();
+	}
+
+	@Test
+	public void testDeadWorkerReplacement() throws Exception {
+		ForkCallablePool<MyCallableTask> pool = new ForkCallablePool<MyCallableTask>(new MyCallableTask(), 2);
+		pool.setMaintenanceInterval(100);
+		pool.start();
+		ForkCallable<MyCallableTask> dead = pool.getWorkers().get(0);
+		dead.shutdown();
+		dead.waitFor();
+		Method echoMethod = MyCallableTask.class.getMethod("echo", String.class);
+		assertEquals("alive", pool.call(String.class, echoMethod, "alive"));
+		long timeout = System.currentTimeMillis() + 20000;
+		while (pool.getWorkers().contains(dead) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(100);
+		}
+		assertEquals(2, pool.getWorkerCount());
+		assertTrue(!pool.getWorkers().contains(dead));
+		for (ForkCallable<MyCallableTask> worker : pool.getWorkers()) {
+			assertEquals("replaced", worker.call(String.class, echoMethod, "replaced"));
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testScaling() throws Exception {
+		ForkCallablePool<ConcurrentCallableTask> pool = new ForkCallablePool<ConcurrentCallableTask>(
+				new ConcurrentCallableTask(), 1);
+		pool.setScaling(1, 2);
+		pool.setScaleUpQueueDepth(2);
+		pool.setScaleDownDelay(500);
+		pool.setMaintenanceInterval(100);
+		pool.start();
+		Method work = ConcurrentCallableTask.class.getMethod("work", Integer.class);
+		List<CompletableFuture<org.gfork.types.Void>> replies = new ArrayList<CompletableFuture<org.gfork.types.Void>>();
+		for (int i = 0; i < 10; i++) {
+			replies.add(pool.callAsync(org.gfork.types.Void.class, work, 500));
+		}
+		long timeout = System.currentTimeMillis() + 20000;
+		while (pool.getWorkerCount() < 2 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(100);
+		}
+		assertEquals(2, pool.getWorkerCount());
+		for (CompletableFuture<org.gfork.types.Void> reply : replies) {
+			reply.get();
+		}
+		timeout = System.currentTimeMillis() + 20000;
+		while (pool.getWorkerCount() > 1 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(100);
+		}
+		assertEquals(1, pool.getWorkerCount());
+		pool.shutdown();
+	}
+}
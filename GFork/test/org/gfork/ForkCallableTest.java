@@ -21,9 +21,22 @@
 package org.gfork;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import org.gfork.ForkCallable.CallHandler;
+import org.gfork.types.CacheStats;
+import org.gfork.types.RemoteCallException;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -100,5 +113,406 @@ public class ForkCallableTest {
 		Thread.sleep(2000);
 		assertEquals(2, asyncCallCounter);
 	}
-}
 
+	@Test
+	public void testCallFromCallback() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		final ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		final Method echo = task.getClass().getMethod("echo", String.class);
+		final CompletableFuture<String> nested = new CompletableFuture<String>();
+		final CompletableFuture<Exception> failure = new CompletableFuture<Exception>();
+		
+		// a synchronous call waits for a reply read while the callback runs
+		fork.callAsync(new ForkCallable.CallHandler<String>() {
+			@Override
+			public void onReturn(String returnValue) {
+				try {
+					nested.complete(returnValue + "+" + fork.call(String.class, echo, "nested"));
+				} catch (Exception e) {
+					nested.completeExceptionally(e);
+				}
+			}
+
+			@Override
+			public void onException(Exception e) {
+				nested.completeExceptionally(e);
+			}
+		}, String.class, echo, "outer");
+		assertEquals("outer+nested", nested.get(10, TimeUnit.SECONDS));
+		
+		// a void method gets the exception of the task unwrapped
+		fork.callAsync(new ForkCallable.CallHandler<org.gfork.types.Void>() {
+			@Override
+			public void onReturn(org.gfork.types.Void returnValue) {
+				failure.complete(null);
+			}
+
+			@Override
+			public void onException(Exception e) {
+				failure.complete(e);
+			}
+		}, org.gfork.types.Void.class, task.getClass().getMethod("fail", String.class), "failed");
+		Exception e = failure.get(10, TimeUnit.SECONDS);
+		assertTrue(String.valueOf(e), e instanceof RemoteCallException);
+		fork.shutdown();
+	}
+
+	@Test
+	public void testPipelinedCalls() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		final ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		final Method echo = task.getClass().getMethod("echo", String.class);
+		
+		// many calls in flight, every reply must be matched to its call
+		List<CompletableFuture<String>> replies = new ArrayList<CompletableFuture<String>>();
+		for (int i = 0; i < 200; i++) {
+			replies.add(fork.callAsync(String.class, echo, "echo-" + i));
+		}
+		for (int i = 0; i < 200; i++) {
+			assertEquals("echo-" + i, replies.get(i).get());
+		}
+		
+		// concurrent synchronous callers
+		final List<String> errors = new ArrayList<String>();
+		List<Thread> callers = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int caller = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 50; i++) {
+							String value = "caller-" + caller + "-" + i;
+							if (!value.equals(fork.call(String.class, echo, value))) {
+								synchronized (errors) {
+									errors.add(value);
+								}
+							}
+						}
+					} catch (Exception e) {
+						synchronized (errors) {
+							errors.add(e.toString());
+						}
+					}
+				}
+			};
+			thread.start();
+			callers.add(thread);
+		}
+		for (Thread thread : callers) {
+			thread.join();
+		}
+		assertEquals("[]", errors.toString());
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testConcurrentDispatch() throws Exception {
+		ConcurrentCallableTask task = new ConcurrentCallableTask();
+		task.setDispatchThreads(4);
+		ForkCallable<ConcurrentCallableTask> fork = new ForkCallable<ConcurrentCallableTask>(task);
+		fork.execute();
+		Method work = task.getClass().getMethod("work", Integer.class);
+		Method serializedWork = task.getClass().getMethod("serializedWork", Integer.class);
+		
+		// warm up, the first call waits until the task is initialized
+		fork.call(work, 0);
+		
+		long start = System.currentTimeMillis();
+		List<CompletableFuture<org.gfork.types.Void>> replies = new ArrayList<CompletableFuture<org.gfork.types.Void>>();
+		for (int i = 0; i < 4; i++) {
+			replies.add(fork.callAsync(org.gfork.types.Void.class, work, 1000));
+		}
+		for (CompletableFuture<org.gfork.types.Void> reply : replies) {
+			reply.get();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("calls were not executed concurrently: " + elapsed + " ms", elapsed < 3000);
+		
+		replies.clear();
+		for (int i = 0; i < 4; i++) {
+			replies.add(fork.callAsync(org.gfork.types.Void.class, serializedWork, 100));
+		}
+		for (CompletableFuture<org.gfork.types.Void> reply : replies) {
+			reply.get();
+		}
+		assertEquals(Integer.valueOf(1), fork.call(Integer.class, task.getClass().getMethod("getMaxSerializedRunning")));
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testRemoteException() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		Method failMethod = task.getClass().getMethod("fail", String.class);
+		try {
+			fork.call(failMethod, "expected failure");
+			fail("exception expected");
+		} catch (RemoteCallException e) {
+			assertEquals(IllegalStateException.class.getName(), e.getRemoteClassName());
+			assertEquals(IllegalStateException.class.getName() + ": expected failure", e.getMessage());
+		}
+		try {
+			fork.callAsync(org.gfork.types.Void.class, failMethod, "async failure").get();
+			fail("exception expected");
+		} catch (ExecutionException e) {
+			assertEquals(RemoteCallException.class, e.getCause().getClass());
+		}
+		// the task is still callable
+		assertEquals("alive", fork.call(String.class, task.getClass().getMethod("echo", String.class), "alive"));
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testBatchedCalls() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		Method setMethod = task.getClass().getMethod("set", String.class);
+		Method getMethod = task.getClass().getMethod("get");
+		Method echoMethod = task.getClass().getMethod("echo", String.class);
+		ForkCallable<MyCallableTask>.Batch batch = fork.batch();
+		batch.add(setMethod, "first");
+		CompletableFuture<String> first = batch.add(String.class, getMethod);
+		batch.add(setMethod, "second").add(getMethod).add(echoMethod, "echo");
+		assertEquals(5, batch.size());
+		List<Object> results = batch.call();
+		assertEquals(5, results.size());
+		assertEquals("first", first.get());
+		assertEquals(org.gfork.types.Void.class, results.get(0).getClass());
+		assertEquals("first", results.get(1));
+		assertEquals("second", results.get(3));
+		assertEquals("echo", results.get(4));
+		
+		// all calls are executed, the first failure is thrown
+		batch = fork.batch();
+		batch.add(task.getClass().getMethod("fail", String.class), "expected failure").add(setMethod, "third");
+		try {
+			batch.call();
+			fail("exception expected");
+		} catch (RemoteCallException e) {
+			assertEquals(IllegalStateException.class.getName(), e.getRemoteClassName());
+		}
+		assertEquals("third", fork.call(String.class, getMethod));
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testCallCoalescing() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		fork.setCallCoalescing(50);
+		Method echoMethod = task.getClass().getMethod("echo", String.class);
+		List<CompletableFuture<String>> replies = new ArrayList<CompletableFuture<String>>();
+		for (int i = 0; i < 2 * ForkCallable.MAX_COALESCED_CALLS + 10; i++) {
+			replies.add(fork.callAsync(String.class, echoMethod, "echo" + i));
+		}
+		for (int i = 0; i < replies.size(); i++) {
+			assertEquals("echo" + i, replies.get(i).get(10, TimeUnit.SECONDS));
+		}
+		// a synchronous call sends waiting calls immediately
+		CompletableFuture<String> waiting = fork.callAsync(String.class, echoMethod, "waiting");
+		assertEquals("now", fork.call(String.class, echoMethod, "now"));
+		assertEquals("waiting", waiting.get(10, TimeUnit.SECONDS));
+		fork.setCallCoalescing(0);
+		assertEquals("direct", fork.call(String.class, echoMethod, "direct"));
+		fork.shutdown();
+	}
+	
+	public interface MyCallable {
+		void set(String text);
+		String get();
+		String echo(String text);
+		void fail(String message);
+	}
+	
+	public interface MyAsyncCallable {
+		CompletableFuture<String> echo(String text);
+		CompletableFuture<Void> set(String text);
+	}
+	
+	public interface BulkCallable {
+		long sum(ByteBuffer data);
+		float[] reverse(float[] values);
+	}
+	
+	public interface Unknown {
+		void unknown();
+	}
+	
+	@Test
+	public void testProxy() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		MyCallable callable = fork.proxy(MyCallable.class);
+		callable.set("text");
+		assertEquals("text", callable.get());
+		assertEquals("echo", callable.echo("echo"));
+		try {
+			callable.fail("expected failure");
+			fail("exception expected");
+		} catch (RemoteCallException e) {
+			assertEquals(IllegalStateException.class.getName(), e.getRemoteClassName());
+		}
+		
+		MyAsyncCallable asyncCallable = fork.proxy(MyAsyncCallable.class);
+		CompletableFuture<Void> set = asyncCallable.set("async");
+		CompletableFuture<String> echo = asyncCallable.echo("async echo");
+		assertEquals("async echo", echo.get(10, TimeUnit.SECONDS));
+		set.get(10, TimeUnit.SECONDS);
+		assertEquals("async", callable.get());
+		
+		try {
+			fork.proxy(Unknown.class);
+			fail("exception expected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		fork.shutdown();
+	}
+	
+	/**
+	 * Soak test: sends unique arguments of about 1 KB, without stream resets the task 
+	 * process with a heap of 50 MB runs out of memory after about 50000 calls.
+	 * Number of calls can be defined by system property gfork.soak.calls, e.g. 10000000.
+	 */
+	@Test
+	public void testBoundedStreamMemory() throws Exception {
+		final int calls = Integer.getInteger("gfork.soak.calls", 100000);
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.setJvmOptions("-Xmx50m");
+		fork.execute();
+		Method setMethod = task.getClass().getMethod("set", String.class);
+		char[] padding = new char[1000];
+		java.util.Arrays.fill(padding, 'x');
+		String text = new String(padding);
+		Runtime runtime = Runtime.getRuntime();
+		long usedAtStart = 0;
+		List<CompletableFuture<org.gfork.types.Void>> replies = new ArrayList<CompletableFuture<org.gfork.types.Void>>();
+		for (int i = 0; i < calls; i++) {
+			replies.add(fork.callAsync(org.gfork.types.Void.class, setMethod, i + text));
+			if (replies.size() == 1000) {
+				for (CompletableFuture<org.gfork.types.Void> reply : replies) {
+					reply.get(30, TimeUnit.SECONDS);
+				}
+				replies.clear();
+				if (i + 1 == 10000) {
+					System.gc();
+					usedAtStart = runtime.totalMemory() - runtime.freeMemory();
+				}
+			}
+		}
+		for (CompletableFuture<org.gfork.types.Void> reply : replies) {
+			reply.get(30, TimeUnit.SECONDS);
+		}
+		assertEquals((calls - 1) + text, fork.call(String.class, task.getClass().getMethod("get")));
+		System.gc();
+		long usedAtEnd = runtime.totalMemory() - runtime.freeMemory();
+		assertTrue(String.format("heap grew from %d to %d bytes", usedAtStart, usedAtEnd), 
+				usedAtEnd - usedAtStart < 20 * 1024 * 1024);
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testBulkArguments() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		BulkCallable callable = fork.proxy(BulkCallable.class);
+		
+		// mapped to the task process
+		ByteBuffer data = ByteBuffer.allocateDirect(20 * 1024 * 1024);
+		for (int i = 0; i < data.capacity(); i += 1024) {
+			data.put(i, (byte) 1);
+		}
+		assertEquals(20 * 1024, callable.sum(data));
+		
+		// raw binary argument and return value
+		float[] values = new float[100000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i;
+		}
+		float[] reversed = callable.reverse(values);
+		assertEquals(values.length, reversed.length);
+		assertEquals(values.length - 1, reversed[0], 0f);
+		assertEquals(0, reversed[values.length - 1], 0f);
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testEvents() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		task.setEventWindow(4);
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		final List<Serializable> received = new CopyOnWriteArrayList<Serializable>();
+		fork.addEventListener(new ForkCallable.EventListener() {
+			@Override
+			public void onEvent(Serializable event) {
+				received.add(event);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		fork.call(task.getClass().getMethod("progress", Integer.class), 100);
+		// the task can not be more than its event window ahead of the listener
+		assertTrue("received " + received.size(), received.size() >= 100 - 4);
+		long timeout = System.currentTimeMillis() + 10000;
+		while (received.size() < 100 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(100, received.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i + 1, received.get(i));
+		}
+		fork.shutdown();
+	}
+	
+	@Test
+	public void testMemoize() throws Exception {
+		MyCallableTask task = new MyCallableTask();
+		ForkCallable<MyCallableTask> fork = new ForkCallable<MyCallableTask>(task);
+		fork.execute();
+		Method length = task.getClass().getMethod("length", String.class);
+		Method invocations = task.getClass().getMethod("getInvocations");
+		assertEquals(Integer.valueOf(1), fork.call(Integer.class, length, "a"));
+		assertEquals(Integer.valueOf(1), fork.call(Integer.class, length, "a"));
+		assertEquals(Integer.valueOf(1), fork.callAsync(Integer.class, length, "a").get());
+		assertEquals(Integer.valueOf(1), fork.call(Integer.class, invocations));
+		assertEquals(2, fork.getCacheStats().getHits());
+		assertEquals(1, fork.getCacheStats().getMisses());
+		
+		// LRU with 2 entries evicts "a"
+		fork.call(Integer.class, length, "bb");
+		fork.call(Integer.class, length, "ccc");
+		fork.call(Integer.class, length, "a");
+		assertEquals(Integer.valueOf(4), fork.call(Integer.class, invocations));
+		assertEquals(2, fork.getCacheStats().getSize());
+		
+		fork.invalidateCache(length);
+		fork.call(Integer.class, length, "a");
+		assertEquals(Integer.valueOf(5), fork.call(Integer.class, invocations));
+		
+		// batch calls bypass the parent cache but not the child cache
+		Method childCached = task.getClass().getMethod("childCachedLength", String.class);
+		Method childStats = task.getClass().getMethod("getCacheStats");
+		fork.call(Integer.class, childCached, "x");
+		assertEquals(1, fork.batch().add(childCached, "x").call().get(0));
+		assertEquals(Integer.valueOf(6), fork.call(Integer.class, invocations));
+		CacheStats stats = fork.call(CacheStats.class, childStats);
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getHits());
+		fork.invalidateCache(childCached);
+		assertEquals(0, fork.call(CacheStats.class, childStats).getSize());
+		fork.shutdown();
+	}
+}
@@ -21,8 +21,11 @@
 package org.gfork;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -35,6 +38,8 @@ import org.gfork.ForkChain;
 import org.gfork.ForkLink;
 import org.gfork.helpers.PipedTextTask;
 import org.gfork.tasks.AppenderTask;
+import org.gfork.tasks.StreamIndexTask;
+import org.gfork.types.LinkMetrics;
 import org.gfork.types.Void;
 import org.junit.Before;
 import org.junit.Test;
@@ -179,4 +184,198 @@ public class ForkChainTest {
 		}
 	}
 	
+	@Test
+	public void testChainMetrics() throws Exception {
+		AppenderTask task = new AppenderTask();
+		ForkLink<AppenderTask, Void> fork1 = new ForkLink<AppenderTask, Void>(task);
+		ForkLink<AppenderTask, Void> fork2 = new ForkLink<AppenderTask, Void>(task);
+		
+		ForkChain chain = new ForkChain(fork1, fork2);
+		chain.enableMetrics(100);
+		chain.execute();
+		
+		final OutputStream chainInput = chain.getBeginWriteStream();
+		final InputStream chainOutput = chain.getEndReadStream();
+		
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(chainInput));
+		out.println("line");
+		out.println("line");
+		out.println("line");
+		out.close();
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(chainOutput));
+		int lines = 0;
+		while(in.readLine() != null) {
+			lines++;
+		}
+		assertEquals(3, lines);
+		
+		// wait for the final snapshots of the link processes
+		LinkMetrics[] metrics = chain.getMetrics();
+		for (int i = 0; i < 50 && !(isFinished(metrics[0]) && isFinished(metrics[1])); i++) {
+			Thread.sleep(100);
+			metrics = chain.getMetrics();
+		}
+		chain.close();
+		
+		assertEquals(2, metrics.length);
+		for (int i = 0; i < metrics.length; i++) {
+			assertNotNull(metrics[i]);
+			assertTrue(metrics[i].isFinished());
+			assertEquals(i, metrics[i].getLinkIndex());
+			assertEquals(3, metrics[i].getRecordsIn());
+			assertEquals(3, metrics[i].getRecordsOut());
+			assertTrue(metrics[i].getBytesOut() > metrics[i].getBytesIn());
+		}
+		assertEquals(metrics[0].getBytesOut(), metrics[1].getBytesIn());
+	}
+	
+	@Test
+	public void testSpooledLink() throws Exception {
+		ForkLink<AppenderTask, Void> fork1 = new ForkLink<AppenderTask, Void>(new AppenderTask());
+		ForkLink<AppenderTask, Void> fork2 = new ForkLink<AppenderTask, Void>(new AppenderTask());
+		File spoolDir = new File("tmp/spoolChain");
+		fork2.setInputSpool(spoolDir, 8 * 1024 * 1024);
+		
+		ForkChain chain = new ForkChain(fork1, fork2);
+		chain.enableMetrics(100);
+		chain.execute();
+		
+		// the spool absorbs the whole input before any output is read
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(chain.getBeginWriteStream()));
+		for (int i = 0; i < 50000; i++) {
+			out.println("line-" + i + "-0123456789012345678901234567890123456789");
+		}
+		out.close();
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(chain.getEndReadStream()));
+		int lines = 0;
+		String line;
+		while((line = in.readLine()) != null) {
+			assertTrue(line.endsWith("_A_A"));
+			lines++;
+		}
+		assertEquals(50000, lines);
+		
+		LinkMetrics[] metrics = chain.getMetrics();
+		for (int i = 0; i < 50 && !isFinished(metrics[1]); i++) {
+			Thread.sleep(100);
+			metrics = chain.getMetrics();
+		}
+		chain.close();
+		fork2.waitFor();
+		
+		assertEquals(0, metrics[1].getSpoolDepth());
+		assertEquals(metrics[0].getBytesOut(), metrics[1].getBytesIn());
+		assertEquals(0, spoolDir.listFiles().length);
+	}
+	
+	@Test
+	public void testSessionMode() throws Exception {
+		ForkLink<AppenderTask, Void> fork1 = new ForkLink<AppenderTask, Void>(new AppenderTask());
+		ForkLink<StreamIndexTask, Void> fork2 = new ForkLink<StreamIndexTask, Void>(new StreamIndexTask());
+		
+		ForkChain chain = new ForkChain(fork1, fork2);
+		chain.setSessionMode(true);
+		chain.execute();
+		
+		// request/response: one logical stream per document, the link processes stay alive
+		for (int doc = 0; doc < 3; doc++) {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(chain.openBeginWriteStream()));
+			out.println("doc" + doc);
+			out.println("doc" + doc);
+			out.close();
+			
+			BufferedReader in = new BufferedReader(new InputStreamReader(chain.openEndReadStream()));
+			assertEquals("doc" + doc + "_A#" + doc, in.readLine());
+			assertEquals("doc" + doc + "_A#" + doc, in.readLine());
+			assertEquals(null, in.readLine());
+			assertTrue(fork1.isExecuting());
+		}
+		
+		// pipelined: write all documents before reading
+		for (int doc = 3; doc < 5; doc++) {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(chain.openBeginWriteStream()));
+			out.println("doc" + doc);
+			out.close();
+		}
+		for (int doc = 3; doc < 5; doc++) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(chain.openEndReadStream()));
+			assertEquals("doc" + doc + "_A#" + doc, in.readLine());
+			assertEquals(null, in.readLine());
+		}
+		
+		chain.close();
+		assertEquals(0, fork1.waitFor());
+		assertEquals(0, fork2.waitFor());
+	}
+	
+	@Test
+	public void testInProcessLinks() throws Exception {
+		InProcessLink<AppenderTask, Void> link1 = new InProcessLink<AppenderTask, Void>(new AppenderTask());
+		ForkLink<AppenderTask, Void> fork2 = new ForkLink<AppenderTask, Void>(new AppenderTask());
+		InProcessLink<AppenderTask, Void> link3 = new InProcessLink<AppenderTask, Void>(new AppenderTask());
+		InProcessLink<AppenderTask, Void> link4 = new InProcessLink<AppenderTask, Void>(new AppenderTask());
+		
+		ForkChain chain = new ForkChain(link1, fork2, link3, link4);
+		chain.enableMetrics(100);
+		chain.execute();
+		
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(chain.getBeginWriteStream()));
+		out.println("line-1");
+		out.println("line-2");
+		out.close();
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(chain.getEndReadStream()));
+		assertEquals("line-1_A_A_A_A", in.readLine());
+		assertEquals("line-2_A_A_A_A", in.readLine());
+		assertEquals(null, in.readLine());
+		
+		link1.waitFor();
+		link4.waitFor();
+		assertEquals(null, link1.getException());
+		assertEquals(null, link4.getException());
+		assertEquals(0, fork2.waitFor());
+		
+		LinkMetrics[] metrics = chain.getMetrics();
+		for (int i = 0; i < 50 && !isFinished(metrics[3]); i++) {
+			Thread.sleep(100);
+			metrics = chain.getMetrics();
+		}
+		chain.close();
+		for (int i = 0; i < metrics.length; i++) {
+			assertTrue(isFinished(metrics[i]));
+			assertEquals(2, metrics[i].getRecordsIn());
+		}
+	}
+	
+	@Test
+	public void testInProcessSession() throws Exception {
+		InProcessLink<AppenderTask, Void> link1 = new InProcessLink<AppenderTask, Void>(new AppenderTask());
+		InProcessLink<StreamIndexTask, Void> link2 = new InProcessLink<StreamIndexTask, Void>(new StreamIndexTask());
+		
+		ForkChain chain = new ForkChain(link1, link2);
+		chain.setSessionMode(true);
+		chain.execute();
+		
+		for (int doc = 0; doc < 3; doc++) {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(chain.openBeginWriteStream()));
+			out.println("doc" + doc);
+			out.close();
+			
+			BufferedReader in = new BufferedReader(new InputStreamReader(chain.openEndReadStream()));
+			assertEquals("doc" + doc + "_A#" + doc, in.readLine());
+			assertEquals(null, in.readLine());
+			assertTrue(!link2.isFinished());
+		}
+		
+		chain.close();
+		link2.waitFor();
+		assertEquals(null, link2.getException());
+	}
+	
+	private boolean isFinished(LinkMetrics metrics) {
+		return metrics != null && metrics.isFinished();
+	}
+	
 }
@@ -0,0 +1,163 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gfork.ForkGraph.NodeState;
+import org.gfork.ForkGraph.Port;
+import org.gfork.helpers.PipedTextTask;
+import org.gfork.tasks.AppenderTask;
+import org.gfork.tasks.RouterTask;
+import org.gfork.types.Void;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ForkGraphTest {
+
+	@Before
+	public void init() {
+		Fork.setLoggingEnabled(true);
+		Fork.setJvmOptionsForAll(new String[] {
+				"-Djava.util.logging.config.file=./logging_forkRunner.properties",
+		});
+	}
+
+	@Test
+	public void testPartitionAndMerge() throws Exception {
+		final ForkGraph graph = new ForkGraph();
+		graph.addNode("split", new ForkLink<PipedTextTask, Void>(new PipedTextTask()));
+		graph.addNode("a1", new ForkLink<AppenderTask, Void>(new AppenderTask()));
+		graph.addNode("a2", new ForkLink<AppenderTask, Void>(new AppenderTask()));
+		graph.addNode("join", new ForkLink<PipedTextTask, Void>(new PipedTextTask()));
+		final Port in = ForkGraph.port("split", ForkGraph.IN);
+		final Port out = ForkGraph.port("join", ForkGraph.OUT);
+		graph.input(in);
+		graph.partition(ForkGraph.port("split", ForkGraph.OUT), ForkGraph.port("a1", ForkGraph.IN),
+				ForkGraph.port("a2", ForkGraph.IN));
+		graph.merge(ForkGraph.port("join", ForkGraph.IN), ForkGraph.port("a1", ForkGraph.OUT),
+				ForkGraph.port("a2", ForkGraph.OUT));
+		graph.output(out);
+		graph.execute();
+
+		writeLines(graph.getWriteStream(in), 100, "line-");
+		final List<String> lines = readLines(graph.getReadStream(out));
+		assertTrue(graph.waitFor());
+		graph.close();
+
+		assertEquals(100, lines.size());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(lines.contains(String.format("line-%03d_A", i)));
+		}
+		assertEquals(NodeState.FINISHED, graph.getNodeState("a1"));
+		assertEquals(NodeState.FINISHED, graph.getNodeState("a2"));
+	}
+
+	@Test
+	public void testBroadcastAndNamedPorts() throws Exception {
+		final ForkGraph graph = new ForkGraph();
+		graph.addNode("router", new ForkLink<RouterTask, Void>(new RouterTask()));
+		graph.addNode("copy", new ForkLink<PipedTextTask, Void>(new PipedTextTask()));
+		graph.addNode("append", new ForkLink<AppenderTask, Void>(new AppenderTask()));
+		final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+		graph.addNodeListener(new ForkGraph.NodeListener() {
+			@Override
+			public void onNodeFinished(final String node) {
+				finished.add(node);
+			}
+
+			@Override
+			public void onNodeFailed(final String node, final Fork<?, ?> fork) {
+			}
+		});
+		final Port in = ForkGraph.port("router", ForkGraph.IN);
+		final Port text = ForkGraph.port("router", "text");
+		final Port copy = ForkGraph.port("copy", ForkGraph.OUT);
+		final Port append = ForkGraph.port("append", ForkGraph.OUT);
+		graph.input(in);
+		graph.broadcast(ForkGraph.port("router", "digits"), ForkGraph.port("copy", ForkGraph.IN),
+				ForkGraph.port("append", ForkGraph.IN));
+		graph.output(text);
+		graph.output(copy);
+		graph.output(append);
+		graph.execute();
+
+		final PrintWriter writer = new PrintWriter(new OutputStreamWriter(graph.getWriteStream(in)));
+		writer.println("1st");
+		writer.println("abc");
+		writer.println("2nd");
+		writer.close();
+
+		assertEquals("[abc]", readLines(graph.getReadStream(text)).toString());
+		assertEquals("[1st, 2nd]", readLines(graph.getReadStream(copy)).toString());
+		assertEquals("[1st_A, 2nd_A]", readLines(graph.getReadStream(append)).toString());
+		assertTrue(graph.waitFor());
+		graph.close();
+		assertEquals(3, finished.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCycleRejected() throws Exception {
+		final ForkGraph graph = new ForkGraph();
+		graph.addNode("a", new ForkLink<PipedTextTask, Void>(new PipedTextTask()));
+		graph.addNode("b", new ForkLink<PipedTextTask, Void>(new PipedTextTask()));
+		graph.connect(ForkGraph.port("a", ForkGraph.OUT), ForkGraph.port("b", ForkGraph.IN));
+		graph.connect(ForkGraph.port("b", ForkGraph.OUT), ForkGraph.port("a", ForkGraph.IN));
+		graph.execute();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownPortRejected() throws Exception {
+		final ForkGraph graph = new ForkGraph();
+		graph.addNode("router", new ForkLink<RouterTask, Void>(new RouterTask()));
+		graph.addNode("copy", new ForkLink<PipedTextTask, Void>(new PipedTextTask()));
+		graph.connect(ForkGraph.port("router", "digit"), ForkGraph.port("copy", ForkGraph.IN));
+	}
+
+	private static void writeLines(final OutputStream stream, final int count, final String prefix) {
+		final PrintWriter out = new PrintWriter(new OutputStreamWriter(stream));
+		for (int i = 0; i < count; i++) {
+			out.println(String.format("%s%03d", prefix, i));
+		}
+		out.close();
+	}
+
+	private static List<String> readLines(final InputStream stream) throws Exception {
+		final BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+		final List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+}
@@ -22,6 +22,7 @@ package org.gfork;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -33,6 +34,9 @@ import java.io.Serializable;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.gfork.helpers.ForkListenerAdapter;
 import org.gfork.internal.run.ForkRunner;
@@ -573,6 +577,36 @@ public class ForkTest {
 		f.setStdOutWriter(new PrintWriter(stdout));
 	}
 
+	@Test
+	public void testAsyncOperations() throws Exception {
+		System.out.println("ForkTest.testAsyncOperations()");
+		Fork<Task02, String> f = new Fork<Task02, String>(new Task02(), Task02.class.getMethod("delay", Integer.class),
+				1000);
+
+		// not started
+		try {
+			f.getTaskAsync().get();
+			fail("fork was not started");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		f.execute();
+		// completed by the exit of the process, nobody calls waitFor
+		CompletableFuture<String> returnValue = f.getReturnValueAsync();
+		CompletableFuture<Task02> task = f.getTaskAsync();
+		assertFalse(returnValue.isDone());
+		assertTrue(returnValue.get(30, TimeUnit.SECONDS).startsWith("delay - ok"));
+		assertNotNull(task.get(30, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(0), f.getExitValueAsync().get());
+
+		Fork<Task02, String> killed = new Fork<Task02, String>(new Task02(),
+				Task02.class.getMethod("delay", Integer.class), 30000);
+		killed.execute();
+		killed.killAsync().get(30, TimeUnit.SECONDS);
+		assertTrue(killed.isFinished());
+	}
+
 	private String getTempFolder() {
 		return System.getProperty("java.io.tmpdir");
 	}
@@ -20,11 +20,15 @@
 
 package org.gfork;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public class MyCallableTask extends CallableTask {
 
 	private static final long serialVersionUID = 1L;
 	
 	private String text = "undef";
+	private int invocations;
 
 	@Override
 	public Object getImplementingObject() {
@@ -44,6 +48,52 @@ public class MyCallableTask extends CallableTask {
 		return this.text;
 	}
 
+	public String echo(String text) {
+		return text;
+	}
+
+	public void fail(String message) {
+		throw new IllegalStateException(message);
+	}
+
+	public long sum(ByteBuffer data) {
+		long sum = 0;
+		while (data.hasRemaining()) {
+			sum += data.get();
+		}
+		return sum;
+	}
+
+	public void progress(Integer count) throws IOException, InterruptedException {
+		for (int i = 1; i <= count; i++) {
+			publish(i);
+		}
+	}
+
+	@Memoize(maxEntries = 2)
+	public Integer length(String text) {
+		invocations++;
+		return text.length();
+	}
+
+	@Memoize(childCache = true)
+	public Integer childCachedLength(String text) {
+		invocations++;
+		return text.length();
+	}
+
+	public Integer getInvocations() {
+		return invocations;
+	}
+
+	public float[] reverse(float[] values) {
+		float[] reversed = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			reversed[values.length - 1 - i] = values[i];
+		}
+		return reversed;
+	}
+
 	@Override
 	protected void initialize() throws Exception {
 	}
@@ -0,0 +1,173 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.remote.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.Frame;
+import org.gfork.remote.TimeoutException;
+import org.gfork.remote.server.ForkServer;
+import org.junit.After;
+import org.junit.Test;
+
+public class ForkConnectionPoolTest {
+
+	private final long idleTimeout = ForkConnectionPool.IDLE_TIMEOUT_MILLIS;
+	private final long healthCheckInterval = ForkConnectionPool.HEALTH_CHECK_INTERVAL_MILLIS;
+
+	@After
+	public void endTest() {
+		ForkConnectionPool.closeAll();
+		ForkConnectionPool.IDLE_TIMEOUT_MILLIS = idleTimeout;
+		ForkConnectionPool.HEALTH_CHECK_INTERVAL_MILLIS = healthCheckInterval;
+	}
+
+	@Test(timeout = 60000)
+	public void testForksShareConnection() throws Exception {
+		ForkConnectionPool.HEALTH_CHECK_INTERVAL_MILLIS = 200;
+		try (ForkServer server = new ForkServer(0).start()) {
+			final InetSocketAddress address = address(server);
+			ExecutorService executor = Executors.newFixedThreadPool(20);
+			try {
+				List<Future<Integer>> results = new ArrayList<>();
+				for (int i = 0; i < 200; i++) {
+					results.add(executor.submit(new Callable<Integer>() {
+						@Override
+						public Integer call() throws Exception {
+							ForkConnection.Channel channel = ForkConnectionPool.openChannel(address);
+							Frame reply = channel.request(Frame.control(Command.connectClose)).get();
+							channel.close();
+							assertEquals(Command.connectCloseOk, reply.getCommand());
+							return reply.getForkId();
+						}
+					}));
+				}
+				for (int i = 0; i < results.size(); i++) {
+					results.get(i).get();
+				}
+			} finally {
+				executor.shutdown();
+			}
+			assertEquals(1, server.getConnectionCount());
+			assertEquals(1, ForkConnectionPool.size());
+
+			// idle connection survives health checks
+			ForkConnection.Channel channel = ForkConnectionPool.openChannel(address);
+			Thread.sleep(2000);
+			assertEquals(Command.connectCloseOk, channel.request(Frame.control(Command.connectClose)).get().getCommand());
+			assertEquals(1, server.getConnectionCount());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testIdleEviction() throws Exception {
+		ForkConnectionPool.IDLE_TIMEOUT_MILLIS = 500;
+		try (ForkServer server = new ForkServer(0).start()) {
+			ForkConnectionPool.openChannel(address(server)).close();
+			assertEquals(1, ForkConnectionPool.size());
+			while (ForkConnectionPool.size() > 0 || server.getConnectionCount() > 0) {
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testServerRestart() throws Exception {
+		ForkServer server = new ForkServer(0).start();
+		final InetSocketAddress address = address(server);
+		ForkConnection.Channel channel = ForkConnectionPool.openChannel(address);
+		server.close();
+		CompletableFuture<Frame> reply = channel.request(0, Frame.control(Command.connectClose));
+		try {
+			reply.get();
+			fail("connection lost expected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		try (ForkServer restarted = new ForkServer(address.getPort()).start()) {
+			ForkConnection.Channel next = ForkConnectionPool.openChannel(address);
+			// first fork of a new connection
+			assertEquals(1, next.getForkId());
+			assertEquals(Command.connectCloseOk, next.request(Frame.control(Command.connectClose)).get().getCommand());
+			assertEquals(1, restarted.getConnectionCount());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testRequestTimeout() throws Exception {
+		// accepts the connection but never answers a request
+		try (final ServerSocket silentServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			Thread acceptor = new Thread("silent server") {
+				@Override
+				public void run() {
+					try (Socket socket = silentServer.accept()) {
+						DataInputStream in = new DataInputStream(socket.getInputStream());
+						DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+						Frame.control(Command.connectOk, Frame.read(in).getArgument()).write(out);
+						out.flush();
+						while (true) {
+							Frame.read(in);
+						}
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+
+			ForkConnection.Channel channel = ForkConnectionPool.openChannel(
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), silentServer.getLocalPort()));
+			long start = System.currentTimeMillis();
+			try {
+				channel.request(300, Frame.control(Command.isFinished)).get();
+				fail("timeout expected");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertTrue(System.currentTimeMillis() - start < ForkServer.SOCKET_READ_TIMEOU_IN_MILLIS);
+		}
+	}
+
+	private static InetSocketAddress address(ForkServer server) {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+	}
+}
@@ -22,6 +22,7 @@ package org.gfork.internal.remote.client;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -30,9 +31,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.gfork.Fork;
 import org.gfork.helpers.ForkListenerAdapter;
@@ -414,7 +420,6 @@ public class ForkTestRemote {
 		f.disconnect();
 	}
 
-	@Ignore
 	@Test
 	public void testStdOutFile() throws Exception {
 		System.out.println("ForkTest.testStdOutFile()");
@@ -422,14 +427,39 @@ public class ForkTestRemote {
 
 		File stdout = new File(TMP_STDOUT_TEST_TXT_FILE);
 		stdout.delete();
-		f.setStdOutWriter(new PrintWriter(stdout));
+		stdout.getParentFile().mkdirs();
+		PrintWriter writer = new PrintWriter(stdout);
+		f.setStdOutWriter(writer);
 
-		f.execute();
+		f.execute("localhost");
 
 		assertFalse(f.isError());
 		assertFalse(f.isError()); // try multiple calls
+		writer.close();
 		assertTrue(stdout.canRead());
-		assertTrue("stdout size: " + stdout.length(), stdout.length() > 500);
+		// all output is received before the fork is finished
+		assertEquals(50, Files.readAllLines(stdout.toPath()).size());
+		
+		f.disconnect();
+	}
+
+	@Test(timeout = 60000)
+	public void testStdOutStreaming() throws Exception {
+		Fork<Task02, Void> f = new Fork<Task02, Void>(new Task02(null, "f1"), Task02.class.getMethod("endless"));
+		StringWriter stdout = new StringWriter();
+		f.setStdOutWriter(stdout);
+
+		f.execute("localhost");
+
+		// received while the task runs, without asking the server
+		while (!stdout.toString().contains("f1")) {
+			Thread.sleep(50);
+		}
+		assertTrue(f.isExecuting());
+		assertTrue(f.getStdOut().contains(Task02.class.getName() + " - f1"));
+
+		f.kill();
+		f.disconnect();
 	}
 
 	@Ignore
@@ -598,6 +628,29 @@ public class ForkTestRemote {
 		assertTrue(System.currentTimeMillis() - start > delayInMillis);
 	}
 
+	@Test
+	public void testAsyncOperations() throws Exception {
+		final Fork<Task02, String> f = new Fork<Task02, String>(new Task02(),
+				Task02.class.getMethod("delay", Integer.class), 2000);
+
+		CompletableFuture<String> returnValue = f.executeAsync("localhost")
+				.thenCompose(new Function<java.lang.Void, CompletableFuture<String>>() {
+					@Override
+					public CompletableFuture<String> apply(java.lang.Void started) {
+						return f.getReturnValueAsync();
+					}
+				});
+		assertFalse(returnValue.isDone());
+		assertTrue(returnValue.get(30, TimeUnit.SECONDS).startsWith("delay - ok"));
+
+		assertEquals(Integer.valueOf(0), f.waitForAsync().get());
+		assertTrue(f.isFinishedAsync().get());
+		assertEquals("", f.getStdErrAsync().get());
+		assertNotNull(f.getTaskAsync().get());
+		f.disconnectAsync().get();
+		assertFalse(f.isExecuting());
+	}
+
 	@Ignore
 	@Test
 	public void printTaskEnv() throws Exception {
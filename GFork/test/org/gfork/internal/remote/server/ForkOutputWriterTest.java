@@ -0,0 +1,104 @@
+package org.gfork.internal.remote.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.gfork.internal.remote.Frame;
+import org.gfork.internal.remote.client.ConnectionClientSide;
+import org.gfork.remote.server.ForkServer;
+import org.gfork.remote.server.ForkServer.OutputPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ForkOutputWriterTest {
+
+	private int bufferSize;
+	private OutputPolicy policy;
+	private ServerSocketChannel listener;
+	private ConnectionServerSide con;
+	private ConnectionClientSide client;
+
+	@Before
+	public void connect() throws Exception {
+		bufferSize = ForkServer.OUTPUT_BUFFER_SIZE;
+		policy = ForkServer.OUTPUT_POLICY;
+		listener = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		client = new ConnectionClientSide(new Socket(InetAddress.getLoopbackAddress(), listener.socket().getLocalPort()),
+				"id-1");
+		SocketChannel channel = listener.accept();
+		channel.configureBlocking(false);
+		// frames are only written when the test calls writeOutput, as if the client was slow
+		con = new ConnectionServerSide(channel, c -> {
+		});
+	}
+
+	@After
+	public void close() throws Exception {
+		ForkServer.OUTPUT_BUFFER_SIZE = bufferSize;
+		ForkServer.OUTPUT_POLICY = policy;
+		client.close();
+		con.closeNow();
+		listener.close();
+	}
+
+	@Test
+	public void testStreamed() throws Exception {
+		ForkOutputWriter writer = new ForkOutputWriter(con, 7, Frame.Type.STDERR);
+		writer.write("line 1\n");
+		writer.flush();
+		assertTrue(con.writeOutput());
+
+		Frame frame = client.receive();
+		assertEquals(Frame.Type.STDERR, frame.getType());
+		assertEquals(7, frame.getForkId());
+		assertEquals("line 1\n", frame.getText());
+	}
+
+	@Test
+	public void testDropWhenCongested() throws Exception {
+		ForkServer.OUTPUT_BUFFER_SIZE = 8;
+		ForkServer.OUTPUT_POLICY = OutputPolicy.DROP;
+		ForkOutputWriter writer = new ForkOutputWriter(con, 1, Frame.Type.STDOUT);
+		writer.write("line1\n");
+		writer.flush();
+		// congested, collected
+		writer.write("line2\n");
+		writer.flush();
+		// beyond the buffer size, the oldest output is dropped
+		writer.write("line3\n");
+		writer.flush();
+		assertTrue(con.getQueuedBytes() > 0);
+
+		// the collected output is sent when the queued frames are written
+		assertFalse(con.writeOutput());
+		assertTrue(con.writeOutput());
+		assertEquals(0, con.getQueuedBytes());
+
+		assertEquals("line1\n", client.receive().getText());
+		assertEquals(String.format("[4 characters of output dropped]%n") + "2\nline3\n", client.receive().getText());
+	}
+
+	@Test
+	public void testCloseSendsCollectedOutput() throws Exception {
+		ForkServer.OUTPUT_BUFFER_SIZE = 8;
+		ForkOutputWriter writer = new ForkOutputWriter(con, 1, Frame.Type.STDOUT);
+		writer.write("line1\n");
+		writer.flush();
+		writer.write("line2\n");
+		writer.flush();
+
+		writer.close();
+		assertTrue(con.writeOutput());
+
+		assertEquals("line1\n", client.receive().getText());
+		assertEquals("line2\n", client.receive().getText());
+	}
+}
@@ -0,0 +1,87 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpoolInputStreamTest {
+
+	private static final int KB = 1024;
+
+	private File dir;
+
+	@Before
+	public void init() {
+		dir = new File("tmp/spoolTest");
+		dir.mkdirs();
+		for (final File f : dir.listFiles()) {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testSegmentsAreReadInOrderAndDeleted() throws Exception {
+		final byte[] data = new byte[100 * KB];
+		new Random(42).nextBytes(data);
+		final SpoolInputStream spool = new SpoolInputStream(new ByteArrayInputStream(data), dir, 30 * KB, 10 * KB);
+
+		final ByteArrayOutputStream read = new ByteArrayOutputStream();
+		final byte[] buf = new byte[3 * KB];
+		int n;
+		while ((n = spool.read(buf)) >= 0) {
+			read.write(buf, 0, n);
+		}
+		assertArrayEquals(data, read.toByteArray());
+		assertEquals(0, spool.getDepth());
+		assertEquals(0, dir.listFiles().length);
+		spool.close();
+	}
+
+	@Test
+	public void testQuotaLimitsDepth() throws Exception {
+		final SpoolInputStream spool = new SpoolInputStream(new ByteArrayInputStream(new byte[100 * KB]), dir,
+				30 * KB, 10 * KB);
+		for (int i = 0; i < 50 && spool.getDepth() < 30 * KB; i++) {
+			Thread.sleep(20);
+		}
+		Thread.sleep(100);
+		assertEquals(30 * KB, spool.getDepth());
+
+		// reading frees quota, the pump continues
+		assertTrue(spool.read(new byte[15 * KB]) > 0);
+		for (int i = 0; i < 50 && spool.getDepth() < 30 * KB; i++) {
+			Thread.sleep(20);
+		}
+		assertTrue(spool.getDepth() > 15 * KB);
+		spool.close();
+		assertEquals(0, dir.listFiles().length);
+	}
+}
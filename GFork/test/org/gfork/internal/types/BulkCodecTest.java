@@ -0,0 +1,109 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class BulkCodecTest {
+
+	@Test
+	public void testRawArguments() throws Exception {
+		float[] floats = new float[BulkCodec.BULK_THRESHOLD];
+		for (int i = 0; i < floats.length; i++) {
+			floats[i] = i * 0.5f;
+		}
+		long[] longs = new long[] { 1, 2, 3 }; // small, serialized
+		ByteBuffer buffer = ByteBuffer.allocate(100).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(4711).putInt(42).flip();
+		
+		CallFrame frame = transfer(CallFrame.call(1, 0, new Object[] { floats, "text", longs, buffer }));
+		assertArrayEquals(floats, (float[]) frame.getArgs()[0], 0f);
+		assertEquals("text", frame.getArgs()[1]);
+		assertArrayEquals(longs, (long[]) frame.getArgs()[2]);
+		ByteBuffer received = (ByteBuffer) frame.getArgs()[3];
+		assertEquals(8, received.remaining());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, received.order());
+		assertEquals(4711, received.getInt());
+		assertEquals(42, received.getInt());
+		// the sent buffer is unchanged
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testMappedValues() throws Exception {
+		int[] ints = new int[BulkCodec.MAPPED_THRESHOLD / 4 + 1];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = i;
+		}
+		assertArrayEquals(ints, (int[]) transfer(CallFrame.returnValue(1, ints)).getValue());
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BulkCodec.MAPPED_THRESHOLD);
+		buffer.putLong(0, 123456789L);
+		buffer.putLong(BulkCodec.MAPPED_THRESHOLD - 8, 987654321L);
+		ByteBuffer received = (ByteBuffer) transfer(CallFrame.returnValue(2, buffer)).getValue();
+		assertTrue(received.isDirect());
+		assertEquals(BulkCodec.MAPPED_THRESHOLD, received.remaining());
+		assertEquals(123456789L, received.getLong(0));
+		assertEquals(987654321L, received.getLong(BulkCodec.MAPPED_THRESHOLD - 8));
+		// the reader deleted the mapped files, only the lock file is left
+		assertEquals(1, BulkCodec.getMappedDirectory().list().length);
+	}
+
+	@Test
+	public void testStaleDirectoriesDeleted() throws Exception {
+		File parent = Files.createTempDirectory("gfork-test").toFile();
+		File stale = new File(parent, "gfork-bulk-stale");
+		assertTrue(stale.mkdir());
+		assertTrue(new File(stale, "owner.lock").createNewFile());
+		assertTrue(new File(stale, "bulk1.bin").createNewFile());
+		File other = new File(parent, "other");
+		assertTrue(other.mkdir());
+
+		BulkCodec.deleteStaleDirectories(parent);
+		assertFalse(stale.exists());
+		assertTrue(other.exists());
+		other.delete();
+		parent.delete();
+	}
+
+	private static CallFrame transfer(final CallFrame frame) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(frame);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		return (CallFrame) in.readObject();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+   Copyright 2010 Gerald Ehmayer
+
+   This file is part of project GFork.
+
+    GFork is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    GFork is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with GFork.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package org.gfork.internal.types;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MethodTableTest {
+
+	public static class Target {
+
+		private String text;
+
+		public void set(final String text) {
+			this.text = text;
+		}
+
+		public String get() {
+			return text;
+		}
+
+		public int add(final int a, final int b) {
+			return a + b;
+		}
+
+		public long add(final long a, final long b) {
+			return a + b + 1;
+		}
+
+		public void fail(final String message) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	@Test
+	public void testInvokeById() throws Exception {
+		final MethodTable table = new MethodTable(Target.class);
+		final Target target = new Target();
+		assertNull(table.invoke(id(table, Target.class.getMethod("set", String.class)), target, new Object[] { "x" }));
+		assertEquals("x", table.invoke(id(table, Target.class.getMethod("get")), target, null));
+		assertEquals(5, table.invoke(id(table, Target.class.getMethod("add", int.class, int.class)), target,
+				new Object[] { 2, 3 }));
+		assertEquals(6L, table.invoke(id(table, Target.class.getMethod("add", long.class, long.class)), target,
+				new Object[] { 2L, 3L }));
+	}
+
+	@Test
+	public void testExceptions() throws Exception {
+		final MethodTable table = new MethodTable(Target.class);
+		final Method failMethod = Target.class.getMethod("fail", String.class);
+		assertEquals(failMethod, table.getMethod(id(table, failMethod)));
+		try {
+			table.invoke(id(table, failMethod), new Target(), new Object[] { "expected" });
+			fail("exception expected");
+		} catch (final InvocationTargetException e) {
+			assertEquals(IllegalStateException.class, e.getCause().getClass());
+		}
+		try {
+			table.invoke(table.getSignatures().length, new Target(), null);
+			fail("exception expected");
+		} catch (final NoSuchMethodException e) {
+			// expected
+		}
+	}
+
+	private static int id(final MethodTable table, final Method method) {
+		final int id = Arrays.asList(table.getSignatures()).indexOf(MethodTable.signature(method));
+		if (id < 0) {
+			fail(method + " not in table");
+		}
+		return id;
+	}
+}
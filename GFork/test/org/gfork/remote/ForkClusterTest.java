@@ -0,0 +1,89 @@
+package org.gfork.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.gfork.Fork;
+import org.gfork.remote.server.ForkServer;
+import org.gfork.tasks.Task02;
+import org.junit.Test;
+
+public class ForkClusterTest {
+
+	@Test(timeout = 120000)
+	public void testLeastLoadedServer() throws Exception {
+		int maxRunning = ForkServer.MAX_FORKS_RUNNING;
+		ForkServer.MAX_FORKS_RUNNING = 2;
+		Method delay = Task02.class.getMethod("delay", int.class);
+		try (ForkServer busy = startServer(); ForkServer idle = startServer()) {
+			String busyHost = "localhost:" + busy.getPort();
+			ForkCluster cluster = new ForkCluster(busyHost, "localhost:" + idle.getPort());
+			Fork<Task02, String> running = new Fork<Task02, String>(new Task02(), delay, 3000);
+			running.execute(busyHost);
+
+			List<ServerLoad> loads = cluster.getLoadAsync().get(30, TimeUnit.SECONDS);
+			assertEquals(2, loads.size());
+			assertEquals(idle.getPort(), port(loads.get(0)));
+			assertEquals(1, loads.get(1).getRunning());
+			assertEquals(2, loads.get(1).getLimit());
+
+			Fork<Task02, String> fork = new Fork<Task02, String>(new Task02(), delay, 100);
+			assertEquals(0, (int) cluster.execute(fork).get(60, TimeUnit.SECONDS));
+			assertEquals(idle.getPort(), port(cluster.getServer(fork)));
+			assertTrue(fork.getReturnValue().startsWith("delay - ok"));
+
+			assertEquals(0, running.waitFor());
+			running.disconnect();
+			fork.disconnect();
+		} finally {
+			ForkServer.MAX_FORKS_RUNNING = maxRunning;
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testFailover() throws Exception {
+		Method delay = Task02.class.getMethod("delay", int.class);
+		ForkServer first = startServer();
+		try (ForkServer second = startServer()) {
+			// a server not running is skipped
+			ForkCluster cluster = new ForkCluster("localhost:" + first.getPort(), "localhost:" + second.getPort(),
+					"localhost:1");
+			Fork<Task02, String> fork = new Fork<Task02, String>(new Task02(), delay, 3000);
+			CompletableFuture<Integer> exitValue = cluster.execute(fork);
+			// lost while running
+			while (first.getRunningForkCount() + second.getRunningForkCount() == 0) {
+				Thread.sleep(10);
+			}
+			// started reply received
+			Thread.sleep(1000);
+			String lost = cluster.getServer(fork);
+			(port(lost) == first.getPort() ? first : second).close();
+
+			assertEquals(0, (int) exitValue.get(60, TimeUnit.SECONDS));
+			assertNotEquals(lost, cluster.getServer(fork));
+			assertTrue(fork.getReturnValue().startsWith("delay - ok"));
+			fork.disconnect();
+		} finally {
+			first.close();
+		}
+	}
+
+	private static ForkServer startServer() throws Exception {
+		return new ForkServer(0, Files.createTempDirectory("gfork-cache").toFile()).start();
+	}
+
+	private static int port(ServerLoad load) {
+		return port(load.getServer());
+	}
+
+	private static int port(String server) {
+		return Integer.parseInt(server.substring(server.lastIndexOf(':') + 1));
+	}
+}
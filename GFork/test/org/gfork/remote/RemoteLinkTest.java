@@ -0,0 +1,171 @@
+package org.gfork.remote;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gfork.Fork;
+import org.gfork.ForkCallable;
+import org.gfork.ForkChain;
+import org.gfork.ForkLink;
+import org.gfork.MyCallableTask;
+import org.gfork.internal.types.BulkCodec;
+import org.gfork.remote.server.ForkServer;
+import org.gfork.tasks.AppenderTask;
+import org.gfork.types.Void;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteLinkTest {
+
+	private static final int BENCHMARK_CALLS = 500;
+
+	@Before
+	public void init() {
+		Fork.setLoggingEnabled(true);
+		Fork.setJvmOptionsForAll(new String[] { "-Djava.util.logging.config.file=./logging_forkRunner.properties", });
+	}
+
+	@Test(timeout = 120000)
+	public void testChainOnTwoServers() throws Exception {
+		try (ForkServer first = startServer(); ForkServer second = startServer()) {
+			AppenderTask task = new AppenderTask();
+			ForkLink<AppenderTask, Void> link1 = new ForkLink<>(task);
+			ForkLink<AppenderTask, Void> link2 = new ForkLink<>(task);
+			link1.setHost("localhost:" + first.getPort());
+			link2.setHost("localhost:" + second.getPort());
+
+			// link 1 connects to link 2 without tunnel
+			assertEquals(2, runChain(new ForkChain(link1, link2), "line_A_A").size());
+			assertEquals(0, link1.waitFor());
+			assertEquals(0, link2.waitFor());
+			link1.disconnect();
+			link2.disconnect();
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testChainOfLocalAndRemoteLinks() throws Exception {
+		int maxRunning = ForkServer.MAX_FORKS_RUNNING;
+		// both remote links run at the same time
+		ForkServer.MAX_FORKS_RUNNING = 2;
+		try (ForkServer server = startServer()) {
+			AppenderTask task = new AppenderTask();
+			ForkLink<AppenderTask, Void> local1 = new ForkLink<>(task);
+			ForkLink<AppenderTask, Void> remote1 = new ForkLink<>(task);
+			ForkLink<AppenderTask, Void> remote2 = new ForkLink<>(task);
+			ForkLink<AppenderTask, Void> local2 = new ForkLink<>(task);
+			remote1.setHost("localhost:" + server.getPort());
+			remote2.setHost("localhost:" + server.getPort());
+
+			assertEquals(2, runChain(new ForkChain(local1, remote1, remote2, local2), "line_A_A_A_A").size());
+			assertEquals(0, remote1.waitFor());
+			assertEquals(0, remote2.waitFor());
+			remote1.disconnect();
+			remote2.disconnect();
+		} finally {
+			ForkServer.MAX_FORKS_RUNNING = maxRunning;
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testRemoteCallable() throws Exception {
+		try (ForkServer server = startServer()) {
+			MyCallableTask task = new MyCallableTask();
+			Method set = task.getClass().getMethod("set", String.class);
+			Method get = task.getClass().getMethod("get");
+
+			ForkCallable<MyCallableTask> remote = new ForkCallable<>(task);
+			remote.execute("localhost:" + server.getPort());
+			remote.call(set, "hello remote callable");
+			assertEquals("hello remote callable", remote.call(String.class, get));
+
+			ForkCallable<MyCallableTask> local = new ForkCallable<>(task);
+			local.execute();
+			System.out.printf("average call latency: local %d us, remote %d us%n", measureCallMicros(local),
+					measureCallMicros(remote));
+
+			local.shutdown();
+			remote.shutdown();
+			assertEquals(0, remote.waitFor());
+			remote.disconnect();
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testRemoteCallableMappedThreshold() throws Exception {
+		try (ForkServer server = startServer()) {
+			MyCallableTask task = new MyCallableTask();
+			Method reverse = task.getClass().getMethod("reverse", float[].class);
+
+			ForkCallable<MyCallableTask> remote = new ForkCallable<>(task);
+			remote.execute("localhost:" + server.getPort());
+			// argument and return value are above the mapped file threshold, both must be sent raw
+			float[] values = new float[BulkCodec.MAPPED_THRESHOLD / 4 + 1];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = i;
+			}
+			float[] reversed = remote.call(float[].class, reverse, values);
+			assertEquals(values.length, reversed.length);
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(values[i], reversed[values.length - 1 - i], 0f);
+			}
+
+			remote.shutdown();
+			assertEquals(0, remote.waitFor());
+			remote.disconnect();
+		}
+	}
+
+	/**
+	 * @return average latency of a call in microseconds, after a warm up
+	 */
+	private static long measureCallMicros(ForkCallable<MyCallableTask> fork) throws Exception {
+		Method echo = MyCallableTask.class.getMethod("echo", String.class);
+		for (int i = 0; i < BENCHMARK_CALLS; i++) {
+			fork.call(String.class, echo, "warm up");
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < BENCHMARK_CALLS; i++) {
+			assertEquals("echo " + i, fork.call(String.class, echo, "echo " + i));
+		}
+		return (System.nanoTime() - start) / BENCHMARK_CALLS / 1000;
+	}
+
+	/**
+	 * Writes two lines to the chain and checks its output.
+	 */
+	private static List<String> runChain(ForkChain chain, String expected) throws Exception {
+		chain.execute();
+		OutputStream chainInput = chain.getBeginWriteStream();
+		Thread writer = new Thread(() -> {
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(chainInput));
+			out.println("line");
+			out.println("line");
+			out.close();
+		});
+		writer.start();
+
+		List<String> lines = new ArrayList<>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(chain.getEndReadStream()));
+		String line;
+		while ((line = in.readLine()) != null) {
+			assertEquals(expected, line);
+			lines.add(line);
+		}
+		writer.join();
+		return lines;
+	}
+
+	private static ForkServer startServer() throws Exception {
+		return new ForkServer(0, Files.createTempDirectory("gfork-cache").toFile()).start();
+	}
+}
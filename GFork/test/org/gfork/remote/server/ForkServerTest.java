@@ -1,13 +1,45 @@
 package org.gfork.remote.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.gfork.Fork;
 import org.gfork.internal.remote.Command;
+import org.gfork.internal.remote.ContentStore;
+import org.gfork.internal.remote.Frame;
 import org.gfork.internal.remote.client.ConnectionClientSide;
+import org.gfork.remote.ForkRejectedException;
+import org.gfork.tasks.Task02;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class ForkServerTest {
@@ -21,20 +53,299 @@ public class ForkServerTest {
 	public void testConnect() throws Exception {
 		startLocalDefaultForkServer();
 
+		long start = System.nanoTime();
 		Socket socket = new Socket(InetAddress.getLocalHost(), ForkServer.DEFAULT_PORT);
-		ConnectionClientSide con = new ConnectionClientSide(socket, "id-1");
-		con.getSocketControlWriter().println(Command.connect);
-		con.getSocketControlWriter().println("id-1");
+		try (ConnectionClientSide con = new ConnectionClientSide(socket, "id-1")) {
+			con.send(Frame.control(Command.connect, "id-1"));
+
+			Frame connectReply = con.receive();
+			assertEquals(Command.connectOk, connectReply.getCommand());
+			assertEquals("id-1", connectReply.getArgument());
+			// no polling intervals in the handshake
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 250);
+		}
+	}
+
+	@Test
+	public void testInvalidConnect() throws Exception {
+		try (ForkServer server = new ForkServer(0).start();
+				ConnectionClientSide con = new ConnectionClientSide(
+						new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), "id-1")) {
+			con.send(Frame.control(Command.run));
+			assertEquals(Command.error, con.receive().getCommand());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testSlowHandshakeDoesNotBlock() throws Exception {
+		try (ForkServer server = new ForkServer(0).start();
+				Socket silent = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			// the silent socket never sends its handshake
+			assertTrue(silent.isConnected());
+			try (ConnectionClientSide con = connect(server.getPort(), "id-fast")) {
+				assertEquals(1, server.getConnectionCount());
+				con.send(Frame.control(Command.ping));
+				assertEquals(Command.pong, con.receive().getCommand());
+			}
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testOversizedHandshakeIsRejected() throws Exception {
+		try (ForkServer server = new ForkServer(0).start();
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			// header of a connect frame claiming 100 MB
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(100 * 1024 * 1024);
+			out.writeByte(Frame.Type.CONTROL.ordinal());
+			out.writeInt(Frame.CONNECTION);
+			out.flush();
+			try {
+				assertEquals(-1, socket.getInputStream().read());
+			} catch (SocketException e) {
+				// connection reset
+			}
+			assertEquals(0, server.getConnectionCount());
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testManyIdleConnections() throws Exception {
+		final int count = 1000;
+		try (ForkServer server = new ForkServer(0).start()) {
+			List<ConnectionClientSide> cons = new ArrayList<>();
+			try {
+				for (int i = 0; i < count; i++) {
+					cons.add(connect(server.getPort(), "id-" + i));
+				}
+				assertEquals(count, server.getConnectionCount());
 
-		try (Socket dataSocket = new Socket(InetAddress.getLocalHost(), ForkServer.DEFAULT_PORT)) {
-			dataSocket.getOutputStream().write("id-1".getBytes());
-			dataSocket.getOutputStream().flush();
+				// connections stay responsive
+				ConnectionClientSide con = cons.get(0);
+				con.send(Frame.control(Command.connectClose));
+				assertEquals(Command.connectCloseOk, con.receive().getCommand());
+			} finally {
+				for (ConnectionClientSide con : cons) {
+					con.close();
+				}
+			}
 		}
+	}
+
+	@Test(timeout = 120000)
+	public void testRemoteClassLoading() throws Exception {
+		File classes = compileTask();
+		File cacheDir = Files.createTempDirectory("gfork-cache").toFile();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() });
+				ForkServer server = new ForkServer(0, cacheDir).start()) {
+			Class<?> taskClass = loader.loadClass("remote.RemoteTask");
+			Method greet = taskClass.getMethod("greet", String.class);
+			for (int i = 0; i < 2; i++) {
+				Fork<Serializable, String> fork = new Fork<>((Serializable) taskClass.getDeclaredConstructor().newInstance(), greet, "remote");
+				fork.execute("localhost:" + server.getPort());
+				try {
+					assertEquals(0, fork.waitFor());
+					assertEquals("hello remote", fork.getReturnValue());
+					assertEquals(taskClass, fork.getTask().getClass());
+				} finally {
+					fork.disconnect();
+				}
+				// the task class, loaded by the server, and the class loaded by the child process
+				// are transferred once, the second run only exchanges their hashes
+				assertEquals(2, server.getClassStore().getAddedCount());
+			}
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testClasspathShipping() throws Exception {
+		File classes = compileTask();
+		File cacheDir = Files.createTempDirectory("gfork-cache").toFile();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() });
+				ForkServer server = new ForkServer(0, cacheDir).start()) {
+			Class<?> taskClass = loader.loadClass("remote.RemoteTask");
+			Method greet = taskClass.getMethod("greet", String.class);
+			for (int i = 0; i < 2; i++) {
+				Fork<Serializable, String> fork = new Fork<>((Serializable) taskClass.getDeclaredConstructor().newInstance(), greet, "remote");
+				fork.setClasspath(classes.getPath());
+				fork.execute("localhost:" + server.getPort());
+				try {
+					assertEquals(0, fork.waitFor());
+					assertEquals("hello remote", fork.getReturnValue());
+				} finally {
+					fork.disconnect();
+				}
+				// the directory is uploaded once as jar, no class is loaded one by one
+				assertEquals(1, server.getArtifactStore().getAddedCount());
+				assertEquals(0, server.getClassStore().getAddedCount());
+			}
+		}
+	}
+
+	@Test
+	public void testLargeJarShippedInChunks() throws Exception {
+		File classes = compileTask();
+		// stored, so the jar spans several upload chunks
+		File jar = new File(classes.getParentFile(), classes.getName() + ".jar");
+		byte[] data = new byte[3 * 1024 * 1024 + 17];
+		new Random(1).nextBytes(data);
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar))) {
+			ZipEntry entry = new ZipEntry("data.bin");
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(data.length);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			entry.setCrc(crc.getValue());
+			zip.putNextEntry(entry);
+			zip.write(data);
+			zip.closeEntry();
+		}
+		File cacheDir = Files.createTempDirectory("gfork-cache").toFile();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() });
+				ForkServer server = new ForkServer(0, cacheDir).start()) {
+			Class<?> taskClass = loader.loadClass("remote.RemoteTask");
+			Method greet = taskClass.getMethod("greet", String.class);
+			Fork<Serializable, String> fork = new Fork<>((Serializable) taskClass.getDeclaredConstructor().newInstance(), greet, "remote");
+			fork.setClasspath(classes.getPath() + File.pathSeparator + jar.getPath());
+			fork.execute("localhost:" + server.getPort());
+			try {
+				assertEquals(0, fork.waitFor());
+				assertEquals("hello remote", fork.getReturnValue());
+			} finally {
+				fork.disconnect();
+			}
+			assertEquals(2, server.getArtifactStore().getAddedCount());
+			File stored = server.getArtifactStore().getFile(ContentStore.hash(Files.readAllBytes(jar.toPath())));
+			assertTrue(Arrays.equals(Files.readAllBytes(jar.toPath()), Files.readAllBytes(stored.toPath())));
+			// no upload left behind
+			for (String name : server.getArtifactStore().getDirectory().list()) {
+				assertFalse(name, name.endsWith(".tmp"));
+			}
+		} finally {
+			jar.delete();
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testWaitingForksDontBindWorkers() throws Exception {
+		int maxRunning = ForkServer.MAX_FORKS_RUNNING;
+		int workerThreads = ForkServer.WORKER_THREADS;
+		ForkServer.MAX_FORKS_RUNNING = 4;
+		ForkServer.WORKER_THREADS = 2;
+		File classes = compileTask();
+		Method delay = Task02.class.getMethod("delay", int.class);
+		List<Fork<Task02, String>> waiting = new ArrayList<>();
+		List<CompletableFuture<Integer>> exits = new ArrayList<>();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toURI().toURL() });
+				ForkServer server = new ForkServer(0, Files.createTempDirectory("gfork-cache").toFile()).start()) {
+			String host = "localhost:" + server.getPort();
+			// more forks waiting for their end than the server has workers
+			for (int i = 0; i < 3; i++) {
+				Fork<Task02, String> fork = new Fork<Task02, String>(new Task02(), delay, 10000);
+				fork.execute(host);
+				exits.add(fork.waitForAsync());
+				waiting.add(fork);
+			}
+
+			// commands and class requests of another fork are still served
+			Class<?> taskClass = loader.loadClass("remote.RemoteTask");
+			Method greet = taskClass.getMethod("greet", String.class);
+			Fork<Serializable, String> fork = new Fork<>(
+					(Serializable) taskClass.getDeclaredConstructor().newInstance(), greet, "remote");
+			fork.execute(host);
+			assertEquals(0, fork.waitFor());
+			assertEquals("hello remote", fork.getReturnValue());
+			fork.disconnect();
+			for (CompletableFuture<Integer> exit : exits) {
+				assertFalse(exit.isDone());
+			}
+
+			for (CompletableFuture<Integer> exit : exits) {
+				assertEquals(0, (int) exit.get(60, TimeUnit.SECONDS));
+			}
+			for (Fork<Task02, String> waitingFork : waiting) {
+				waitingFork.disconnect();
+			}
+		} finally {
+			ForkServer.MAX_FORKS_RUNNING = maxRunning;
+			ForkServer.WORKER_THREADS = workerThreads;
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testAdmissionQueue() throws Exception {
+		int maxRunning = ForkServer.MAX_FORKS_RUNNING;
+		int maxQueued = ForkServer.MAX_FORKS_QUEUED;
+		ForkServer.MAX_FORKS_RUNNING = 1;
+		ForkServer.MAX_FORKS_QUEUED = 1;
+		Method delay = Task02.class.getMethod("delay", int.class);
+		List<Fork<Task02, String>> forks = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			forks.add(new Fork<Task02, String>(new Task02(), delay, 2000));
+		}
+		try (ForkServer server = new ForkServer(0, Files.createTempDirectory("gfork-cache").toFile()).start()) {
+			String host = "localhost:" + server.getPort();
+			forks.get(0).execute(host);
+			CompletableFuture<Void> queued = forks.get(1).executeAsync(host);
+			while (forks.get(1).getQueuePosition() != 1) {
+				Thread.sleep(10);
+			}
+			assertFalse(queued.isDone());
+			assertEquals(1, server.getQueuedForkCount());
+			try {
+				forks.get(2).execute(host);
+				fail("queue is full");
+			} catch (ForkRejectedException e) {
+				assertTrue(e.getRetryAfterMillis() > 0);
+			}
+
+			// started when the first fork has finished
+			assertEquals(0, forks.get(0).waitFor());
+			queued.get(30, TimeUnit.SECONDS);
+			assertEquals(0, forks.get(1).getQueuePosition());
+			assertEquals(0, forks.get(1).waitFor());
+			assertTrue(forks.get(1).getReturnValue().startsWith("delay - ok"));
+			for (Fork<Task02, String> fork : forks) {
+				fork.disconnect();
+			}
+		} finally {
+			ForkServer.MAX_FORKS_RUNNING = maxRunning;
+			ForkServer.MAX_FORKS_QUEUED = maxQueued;
+		}
+	}
+
+	/**
+	 * @return directory of task classes neither on the class path of the server nor of its
+	 *         child processes
+	 */
+	private static File compileTask() throws Exception {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(javac);
+		File classes = Files.createTempDirectory("gfork-task").toFile();
+		File source = new File(classes, "remote/RemoteTask.java");
+		source.getParentFile().mkdirs();
+		Files.write(source.toPath(), ("package remote;\n"
+				+ "public class RemoteTask implements java.io.Serializable {\n"
+				+ "  public String greet(String name) { return new Greeting(name).toString(); }\n"
+				+ "}\n"
+				+ "class Greeting {\n"
+				+ "  private final String name;\n"
+				+ "  Greeting(String name) { this.name = name; }\n"
+				+ "  public String toString() { return \"hello \" + name; }\n"
+				+ "}\n").getBytes(StandardCharsets.UTF_8));
+		assertEquals(0, javac.run(null, null, null, "-d", classes.getPath(), source.getPath()));
+		source.delete();
+		return classes;
+	}
 
-		String connectReply = con.getSocketControlScanner().nextLine();
-		assertEquals("id-1", connectReply);
-		connectReply = con.getSocketControlScanner().nextLine();
-		assertEquals(Command.connectOk.toString(), connectReply);
+	private static ConnectionClientSide connect(int port, String id) throws Exception {
+		ConnectionClientSide con = new ConnectionClientSide(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), id);
+		con.send(Frame.control(Command.connect, id));
+		Frame reply = con.receive();
+		assertEquals(Command.connectOk, reply.getCommand());
+		assertEquals(id, reply.getArgument());
+		return con;
 	}
 
 	public static Thread startLocalDefaultForkServer() {
@@ -0,0 +1,50 @@
+package org.gfork.tasks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.gfork.ForkGraph;
+import org.gfork.helpers.GraphLinkableAdapter;
+
+/**
+ * Routes lines starting with a digit to port "digits", all other lines to port "text".
+ */
+@SuppressWarnings("serial")
+public class RouterTask extends GraphLinkableAdapter implements Runnable {
+
+	public Set<String> getInputPorts() {
+		return Collections.singleton(ForkGraph.IN);
+	}
+
+	public Set<String> getOutputPorts() {
+		return new HashSet<String>(Arrays.asList("digits", "text"));
+	}
+
+	public void run() {
+		final BufferedReader in = new BufferedReader(new InputStreamReader(getInputStream(ForkGraph.IN)));
+		final PrintWriter digits = new PrintWriter(new OutputStreamWriter(getOutputStream("digits")));
+		final PrintWriter text = new PrintWriter(new OutputStreamWriter(getOutputStream("text")));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() > 0 && Character.isDigit(line.charAt(0))) {
+					digits.println(line);
+				} else {
+					text.println(line);
+				}
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		digits.close();
+		text.close();
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.gfork.tasks;
+
+import java.io.PrintWriter;
+
+import org.gfork.helpers.PipedTextTask;
+
+@SuppressWarnings("serial")
+public class StreamIndexTask extends PipedTextTask {
+
+	private transient int streamIndex = -1;
+
+	@Override
+	public void onStreamStart(int streamIndex) {
+		this.streamIndex = streamIndex;
+	}
+
+	@Override
+	public void onStreamEnd(int streamIndex) {
+		this.streamIndex = -1;
+	}
+
+	@Override
+	protected void process(final PrintWriter out, String line) {
+		super.process(out, line + "#" + streamIndex);
+	}
+
+}